@@ -16,6 +16,8 @@
 package com.effektif.adapter.activity;
 
 import com.effektif.adapter.service.Adapter;
+import com.effektif.adapter.service.AdapterLimiter;
+import com.effektif.adapter.service.AdapterLimiter.Permit;
 import com.effektif.adapter.service.AdapterService;
 import com.effektif.adapter.service.ExecuteRequest;
 import com.effektif.adapter.service.ExecuteResponse;
@@ -27,6 +29,9 @@ import com.effektif.workflow.impl.activity.ActivityDescriptor;
 import com.effektif.workflow.impl.activity.InputDescriptor;
 import com.effektif.workflow.impl.activity.types.AbstractBindableActivityImpl;
 import com.effektif.workflow.impl.data.DataTypeService;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.job.JobController;
+import com.effektif.workflow.impl.util.Time;
 import com.effektif.workflow.impl.workflow.ActivityImpl;
 import com.effektif.workflow.impl.workflow.BindingImpl;
 import com.effektif.workflow.impl.workflow.VariableImpl;
@@ -116,6 +121,77 @@ public class AdapterActivityImpl extends AbstractBindableActivityImpl<AdapterAct
 
   @Override
   public void execute(ActivityInstanceImpl activityInstance) {
+    executeAdapterActivity(activityInstance, null);
+  }
+
+  /** calls the adapter unless the adapter is over its limits or its 
+   * circuit breaker is open.  Then the activity instance is parked in 
+   * an {@link AdapterActivityJobType adapter activity job} so that no 
+   * thread blocks on a slow or failing adapter. 
+   * @param jobController null when the activity instance is executed 
+   * for the first time and the job controller when a parked activity 
+   * instance is resumed. */
+  public void executeAdapterActivity(ActivityInstanceImpl activityInstance, JobController jobController) {
+    AdapterLimiter adapterLimiter = adapterService.getAdapterLimiter(adapterId);
+    Permit permit = null;
+    if (adapterLimiter!=null) {
+      long openMillis = adapterLimiter.getOpenMillis();
+      if (openMillis>0) {
+        if (jobController!=null) {
+          // the job service retries with the back off of the job type
+          throw new RuntimeException("Circuit breaker of adapter '"+adapterId+"' is open");
+        }
+        park(activityInstance, openMillis);
+        return;
+      }
+      permit = adapterLimiter.tryAcquire();
+      if (!permit.isGranted()) {
+        long waitMillis = permit.getWaitMillis();
+        if (jobController!=null) {
+          jobController.rescheduleFor(Time.now().plusMillis((int) waitMillis));
+        } else {
+          park(activityInstance, waitMillis);
+        }
+        return;
+      }
+    }
+    
+    ExecuteResponse executeResponse = null;
+    try {
+      executeResponse = adapterService.executeAdapterActivity(adapterId, createExecuteRequest(activityInstance));
+    } finally {
+      if (permit!=null) {
+        adapterLimiter.release(permit, executeResponse!=null);
+      }
+    }
+    
+    if (executeResponse==null) {
+      if (jobController!=null) {
+        throw new RuntimeException("Adapter '"+adapterId+"' failed to execute activity '"+activityKey+"'");
+      }
+      // the job takes care of the retries
+      park(activityInstance, 0);
+      return;
+    }
+    
+    if (outputBindings!=null) {
+      Map<String, TypedValue> outputParameterValues = executeResponse.getOutputParameterValues();
+      for (String outputParameterKey: outputBindings.keySet()) {
+        String variableId = outputBindings.get(outputParameterKey);
+        TypedValue typedValue = outputParameterValues.get(outputParameterKey);
+//        DataTypeImpl dataType = outputParameterDataTypes.get(outputParameterKey);
+        if(typedValue != null)
+          activityInstance.setVariableValue(variableId, typedValue.getValue());
+        else log.warn("Variable type not defined for variable " + variableId);
+      }
+    }
+
+    if (executeResponse != null && executeResponse.isOnwards()) {
+      activityInstance.onwards();
+    }
+  }
+
+  protected ExecuteRequest createExecuteRequest(ActivityInstanceImpl activityInstance) {
     ExecuteRequest executeRequest = new ExecuteRequest()
       .activityInstanceId(activityInstance.id)
       .workflowInstanceId(activityInstance.workflowInstance.id)
@@ -140,24 +216,17 @@ public class AdapterActivityImpl extends AbstractBindableActivityImpl<AdapterAct
         }
       }
     }
-    
-    ExecuteResponse executeResponse = adapterService.executeAdapterActivity(adapterId, executeRequest);
-    
-    if (outputBindings!=null) {
-      Map<String, TypedValue> outputParameterValues = executeResponse.getOutputParameterValues();
-      for (String outputParameterKey: outputBindings.keySet()) {
-        String variableId = outputBindings.get(outputParameterKey);
-        TypedValue typedValue = outputParameterValues.get(outputParameterKey);
-//        DataTypeImpl dataType = outputParameterDataTypes.get(outputParameterKey);
-        if(typedValue != null)
-          activityInstance.setVariableValue(variableId, typedValue.getValue());
-        else log.warn("Variable type not defined for variable " + variableId);
-      }
-    }
+    return executeRequest;
+  }
 
-    if (executeResponse != null && executeResponse.isOnwards()) {
-      activityInstance.onwards();
-    }
+  /** adds a job to the workflow instance that executes 
+   * the activity instance after the given delay */
+  protected void park(ActivityInstanceImpl activityInstance, long delayMillis) {
+    Job job = new Job()
+      .jobType(new AdapterActivityJobType())
+      .activityInstance(activityInstance)
+      .dueDate(Time.now().plusMillis((int) delayMillis));
+    activityInstance.workflowInstance.addJob(job);
   }
 
   protected boolean isList(String adapterKey) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.adapter.activity;
+
+import com.effektif.workflow.api.json.TypeName;
+import com.effektif.workflow.api.model.SnapshotDetail;
+import com.effektif.workflow.impl.job.AbstractJobType;
+import com.effektif.workflow.impl.job.JobController;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/**
+ * Resumes an adapter activity that was parked because its adapter 
+ * was over its limits or its circuit breaker was open.
+ * 
+ * @see AdapterActivityImpl#executeAdapterActivity(ActivityInstanceImpl, JobController)
+ * @author Tom Baeyens
+ */
+@TypeName("adapterActivity")
+public class AdapterActivityJobType extends AbstractJobType {
+
+  @Override
+  public void execute(JobController jobController) {
+    WorkflowInstanceImpl workflowInstance = jobController.getWorkflowInstance();
+    ActivityInstanceImpl activityInstance = workflowInstance.findActivityInstance(jobController.getJob().getActivityInstanceId());
+    if (activityInstance!=null && !activityInstance.isEnded()) {
+      AdapterActivityImpl adapterActivity = (AdapterActivityImpl) activityInstance.activity.activityType;
+      adapterActivity.executeAdapterActivity(activityInstance, jobController);
+      workflowInstance.executeWork(SnapshotDetail.none);
+    }
+  }
+}
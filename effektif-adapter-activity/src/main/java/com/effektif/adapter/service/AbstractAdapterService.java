@@ -36,6 +36,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public abstract class AbstractAdapterService implements AdapterService, Brewable {
@@ -44,6 +46,11 @@ public abstract class AbstractAdapterService implements AdapterService, Brewable
   
   protected DataTypeService dataTypeService;
   protected JsonStreamMapper jsonMapper;
+  protected Map<String,AdapterLimiter> adapterLimiters = new ConcurrentHashMap<>();
+
+  // circuit breaker configuration for all adapters
+  public int circuitBreakerFailureThreshold = 5;
+  public long circuitBreakerOpenPeriodMillis = 30 * 1000;
   
   @Override
   public void brew(Brewery brewery) {
@@ -113,6 +120,11 @@ public abstract class AbstractAdapterService implements AdapterService, Brewable
         
         AdapterLog adapterLog = new AdapterLog(executeRequest, executeResponse);
         updateAdapterExecution(adapterStatus, adapterLog);
+        
+        if (adapterStatus==AdapterStatus.ERROR) {
+          // an error body is not a result, the caller retries and counts the failure
+          return null;
+        }
 
       } catch (IOException e) {
         log.error("Problem while connecting to adapter: "+e.getMessage(), e);
@@ -164,6 +176,27 @@ public abstract class AbstractAdapterService implements AdapterService, Brewable
   }
 
 
+  @Override
+  public AdapterLimiter getAdapterLimiter(String adapterId) {
+    Adapter adapter = adapterId!=null ? findAdapterById(adapterId) : null;
+    if (adapter==null) {
+      return null;
+    }
+    AdapterLimiter adapterLimiter = adapterLimiters.get(adapterId);
+    if (adapterLimiter==null) {
+      adapterLimiter = new AdapterLimiter();
+      adapterLimiter.setFailureThreshold(circuitBreakerFailureThreshold);
+      adapterLimiter.setOpenPeriodMillis(circuitBreakerOpenPeriodMillis);
+      AdapterLimiter existing = adapterLimiters.putIfAbsent(adapterId, adapterLimiter);
+      if (existing!=null) {
+        adapterLimiter = existing;
+      }
+    }
+    // the adapter configuration can change after the limiter is created
+    adapterLimiter.configure(adapter.maxConcurrentExecutions, adapter.maxExecutionsPerSecond);
+    return adapterLimiter;
+  }
+
   public void updateAdapterExecution(AdapterStatus adapterStatus, AdapterLog adapterLog) {
     // TODO
   }
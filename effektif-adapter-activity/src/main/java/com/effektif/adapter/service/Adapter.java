@@ -35,6 +35,10 @@ public class Adapter {
   protected String organizationId;
   protected Map<String,ActivityDescriptor> activityDescriptors;
   protected Map<String,DataSourceDescriptor> dataSourceDescriptors;
+  /** null means no limit */
+  protected Integer maxConcurrentExecutions;
+  /** null means no limit */
+  protected Double maxExecutionsPerSecond;
 
   // runtime status fields
   protected AdapterStatus status;
@@ -99,6 +103,32 @@ public class Adapter {
     return this;
   }
 
+  public Integer getMaxConcurrentExecutions() {
+    return this.maxConcurrentExecutions;
+  }
+  public void setMaxConcurrentExecutions(Integer maxConcurrentExecutions) {
+    this.maxConcurrentExecutions = maxConcurrentExecutions;
+  }
+  /** the max number of activity executions that call this 
+   * adapter at the same time.  Other executions wait in a job. */
+  public Adapter maxConcurrentExecutions(Integer maxConcurrentExecutions) {
+    this.maxConcurrentExecutions = maxConcurrentExecutions;
+    return this;
+  }
+
+  public Double getMaxExecutionsPerSecond() {
+    return this.maxExecutionsPerSecond;
+  }
+  public void setMaxExecutionsPerSecond(Double maxExecutionsPerSecond) {
+    this.maxExecutionsPerSecond = maxExecutionsPerSecond;
+  }
+  /** the max rate of activity executions that call this adapter.  
+   * Executions above the rate wait in a job. */
+  public Adapter maxExecutionsPerSecond(Double maxExecutionsPerSecond) {
+    this.maxExecutionsPerSecond = maxExecutionsPerSecond;
+    return this;
+  }
+
   public AdapterStatus getStatus() {
     return this.status;
   }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.adapter.service;
+
+import com.effektif.workflow.impl.util.Time;
+
+
+/**
+ * Protects one adapter against floods of activity executions.
+ * 
+ * <p>A concurrency cap limits the number of executions that call 
+ * the adapter at the same time and a token bucket limits the 
+ * number of executions per second.  The circuit breaker opens 
+ * after a number of consecutive failures.  While it's open, no 
+ * executions are let through.  After the open period, one trial 
+ * execution is let through and its outcome closes or reopens 
+ * the circuit.  The trial is tracked by its {@link Permit} so that 
+ * executions that were started before the circuit opened can't 
+ * end the trial.</p>
+ * 
+ * <p>The limiter never blocks.  It tells the caller how long to 
+ * wait so that the caller can park the execution.</p>
+ *
+ * @author Tom Baeyens
+ */
+public class AdapterLimiter {
+
+  // configuration
+  protected Integer maxConcurrentExecutions;
+  protected Double maxExecutionsPerSecond;
+  protected int failureThreshold = 5;
+  /** how long the circuit stays open */
+  protected long openPeriodMillis = 30 * 1000;
+  /** how long executions wait when all concurrent executions are taken */
+  protected long retryMillis = 1000;
+
+  // runtime state
+  protected int runningExecutions;
+  protected double tokens = -1;
+  protected long lastRefill;
+  protected int consecutiveFailures;
+  /** 0 when the circuit is closed */
+  protected long openUntil;
+  /** the permit of the trial execution while the circuit is half open */
+  protected Permit trialPermit;
+
+  public synchronized void configure(Integer maxConcurrentExecutions, Double maxExecutionsPerSecond) {
+    this.maxConcurrentExecutions = maxConcurrentExecutions;
+    this.maxExecutionsPerSecond = maxExecutionsPerSecond;
+  }
+
+  /** the millis till the circuit breaker lets a trial 
+   * execution through or 0 if the circuit is not open. */
+  public synchronized long getOpenMillis() {
+    if (openUntil!=0) {
+      long now = now();
+      if (now<openUntil) {
+        return openUntil-now;
+      }
+    }
+    return 0;
+  }
+
+  /** reserves an execution.  If the limits are reached, the returned 
+   * permit is not {@link Permit#isGranted() granted} and tells the 
+   * millis to wait before trying again.  Each granted permit has to 
+   * be {@link #release(Permit, boolean) released}. */
+  public synchronized Permit tryAcquire() {
+    long now = now();
+    if (openUntil!=0) {
+      if (now<openUntil) {
+        return new Permit(openUntil-now, false);
+      }
+      // half open: only one trial execution
+      if (trialPermit!=null) {
+        return new Permit(retryMillis, false);
+      }
+    }
+    if (maxConcurrentExecutions!=null && runningExecutions>=maxConcurrentExecutions) {
+      return new Permit(retryMillis, false);
+    }
+    if (maxExecutionsPerSecond!=null && maxExecutionsPerSecond>0) {
+      double capacity = Math.max(1, maxExecutionsPerSecond);
+      if (tokens<0) {
+        tokens = capacity;
+      } else {
+        tokens = Math.min(capacity, tokens + (now-lastRefill)*maxExecutionsPerSecond/1000);
+      }
+      lastRefill = now;
+      if (tokens<1) {
+        return new Permit((long) Math.ceil((1-tokens)*1000/maxExecutionsPerSecond), false);
+      }
+      tokens--;
+    }
+    Permit permit = new Permit(0, openUntil!=0);
+    if (permit.isTrial) {
+      trialPermit = permit;
+    }
+    runningExecutions++;
+    return permit;
+  }
+
+  /** frees the reservation and updates the circuit breaker 
+   * with the outcome of the execution.  While the circuit is 
+   * open, only the outcome of the trial execution counts. */
+  public synchronized void release(Permit permit, boolean success) {
+    if (!permit.isGranted() || permit.isReleased) {
+      throw new IllegalArgumentException("Permit is not held");
+    }
+    permit.isReleased = true;
+    runningExecutions--;
+    if (success) {
+      consecutiveFailures = 0;
+    } else {
+      consecutiveFailures++;
+    }
+    if (permit==trialPermit) {
+      trialPermit = null;
+      openUntil = success ? 0 : now()+openPeriodMillis;
+    } else if (openUntil==0 && consecutiveFailures>=failureThreshold) {
+      openUntil = now()+openPeriodMillis;
+    }
+  }
+
+  public synchronized int getRunningExecutions() {
+    return runningExecutions;
+  }
+
+  public synchronized boolean isOpen() {
+    return openUntil!=0;
+  }
+
+  public synchronized boolean isTrialRunning() {
+    return trialPermit!=null;
+  }
+
+  protected long now() {
+    return Time.now().toDate().getTime();
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+  public void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  public long getOpenPeriodMillis() {
+    return openPeriodMillis;
+  }
+  public void setOpenPeriodMillis(long openPeriodMillis) {
+    this.openPeriodMillis = openPeriodMillis;
+  }
+
+  public long getRetryMillis() {
+    return retryMillis;
+  }
+  public void setRetryMillis(long retryMillis) {
+    this.retryMillis = retryMillis;
+  }
+
+  /** the outcome of {@link AdapterLimiter#tryAcquire()} */
+  public static class Permit {
+
+    protected long waitMillis;
+    protected boolean isTrial;
+    protected boolean isReleased;
+
+    protected Permit(long waitMillis, boolean isTrial) {
+      this.waitMillis = waitMillis;
+      this.isTrial = isTrial;
+    }
+
+    /** true if the execution can call the adapter */
+    public boolean isGranted() {
+      return waitMillis==0;
+    }
+
+    /** the millis to wait before trying again if the permit is not granted */
+    public long getWaitMillis() {
+      return waitMillis;
+    }
+
+    /** true if this is the trial execution of a half open circuit */
+    public boolean isTrial() {
+      return isTrial;
+    }
+  }
+}
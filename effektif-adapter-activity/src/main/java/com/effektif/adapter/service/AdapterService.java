@@ -28,6 +28,11 @@ public interface AdapterService {
   void deleteAdapters(AdapterQuery adapterQuery);
 
   Adapter refreshAdapter(String adapterId);
+  /** @return null if the adapter couldn't be reached or didn't answer with a result */
   ExecuteResponse executeAdapterActivity(String adapterId, ExecuteRequest executeRequest);
   List<ItemReference> findItems(String adapterId, FindItemsRequest findItemsRequest);
+
+  /** the limiter that throttles the activity executions of the given 
+   * adapter or null if the adapter doesn't exist */
+  AdapterLimiter getAdapterLimiter(String adapterId);
 }
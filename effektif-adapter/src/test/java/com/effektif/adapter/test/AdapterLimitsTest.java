@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.adapter.test;
+
+import static org.junit.Assert.*;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.effektif.adapter.activity.AdapterActivity;
+import com.effektif.adapter.service.Adapter;
+import com.effektif.adapter.service.AdapterLimiter;
+import com.effektif.adapter.service.AdapterLimiter.Permit;
+import com.effektif.adapter.service.ExecuteRequest;
+import com.effektif.adapter.service.ExecuteResponse;
+import com.effektif.adapter.service.MemoryAdapterService;
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.memory.TestConfiguration;
+import com.effektif.workflow.impl.util.Time;
+
+
+/**
+ * Checks that adapter activities over the adapter's limits 
+ * are parked in a job instead of calling the adapter.
+ */
+public class AdapterLimitsTest {
+
+  TestConfiguration configuration;
+  TestAdapterService adapterService;
+  WorkflowEngine workflowEngine;
+  LocalDateTime now;
+
+  public static class TestAdapterService extends MemoryAdapterService {
+    int executions = 0;
+    boolean isFailing = false;
+    @Override
+    public ExecuteResponse executeAdapterActivity(String adapterId, ExecuteRequest executeRequest) {
+      executions++;
+      if (isFailing) {
+        return null;
+      }
+      ExecuteResponse executeResponse = new ExecuteResponse();
+      executeResponse.setOnwards(true);
+      return executeResponse;
+    }
+  }
+
+  @Before
+  public void before() {
+    now = new LocalDateTime();
+    Time.now = now;
+    adapterService = new TestAdapterService();
+    adapterService.circuitBreakerFailureThreshold = 2;
+    adapterService.circuitBreakerOpenPeriodMillis = 30 * 1000;
+    configuration = new TestConfiguration();
+    configuration.registerIngredient(adapterService);
+    // this prevents the job service from starting any threads
+    ((JobServiceImpl)configuration.get(JobService.class)).isRunning = true;
+    configuration.start();
+    workflowEngine = configuration.getWorkflowEngine();
+  }
+
+  @After
+  public void after() {
+    Time.now = null;
+    configuration.stop();
+  }
+
+  @Test
+  public void testRateLimit() {
+    WorkflowId workflowId = deployWorkflow(new Adapter()
+      .maxExecutionsPerSecond(1d));
+
+    assertTrue(start(workflowId).isEnded());
+    WorkflowInstance parked = start(workflowId);
+    assertFalse(parked.isEnded());
+    assertEquals(1, adapterService.executions);
+
+    checkWorkflowInstanceJobs();
+    assertEquals(1, adapterService.executions);
+
+    Time.now = now.plusSeconds(2);
+    checkWorkflowInstanceJobs();
+    assertEquals(2, adapterService.executions);
+    assertTrue(find(parked).isEnded());
+  }
+
+  @Test
+  public void testCircuitBreaker() {
+    WorkflowId workflowId = deployWorkflow(new Adapter());
+
+    adapterService.isFailing = true;
+    assertFalse(start(workflowId).isEnded());
+    assertFalse(start(workflowId).isEnded());
+    assertEquals(2, adapterService.executions);
+
+    // the circuit is open so the adapter isn't called
+    WorkflowInstance parked = start(workflowId);
+    assertFalse(parked.isEnded());
+    assertEquals(2, adapterService.executions);
+
+    adapterService.isFailing = false;
+    Time.now = now.plusMinutes(1);
+    checkWorkflowInstanceJobs();
+    assertEquals(5, adapterService.executions);
+    assertEquals(3, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()).size());
+    assertTrue(find(parked).isEnded());
+  }
+
+  @Test
+  public void testPermitFromBeforeTheCircuitOpened() {
+    AdapterLimiter adapterLimiter = new AdapterLimiter();
+    adapterLimiter.setFailureThreshold(2);
+    Permit earlyPermit = adapterLimiter.tryAcquire();
+    adapterLimiter.release(adapterLimiter.tryAcquire(), false);
+    adapterLimiter.release(adapterLimiter.tryAcquire(), false);
+    assertTrue(adapterLimiter.isOpen());
+
+    Time.now = now.plusMinutes(1);
+    Permit trialPermit = adapterLimiter.tryAcquire();
+    assertTrue(trialPermit.isTrial());
+
+    // the early permit is not the trial and doesn't end the half open state
+    adapterLimiter.release(earlyPermit, true);
+    assertTrue(adapterLimiter.isTrialRunning());
+    assertFalse(adapterLimiter.tryAcquire().isGranted());
+
+    adapterLimiter.release(trialPermit, true);
+    assertFalse(adapterLimiter.isOpen());
+    assertTrue(adapterLimiter.tryAcquire().isGranted());
+  }
+
+  WorkflowId deployWorkflow(Adapter adapter) {
+    adapterService.saveAdapter(adapter);
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("call", new AdapterActivity()
+        .adapterId(adapter.getId())
+        .activityKey("call"));
+    return workflowEngine.deployWorkflow(workflow).checkNoErrors().getWorkflowId();
+  }
+
+  WorkflowInstance start(WorkflowId workflowId) {
+    return workflowEngine.start(new TriggerInstance().workflowId(workflowId));
+  }
+
+  WorkflowInstance find(WorkflowInstance workflowInstance) {
+    return workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(workflowInstance.getId())).get(0);
+  }
+
+  void checkWorkflowInstanceJobs() {
+    ((JobServiceImpl)configuration.get(JobService.class)).checkWorkflowInstanceJobs();
+  }
+}
@@ -28,6 +28,7 @@ public enum Command {
   COMPLETE(new CompleteCommand()),
   DEPLOY(new DeployCommand()),
   HELP(new HelpCommand()),
+  LOAD(new LoadCommand()),
   QUIT(new QuitCommand()),
   START(new StartCommand()),
   TASK(new TaskCommand()),
@@ -31,6 +31,7 @@ public class HelpCommand implements CommandImpl {
     out.println("Commands:");
     out.println("  complete [ID]   Completes a task (task ID)");
     out.println("  help            List commands");
+    out.println("  load [OPTIONS]  Generate load, e.g. load instances=1000 concurrency=8 rate=200");
     out.println("  start [ID]      Start a workflow (workflow ID)");
     out.println("  tasks           List open tasks for all workflows");
     out.println("  task [ID]       Show task details (task ID)");
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.command;
+
+import java.io.PrintWriter;
+
+import com.effektif.example.cli.load.LoadGenerator;
+import com.effektif.example.cli.load.LoadOptions;
+import com.effektif.workflow.api.Configuration;
+
+/**
+ * Generates load on the running workflow engine and reports throughput and latency percentiles.
+ */
+public class LoadCommand implements CommandImpl {
+
+  @Override
+  public void execute(CommandLine command, Configuration configuration, PrintWriter out) {
+    final LoadOptions options = LoadOptions.parse(command.getArgument().split("\\s+"));
+    new LoadGenerator(configuration, options).run().print(out);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A thread safe latency histogram with log-linear buckets in the spirit
+ * of HdrHistogram: values are recorded in microseconds with 64 sub buckets
+ * per power of two, which keeps the relative error of the percentiles
+ * below 1.6% at a fixed memory footprint.
+ */
+public class LatencyHistogram {
+
+  static final int SUB_BUCKET_BITS = 6;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  /** values below this limit each get their own bucket */
+  static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+  static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+  protected final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  protected final AtomicLong count = new AtomicLong();
+  protected final AtomicLong total = new AtomicLong();
+  protected final AtomicLong max = new AtomicLong();
+
+  public void recordNanos(long nanos) {
+    record(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  /** records a latency in microseconds */
+  public void record(long micros) {
+    long value = Math.max(0, micros);
+    counts.incrementAndGet(bucketIndex(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    long currentMax = max.get();
+    while (value>currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n!=0 ? (double) total.get() / n : 0;
+  }
+
+  /** the value in microseconds below which the given percentage (0-100) of the recorded values fall. */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n==0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100d * n));
+    long cumulative = 0;
+    for (int i=0; i<BUCKET_COUNT; i++) {
+      cumulative += counts.get(i);
+      if (cumulative>=rank) {
+        return Math.min(highestEquivalentValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int bucketIndex(long value) {
+    if (value<LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index<LINEAR_LIMIT) {
+      return index;
+    }
+    int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+    long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.load;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.effektif.mongo.MongoConfiguration;
+import com.effektif.workflow.api.Configuration;
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.workflowinstance.ActivityInstance;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.memory.MemoryConfiguration;
+
+
+/**
+ * Measures end-to-end throughput and latency of a workflow engine configuration.
+ *
+ * <p>Deploys a {@link LoadWorkflow}, starts the configured number of instances
+ * from a pool of client threads at the configured arrival rate and completes
+ * their receive tasks with messages.  Latencies are measured from the scheduled
+ * arrival time so that a saturated engine shows up in the percentiles instead of
+ * silently lowering the arrival rate.  Instances that wait for timers are polled
+ * till they end.</p>
+ *
+ * <p>Run it with e.g. <code>store=mongo instances=10000 concurrency=16 rate=500</code>
+ * as arguments, see {@link LoadOptions} for all options.</p>
+ */
+public class LoadGenerator {
+
+  protected final Configuration configuration;
+  protected final LoadOptions options;
+  protected WorkflowEngine workflowEngine;
+  protected WorkflowId workflowId;
+
+  public LoadGenerator(Configuration configuration, LoadOptions options) {
+    this.configuration = configuration;
+    this.options = options;
+  }
+
+  public static void main(String[] args) {
+    LoadOptions options = LoadOptions.parse(args);
+    Configuration configuration = createConfiguration(options);
+    configuration.start();
+    try {
+      new LoadGenerator(configuration, options)
+        .run()
+        .print(new PrintWriter(System.out));
+    } finally {
+      configuration.stop();
+    }
+  }
+
+  public static Configuration createConfiguration(LoadOptions options) {
+    if ("memory".equals(options.store)) {
+      return new MemoryConfiguration();
+    }
+    if ("mongo".equals(options.store)) {
+      return new MongoConfiguration()
+        .server(options.mongoHost, options.mongoPort)
+        .databaseName(options.mongoDatabase);
+    }
+    throw new IllegalArgumentException("Unknown store: " + options.store + " (expected memory or mongo)");
+  }
+
+  /**
+   * Deploys the load workflow, executes the warmup instances and
+   * then returns the report of the measured instances.
+   */
+  public LoadReport run() {
+    workflowEngine = configuration.getWorkflowEngine();
+    WorkflowId subWorkflowId = null;
+    if (options.subprocesses>0) {
+      subWorkflowId = workflowEngine
+        .deployWorkflow(LoadWorkflow.subWorkflow())
+        .checkNoErrorsAndNoWarnings()
+        .getWorkflowId();
+    }
+    workflowId = workflowEngine
+      .deployWorkflow(LoadWorkflow.workflow(options, subWorkflowId))
+      .checkNoErrors()
+      .getWorkflowId();
+
+    if (options.warmup>0) {
+      execute(new LoadReport(options), options.warmup);
+    }
+    LoadReport report = new LoadReport(options);
+    execute(report, options.instances);
+    return report;
+  }
+
+  protected void execute(final LoadReport report, final int instanceCount) {
+    final long startNanos = System.nanoTime();
+    final long intervalNanos = options.rate>0 ? (long) (TimeUnit.SECONDS.toNanos(1) / options.rate) : 0;
+    final AtomicInteger next = new AtomicInteger();
+    final Queue<WaitingInstance> waitingInstances = new ConcurrentLinkedQueue<>();
+
+    ExecutorService clients = Executors.newFixedThreadPool(Math.max(1, options.concurrency));
+    for (int i=0; i<Math.max(1, options.concurrency); i++) {
+      clients.execute(new Runnable() {
+        @Override
+        public void run() {
+          int index = next.getAndIncrement();
+          while (index<instanceCount) {
+            long scheduled = System.nanoTime();
+            if (intervalNanos>0) {
+              scheduled = startNanos + index * intervalNanos;
+              sleepUntil(scheduled);
+            }
+            executeInstance(report, scheduled, waitingInstances);
+            index = next.getAndIncrement();
+          }
+        }
+      });
+    }
+    clients.shutdown();
+    try {
+      clients.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      clients.shutdownNow();
+    }
+    report.driveNanos = System.nanoTime() - startNanos;
+
+    drain(report, waitingInstances);
+    report.elapsedNanos = System.nanoTime() - startNanos;
+  }
+
+  protected void executeInstance(LoadReport report, long scheduled, Queue<WaitingInstance> waitingInstances) {
+    try {
+      long amount = ThreadLocalRandom.current().nextLong(2 * LoadWorkflow.THRESHOLD);
+      WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+        .workflowId(workflowId)
+        .data(LoadWorkflow.AMOUNT, amount));
+      report.starts.recordNanos(System.nanoTime() - scheduled);
+
+      for (int i=0; i<options.tasks; i++) {
+        ActivityInstance task = workflowInstance.findOpenActivityInstance(LoadWorkflow.taskId(i));
+        if (task==null) {
+          throw new RuntimeException("Task " + LoadWorkflow.taskId(i) + " is not open in workflow instance " + workflowInstance.getId());
+        }
+        long sent = System.nanoTime();
+        workflowInstance = workflowEngine.send(new Message()
+          .workflowInstanceId(workflowInstance.getId())
+          .activityInstanceId(task.getId()));
+        report.messages.recordNanos(System.nanoTime() - sent);
+      }
+
+      if (workflowInstance.isEnded()) {
+        report.instances.recordNanos(System.nanoTime() - scheduled);
+      } else {
+        waitingInstances.add(new WaitingInstance(workflowInstance.getId(), scheduled));
+      }
+    } catch (RuntimeException e) {
+      report.error(e);
+    }
+  }
+
+  /**
+   * Waits for the instances that are not ended after their last message,
+   * which are the instances with timers.  The timers are checked here
+   * so that the run doesn't depend on the check interval of the job service.
+   */
+  protected void drain(LoadReport report, Queue<WaitingInstance> waitingInstances) {
+    JobServiceImpl jobService = (JobServiceImpl) configuration.get(JobService.class);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainSeconds);
+    while (!waitingInstances.isEmpty() && System.nanoTime()<deadline) {
+      jobService.checkWorkflowInstanceJobs();
+      Iterator<WaitingInstance> iterator = waitingInstances.iterator();
+      while (iterator.hasNext()) {
+        WaitingInstance waitingInstance = iterator.next();
+        List<WorkflowInstance> workflowInstances = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+          .workflowInstanceId(waitingInstance.workflowInstanceId));
+        if (workflowInstances.isEmpty() || workflowInstances.get(0).isEnded()) {
+          report.instances.recordNanos(System.nanoTime() - waitingInstance.scheduled);
+          iterator.remove();
+        }
+      }
+      sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    report.unfinished = waitingInstances.size();
+  }
+
+  static void sleepUntil(long nanos) {
+    long remaining = nanos - System.nanoTime();
+    while (remaining>0 && !Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(remaining);
+      remaining = nanos - System.nanoTime();
+    }
+  }
+
+  static class WaitingInstance {
+    final WorkflowInstanceId workflowInstanceId;
+    final long scheduled;
+    WaitingInstance(WorkflowInstanceId workflowInstanceId, long scheduled) {
+      this.workflowInstanceId = workflowInstanceId;
+      this.scheduled = scheduled;
+    }
+  }
+}
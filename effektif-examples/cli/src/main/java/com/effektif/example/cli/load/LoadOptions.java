@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.load;
+
+/**
+ * Parameters of a {@link LoadGenerator} run, parsed from <code>key=value</code> arguments.
+ */
+public class LoadOptions {
+
+  /** <code>memory</code> or <code>mongo</code>, only used when the load generator creates the configuration. */
+  public String store = "memory";
+  public String mongoHost = "localhost";
+  public int mongoPort = 27017;
+  public String mongoDatabase = "effektif-load";
+
+  /** number of measured workflow instances */
+  public int instances = 1000;
+  /** number of instances that are executed before measuring, to warm up the JVM */
+  public int warmup = 100;
+  /** number of threads that start instances and send messages */
+  public int concurrency = 8;
+  /** arrival rate in instance starts per second, 0 starts the next instance as soon as a thread is free */
+  public double rate = 0;
+
+  /** number of receive tasks in the workflow, each completed with a message */
+  public int tasks = 3;
+  /** number of exclusive gateways in the workflow */
+  public int gateways = 1;
+  /** number of sub processes in the workflow */
+  public int subprocesses = 0;
+  /** number of receive tasks that are ended by a timer */
+  public int timers = 0;
+  public int timerSeconds = 1;
+  /** max time to wait for the timers to end the remaining instances */
+  public int drainSeconds = 60;
+
+  public LoadOptions store(String store) {
+    this.store = store;
+    return this;
+  }
+  public LoadOptions instances(int instances) {
+    this.instances = instances;
+    return this;
+  }
+  public LoadOptions warmup(int warmup) {
+    this.warmup = warmup;
+    return this;
+  }
+  public LoadOptions concurrency(int concurrency) {
+    this.concurrency = concurrency;
+    return this;
+  }
+  public LoadOptions rate(double rate) {
+    this.rate = rate;
+    return this;
+  }
+  public LoadOptions tasks(int tasks) {
+    this.tasks = tasks;
+    return this;
+  }
+  public LoadOptions gateways(int gateways) {
+    this.gateways = gateways;
+    return this;
+  }
+  public LoadOptions subprocesses(int subprocesses) {
+    this.subprocesses = subprocesses;
+    return this;
+  }
+  public LoadOptions timers(int timers) {
+    this.timers = timers;
+    return this;
+  }
+  public LoadOptions timerSeconds(int timerSeconds) {
+    this.timerSeconds = timerSeconds;
+    return this;
+  }
+
+  /**
+   * Parses arguments like <code>instances=500 rate=100</code>, an optional leading <code>--</code> is ignored.
+   */
+  public static LoadOptions parse(String... arguments) {
+    LoadOptions options = new LoadOptions();
+    for (String argument: arguments) {
+      if (argument==null || argument.trim().isEmpty()) {
+        continue;
+      }
+      String option = argument.trim();
+      if (option.startsWith("--")) {
+        option = option.substring(2);
+      }
+      int separator = option.indexOf('=');
+      if (separator<=0) {
+        throw new IllegalArgumentException("Expected key=value but was: " + argument);
+      }
+      options.set(option.substring(0, separator), option.substring(separator+1));
+    }
+    return options;
+  }
+
+  protected void set(String key, String value) {
+    try {
+      switch (key) {
+        case "store": store = value; break;
+        case "mongoHost": mongoHost = value; break;
+        case "mongoPort": mongoPort = Integer.parseInt(value); break;
+        case "mongoDatabase": mongoDatabase = value; break;
+        case "instances": instances = Integer.parseInt(value); break;
+        case "warmup": warmup = Integer.parseInt(value); break;
+        case "concurrency": concurrency = Integer.parseInt(value); break;
+        case "rate": rate = Double.parseDouble(value); break;
+        case "tasks": tasks = Integer.parseInt(value); break;
+        case "gateways": gateways = Integer.parseInt(value); break;
+        case "subprocesses": subprocesses = Integer.parseInt(value); break;
+        case "timers": timers = Integer.parseInt(value); break;
+        case "timerSeconds": timerSeconds = Integer.parseInt(value); break;
+        case "drainSeconds": drainSeconds = Integer.parseInt(value); break;
+        default: throw new IllegalArgumentException("Unknown load option: " + key);
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "instances=" + instances
+      + " warmup=" + warmup
+      + " concurrency=" + concurrency
+      + " rate=" + (rate>0 ? rate + "/s" : "max")
+      + " tasks=" + tasks
+      + " gateways=" + gateways
+      + " subprocesses=" + subprocesses
+      + " timers=" + timers;
+  }
+}
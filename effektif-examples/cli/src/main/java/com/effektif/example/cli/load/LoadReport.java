@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.load;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Throughput and latency percentiles of a {@link LoadGenerator} run.
+ */
+public class LoadReport {
+
+  public final LoadOptions options;
+  /** from the scheduled arrival till the start call returned, so that queueing at the clients is included */
+  public final LatencyHistogram starts = new LatencyHistogram();
+  public final LatencyHistogram messages = new LatencyHistogram();
+  /** from the scheduled arrival till the instance ended */
+  public final LatencyHistogram instances = new LatencyHistogram();
+  public final AtomicLong errors = new AtomicLong();
+  public volatile RuntimeException firstError;
+  public long unfinished;
+  public long driveNanos;
+  public long elapsedNanos;
+
+  public LoadReport(LoadOptions options) {
+    this.options = options;
+  }
+
+  public void error(RuntimeException e) {
+    if (errors.getAndIncrement()==0) {
+      firstError = e;
+    }
+  }
+
+  public long getStarted() {
+    return starts.getCount();
+  }
+
+  public long getEnded() {
+    return instances.getCount();
+  }
+
+  public void print(PrintWriter out) {
+    out.println("Load " + options);
+    out.println(String.format("Elapsed %.3f s, %d started, %d ended, %d unfinished, %d errors",
+      seconds(elapsedNanos), getStarted(), getEnded(), unfinished, errors.get()));
+    out.println(String.format("Throughput %.1f instances/s, %.1f messages/s",
+      perSecond(getEnded(), elapsedNanos), perSecond(messages.getCount(), driveNanos)));
+    out.println(String.format("%-10s %8s %10s %10s %10s %10s %10s %10s",
+      "(ms)", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+    printLatencies(out, "start", starts);
+    printLatencies(out, "message", messages);
+    printLatencies(out, "instance", instances);
+    if (firstError!=null) {
+      out.println("First error: " + firstError);
+    }
+    out.println();
+    out.flush();
+  }
+
+  protected void printLatencies(PrintWriter out, String name, LatencyHistogram histogram) {
+    out.println(String.format("%-10s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f",
+      name,
+      histogram.getCount(),
+      histogram.getMean() / 1000d,
+      histogram.getPercentile(50) / 1000d,
+      histogram.getPercentile(90) / 1000d,
+      histogram.getPercentile(99) / 1000d,
+      histogram.getPercentile(99.9) / 1000d,
+      histogram.getMax() / 1000d));
+  }
+
+  static double seconds(long nanos) {
+    return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+  }
+
+  static double perSecond(long count, long nanos) {
+    return nanos>0 ? count / seconds(nanos) : 0;
+  }
+}
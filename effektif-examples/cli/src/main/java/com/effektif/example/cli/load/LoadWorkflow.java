@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.effektif.workflow.api.activities.EndEvent;
+import com.effektif.workflow.api.activities.ExclusiveGateway;
+import com.effektif.workflow.api.activities.NoneTask;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.activities.StartEvent;
+import com.effektif.workflow.api.activities.SubProcess;
+import com.effektif.workflow.api.condition.LessThan;
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.types.NumberType;
+import com.effektif.workflow.api.workflow.BoundaryEvent;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflow.Transition;
+import com.effektif.workflow.impl.workflow.boundary.BoundaryEventTimer;
+
+
+/**
+ * Builds the workflow that is used to generate load, a chain of
+ * sub processes, exclusive gateways, receive tasks and timers.
+ *
+ * <p>The activities are named <code>call0</code>, <code>gateway0</code>,
+ * <code>task0</code>, <code>timer0</code>, … so that the load generator
+ * can find the receive tasks that it has to complete.</p>
+ */
+public class LoadWorkflow {
+
+  public static final String SOURCE_WORKFLOW_ID = "load";
+  public static final String SUB_WORKFLOW_SOURCE_ID = "load-sub";
+  public static final String AMOUNT = "amount";
+  /** amounts below this threshold take the low branch of the exclusive gateways */
+  public static final long THRESHOLD = 500L;
+
+  public static ExecutableWorkflow subWorkflow() {
+    return new ExecutableWorkflow()
+      .sourceWorkflowId(SUB_WORKFLOW_SOURCE_ID)
+      .activity("work", new NoneTask());
+  }
+
+  /**
+   * @param subWorkflowId the deployed {@link #subWorkflow()}, only required if the options have sub processes.
+   */
+  public static ExecutableWorkflow workflow(LoadOptions options, WorkflowId subWorkflowId) {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .sourceWorkflowId(SOURCE_WORKFLOW_ID)
+      .variable(AMOUNT, new NumberType());
+
+    List<String> stages = new ArrayList<>();
+    for (int i=0; i<options.subprocesses; i++) {
+      stages.add("call" + i);
+    }
+    for (int i=0; i<options.gateways; i++) {
+      stages.add("gateway" + i);
+    }
+    for (int i=0; i<options.tasks; i++) {
+      stages.add(taskId(i));
+    }
+    for (int i=0; i<options.timers; i++) {
+      stages.add("timer" + i);
+    }
+    stages.add("end");
+
+    workflow.activity("start", new StartEvent()
+      .transitionTo(stages.get(0)));
+
+    for (int i=0; i<options.subprocesses; i++) {
+      String next = stages.get(stages.indexOf("call" + i) + 1);
+      workflow.activity("call" + i, new SubProcess()
+        .subWorkflowId(subWorkflowId)
+        .transitionTo(next));
+    }
+
+    for (int i=0; i<options.gateways; i++) {
+      String next = stages.get(stages.indexOf("gateway" + i) + 1);
+      workflow
+        .activity("gateway" + i, new ExclusiveGateway()
+          .defaultTransitionId("high" + i)
+          .transitionTo(new Transition()
+            .toId("low" + i)
+            .condition(new LessThan()
+              .leftExpression(AMOUNT)
+              .rightValue(THRESHOLD)))
+          .transitionTo(new Transition()
+            .id("high" + i)
+            .toId("high" + i)))
+        .activity("low" + i, new NoneTask()
+          .transitionTo(next))
+        .activity("high" + i, new NoneTask()
+          .transitionTo(next));
+    }
+
+    for (int i=0; i<options.tasks; i++) {
+      String next = stages.get(stages.indexOf(taskId(i)) + 1);
+      workflow.activity(taskId(i), new ReceiveTask()
+        .transitionTo(next));
+    }
+
+    for (int i=0; i<options.timers; i++) {
+      String next = stages.get(stages.indexOf("timer" + i) + 1);
+      BoundaryEventTimer timer = new BoundaryEventTimer();
+      timer.boundaryEvent = new BoundaryEvent();
+      timer.boundaryEvent.getToTransitionIds().add("timeout" + i);
+      timer.repeat("PT" + options.timerSeconds + "S");
+      workflow.activity("timer" + i, new ReceiveTask()
+        .timer(timer)
+        .transitionTo(new Transition()
+          .id("timeout" + i)
+          .toId(next)));
+    }
+
+    workflow.activity("end", new EndEvent());
+    return workflow;
+  }
+
+  public static String taskId(int index) {
+    return "task" + index;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.example.cli.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.memory.MemoryConfiguration;
+
+/**
+ * Runs a small load against the memory configuration.
+ */
+public class LoadGeneratorTest {
+
+  private MemoryConfiguration configuration;
+
+  @Before
+  public void start() {
+    configuration = new MemoryConfiguration();
+    // the load generator checks the timers itself while draining
+    ((JobServiceImpl) configuration.get(JobService.class)).isRunning = true;
+    configuration.start();
+  }
+
+  @After
+  public void stop() {
+    configuration.stop();
+  }
+
+  @Test
+  public void testLoad() {
+    LoadOptions options = LoadOptions.parse("instances=20", "--warmup=5", "concurrency=4",
+      "tasks=2", "gateways=2", "subprocesses=1", "timers=1", "timerSeconds=0");
+
+    LoadReport report = new LoadGenerator(configuration, options).run();
+
+    assertNull(report.firstError);
+    assertEquals(20, report.getStarted());
+    assertEquals(20, report.getEnded());
+    assertEquals(0, report.unfinished);
+    assertEquals(40, report.messages.getCount());
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i=1; i<=10000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(10000, histogram.getCount());
+    assertEquals(10000, histogram.getMax());
+    assertWithinPrecision(5000, histogram.getPercentile(50));
+    assertWithinPrecision(9900, histogram.getPercentile(99));
+    assertEquals(10000, histogram.getPercentile(100));
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 60);
+  }
+}
@@ -35,4 +35,7 @@ interface JobFields {
   String DURATION = "duration";
   String OWNER = "owner";
   String JOB_TYPE = "jobType";
+  String PRIORITY = "priority";
+  /** @see MongoJobPartitions */
+  String PARTITION = MongoJobPartitions.PARTITION;
 }
\ No newline at end of file
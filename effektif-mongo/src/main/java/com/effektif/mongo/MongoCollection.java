@@ -19,6 +19,10 @@ import static com.effektif.mongo.MongoDb._ID;
 
 import com.mongodb.AggregationOutput;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
@@ -28,6 +32,7 @@ import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -59,6 +64,61 @@ public class MongoCollection {
     return writeResult;
   }
   
+  /** inserts the given objects with an unordered bulk write so that a failing 
+   * insert doesn't stop the others.
+   * @return the errors of the inserts that failed. */
+  public List<BulkWriteError> insertUnordered(String description, List<? extends DBObject> dbObjects) {
+    if (log.isDebugEnabled())  {
+      log.debug("--"+description+"-> "+dbObjects.size()+" objects");
+    }
+    BulkWriteOperation bulkWriteOperation = dbCollection.initializeUnorderedBulkOperation();
+    for (DBObject dbObject: dbObjects) {
+      bulkWriteOperation.insert(dbObject);
+    }
+    List<BulkWriteError> writeErrors;
+    try {
+      BulkWriteResult bulkWriteResult = bulkWriteOperation.execute(getWriteConcern(description));
+      if (log.isDebugEnabled())  {
+        log.debug("<-"+description+"-- "+bulkWriteResult);
+      }
+      writeErrors = Collections.emptyList();
+    } catch (BulkWriteException e) {
+      if (log.isDebugEnabled())  {
+        log.debug("<-"+description+"-- "+e.getWriteErrors());
+      }
+      writeErrors = e.getWriteErrors();
+    }
+    return writeErrors;
+  }
+
+  /** executes the updates with an unordered bulk write so that a failing 
+   * update doesn't stop the others.
+   * The i-th update is applied to the documents matching the i-th query.
+   * @return the errors of the updates that failed. */
+  public List<BulkWriteError> updateUnordered(String description, List<? extends DBObject> queries, List<? extends DBObject> updates) {
+    if (log.isDebugEnabled())  {
+      log.debug("--"+dbCollection.getName()+"-> "+description+" "+updates.size()+" updates");
+    }
+    BulkWriteOperation bulkWriteOperation = dbCollection.initializeUnorderedBulkOperation();
+    for (int i=0; i<queries.size(); i++) {
+      bulkWriteOperation.find(queries.get(i)).update(updates.get(i));
+    }
+    List<BulkWriteError> writeErrors;
+    try {
+      BulkWriteResult bulkWriteResult = bulkWriteOperation.execute(getWriteConcern(description));
+      if (log.isDebugEnabled())  {
+        log.debug("<-"+dbCollection.getName()+"-- "+bulkWriteResult);
+      }
+      writeErrors = Collections.emptyList();
+    } catch (BulkWriteException e) {
+      if (log.isDebugEnabled())  {
+        log.debug("<-"+dbCollection.getName()+"-- "+e.getWriteErrors());
+      }
+      writeErrors = e.getWriteErrors();
+    }
+    return writeErrors;
+  }
+
   public WriteResult save(String description, BasicDBObject dbObject) {
     if (log.isDebugEnabled()) {
       log.debug("--"+dbCollection.getName()+"-> "+description+" "+toString(dbObject));
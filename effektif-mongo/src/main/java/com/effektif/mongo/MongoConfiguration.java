@@ -16,6 +16,7 @@
 package com.effektif.mongo;
 
 import com.effektif.workflow.impl.DefaultConfiguration;
+import com.effektif.workflow.impl.history.HistoryLevel;
 import com.effektif.workflow.impl.util.Lists;
 import com.mongodb.*;
 import com.mongodb.gridfs.GridFS;
@@ -38,10 +39,17 @@ public class MongoConfiguration extends DefaultConfiguration {
   protected String workflowInstancesCollectionName = "workflowInstances";
   protected String jobsCollectionName = "jobs";
   protected String jobsArchivedCollectionName = "jobsArchived";
+  protected String historyCollectionName = "history";
+  protected String archivedWorkflowInstancesCollectionName = "workflowInstancesArchived";
+  protected boolean compressArchive;
+  protected String nodesCollectionName = "nodes";
   protected String typeCollectionName = "types";
   protected boolean isPretty;
   protected MongoClientOptions.Builder optionBuilder = new MongoClientOptions.Builder();
   protected boolean storeWorkflowIdsAsStrings = false;
+  protected int workflowInstanceCacheSize = 1000;
+  protected int lazyVariableValueThreshold = 0;
+  protected int fileVariableValueThreshold = 0;
 
   public MongoConfiguration() {
     brewery.ingredient(this);
@@ -53,6 +61,7 @@ public class MongoConfiguration extends DefaultConfiguration {
     brewery.ingredient(new MongoWorkflowStore());
     brewery.ingredient(new MongoWorkflowInstanceStore());
     brewery.ingredient(new MongoJobStore());
+    brewery.ingredient(new MongoHistoryStore());
     brewery.ingredient(new MongoObjectMappingsBuilder());
   }
   
@@ -130,17 +139,88 @@ public class MongoConfiguration extends DefaultConfiguration {
     return this;
   }
   
+  /** max number of unlocked workflow instances that are kept in memory 
+   * so that a subsequent lock on this node can skip reading the document 
+   * if its version didn't change in the meantime.  0 disables the cache. */
+  public MongoConfiguration workflowInstanceCacheSize(int workflowInstanceCacheSize) {
+    this.workflowInstanceCacheSize = workflowInstanceCacheSize;
+    return this;
+  }
+
+  /** variable values that are bigger than this number of bytes in BSON are 
+   * stored outside the variable instances, in field {@link WorkflowInstanceFields#VARIABLE_VALUES}.
+   * Locking a workflow instance doesn't read them. They are loaded 
+   * when they are used.  0 (the default) stores all values inline. */
+  public MongoConfiguration lazyVariableValueThreshold(int lazyVariableValueThreshold) {
+    this.lazyVariableValueThreshold = lazyVariableValueThreshold;
+    return this;
+  }
+
+  /** variable values that are bigger than this number of bytes are streamed 
+   * into a GridFS file in the {@link #fileDatabaseName file database} instead 
+   * of being stored in the workflow instance document.  Like lazy values, 
+   * they are only loaded when they are used.  Use this for values that 
+   * can get close to the document size limit.  0 (the default) disables files. */
+  public MongoConfiguration fileVariableValueThreshold(int fileVariableValueThreshold) {
+    this.fileVariableValueThreshold = fileVariableValueThreshold;
+    return this;
+  }
+
   public MongoConfiguration jobsArchivedCollectionName(String jobsArchivedCollectionName) {
     this.jobsArchivedCollectionName = jobsArchivedCollectionName;
     return this;
   }
 
+  public MongoConfiguration historyCollectionName(String historyCollectionName) {
+    this.historyCollectionName = historyCollectionName;
+    return this;
+  }
+
+  public MongoConfiguration archivedWorkflowInstancesCollectionName(String archivedWorkflowInstancesCollectionName) {
+    this.archivedWorkflowInstancesCollectionName = archivedWorkflowInstancesCollectionName;
+    return this;
+  }
+
+  /** stores archived workflow instances as gzipped bson.  Only the id,
+   * workflow id, start and end remain queryable. */
+  public MongoConfiguration compressArchive() {
+    this.compressArchive = true;
+    return this;
+  }
+
   @Override
   public MongoConfiguration synchronous() {
     super.synchronous();
     return this;
   }
 
+  @Override
+  public MongoConfiguration history(HistoryLevel historyLevel) {
+    super.history(historyLevel);
+    return this;
+  }
+
+  @Override
+  public MongoConfiguration archive(long age) {
+    super.archive(age);
+    return this;
+  }
+
+  /** splits the jobs in the given number of partitions and 
+   * lets each engine node only lock jobs and workflow instances 
+   * with jobs in its own partitions.  All nodes must use the 
+   * same partition count.
+   * @see MongoJobPartitions */
+  public MongoConfiguration partitionJobs(int partitionCount) {
+    brewery.ingredient(new MongoJobPartitions(partitionCount));
+    return this;
+  }
+
+  public MongoConfiguration nodesCollectionName(String nodesCollectionName) {
+    this.nodesCollectionName = nodesCollectionName;
+    return this;
+  }
+
   public MongoConfiguration databaseName(String databaseName) {
     this.databaseName = databaseName;
     return this;
@@ -199,6 +279,34 @@ public class MongoConfiguration extends DefaultConfiguration {
     this.jobsArchivedCollectionName = jobsArchivedCollectionName;
   }
   
+  public String getHistoryCollectionName() {
+    return this.historyCollectionName;
+  }
+  public void setHistoryCollectionName(String historyCollectionName) {
+    this.historyCollectionName = historyCollectionName;
+  }
+  
+  public String getNodesCollectionName() {
+    return this.nodesCollectionName;
+  }
+  public void setNodesCollectionName(String nodesCollectionName) {
+    this.nodesCollectionName = nodesCollectionName;
+  }
+
+  public String getArchivedWorkflowInstancesCollectionName() {
+    return this.archivedWorkflowInstancesCollectionName;
+  }
+  public void setArchivedWorkflowInstancesCollectionName(String archivedWorkflowInstancesCollectionName) {
+    this.archivedWorkflowInstancesCollectionName = archivedWorkflowInstancesCollectionName;
+  }
+
+  public boolean isCompressArchive() {
+    return compressArchive;
+  }
+  public void setCompressArchive(boolean compressArchive) {
+    this.compressArchive = compressArchive;
+  }
+  
   public String getTypeCollectionName() {
     return typeCollectionName;
   }
@@ -223,6 +331,30 @@ public class MongoConfiguration extends DefaultConfiguration {
     this.storeWorkflowIdsAsStrings = storeWorkflowIdsAsStrings;
   }
   
+  public int getWorkflowInstanceCacheSize() {
+    return workflowInstanceCacheSize;
+  }
+
+  public void setWorkflowInstanceCacheSize(int workflowInstanceCacheSize) {
+    this.workflowInstanceCacheSize = workflowInstanceCacheSize;
+  }
+
+  public int getLazyVariableValueThreshold() {
+    return lazyVariableValueThreshold;
+  }
+
+  public void setLazyVariableValueThreshold(int lazyVariableValueThreshold) {
+    this.lazyVariableValueThreshold = lazyVariableValueThreshold;
+  }
+
+  public int getFileVariableValueThreshold() {
+    return fileVariableValueThreshold;
+  }
+
+  public void setFileVariableValueThreshold(int fileVariableValueThreshold) {
+    this.fileVariableValueThreshold = fileVariableValueThreshold;
+  }
+
   public void setOptionBuilder(MongoClientOptions.Builder optionBuilder) {
     this.optionBuilder = optionBuilder;
   }
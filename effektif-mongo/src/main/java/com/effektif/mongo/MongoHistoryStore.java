@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.mongo;
+
+import static com.effektif.mongo.MongoDb._ID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.history.HistoryEvent;
+import com.effektif.workflow.impl.history.HistoryQuery;
+import com.effektif.workflow.impl.history.HistoryStore;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.DBCursor;
+
+
+/**
+ * Inserts each batch of history events with one unordered bulk write 
+ * into a collection of its own so that reporting queries don't 
+ * scan the workflow instances collection.
+ *
+ * @author Tom Baeyens
+ */
+public class MongoHistoryStore implements HistoryStore, Brewable {
+
+  public static final String TIME = "time";
+  public static final String TYPE = "type";
+  public static final String WORKFLOW_INSTANCE_ID = "workflowInstanceId";
+  public static final String WORKFLOW_ID = "workflowId";
+  public static final String ACTIVITY_ID = "activityId";
+
+  protected MongoCollection historyCollection;
+  protected MongoObjectMapper mongoMapper;
+
+  @Override
+  public void brew(Brewery brewery) {
+    MongoDb mongoDb = brewery.get(MongoDb.class);
+    MongoConfiguration mongoConfiguration = brewery.get(MongoConfiguration.class);
+    this.historyCollection = mongoDb.createCollection(mongoConfiguration.getHistoryCollectionName());
+    this.mongoMapper = brewery.get(MongoObjectMapper.class);
+  }
+
+  @Override
+  public void saveHistoryEvents(List<HistoryEvent> historyEvents) {
+    List<BasicDBObject> dbHistoryEvents = new ArrayList<>(historyEvents.size());
+    for (HistoryEvent historyEvent: historyEvents) {
+      dbHistoryEvents.add((BasicDBObject) mongoMapper.write(historyEvent));
+    }
+    historyCollection.insertUnordered("insert-history-events", dbHistoryEvents);
+  }
+
+  @Override
+  public List<HistoryEvent> findHistoryEvents(HistoryQuery historyQuery) {
+    BasicDBObject dbQuery = new BasicDBObject();
+    if (historyQuery.getWorkflowInstanceId()!=null) {
+      dbQuery.append(WORKFLOW_INSTANCE_ID, mongoMapper.write(historyQuery.getWorkflowInstanceId()));
+    }
+    if (historyQuery.getWorkflowId()!=null) {
+      dbQuery.append(WORKFLOW_ID, mongoMapper.write(historyQuery.getWorkflowId()));
+    }
+    if (historyQuery.getActivityId()!=null) {
+      dbQuery.append(ACTIVITY_ID, historyQuery.getActivityId());
+    }
+    if (historyQuery.getType()!=null) {
+      dbQuery.append(TYPE, historyQuery.getType().name());
+    }
+    // object ids keep the insertion order of events with the same time
+    DBCursor cursor = historyCollection.find("find-history-events", dbQuery)
+      .sort(BasicDBObjectBuilder.start().add(TIME, 1).add(_ID, 1).get());
+    if (historyQuery.getLimit()!=null) {
+      cursor.limit(historyQuery.getLimit());
+    }
+    List<HistoryEvent> historyEvents = new ArrayList<>();
+    while (cursor.hasNext()) {
+      BasicDBObject dbHistoryEvent = (BasicDBObject) cursor.next();
+      dbHistoryEvent.remove(_ID);
+      historyEvents.add(mongoMapper.read(dbHistoryEvent, HistoryEvent.class));
+    }
+    return historyEvents;
+  }
+
+  @Override
+  public void deleteAllHistoryEvents() {
+    historyCollection.remove("delete-all-history-events", new BasicDBObject(), false);
+  }
+}
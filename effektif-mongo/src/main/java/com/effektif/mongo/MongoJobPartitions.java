@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.mongo;
+
+import static com.effektif.mongo.MongoDb._ID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.configuration.Stoppable;
+import com.effektif.workflow.impl.util.Time;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+
+/**
+ * Splits the jobs over the engine nodes so that nodes don't race 
+ * for the same documents when they lock jobs.
+ * 
+ * <p>Each job and each workflow instance gets a fixed partition, 
+ * a hash of the organization or the workflow instance id.  Every node 
+ * registers itself with a heartbeat in the nodes collection.  The live 
+ * nodes are sorted by id and each node claims the partitions that 
+ * correspond to its position.  When a node joins or leaves, the 
+ * partitions are reassigned at the next heartbeat of each node.
+ * Till then nodes can briefly claim overlapping partitions, which 
+ * is safe as locking stays atomic.</p>
+ * 
+ * <p>All nodes must use the same partition count.  Documents written 
+ * before partitioning was enabled have no partition and are claimed 
+ * by the node that owns partition 0.</p>
+ *
+ * @author Tom Baeyens
+ */
+public class MongoJobPartitions implements Brewable, Startable, Stoppable {
+  
+  private static final Logger log = LoggerFactory.getLogger(MongoJobPartitions.class);
+
+  public static final String PARTITION = "partition";
+  public static final String HEARTBEAT = "heartbeat";
+
+  protected int partitionCount;
+  protected long heartbeatInterval = 10 * 1000;
+  /** nodes that didn't send a heartbeat for this long are considered dead */
+  protected long nodeTimeout = 30 * 1000;
+
+  protected MongoCollection nodesCollection;
+  protected String nodeId;
+  protected Timer timer;
+  /** null till the first heartbeat */
+  protected volatile List<Integer> partitions;
+  
+  public MongoJobPartitions(int partitionCount) {
+    if (partitionCount<1) {
+      throw new IllegalArgumentException("partitionCount must be at least 1: "+partitionCount);
+    }
+    this.partitionCount = partitionCount;
+  }
+
+  @Override
+  public void brew(Brewery brewery) {
+    MongoDb mongoDb = brewery.get(MongoDb.class);
+    MongoConfiguration mongoConfiguration = brewery.get(MongoConfiguration.class);
+    this.nodesCollection = mongoDb.createCollection(mongoConfiguration.getNodesCollectionName());
+    this.nodeId = brewery.get(WorkflowEngineImpl.class).id;
+  }
+
+  @Override
+  public void start(Brewery brewery) {
+    heartbeat();
+    timer = new Timer("Job partitions heartbeat", true);
+    timer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          heartbeat();
+        } catch (RuntimeException e) {
+          log.error("Job partitions heartbeat failed: "+e.getMessage(), e);
+        }
+      }
+    }, heartbeatInterval, heartbeatInterval);
+  }
+
+  @Override
+  public void stop(Brewery brewery) {
+    if (timer!=null) {
+      timer.cancel();
+      timer = null;
+    }
+    // the other nodes take over the partitions at their next heartbeat
+    nodesCollection.remove("unregister-node", new BasicDBObject(_ID, nodeId));
+  }
+
+  /** registers this node and recalculates the partitions 
+   * of this node from the live nodes. */
+  public synchronized void heartbeat() {
+    Date now = Time.now().toDate();
+    nodesCollection.update("node-heartbeat", 
+      new BasicDBObject(_ID, nodeId), 
+      new BasicDBObject("$set", new BasicDBObject(HEARTBEAT, now)), 
+      true, false);
+    // nodes that were not stopped properly
+    nodesCollection.remove("remove-dead-nodes", 
+      new BasicDBObject(HEARTBEAT, new BasicDBObject("$lt", new Date(now.getTime()-nodeTimeout))));
+    
+    List<String> nodeIds = new ArrayList<>();
+    DBCursor dbNodes = nodesCollection.find("find-nodes", new BasicDBObject(), new BasicDBObject(_ID, true));
+    while (dbNodes.hasNext()) {
+      nodeIds.add(dbNodes.next().get(_ID).toString());
+    }
+    List<Integer> newPartitions = assignPartitions(nodeIds, nodeId, partitionCount);
+    if (!newPartitions.equals(partitions)) {
+      log.debug("Node "+nodeId+" claims "+newPartitions.size()+" of "+partitionCount+" partitions with "+nodeIds.size()+" nodes");
+    }
+    partitions = newPartitions;
+  }
+
+  /** the partitions of the given node in a cluster of the given nodes. 
+   * Every node calculates the same assignment from the same node ids. */
+  public static List<Integer> assignPartitions(List<String> nodeIds, String nodeId, int partitionCount) {
+    List<String> sortedNodeIds = new ArrayList<>(nodeIds);
+    if (!sortedNodeIds.contains(nodeId)) {
+      sortedNodeIds.add(nodeId);
+    }
+    Collections.sort(sortedNodeIds);
+    int nodeIndex = sortedNodeIds.indexOf(nodeId);
+    int nodeCount = sortedNodeIds.size();
+    List<Integer> partitions = new ArrayList<>();
+    for (int partition=nodeIndex; partition<partitionCount; partition+=nodeCount) {
+      partitions.add(partition);
+    }
+    return partitions;
+  }
+
+  /** the partition for the given key.  A null key gets 
+   * a random partition. */
+  public int getPartition(String key) {
+    if (key==null) {
+      return ThreadLocalRandom.current().nextInt(partitionCount);
+    }
+    return getPartition(key, partitionCount);
+  }
+
+  public static int getPartition(String key, int partitionCount) {
+    // String.hashCode is specified so all nodes calculate the same partition
+    return (key.hashCode() & 0x7fffffff) % partitionCount;
+  }
+
+  /** restricts the given query to the documents in 
+   * the partitions of this node. */
+  public void filterPartitions(DBObject query) {
+    List<Integer> partitions = getPartitions();
+    if (partitions.size()<partitionCount) {
+      BasicDBList dbPartitions = new BasicDBList();
+      dbPartitions.addAll(partitions);
+      if (partitions.contains(0)) {
+        // matches the documents without partition
+        dbPartitions.add(null);
+      }
+      query.put(PARTITION, new BasicDBObject("$in", dbPartitions));
+    }
+  }
+
+  public List<Integer> getPartitions() {
+    if (partitions==null) {
+      heartbeat();
+    }
+    return partitions;
+  }
+
+  public int getPartitionCount() {
+    return partitionCount;
+  }
+  
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public long getHeartbeatInterval() {
+    return heartbeatInterval;
+  }
+  
+  public void setHeartbeatInterval(long heartbeatInterval) {
+    this.heartbeatInterval = heartbeatInterval;
+  }
+  
+  public long getNodeTimeout() {
+    return nodeTimeout;
+  }
+  
+  public void setNodeTimeout(long nodeTimeout) {
+    this.nodeTimeout = nodeTimeout;
+  }
+}
@@ -33,6 +33,7 @@ import com.effektif.workflow.impl.configuration.Brewery;
 import com.effektif.workflow.impl.job.Job;
 import com.effektif.workflow.impl.job.JobExecution;
 import com.effektif.workflow.impl.job.JobQuery;
+import com.effektif.workflow.impl.job.JobQueueDepth;
 import com.effektif.workflow.impl.job.JobStore;
 import com.effektif.workflow.impl.util.Time;
 import com.effektif.workflow.impl.workflowinstance.LockImpl;
@@ -48,6 +49,8 @@ public class MongoJobStore implements JobStore, Brewable {
   protected String lockOwner;
   protected MongoCollection jobsCollection;
   protected MongoCollection archivedJobsCollection;
+  /** null when the jobs are not partitioned over the nodes */
+  protected MongoJobPartitions jobPartitions;
   
   @Override
   public void brew(Brewery brewery) {
@@ -56,6 +59,7 @@ public class MongoJobStore implements JobStore, Brewable {
     this.jobsCollection = mongoDb.createCollection(mongoConfiguration.getJobsCollectionName());
     this.archivedJobsCollection = mongoDb.createCollection(mongoConfiguration.getJobsArchivedCollectionName());
     this.mongoMapper = brewery.get(MongoObjectMapper.class);
+    this.jobPartitions = brewery.getOpt(MongoJobPartitions.class);
   }
   
   public void saveJob(Job job) {
@@ -72,6 +76,7 @@ public class MongoJobStore implements JobStore, Brewable {
     DBObject query = buildLockNextJobQuery()
       .push(WORKFLOW_INSTANCE_ID).append("$exists", true).pop()
       .get();
+    filterPartitions(query);
     // TODO use MongoQuery filterOrganization(query, JobFields.organizationId);
     DBObject retrieveFields = new BasicDBObject(WORKFLOW_INSTANCE_ID, true);
     DBCursor jobsDueHavingProcessInstance = jobsCollection.find("jobs-having-process-instance", query, retrieveFields);
@@ -90,6 +95,18 @@ public class MongoJobStore implements JobStore, Brewable {
       .push(WORKFLOW_INSTANCE_ID).append("$exists", false).pop()
       .get();
     // TODO use MongoQuery filterOrganization(query, JobFields.organizationId);
+    filterPartitions(query);
+    return lockNextJob(query);
+  }
+
+  @Override
+  public Job lockNextOrganizationJob(String organizationId) {
+    DBObject query = buildLockNextJobQuery()
+      .push(WORKFLOW_INSTANCE_ID).append("$exists", false).pop()
+      // null also matches the jobs that don't have the field
+      .append(ORGANIZATION_ID, organizationId)
+      .get();
+    filterPartitions(query);
     return lockNextJob(query);
   }
 
@@ -101,13 +118,46 @@ public class MongoJobStore implements JobStore, Brewable {
     DBObject update = BasicDBObjectBuilder.start()
       .push("$set").append(LOCK, dbLock).pop()
       .get();
-    BasicDBObject dbJob = jobsCollection.findAndModify("lock-next-job", query, update);
+    DBObject sort = BasicDBObjectBuilder.start()
+      .append(PRIORITY, -1)
+      .append(DUE_DATE, 1)
+      .get();
+    BasicDBObject dbJob = jobsCollection.findAndModify("lock-next-job", query, update, null, sort, false, true, false);
     if (dbJob!=null) {
       return readJob(dbJob);
     }
     return null;
   }
 
+  @Override
+  public List<JobQueueDepth> countDueJobs() {
+    DBObject query = buildLockNextJobQuery()
+      .push(WORKFLOW_INSTANCE_ID).append("$exists", false).pop()
+      .get();
+    filterPartitions(query);
+    DBObject group = BasicDBObjectBuilder.start()
+      .push(_ID)
+        .append(ORGANIZATION_ID, "$"+ORGANIZATION_ID)
+        .append(PRIORITY, "$"+PRIORITY)
+      .pop()
+      .push("count").append("$sum", 1).pop()
+      .get();
+    Iterator<BasicDBObject> dbQueueDepths = jobsCollection.aggregate("count-due-jobs", 
+      new BasicDBObject("$match", query), 
+      new BasicDBObject("$group", group));
+    List<JobQueueDepth> queueDepths = new ArrayList<>();
+    while (dbQueueDepths.hasNext()) {
+      BasicDBObject dbQueueDepth = dbQueueDepths.next();
+      BasicDBObject dbGroup = (BasicDBObject) dbQueueDepth.get(_ID);
+      Number priority = (Number) dbGroup.get(PRIORITY);
+      queueDepths.add(new JobQueueDepth(
+        dbGroup.getString(ORGANIZATION_ID), 
+        priority!=null ? priority.intValue() : Job.DEFAULT_PRIORITY,
+        ((Number) dbQueueDepth.get("count")).longValue()));
+    }
+    return queueDepths;
+  }
+
   protected BasicDBObjectBuilder buildLockNextJobQuery() {
     Date now = Time.now().toDate();
     return BasicDBObjectBuilder.start()
@@ -118,6 +168,12 @@ public class MongoJobStore implements JobStore, Brewable {
       .push(DONE).append("$exists", false).pop();
   }
 
+  protected void filterPartitions(DBObject query) {
+    if (jobPartitions!=null) {
+      jobPartitions.filterPartitions(query);
+    }
+  }
+
   public Job readJob(BasicDBObject dbJob) {
     return mongoMapper.read(dbJob, Job.class);
   }
@@ -145,7 +201,25 @@ public class MongoJobStore implements JobStore, Brewable {
   }
 
   public BasicDBObject writeJob(Job job) {
-    return mongoMapper.write(job);
+    BasicDBObject dbJob = mongoMapper.write(job);
+    // the effective priority is stored so that locking can sort on it
+    dbJob.put(PRIORITY, job.getEffectivePriority());
+    if (jobPartitions!=null) {
+      dbJob.put(PARTITION, jobPartitions.getPartition(getPartitionKey(job)));
+    }
+    return dbJob;
+  }
+
+  /** jobs of the same organization or workflow instance end up 
+   * in the same partition. */
+  protected String getPartitionKey(Job job) {
+    if (job.organizationId!=null) {
+      return job.organizationId;
+    }
+    if (job.workflowInstanceId!=null) {
+      return job.workflowInstanceId.getInternal();
+    }
+    return job.key;
   }
 
   public void writeExecutions(BasicDBObject dbJob, LinkedList<JobExecution> jobExecutions) {
@@ -22,7 +22,6 @@ import com.effektif.workflow.api.model.WorkflowInstanceId;
 import com.effektif.workflow.api.query.WorkflowInstanceQuery;
 import com.effektif.workflow.api.types.DataType;
 import com.effektif.workflow.api.workflow.Extensible;
-import com.effektif.workflow.api.workflowinstance.VariableInstance;
 import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
 import com.effektif.workflow.impl.WorkflowInstanceStore;
@@ -31,6 +30,7 @@ import com.effektif.workflow.impl.configuration.Brewery;
 import com.effektif.workflow.impl.data.DataTypeService;
 import com.effektif.workflow.impl.job.Job;
 import com.effektif.workflow.impl.util.Exceptions;
+import com.effektif.workflow.impl.util.Streams;
 import com.effektif.workflow.impl.util.Time;
 import com.effektif.workflow.impl.workflow.ActivityImpl;
 import com.effektif.workflow.impl.workflow.ScopeImpl;
@@ -38,10 +38,26 @@ import com.effektif.workflow.impl.workflow.VariableImpl;
 import com.effektif.workflow.impl.workflow.WorkflowImpl;
 import com.effektif.workflow.impl.workflowinstance.*;
 import com.mongodb.*;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
 import org.bson.types.ObjectId;
+import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.effektif.mongo.ActivityInstanceFields.*;
 import static com.effektif.mongo.ActivityInstanceFields.DURATION;
@@ -53,17 +69,41 @@ import static com.effektif.mongo.MongoHelper.*;
 import static com.effektif.mongo.WorkflowInstanceFields.*;
 
 
-public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewable {
+public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, VariableValueLoader, Brewable {
   
   public static final Logger log = MongoDb.log;
 
+  /** prefix of the {@link VariableInstanceImpl#valueRef}s that refer to a GridFS file */
+  public static final String FILE_REF_PREFIX = "file:";
+  public static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+  public static final String BSON_CONTENT_TYPE = "application/bson";
+  protected static final String FILE_WORKFLOW_INSTANCE_ID = "workflowInstanceId";
+  protected static final int DUPLICATE_KEY = 11000;
+
   protected Configuration configuration;
   protected WorkflowEngineImpl workflowEngine;
   protected MongoCollection workflowInstancesCollection;
+  protected MongoCollection archivedWorkflowInstancesCollection;
+  protected boolean compressArchive;
   protected MongoJobStore mongoJobsStore;
+  /** null when the jobs are not partitioned over the nodes */
+  protected MongoJobPartitions jobPartitions;
   protected boolean storeWorkflowIdsAsStrings;
   protected DataTypeService dataTypeService;
   protected MongoObjectMapper mongoMapper;
+  /** recently unlocked workflow instances in least recently used order. 
+   * null if caching is disabled. */
+  protected Map<WorkflowInstanceId, WorkflowInstanceImpl> workflowInstanceCache;
+  /** values bigger than this are stored in {@link WorkflowInstanceFields#VARIABLE_VALUES}. 
+   * 0 if all values are stored inline. */
+  protected int lazyVariableValueThreshold;
+  /** values bigger than this are stored as files in {@link #gridFS}. 
+   * 0 if no values are stored in files. */
+  protected int fileVariableValueThreshold;
+  /** brewed on first use so that the file database is only 
+   * connected when there are values in files */
+  protected GridFS gridFS;
+  protected Brewery brewery;
   
   @Override
   public void brew(Brewery brewery) {
@@ -72,10 +112,29 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     this.configuration = brewery.get(MongoConfiguration.class);
     this.workflowEngine = brewery.get(WorkflowEngineImpl.class);
     this.workflowInstancesCollection = mongoDb.createCollection(mongoConfiguration.workflowInstancesCollectionName);
+    this.archivedWorkflowInstancesCollection = mongoDb.createCollection(mongoConfiguration.getArchivedWorkflowInstancesCollectionName());
+    this.compressArchive = mongoConfiguration.isCompressArchive();
     this.storeWorkflowIdsAsStrings = mongoConfiguration.getStoreWorkflowIdsAsString();
     this.mongoJobsStore = brewery.get(MongoJobStore.class);
+    this.jobPartitions = brewery.getOpt(MongoJobPartitions.class);
     this.dataTypeService = brewery.get(DataTypeService.class);
     this.mongoMapper = brewery.get(MongoObjectMapper.class);
+    if (mongoConfiguration.getWorkflowInstanceCacheSize()>0) {
+      this.workflowInstanceCache = createWorkflowInstanceCache(mongoConfiguration.getWorkflowInstanceCacheSize());
+    }
+    this.lazyVariableValueThreshold = mongoConfiguration.getLazyVariableValueThreshold();
+    this.fileVariableValueThreshold = mongoConfiguration.getFileVariableValueThreshold();
+    this.brewery = brewery;
+  }
+
+  protected Map<WorkflowInstanceId, WorkflowInstanceImpl> createWorkflowInstanceCache(final int maxSize) {
+    return Collections.synchronizedMap(new LinkedHashMap<WorkflowInstanceId, WorkflowInstanceImpl>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<WorkflowInstanceId, WorkflowInstanceImpl> eldest) {
+        return size()>maxSize;
+      }
+    });
   }
   
   @Override
@@ -83,24 +142,94 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     return new WorkflowInstanceId(new ObjectId().toString());
   }
 
+  @Override
+  public boolean isValidWorkflowInstanceId(WorkflowInstanceId workflowInstanceId) {
+    return workflowInstanceId!=null && ObjectId.isValid(workflowInstanceId.getInternal());
+  }
+
   @Override
   public void insertWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
-    BasicDBObject dbWorkflowInstance = writeWorkflowInstance(workflowInstance);
-    workflowInstancesCollection.insert("insert-workflow-instance", dbWorkflowInstance);
+    workflowInstance.version = 1l;
+    try {
+      BasicDBObject dbWorkflowInstance = writeWorkflowInstance(workflowInstance);
+      workflowInstancesCollection.insert("insert-workflow-instance", dbWorkflowInstance);
+    } catch (RuntimeException e) {
+      removeWorkflowInstanceFiles(workflowInstance);
+      throw e;
+    }
     workflowInstance.trackUpdates(false);
   }
 
+  @Override
+  public List<String> insertWorkflowInstances(List<WorkflowInstanceImpl> workflowInstances) {
+    List<String> errors = new ArrayList<>(workflowInstances.size());
+    List<BasicDBObject> dbWorkflowInstances = new ArrayList<>(workflowInstances.size());
+    // indexes in workflowInstances of the dbWorkflowInstances
+    List<Integer> dbWorkflowInstanceIndexes = new ArrayList<>(workflowInstances.size());
+    for (int i=0; i<workflowInstances.size(); i++) {
+      WorkflowInstanceImpl workflowInstance = workflowInstances.get(i);
+      try {
+        workflowInstance.version = 1l;
+        dbWorkflowInstances.add(writeWorkflowInstance(workflowInstance));
+        dbWorkflowInstanceIndexes.add(i);
+        errors.add(null);
+      } catch (RuntimeException e) {
+        errors.add(String.valueOf(e.getMessage()));
+      }
+    }
+    if (!dbWorkflowInstances.isEmpty()) {
+      for (BulkWriteError writeError: workflowInstancesCollection.insertUnordered("insert-workflow-instances", dbWorkflowInstances)) {
+        errors.set(dbWorkflowInstanceIndexes.get(writeError.getIndex()), writeError.getMessage());
+      }
+    }
+    for (int i=0; i<workflowInstances.size(); i++) {
+      if (errors.get(i)==null) {
+        workflowInstances.get(i).trackUpdates(false);
+      } else {
+        removeWorkflowInstanceFiles(workflowInstances.get(i));
+      }
+    }
+    return errors;
+  }
+
   @Override
   public void flush(WorkflowInstanceImpl workflowInstance) {
     if (log.isDebugEnabled()) log.debug("Flushing workflow instance...");
 
-    WorkflowInstanceUpdates updates = workflowInstance.getUpdates();
-    
-    DBObject query = BasicDBObjectBuilder.start()
+    List<String> removedValueRefs = new ArrayList<>();
+    List<String> addedFileRefs = new ArrayList<>();
+    DBObject update = createFlushUpdate(workflowInstance, removedValueRefs, addedFileRefs);
+    if (update!=null) {
+      try {
+        WriteResult writeResult = workflowInstancesCollection.update("flush-workflow-instance", createFlushQuery(workflowInstance), update, false, false);
+        if (writeResult.wasAcknowledged() && writeResult.getN()==0) {
+          log.warn("Flushed workflow instance "+workflowInstance.id+" doesn't exist any more");
+          removeFiles(addedFileRefs);
+        }
+      } catch (RuntimeException e) {
+        // the document doesn't refer to the new files
+        removeFiles(addedFileRefs);
+        throw e;
+      }
+    }
+    flushed(workflowInstance, update!=null, removedValueRefs);
+  }
+
+  protected DBObject createFlushQuery(WorkflowInstanceImpl workflowInstance) {
+    return BasicDBObjectBuilder.start()
             .add(_ID,  new ObjectId(workflowInstance.id.getInternal()))
             // I don't recall what this line was for... if you re-add it, please add a comment to explain
             // .add(LOCK,  writeLock(workflowInstance.lock))
             .get();
+  }
+
+  /** creates the update for the tracked changes of the given workflow instance.
+   * @param removedValueRefs collects the refs of the separately stored variable values that are not used any more.
+   * @param addedFileRefs collects the refs of the files that were written for the update.
+   * They have to be removed if the update fails. 
+   * @return null if nothing changed. */
+  protected DBObject createFlushUpdate(WorkflowInstanceImpl workflowInstance, List<String> removedValueRefs, List<String> addedFileRefs) {
+    WorkflowInstanceUpdates updates = workflowInstance.getUpdates();
     
     BasicDBObject sets = new BasicDBObject();
     BasicDBObject unsets = new BasicDBObject();
@@ -121,6 +250,21 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
       sets.append(END_STATE, workflowInstance.getEndState());
     }
 
+    // must happen before the variable instances are written 
+    // as it decides which values are stored separately
+    if (updates.isVariableInstancesChanged || updates.isActivityInstancesChanged) {
+      BasicDBObject dbVariableValues = new BasicDBObject();
+      collectVariableValues(workflowInstance, true, dbVariableValues, removedValueRefs, addedFileRefs);
+      for (String valueRef: dbVariableValues.keySet()) {
+        sets.append(VARIABLE_VALUES+"."+valueRef, dbVariableValues.get(valueRef));
+      }
+      for (String valueRef: removedValueRefs) {
+        if (!isFileRef(valueRef)) {
+          unsets.append(VARIABLE_VALUES+"."+valueRef, 1);
+        }
+      }
+    }
+
 
     // MongoDB can't combine updates of array elements together with 
     // adding elements to that array.  That's why we overwrite the whole
@@ -189,9 +333,22 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     if (!unsets.isEmpty()) {
       update.append("$unset", unsets);
     }
-    if (!update.isEmpty()) {
-      workflowInstancesCollection.update("flush-workflow-instance", query, update, false, false);
+    if (update.isEmpty()) {
+      return null;
     }
+    update.append("$inc", new BasicDBObject(VERSION, 1));
+    return update;
+  }
+
+  /** updates the in memory workflow instance after its flush update was executed */
+  protected void flushed(WorkflowInstanceImpl workflowInstance, boolean isUpdated, List<String> removedValueRefs) {
+    if (isUpdated) {
+      workflowInstance.version = workflowInstance.version!=null ? workflowInstance.version+1 : 1l;
+    }
+
+    // files are immutable so replaced values get a new file.
+    // the old one is only removed when the document doesn't refer to it any more.
+    removeFiles(removedValueRefs);
     
     // reset the update tracking as all changes have been saved
     workflowInstance.trackUpdates(false);
@@ -201,13 +358,227 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
   public void flushAndUnlock(WorkflowInstanceImpl workflowInstance) {
     workflowInstance.removeLock();
     flush(workflowInstance);
-    workflowInstance.notifyUnlockListeners();
+    // the cache hands the workflow instance to the next lock, 
+    // so it's only cached after the listeners are notified
+    workflowInstance.notifyUnlocked();
+    cacheWorkflowInstance(workflowInstance);
+  }
+
+  /** sends the flush updates of all the workflow instances in one unordered bulk write.
+   * The workflow instances of which the update fails are unlocked without their changes. */
+  @Override
+  public List<String> flushAndUnlock(List<WorkflowInstanceImpl> workflowInstances) {
+    List<String> errors = new ArrayList<>(workflowInstances.size());
+    List<DBObject> queries = new ArrayList<>(workflowInstances.size());
+    List<DBObject> updates = new ArrayList<>(workflowInstances.size());
+    List<DBObject> nonNullUpdates = new ArrayList<>(workflowInstances.size());
+    // indexes in workflowInstances of the nonNullUpdates
+    List<Integer> nonNullUpdateIndexes = new ArrayList<>(workflowInstances.size());
+    List<List<String>> removedValueRefs = new ArrayList<>(workflowInstances.size());
+    List<List<String>> addedFileRefs = new ArrayList<>(workflowInstances.size());
+    for (int i=0; i<workflowInstances.size(); i++) {
+      WorkflowInstanceImpl workflowInstance = workflowInstances.get(i);
+      workflowInstance.removeLock();
+      List<String> workflowInstanceRemovedValueRefs = new ArrayList<>();
+      List<String> workflowInstanceAddedFileRefs = new ArrayList<>();
+      removedValueRefs.add(workflowInstanceRemovedValueRefs);
+      addedFileRefs.add(workflowInstanceAddedFileRefs);
+      DBObject update = null;
+      try {
+        update = createFlushUpdate(workflowInstance, workflowInstanceRemovedValueRefs, workflowInstanceAddedFileRefs);
+        errors.add(null);
+      } catch (RuntimeException e) {
+        errors.add(String.valueOf(e.getMessage()));
+      }
+      if (update!=null) {
+        queries.add(createFlushQuery(workflowInstance));
+        nonNullUpdates.add(update);
+        nonNullUpdateIndexes.add(i);
+      }
+      updates.add(update);
+    }
+    if (!queries.isEmpty()) {
+      List<BulkWriteError> writeErrors;
+      try {
+        writeErrors = workflowInstancesCollection.updateUnordered("flush-workflow-instances", queries, nonNullUpdates);
+      } catch (RuntimeException e) {
+        for (List<String> workflowInstanceAddedFileRefs: addedFileRefs) {
+          removeFiles(workflowInstanceAddedFileRefs);
+        }
+        throw e;
+      }
+      for (BulkWriteError writeError: writeErrors) {
+        errors.set(nonNullUpdateIndexes.get(writeError.getIndex()), writeError.getMessage());
+      }
+    }
+    for (int i=0; i<workflowInstances.size(); i++) {
+      WorkflowInstanceImpl workflowInstance = workflowInstances.get(i);
+      if (errors.get(i)==null) {
+        flushed(workflowInstance, updates.get(i)!=null, removedValueRefs.get(i));
+        workflowInstance.notifyUnlocked();
+        cacheWorkflowInstance(workflowInstance);
+      } else {
+        log.error("Couldn't flush workflow instance "+workflowInstance.id+": "+errors.get(i));
+        removeFiles(addedFileRefs.get(i));
+        // the failed update didn't remove the lock in the db 
+        unlockWorkflowInstance(workflowInstance);
+      }
+    }
+    return errors;
   }
 
   @Override
   public List<WorkflowInstanceImpl> findWorkflowInstances(WorkflowInstanceQuery query) {
     BasicDBObject dbQuery = createDbQuery(query);
-    return findWorkflowInstances(dbQuery);
+    List<WorkflowInstanceImpl> workflowInstances = findWorkflowInstances(dbQuery);
+    if (isArchiveQuery(query)) {
+      DBCursor archivedCursor = archivedWorkflowInstancesCollection.find("find-archived-workflow-instances", dbQuery);
+      while (archivedCursor.hasNext()) {
+        BasicDBObject dbWorkflowInstance = readArchivedWorkflowInstance((BasicDBObject) archivedCursor.next());
+        workflowInstances.add(readWorkflowInstanceImpl(dbWorkflowInstance));
+      }
+    }
+    return workflowInstances;
+  }
+
+  /** archived workflow instances are ended and unlocked, so they can't match
+   * activity or lock criteria.  Only the id criteria is in the archived 
+   * documents when the archive is compressed. */
+  protected boolean isArchiveQuery(WorkflowInstanceQuery query) {
+    return query!=null
+           && query.isIncludeArchived()
+           && query.getActivityId()==null
+           && query.getLockedBefore()==null;
+  }
+
+  /** copies the ended workflow instances to the archive and removes them.  
+   * A workflow instance is only removed if its version is still the archived 
+   * one, so that changes of other nodes between the read and the remove 
+   * are not lost.  The archived copies of those are removed again. */
+  @Override
+  public int archiveWorkflowInstances(LocalDateTime endedBefore, int limit) {
+    BasicDBObject query = new BasicDBObject(END, new BasicDBObject("$lt", endedBefore.toDate()))
+      .append(LOCK, new BasicDBObject("$exists", false));
+    DBCursor cursor = workflowInstancesCollection
+      .find("find-workflow-instances-to-archive", query)
+      .limit(limit);
+    List<Object> workflowInstanceIds = new ArrayList<>();
+    List<Object> versions = new ArrayList<>();
+    List<BasicDBObject> dbArchivedWorkflowInstances = new ArrayList<>();
+    while (cursor.hasNext()) {
+      BasicDBObject dbWorkflowInstance = (BasicDBObject) cursor.next();
+      workflowInstanceIds.add(dbWorkflowInstance.get(_ID));
+      versions.add(dbWorkflowInstance.get(VERSION));
+      dbArchivedWorkflowInstances.add(writeArchivedWorkflowInstance(dbWorkflowInstance));
+    }
+    if (workflowInstanceIds.isEmpty()) {
+      return 0;
+    }
+    List<BulkWriteError> writeErrors = archivedWorkflowInstancesCollection.insertUnordered("archive-workflow-instances", dbArchivedWorkflowInstances);
+    Set<Integer> failedIndexes = new HashSet<>();
+    for (BulkWriteError writeError: writeErrors) {
+      int index = writeError.getIndex();
+      if (writeError.getCode()==DUPLICATE_KEY) {
+        // an interrupted run left an archived copy that can be older than this one
+        try {
+          archivedWorkflowInstancesCollection.update("replace-archived-workflow-instance", 
+            new BasicDBObject(_ID, workflowInstanceIds.get(index)), 
+            dbArchivedWorkflowInstances.get(index));
+        } catch (RuntimeException e) {
+          log.error("Couldn't replace archived workflow instance "+workflowInstanceIds.get(index)+": "+e.getMessage(), e);
+          failedIndexes.add(index);
+        }
+      } else {
+        log.error("Couldn't archive workflow instance: "+writeError.getMessage());
+        failedIndexes.add(index);
+      }
+    }
+    List<Object> archivedWorkflowInstanceIds = new ArrayList<>();
+    List<DBObject> archivedVersionQueries = new ArrayList<>();
+    for (int i=0; i<workflowInstanceIds.size(); i++) {
+      if (!failedIndexes.contains(i)) {
+        Object version = versions.get(i);
+        archivedWorkflowInstanceIds.add(workflowInstanceIds.get(i));
+        archivedVersionQueries.add(new BasicDBObject(_ID, workflowInstanceIds.get(i))
+          .append(VERSION, version!=null ? version : new BasicDBObject("$exists", false)));
+      }
+    }
+    if (archivedWorkflowInstanceIds.isEmpty()) {
+      return 0;
+    }
+    BasicDBObject removeQuery = new BasicDBObject("$or", archivedVersionQueries)
+      .append(LOCK, new BasicDBObject("$exists", false));
+    int removed = workflowInstancesCollection.remove("remove-archived-workflow-instances", removeQuery).getN();
+    if (workflowInstanceCache!=null) {
+      for (Object workflowInstanceId: archivedWorkflowInstanceIds) {
+        uncacheWorkflowInstance(new WorkflowInstanceId(workflowInstanceId.toString()));
+      }
+    }
+    if (removed<archivedWorkflowInstanceIds.size()) {
+      removeStaleArchivedWorkflowInstances(archivedWorkflowInstanceIds, archivedVersionQueries);
+    }
+    return removed;
+  }
+
+  /** removes the archived copies of the workflow instances that were 
+   * locked or changed after they were read for archiving.  Those 
+   * stay in the live collection and are archived again later.  The 
+   * version is part of the query so that a newer archived copy of 
+   * another node is kept. */
+  protected void removeStaleArchivedWorkflowInstances(List<Object> archivedWorkflowInstanceIds, List<DBObject> archivedVersionQueries) {
+    DBCursor cursor = workflowInstancesCollection.find("find-changed-archived-workflow-instances", 
+      new BasicDBObject(_ID, new BasicDBObject("$in", archivedWorkflowInstanceIds)), 
+      new BasicDBObject(_ID, true));
+    Set<Object> staleWorkflowInstanceIds = new HashSet<>();
+    while (cursor.hasNext()) {
+      staleWorkflowInstanceIds.add(cursor.next().get(_ID));
+    }
+    List<DBObject> staleVersionQueries = new ArrayList<>();
+    for (int i=0; i<archivedWorkflowInstanceIds.size(); i++) {
+      if (staleWorkflowInstanceIds.contains(archivedWorkflowInstanceIds.get(i))) {
+        staleVersionQueries.add(archivedVersionQueries.get(i));
+      }
+    }
+    if (!staleVersionQueries.isEmpty()) {
+      archivedWorkflowInstancesCollection.remove("remove-stale-archived-workflow-instances", 
+        new BasicDBObject("$or", staleVersionQueries));
+    }
+  }
+
+  /** keeps the fields by which archived workflow instances are found 
+   * next to the compressed document.  The separately stored values are 
+   * part of the document and the files of the values stay in GridFS. */
+  protected BasicDBObject writeArchivedWorkflowInstance(BasicDBObject dbWorkflowInstance) {
+    if (!compressArchive) {
+      return dbWorkflowInstance;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(new BasicBSONEncoder().encode(dbWorkflowInstance));
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't compress workflow instance: "+e.getMessage(), e);
+    }
+    BasicDBObject dbArchivedWorkflowInstance = new BasicDBObject(_ID, dbWorkflowInstance.get(_ID))
+      .append(WORKFLOW_ID, dbWorkflowInstance.get(WORKFLOW_ID))
+      .append(START, dbWorkflowInstance.get(START))
+      .append(END, dbWorkflowInstance.get(END));
+    if (dbWorkflowInstance.get(VERSION)!=null) {
+      // to recognize the archived copy of a version
+      dbArchivedWorkflowInstance.append(VERSION, dbWorkflowInstance.get(VERSION));
+    }
+    return dbArchivedWorkflowInstance.append(COMPRESSED, bytes.toByteArray());
+  }
+
+  protected BasicDBObject readArchivedWorkflowInstance(BasicDBObject dbArchivedWorkflowInstance) {
+    byte[] compressed = (byte[]) dbArchivedWorkflowInstance.get(COMPRESSED);
+    if (compressed==null) {
+      return dbArchivedWorkflowInstance;
+    }
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return (BasicDBObject) new DefaultDBDecoder().decode(Streams.read(in), (DBCollection) null);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't decompress archived workflow instance "+dbArchivedWorkflowInstance.get(_ID)+": "+e.getMessage(), e);
+    }
   }
 
   public List<WorkflowInstanceImpl> findWorkflowInstances(BasicDBObject dbQuery) {
@@ -224,12 +595,40 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
   @Override
   public void deleteWorkflowInstances(WorkflowInstanceQuery workflowInstanceQuery) {
     BasicDBObject query = createDbQuery(workflowInstanceQuery);
+    boolean isArchiveQuery = isArchiveQuery(workflowInstanceQuery);
+    if (fileVariableValueThreshold>0) {
+      List<ObjectId> workflowInstanceIds = new ArrayList<>();
+      collectWorkflowInstanceIds(workflowInstancesCollection.find("find-workflow-instance-ids", query, new BasicDBObject(_ID, true)), workflowInstanceIds);
+      // archived workflow instances keep their files
+      if (isArchiveQuery) {
+        collectWorkflowInstanceIds(archivedWorkflowInstancesCollection.find("find-archived-workflow-instance-ids", query, new BasicDBObject(_ID, true)), workflowInstanceIds);
+      }
+      if (!workflowInstanceIds.isEmpty()) {
+        getGridFS().remove(new BasicDBObject("metadata."+FILE_WORKFLOW_INSTANCE_ID, new BasicDBObject("$in", workflowInstanceIds)));
+      }
+    }
     workflowInstancesCollection.remove("delete-workflow-instances", query);
+    if (isArchiveQuery) {
+      archivedWorkflowInstancesCollection.remove("delete-archived-workflow-instances", query, false);
+    }
+  }
+  
+  protected void collectWorkflowInstanceIds(DBCursor cursor, List<ObjectId> workflowInstanceIds) {
+    while (cursor.hasNext()) {
+      workflowInstanceIds.add((ObjectId) cursor.next().get(_ID));
+    }
   }
   
   @Override
   public void deleteAllWorkflowInstances() {
+    if (workflowInstanceCache!=null) {
+      workflowInstanceCache.clear();
+    }
     workflowInstancesCollection.remove("delete-workflow-instances-unchecked", new BasicDBObject(), false);
+    archivedWorkflowInstancesCollection.remove("delete-archived-workflow-instances-unchecked", new BasicDBObject(), false);
+    if (fileVariableValueThreshold>0) {
+      getGridFS().remove(new BasicDBObject("metadata."+FILE_WORKFLOW_INSTANCE_ID, new BasicDBObject("$exists", true)));
+    }
   }
 
   protected BasicDBObject createDbQuery(WorkflowInstanceQuery query) {
@@ -255,6 +654,11 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
   }
   
   public void saveWorkflowInstance(BasicDBObject dbWorkflowInstance) {
+    Object workflowInstanceId = dbWorkflowInstance.get(_ID);
+    if (workflowInstanceId!=null) {
+      // the document is overwritten without incrementing the version
+      uncacheWorkflowInstance(new WorkflowInstanceId(workflowInstanceId.toString()));
+    }
     workflowInstancesCollection.save("save-workfow-instance", dbWorkflowInstance);
   }
   
@@ -281,24 +685,121 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     DBObject query = createLockQuery();
     query.put(_ID, new ObjectId(workflowInstanceId.getInternal()));
     
-    DBObject update = createLockUpdate();
+    LockImpl lock = createLock();
+    DBObject update = createLockUpdate(lock);
+
+    // A cached workflow instance is removed from the cache so that 
+    // it can only be used by the thread that holds the lock.
+    WorkflowInstanceImpl cachedWorkflowInstance = uncacheWorkflowInstance(workflowInstanceId);
+    if (cachedWorkflowInstance!=null) {
+      // only fetch the version.  if it's still the same as the cached 
+      // workflow instance, there's no need to transfer and parse the document
+      DBObject retrieveFields = new BasicDBObject()
+            .append(VERSION, true);
+      BasicDBObject dbVersion = workflowInstancesCollection.findAndModify("lock-cached-workflow-instance", query, update, retrieveFields);
+      if (dbVersion==null) {
+        return null;
+      }
+      Long version = readLong(dbVersion, VERSION);
+      if (version!=null && version.equals(cachedWorkflowInstance.version)) {
+        return reuseCachedWorkflowInstance(cachedWorkflowInstance, lock);
+      }
+      // somebody else has updated the workflow instance since it was cached.
+      // we already own the lock so a plain read is sufficient.
+      BasicDBObject dbWorkflowInstance = workflowInstancesCollection.findOne("get-locked-workflow-instance", 
+              new BasicDBObject(_ID, new ObjectId(workflowInstanceId.getInternal())), 
+              new BasicDBObject(ARCHIVED_ACTIVITY_INSTANCES, false)
+                .append(VARIABLE_VALUES, false));
+      return readLockedWorkflowInstanceImpl(dbWorkflowInstance);
+    }
     
     DBObject retrieveFields = new BasicDBObject()
-          .append(ARCHIVED_ACTIVITY_INSTANCES, false);
+          .append(ARCHIVED_ACTIVITY_INSTANCES, false)
+          .append(VARIABLE_VALUES, false);
     
     BasicDBObject dbWorkflowInstance = workflowInstancesCollection.findAndModify("lock-workflow-instance", query, update, retrieveFields);
+    return readLockedWorkflowInstanceImpl(dbWorkflowInstance);
+  }
+
+  /** locks all the unlocked workflow instances with one multi update and 
+   * reads the ones that got locked with one query.  The lock owner is unique 
+   * for this batch so that the query only returns the workflow instances 
+   * locked by this batch. */
+  @Override
+  public List<WorkflowInstanceImpl> lockWorkflowInstances(List<WorkflowInstanceId> workflowInstanceIds) {
+    List<WorkflowInstanceImpl> workflowInstances = new ArrayList<>(workflowInstanceIds.size());
+    if (workflowInstanceIds.isEmpty()) {
+      return workflowInstances;
+    }
+    List<ObjectId> ids = new ArrayList<>(workflowInstanceIds.size());
+    for (WorkflowInstanceId workflowInstanceId: workflowInstanceIds) {
+      ids.add(new ObjectId(workflowInstanceId.getInternal()));
+      // batch locked workflow instances are always read from the db
+      uncacheWorkflowInstance(workflowInstanceId);
+    }
+    
+    DBObject query = createLockQuery();
+    query.put(_ID, new BasicDBObject("$in", ids));
+    LockImpl lock = createLock();
+    lock.setOwner(lock.getOwner()+"/"+new ObjectId());
+    workflowInstancesCollection.update("lock-workflow-instances", query, createLockUpdate(lock), false, true);
+
+    DBObject lockedQuery = new BasicDBObject(_ID, new BasicDBObject("$in", ids))
+      .append(LOCK+"."+Lock.OWNER, lock.getOwner());
+    DBObject retrieveFields = new BasicDBObject()
+      .append(ARCHIVED_ACTIVITY_INSTANCES, false)
+      .append(VARIABLE_VALUES, false);
+    DBCursor cursor = workflowInstancesCollection.find("get-locked-workflow-instances", lockedQuery, retrieveFields);
+    while (cursor.hasNext()) {
+      BasicDBObject dbWorkflowInstance = (BasicDBObject) cursor.next();
+      workflowInstances.add(readLockedWorkflowInstanceImpl(dbWorkflowInstance));
+    }
+    return workflowInstances;
+  }
+
+  protected WorkflowInstanceImpl readLockedWorkflowInstanceImpl(BasicDBObject dbWorkflowInstance) {
     if (dbWorkflowInstance==null) {
       return null;
     }
-
     WorkflowInstanceImpl workflowInstance = readWorkflowInstanceImpl(dbWorkflowInstance);
     workflowInstance.trackUpdates(false);
     return workflowInstance;
   }
+
+  /** clears the transient execution state that was left in the 
+   * workflow instance by the previous execution that unlocked it. */
+  protected WorkflowInstanceImpl reuseCachedWorkflowInstance(WorkflowInstanceImpl workflowInstance, LockImpl lock) {
+    if (log.isDebugEnabled()) log.debug("Reusing cached workflow instance "+workflowInstance.id+" version "+workflowInstance.version);
+    workflowInstance.lock = lock;
+    workflowInstance.isAsync = null;
+    workflowInstance.transientProperties = null;
+    workflowInstance.lockedWorkflowInstances = null;
+    workflowInstance.unlockListeners = null;
+    workflowInstance.trackUpdates(false);
+    return workflowInstance;
+  }
+
+  protected void cacheWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+    // unlock listeners are notified asynchronously and might still use 
+    // the workflow instance while it's locked again
+    if (workflowInstanceCache!=null
+        && workflowInstance.version!=null
+        && workflowInstance.unlockListeners==null
+        && !workflowInstance.hasWork()
+        && !workflowInstance.hasAsyncWork()) {
+      workflowInstanceCache.put(workflowInstance.id, workflowInstance);
+    }
+  }
+
+  protected WorkflowInstanceImpl uncacheWorkflowInstance(WorkflowInstanceId workflowInstanceId) {
+    return workflowInstanceCache!=null ? workflowInstanceCache.remove(workflowInstanceId) : null;
+  }
   
   @Override
   public void unlockWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
     if (workflowInstance!=null) {
+      // the in memory workflow instance might contain changes that are not flushed
+      uncacheWorkflowInstance(workflowInstance.id);
       ObjectId workflowInstanceId = new ObjectId(workflowInstance.id.getInternal());
       // @formatter:off
       workflowInstancesCollection.update("unlock-workflow-instance", 
@@ -322,12 +823,23 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
       .get();
   }
 
+  public LockImpl createLock() {
+    LockImpl lock = new LockImpl();
+    lock.setTime(Time.now());
+    lock.setOwner(workflowEngine.getId());
+    return lock;
+  }
+
   public DBObject createLockUpdate() {
+    return createLockUpdate(createLock());
+  }
+
+  public DBObject createLockUpdate(LockImpl lock) {
     return BasicDBObjectBuilder.start()
       .push("$set")
         .push(LOCK)
-          .add(Lock.TIME, Time.now().toDate())
-          .add(Lock.OWNER, workflowEngine.getId())
+          .add(Lock.TIME, lock.getTime().toDate())
+          .add(Lock.OWNER, lock.getOwner())
         .pop()
       .pop()
       .get();
@@ -339,26 +851,46 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     DBObject query = createLockQuery();
     query.put(JobFields.DONE, new BasicDBObject("$exists", false));
     query.put(JOBS + "." + JobFields.DUE_DATE, new BasicDBObject("$lte", Time.now().toDate()));
+    if (jobPartitions!=null) {
+      jobPartitions.filterPartitions(query);
+    }
 
     DBObject update = createLockUpdate();
 
     DBObject retrieveFields = new BasicDBObject()
-        .append(ARCHIVED_ACTIVITY_INSTANCES, false);
+        .append(ARCHIVED_ACTIVITY_INSTANCES, false)
+        .append(VARIABLE_VALUES, false);
 
     BasicDBObject dbWorkflowInstance = workflowInstancesCollection.findAndModify("lock-workflow-instance", query, update, retrieveFields, new BasicDBObject(START, 1), false, true, false);
-    if (dbWorkflowInstance==null) {
-      return null;
+    WorkflowInstanceImpl workflowInstance = readLockedWorkflowInstanceImpl(dbWorkflowInstance);
+    if (workflowInstance!=null) {
+      // the freshly read workflow instance replaces the cached one 
+      // when it gets unlocked 
+      uncacheWorkflowInstance(workflowInstance.id);
     }
-
-    WorkflowInstanceImpl workflowInstance = readWorkflowInstanceImpl(dbWorkflowInstance);
-    workflowInstance.trackUpdates(false);
     return workflowInstance;
   }
 
+  /** writes the workflow instance straight to db format without 
+   * creating the {@link WorkflowInstance} api object graph first. */
   public BasicDBObject writeWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
-    BasicDBObject dbWorkflowInstance = mongoMapper.write(workflowInstance.toWorkflowInstance(true));
+    BasicDBObject dbWorkflowInstance = new BasicDBObject();
+    writeIdOptNew(dbWorkflowInstance, _ID, workflowInstance.id);
     if (storeWorkflowIdsAsStrings) {
       writeString(dbWorkflowInstance, WORKFLOW_ID, workflowInstance.workflow.id.getInternal());
+    } else {
+      writeIdOptNew(dbWorkflowInstance, WORKFLOW_ID, workflowInstance.workflow.id);
+    }
+    writeStringOpt(dbWorkflowInstance, BUSINESS_KEY, workflowInstance.businessKey);
+    writeIdOptNew(dbWorkflowInstance, CALLING_WORKFLOW_INSTANCE_ID, workflowInstance.callingWorkflowInstanceId);
+    writeStringOpt(dbWorkflowInstance, CALLING_ACTIVITY_INSTANCE_ID, workflowInstance.callingActivityInstanceId);
+    // values that are not loaded can't be written
+    workflowInstance.loadVariableValues();
+    BasicDBObject dbVariableValues = new BasicDBObject();
+    collectVariableValues(workflowInstance, false, dbVariableValues, null, null);
+    writeScopeInstance(dbWorkflowInstance, workflowInstance, true);
+    if (!dbVariableValues.isEmpty()) {
+      dbWorkflowInstance.put(VARIABLE_VALUES, dbVariableValues);
     }
 
     writeLongOpt(dbWorkflowInstance, NEXT_ACTIVITY_INSTANCE_ID, workflowInstance.nextActivityInstanceId);
@@ -367,6 +899,10 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     writeObjectOpt(dbWorkflowInstance, WORK_ASYNC, writeWork(workflowInstance.workAsync));
     writeObjectOpt(dbWorkflowInstance, JOBS, writeJobs(workflowInstance.jobs));
     writeObjectOpt(dbWorkflowInstance, LOCK, writeLock(workflowInstance.lock));
+    writeLongOpt(dbWorkflowInstance, VERSION, workflowInstance.version);
+    if (jobPartitions!=null && workflowInstance.id!=null) {
+      dbWorkflowInstance.put(PARTITION, jobPartitions.getPartition(workflowInstance.id.getInternal()));
+    }
     
     return dbWorkflowInstance;
   }
@@ -415,12 +951,22 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     workflowInstance.callingActivityInstanceId = readString(dbWorkflowInstance, CALLING_ACTIVITY_INSTANCE_ID);
     workflowInstance.nextActivityInstanceId = readLong(dbWorkflowInstance, NEXT_ACTIVITY_INSTANCE_ID);
     workflowInstance.nextVariableInstanceId = readLong(dbWorkflowInstance, NEXT_VARIABLE_INSTANCE_ID);
+    workflowInstance.version = readLong(dbWorkflowInstance, VERSION);
     workflowInstance.lock = readLock((BasicDBObject) dbWorkflowInstance.get(LOCK));
     workflowInstance.jobs = readJobs(readList(dbWorkflowInstance, JOBS));
     
     Map<ActivityInstanceImpl, String> allActivityIds = new HashMap<>();
     readScopeImpl(workflowInstance, dbWorkflowInstance, allActivityIds);
     resolveActivityReferences(workflowInstance, workflow, allActivityIds);
+    // locks don't retrieve the separately stored values, other reads do
+    BasicDBObject dbVariableValues = readBasicDBObject(dbWorkflowInstance, VARIABLE_VALUES);
+    if (dbVariableValues!=null) {
+      List<VariableInstanceImpl> unloadedVariableInstances = new ArrayList<>();
+      workflowInstance.collectUnloadedVariableInstances(unloadedVariableInstances);
+      for (VariableInstanceImpl variableInstance: unloadedVariableInstances) {
+        readVariableValue(variableInstance, dbVariableValues.get(variableInstance.valueRef));
+      }
+    }
     
     workflowInstance.work = readWork(dbWorkflowInstance, WORK, workflowInstance);
     workflowInstance.workAsync = readWork(dbWorkflowInstance, WORK_ASYNC, workflowInstance);
@@ -443,7 +989,8 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     Set<String> invalidPropertyKeys = Extensible.getInvalidPropertyKeys(WorkflowInstance.class);
     // Map<String,?> mappedBeanFields = mongoMapper.write(workflowInstance.toWorkflowInstance());
     for (String fieldName : dbWorkflowInstance.keySet()) {
-      boolean property = !invalidPropertyKeys.contains(fieldName);
+      boolean property = !invalidPropertyKeys.contains(fieldName)
+              && !VARIABLE_VALUES.equals(fieldName);
       if (property) {
         workflowInstance.setProperty(fieldName, dbWorkflowInstance.get(fieldName));
       }
@@ -495,12 +1042,32 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
         ActivityImpl activity = scope.findActivityByIdLocal(activityId);
         activityInstance.activity = activity;
         activityInstance.scope = activity;
+        resolveVariableReferences(activityInstance);
         ScopeImpl nestedScope = activity.isMultiInstance() ? activity.parent : activity;
         resolveActivityReferences(activityInstance, nestedScope, allActivityIds);
       }
     }
   }
 
+  /** the variable instances of an activity instance are read before its 
+   * scope is known, so the variables declared in the activity are only 
+   * found and given their slots here. */
+  protected void resolveVariableReferences(ActivityInstanceImpl activityInstance) {
+    if (activityInstance.variableInstances!=null) {
+      for (VariableInstanceImpl variableInstance: activityInstance.variableInstances) {
+        // variables that weren't found when reading don't have a parent scope
+        if (variableInstance.variable.parent==null) {
+          VariableImpl variable = findVariableByIdRecurseParents(activityInstance.scope, variableInstance.variable.id);
+          if (variable!=null) {
+            variableInstance.variable = variable;
+            variableInstance.type = variable.type;
+          }
+        }
+      }
+      activityInstance.updateVariableInstancesMap();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   protected Queue<ActivityInstanceImpl> readWork(BasicDBObject dbWorkflowInstance, String fieldName, WorkflowInstanceImpl workflowInstance) {
     Queue<ActivityInstanceImpl> workQueue = null;
@@ -515,35 +1082,126 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
     return workQueue;
   }
 
-  private void readVariableInstances(ScopeInstanceImpl parent, BasicDBObject dbWorkflowInstance) {
-    List<BasicDBObject> dbVariableInstances = readList(dbWorkflowInstance, VARIABLE_INSTANCES);
+  protected void readVariableInstances(ScopeInstanceImpl parent, BasicDBObject dbScopeInstance) {
+    List<BasicDBObject> dbVariableInstances = readList(dbScopeInstance, VARIABLE_INSTANCES);
     if (dbVariableInstances!=null && !dbVariableInstances.isEmpty()) {
       for (BasicDBObject dbVariableInstance: dbVariableInstances) {
-        VariableInstance variableInstance = mongoMapper.read(dbVariableInstance, VariableInstance.class);
-        
-        VariableInstanceImpl variableInstanceImpl = new VariableInstanceImpl();
-        variableInstanceImpl.id = variableInstance.getId();
-        String variableId = variableInstance.getVariableId();
-        variableInstanceImpl.variable = findVariableByIdRecurseParents(parent.scope, variableId);
-        if (variableInstanceImpl.variable!=null) {
-          variableInstanceImpl.type = variableInstanceImpl.variable.type;
-        } else {
-          variableInstanceImpl.variable = new VariableImpl();
-          DataType type = variableInstance.getType();
-          if (type!=null) {
-            variableInstanceImpl.type = dataTypeService.createDataType(type);
-          }
+        VariableInstanceImpl variableInstanceImpl = readVariableInstance(parent, dbVariableInstance);
+        parent.addVariableInstance(variableInstanceImpl);
+      }
+    }
+  }
+
+  protected VariableInstanceImpl readVariableInstance(ScopeInstanceImpl parent, BasicDBObject dbVariableInstance) {
+    VariableInstanceImpl variableInstanceImpl = new VariableInstanceImpl();
+    variableInstanceImpl.id = readString(dbVariableInstance, ID);
+    String variableId = readString(dbVariableInstance, VariableInstance.VARIABLE_ID);
+    DataType type = mongoMapper.read(readObject(dbVariableInstance, VariableInstance.TYPE), DataType.class);
+    variableInstanceImpl.variable = findVariableByIdRecurseParents(parent.scope, variableId);
+    if (variableInstanceImpl.variable!=null) {
+      variableInstanceImpl.type = variableInstanceImpl.variable.type;
+    } else {
+      variableInstanceImpl.variable = new VariableImpl();
+      variableInstanceImpl.variable.id = variableId;
+      if (type!=null) {
+        variableInstanceImpl.type = dataTypeService.createDataType(type);
+      }
+    }
+    String valueRef = readString(dbVariableInstance, VariableInstance.VALUE_REF);
+    if (valueRef!=null) {
+      variableInstanceImpl.valueRef = valueRef;
+      variableInstanceImpl.valueLoader = this;
+    } else {
+      Object dbValue = readObject(dbVariableInstance, VariableInstance.VALUE);
+      if (dbValue!=null) {
+        variableInstanceImpl.value = type!=null ? mongoMapper.read(dbValue, type.getValueType()) : dbValue;
+      }
+    }
+
+    variableInstanceImpl.configuration = configuration;
+    variableInstanceImpl.workflowInstance = parent.workflowInstance;
+    variableInstanceImpl.parent = parent;
+    variableInstanceImpl.workflow = parent.workflow;
+    return variableInstanceImpl;
+  }
+
+  /** loads separately stored values with one query per workflow instance.
+   * Archived workflow instances keep these values in their archived document 
+   * and their files in GridFS till they are deleted. */
+  @Override
+  public void loadValues(List<VariableInstanceImpl> variableInstances) {
+    Map<WorkflowInstanceId, List<VariableInstanceImpl>> variableInstancesByWorkflowInstance = new LinkedHashMap<>();
+    for (VariableInstanceImpl variableInstance: variableInstances) {
+      if (isFileRef(variableInstance.valueRef)) {
+        readVariableValueFile(variableInstance);
+        continue;
+      }
+      List<VariableInstanceImpl> workflowInstanceVariableInstances = variableInstancesByWorkflowInstance.get(variableInstance.workflowInstance.id);
+      if (workflowInstanceVariableInstances==null) {
+        workflowInstanceVariableInstances = new ArrayList<>();
+        variableInstancesByWorkflowInstance.put(variableInstance.workflowInstance.id, workflowInstanceVariableInstances);
+      }
+      workflowInstanceVariableInstances.add(variableInstance);
+    }
+    for (WorkflowInstanceId workflowInstanceId: variableInstancesByWorkflowInstance.keySet()) {
+      List<VariableInstanceImpl> workflowInstanceVariableInstances = variableInstancesByWorkflowInstance.get(workflowInstanceId);
+      BasicDBObject retrieveFields = new BasicDBObject();
+      for (VariableInstanceImpl variableInstance: workflowInstanceVariableInstances) {
+        retrieveFields.append(VARIABLE_VALUES+"."+variableInstance.valueRef, true);
+      }
+      BasicDBObject idQuery = new BasicDBObject(_ID, new ObjectId(workflowInstanceId.getInternal()));
+      BasicDBObject dbWorkflowInstance = workflowInstancesCollection.findOne("load-variable-values", idQuery, retrieveFields);
+      if (dbWorkflowInstance==null) {
+        // a compressed archived document only has the values in compressed form
+        retrieveFields.append(COMPRESSED, true);
+        dbWorkflowInstance = archivedWorkflowInstancesCollection.findOne("load-archived-variable-values", idQuery, retrieveFields);
+        if (dbWorkflowInstance!=null) {
+          dbWorkflowInstance = readArchivedWorkflowInstance(dbWorkflowInstance);
         }
-        variableInstanceImpl.value = variableInstance.getValue();
+      }
+      BasicDBObject dbVariableValues = dbWorkflowInstance!=null ? readBasicDBObject(dbWorkflowInstance, VARIABLE_VALUES) : null;
+      for (VariableInstanceImpl variableInstance: workflowInstanceVariableInstances) {
+        readVariableValue(variableInstance, dbVariableValues!=null ? dbVariableValues.get(variableInstance.valueRef) : null);
+      }
+    }
+  }
 
-        variableInstanceImpl.configuration = configuration;
-        variableInstanceImpl.workflowInstance = parent.workflowInstance;
-        variableInstanceImpl.parent = parent;
-        variableInstanceImpl.workflow = parent.workflow;
+  @Override
+  public InputStream openValueStream(VariableInstanceImpl variableInstance) {
+    if (!isFileRef(variableInstance.valueRef)) {
+      return null;
+    }
+    GridFSDBFile file = getGridFS().findOne(getFileId(variableInstance.valueRef));
+    if (file==null || !TEXT_CONTENT_TYPE.equals(file.getContentType())) {
+      return null;
+    }
+    return file.getInputStream();
+  }
 
-        parent.addVariableInstance(variableInstanceImpl);
+  protected void readVariableValueFile(VariableInstanceImpl variableInstance) {
+    GridFSDBFile file = getGridFS().findOne(getFileId(variableInstance.valueRef));
+    Object dbValue = null;
+    if (file!=null) {
+      try (InputStream in = file.getInputStream()) {
+        if (TEXT_CONTENT_TYPE.equals(file.getContentType())) {
+          dbValue = new String(Streams.read(in), StandardCharsets.UTF_8);
+        } else {
+          dbValue = new BasicBSONDecoder().readObject(in).get(VariableInstance.VALUE);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Couldn't read variable value file "+variableInstance.valueRef+": "+e.getMessage(), e);
       }
     }
+    readVariableValue(variableInstance, dbValue);
+  }
+
+  protected void readVariableValue(VariableInstanceImpl variableInstance, Object dbValue) {
+    if (dbValue!=null) {
+      variableInstance.value = variableInstance.type!=null 
+              ? mongoMapper.read(dbValue, variableInstance.type.serialize().getValueType()) 
+              : dbValue;
+    }
+    variableInstance.valueLoader = null;
   }
 
   protected VariableImpl findVariableByIdRecurseParents(ScopeImpl scope, String variableId) {
@@ -579,17 +1237,50 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
 
   /** writes the given activityInstances to db format, preserving the hierarchy and including the workState. */
   protected BasicDBList writeActiveActivityInstances(List<ActivityInstanceImpl> activityInstances) {
+    return writeActivityInstances(activityInstances, true);
+  }
+
+  protected BasicDBList writeActivityInstances(List<ActivityInstanceImpl> activityInstances, boolean includeWorkState) {
     if (activityInstances==null || activityInstances.isEmpty()) {
       return null;
     }
     BasicDBList dbActivityInstances = new BasicDBList();
     for (ActivityInstanceImpl activityInstance: activityInstances) {
-      BasicDBObject dbActivityInstance = mongoMapper.write(activityInstance.toActivityInstance(true));
-      dbActivityInstances.add(dbActivityInstance);
+      dbActivityInstances.add(writeActivityInstance(activityInstance, includeWorkState));
     }
     return dbActivityInstances;
   }
 
+  protected BasicDBObject writeActivityInstance(ActivityInstanceImpl activityInstance, boolean includeWorkState) {
+    BasicDBObject dbActivityInstance = new BasicDBObject();
+    writeStringOpt(dbActivityInstance, ID, activityInstance.id);
+    writeStringOpt(dbActivityInstance, ACTIVITY_ID, activityInstance.activity.id);
+    writeIdOptNew(dbActivityInstance, CALLED_WORKFLOW_INSTANCE_ID, activityInstance.calledWorkflowInstanceId);
+    writeScopeInstance(dbActivityInstance, activityInstance, includeWorkState);
+    if (includeWorkState) {
+      writeStringOpt(dbActivityInstance, WORK_STATE, activityInstance.workState);
+    }
+    return dbActivityInstance;
+  }
+
+  /** writes the fields that workflow instances and activity instances have in common */
+  protected void writeScopeInstance(BasicDBObject dbScopeInstance, ScopeInstanceImpl scopeInstance, boolean includeWorkState) {
+    writeTimeOpt(dbScopeInstance, START, scopeInstance.start);
+    writeTimeOpt(dbScopeInstance, END, scopeInstance.end);
+    writeStringOpt(dbScopeInstance, END_STATE, scopeInstance.endState);
+    writeLongOpt(dbScopeInstance, DURATION, scopeInstance.duration);
+    writeObjectOpt(dbScopeInstance, ACTIVITY_INSTANCES, writeActivityInstances(scopeInstance.activityInstances, includeWorkState));
+    writeVariableInstances(dbScopeInstance, scopeInstance);
+    // like in the api objects, properties are written inline
+    if (scopeInstance.properties!=null) {
+      for (Map.Entry<String,Object> property: scopeInstance.properties.entrySet()) {
+        if (property.getValue()!=null) {
+          dbScopeInstance.put(property.getKey(), mongoMapper.write(property.getValue()));
+        }
+      }
+    }
+  }
+
   /** recursively removes the archivable activities from the scopeInstance, serializes them to DB format and adds them to the dbArchivedActivityInstances as a flat list */
   protected void collectArchivedActivities(ScopeInstanceImpl scopeInstance, BasicDBList dbArchivedActivityInstances) {
     if (scopeInstance.activityInstances!=null) {
@@ -598,8 +1289,9 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
         if (activityInstance.workState!=null) { // null means ready to be archived
           activeActivityInstances.add(activityInstance);
         } else {
+          activityInstance.workflowInstance.unindexActivityInstance(activityInstance);
           activityInstance.activityInstances = null;
-          BasicDBObject dbActivity = mongoMapper.write(activityInstance.toActivityInstance());
+          BasicDBObject dbActivity = writeActivityInstance(activityInstance, false);
           String parentId = (activityInstance.parent.isWorkflowInstance() ? null : ((ActivityInstanceImpl) activityInstance.parent).id);
           writeString(dbActivity, PARENT, parentId);
           dbArchivedActivityInstances.add(dbActivity);
@@ -612,14 +1304,137 @@ public class MongoWorkflowInstanceStore implements WorkflowInstanceStore, Brewab
 
   protected void writeVariableInstances(BasicDBObject dbScope, ScopeInstanceImpl scope) {
     if (scope.variableInstances!=null) {
-      for (VariableInstanceImpl variableInstanceImpl: scope.variableInstances) {
-        VariableInstance variableInstance = variableInstanceImpl.toVariableInstance();
-        BasicDBObject dbVariable = mongoMapper.write(variableInstance);
-        writeListElementOpt(dbScope, VARIABLE_INSTANCES, dbVariable);
+      for (VariableInstanceImpl variableInstance: scope.variableInstances) {
+        writeListElementOpt(dbScope, VARIABLE_INSTANCES, writeVariableInstance(variableInstance));
+      }
+    }
+  }
+
+  protected BasicDBObject writeVariableInstance(VariableInstanceImpl variableInstance) {
+    BasicDBObject dbVariableInstance = new BasicDBObject();
+    writeStringOpt(dbVariableInstance, VariableInstance.VARIABLE_ID, variableInstance.variable.id);
+    if (variableInstance.valueRef!=null) {
+      writeString(dbVariableInstance, VariableInstance.VALUE_REF, variableInstance.valueRef);
+    } else if (variableInstance.value!=null) {
+      writeObject(dbVariableInstance, VariableInstance.VALUE, mongoMapper.write(variableInstance.value));
+    }
+    if (variableInstance.type!=null) {
+      writeObject(dbVariableInstance, VariableInstance.TYPE, mongoMapper.write(variableInstance.type.serialize()));
+    }
+    return dbVariableInstance;
+  }
+
+  /** decides which values are stored separately from their variable instance 
+   * and collects the values that have to be written in dbVariableValues.
+   * Values that go to a file are written immediately.
+   * If onlyChanged is false, all separately stored values are collected. 
+   * The refs of the written files are added to addedFileRefs if it's not null. */
+  protected void collectVariableValues(ScopeInstanceImpl scopeInstance, boolean onlyChanged, BasicDBObject dbVariableValues, List<String> removedValueRefs, List<String> addedFileRefs) {
+    if (scopeInstance.variableInstances!=null) {
+      for (VariableInstanceImpl variableInstance: scopeInstance.variableInstances) {
+        // unchanged files don't need to be written again
+        if (variableInstance.isValueLoaded() 
+            && ( isValueChanged(variableInstance) 
+                 || (!onlyChanged && !isFileRef(variableInstance.valueRef)) )) {
+          collectVariableValue(variableInstance, dbVariableValues, removedValueRefs, addedFileRefs);
+        }
+      }
+    }
+    if (scopeInstance.activityInstances!=null) {
+      for (ActivityInstanceImpl activityInstance: scopeInstance.activityInstances) {
+        collectVariableValues(activityInstance, onlyChanged, dbVariableValues, removedValueRefs, addedFileRefs);
       }
     }
   }
 
+  protected void collectVariableValue(VariableInstanceImpl variableInstance, BasicDBObject dbVariableValues, List<String> removedValueRefs, List<String> addedFileRefs) {
+    String oldValueRef = variableInstance.valueRef;
+    variableInstance.valueRef = null;
+    Object dbValue = (lazyVariableValueThreshold>0 || fileVariableValueThreshold>0) && variableInstance.value!=null 
+            ? mongoMapper.write(variableInstance.value) 
+            : null;
+    if (dbValue!=null) {
+      // strings are not encoded as their length is a good enough approximation
+      byte[] bson = dbValue instanceof String ? null : encodeBson(dbValue);
+      int size = bson!=null ? bson.length : ((String)dbValue).length();
+      if (fileVariableValueThreshold>0 && size>fileVariableValueThreshold) {
+        variableInstance.valueRef = writeVariableValueFile(variableInstance, dbValue, bson);
+        if (addedFileRefs!=null) {
+          addedFileRefs.add(variableInstance.valueRef);
+        }
+      } else if (lazyVariableValueThreshold>0 && size>lazyVariableValueThreshold) {
+        variableInstance.valueRef = oldValueRef!=null && !isFileRef(oldValueRef) ? oldValueRef : new ObjectId().toString();
+        dbVariableValues.append(variableInstance.valueRef, dbValue);
+      }
+    }
+    if (oldValueRef!=null 
+        && !oldValueRef.equals(variableInstance.valueRef)
+        && removedValueRefs!=null) {
+      removedValueRefs.add(oldValueRef);
+    }
+  }
+
+  /** streams the value into a new file and returns the value ref */
+  protected String writeVariableValueFile(VariableInstanceImpl variableInstance, Object dbValue, byte[] bson) {
+    ObjectId fileId = new ObjectId();
+    GridFSInputFile file = getGridFS().createFile();
+    file.setId(fileId);
+    file.setContentType(bson!=null ? BSON_CONTENT_TYPE : TEXT_CONTENT_TYPE);
+    file.setMetaData(new BasicDBObject(FILE_WORKFLOW_INSTANCE_ID, new ObjectId(variableInstance.workflowInstance.id.getInternal())));
+    try (OutputStream out = file.getOutputStream()) {
+      if (bson!=null) {
+        out.write(bson);
+      } else {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write((String) dbValue);
+        writer.flush();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't write variable value file: "+e.getMessage(), e);
+    }
+    return FILE_REF_PREFIX+fileId.toString();
+  }
+
+  protected GridFS getGridFS() {
+    if (gridFS==null) {
+      gridFS = brewery.get(GridFS.class);
+    }
+    return gridFS;
+  }
+
+  /** removes the files of the given value refs, other value refs are ignored */
+  protected void removeFiles(List<String> valueRefs) {
+    for (String valueRef: valueRefs) {
+      if (isFileRef(valueRef)) {
+        getGridFS().remove(getFileId(valueRef));
+      }
+    }
+  }
+
+  /** removes the files of a workflow instance that couldn't be inserted */
+  protected void removeWorkflowInstanceFiles(WorkflowInstanceImpl workflowInstance) {
+    if (fileVariableValueThreshold>0 && workflowInstance.id!=null) {
+      getGridFS().remove(new BasicDBObject("metadata."+FILE_WORKFLOW_INSTANCE_ID, new ObjectId(workflowInstance.id.getInternal())));
+    }
+  }
+
+  protected static boolean isFileRef(String valueRef) {
+    return valueRef!=null && valueRef.startsWith(FILE_REF_PREFIX);
+  }
+
+  protected static ObjectId getFileId(String fileRef) {
+    return new ObjectId(fileRef.substring(FILE_REF_PREFIX.length()));
+  }
+
+  protected boolean isValueChanged(VariableInstanceImpl variableInstance) {
+    VariableInstanceUpdates updates = variableInstance.getUpdates();
+    return updates==null || updates.isNew || updates.isValueChanged;
+  }
+
+  protected byte[] encodeBson(Object dbValue) {
+    return new BasicBSONEncoder().encode(new BasicDBObject(VariableInstance.VALUE, dbValue));
+  }
+
   protected List<BasicDBObject> writeJobs(List<Job> jobs) {
     if (jobs==null || jobs.isEmpty()) {
       return null;
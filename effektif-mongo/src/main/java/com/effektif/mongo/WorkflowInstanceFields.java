@@ -21,6 +21,7 @@ public interface WorkflowInstanceFields extends ScopeInstanceFields {
   String ACTIVITY_INSTANCES = "activityInstances";
   String ARCHIVED_ACTIVITY_INSTANCES = "archivedActivities";
   String VARIABLE_INSTANCES = "variableInstances";
+  String VARIABLE_VALUES = "variableValues";
   String LOCK = "lock";
   String UPDATES = "updates";
   String WORK = "work";
@@ -32,6 +33,11 @@ public interface WorkflowInstanceFields extends ScopeInstanceFields {
   String JOBS = "jobs";
   String PROPERTIES = "properties";
   String BUSINESS_KEY = "businessKey";
+  String VERSION = "version";
+  /** gzipped bson of an archived workflow instance when the archive is compressed */
+  String COMPRESSED = "compressed";
+  /** @see MongoJobPartitions */
+  String PARTITION = MongoJobPartitions.PARTITION;
 
   interface Lock {
     String TIME = "time";
@@ -42,5 +48,6 @@ public interface WorkflowInstanceFields extends ScopeInstanceFields {
     String VARIABLE_ID = "variableId";
     String VALUE = "value";
     String TYPE = "type";
+    String VALUE_REF = "valueRef";
   }
 }
\ No newline at end of file
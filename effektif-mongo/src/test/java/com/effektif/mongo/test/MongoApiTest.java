@@ -21,6 +21,7 @@ import com.effektif.mongo.MongoConfiguration;
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.test.TestSuiteHelper;
 import com.effektif.workflow.test.WorkflowTest;
+import com.effektif.workflow.test.impl.VariableSlotsTest;
 import com.mongodb.DB;
 
 
@@ -50,6 +51,15 @@ public class MongoApiTest {
       );
   }
 
+  @Test
+  public void testVariableSlotsWithMongoConfiguration() {
+    Configuration configuration = createMongoTestConfiguration();
+    configuration.get(DB.class).dropDatabase();
+    initializeIds();
+    // the workflow instances are read from the stored documents
+    TestSuiteHelper.run(configuration, VariableSlotsTest.class, null);
+  }
+
   public static Configuration createMongoTestConfiguration() {
     MongoConfiguration configuration = new MongoConfiguration()
       .databaseName("effektif-test")
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.mongo.test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.effektif.mongo.MongoConfiguration;
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+import com.effektif.workflow.impl.history.HistoryEvent;
+import com.effektif.workflow.impl.history.HistoryLevel;
+import com.effektif.workflow.impl.history.HistoryQuery;
+import com.effektif.workflow.impl.history.HistoryService;
+import com.effektif.workflow.impl.history.HistoryStore;
+
+
+/** Checks that the history is recorded in and read back from 
+ * a running mongo database.
+ */
+public class MongoHistoryTest {
+
+  MongoConfiguration configuration;
+  HistoryStore historyStore;
+
+  @Before
+  public void startConfiguration() {
+    configuration = new MongoConfiguration()
+      .databaseName("effektif-history-test")
+      .history(HistoryLevel.FULL)
+      .synchronous();
+    configuration.start();
+    historyStore = configuration.get(HistoryStore.class);
+    historyStore.deleteAllHistoryEvents();
+  }
+
+  @After
+  public void stopConfiguration() {
+    configuration.stop();
+  }
+
+  @Test
+  public void testHistory() {
+    WorkflowEngine workflowEngine = configuration.getWorkflowEngine();
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("v", TextType.INSTANCE)
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    workflowEngine.deployWorkflow(workflow).checkNoErrors();
+
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("v", "hello"));
+    workflowInstance = workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId())
+      .data("v", "world"));
+    workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("two").getId()));
+
+    // removing the listener records the events that are already published
+    configuration.get(WorkflowEngineImpl.class)
+      .removeAsyncWorkflowExecutionListener(configuration.get(HistoryService.class));
+
+    List<HistoryEvent> historyEvents = historyStore.findHistoryEvents(new HistoryQuery()
+      .workflowInstanceId(workflowInstance.getId()));
+    assertEquals(Type.VARIABLE_UPDATED, historyEvents.get(0).getType());
+    assertEquals("hello", historyEvents.get(0).getValue());
+    assertNotNull(historyEvents.get(0).getTime());
+    assertEquals(Type.WORKFLOW_INSTANCE_STARTING, historyEvents.get(1).getType());
+    assertEquals(Type.WORKFLOW_INSTANCE_ENDED, historyEvents.get(historyEvents.size()-1).getType());
+
+    List<HistoryEvent> activityEvents = historyStore.findHistoryEvents(new HistoryQuery()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityId("two"));
+    assertEquals(2, activityEvents.size());
+    assertEquals(Type.ACTIVITY_INSTANCE_STARTING, activityEvents.get(0).getType());
+
+    List<HistoryEvent> variableEvents = historyStore.findHistoryEvents(new HistoryQuery()
+      .type(Type.VARIABLE_UPDATED));
+    assertEquals(2, variableEvents.size());
+    assertEquals("v", variableEvents.get(1).getVariableId());
+    assertEquals("world", variableEvents.get(1).getValue());
+
+    List<HistoryEvent> limited = historyStore.findHistoryEvents(new HistoryQuery()
+      .type(Type.ACTIVITY_INSTANCE_ENDED)
+      .limit(1));
+    assertEquals(1, limited.size());
+    assertEquals("one", limited.get(0).getActivityId());
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.mongo.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.effektif.mongo.MongoJobPartitions;
+import com.effektif.workflow.impl.util.Lists;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class MongoJobPartitionsTest {
+
+  @Test
+  public void testSingleNodeClaimsAllPartitions() {
+    List<Integer> partitions = MongoJobPartitions.assignPartitions(new ArrayList<String>(), "a", 8);
+    assertEquals(8, partitions.size());
+  }
+
+  @Test
+  public void testPartitionsAreSplitOverNodes() {
+    List<String> nodeIds = Lists.of("c", "a", "b");
+    Set<Integer> claimed = new HashSet<>();
+    for (String nodeId: nodeIds) {
+      for (Integer partition: MongoJobPartitions.assignPartitions(nodeIds, nodeId, 64)) {
+        assertTrue("partition "+partition+" claimed twice", claimed.add(partition));
+      }
+    }
+    assertEquals(64, claimed.size());
+    assertEquals(Lists.of(0, 3, 6), MongoJobPartitions.assignPartitions(nodeIds, "a", 7));
+    assertEquals(Lists.of(1, 4), MongoJobPartitions.assignPartitions(nodeIds, "b", 7));
+  }
+
+  @Test
+  public void testRebalanceWhenNodeLeaves() {
+    assertEquals(Lists.of(1, 4), MongoJobPartitions.assignPartitions(Lists.of("a", "b", "c"), "b", 7));
+    assertEquals(Lists.of(1, 3, 5), MongoJobPartitions.assignPartitions(Lists.of("a", "b"), "b", 7));
+  }
+
+  @Test
+  public void testPartitionIsDeterministic() {
+    int partition = MongoJobPartitions.getPartition("55461f4003649edf48457c70", 16);
+    assertTrue(partition>=0 && partition<16);
+    assertEquals(partition, MongoJobPartitions.getPartition("55461f4003649edf48457c70", 16));
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.mongo.test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.joda.time.LocalDateTime;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.effektif.mongo.MongoConfiguration;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.job.JobQueueDepth;
+import com.effektif.workflow.impl.job.JobStore;
+import com.effektif.workflow.impl.util.Time;
+
+
+/** Checks the order in which the mongo job store locks 
+ * due jobs against a running mongo database.
+ */
+public class MongoJobStoreTest {
+
+  static MongoConfiguration configuration;
+  static JobStore jobStore;
+
+  @BeforeClass
+  public static void startConfiguration() {
+    configuration = new MongoConfiguration()
+      .databaseName("effektif-job-store-test")
+      .synchronous();
+    configuration.start();
+    jobStore = configuration.get(JobStore.class);
+  }
+
+  @AfterClass
+  public static void stopConfiguration() {
+    if (configuration!=null) {
+      configuration.stop();
+    }
+  }
+
+  @Before
+  public void deleteJobs() {
+    jobStore.deleteAllJobs();
+  }
+
+  @Test
+  public void testPriorityOrder() {
+    LocalDateTime now = Time.now();
+    jobStore.saveJob(new Job().key("old").dueDate(now.minusMinutes(2)));
+    jobStore.saveJob(new Job().key("new").dueDate(now.minusMinutes(1)));
+    jobStore.saveJob(new Job().key("urgent").priority(5).dueDate(now));
+    jobStore.saveJob(new Job().key("low").priority(-5).dueDate(now.minusMinutes(10)));
+    // jobs that are not due are not locked, whatever their priority
+    jobStore.saveJob(new Job().key("later").priority(10).dueDate(now.plusMinutes(5)));
+
+    assertEquals("urgent", jobStore.lockNextJob().key);
+    assertEquals("old", jobStore.lockNextJob().key);
+    assertEquals("new", jobStore.lockNextJob().key);
+    assertEquals("low", jobStore.lockNextJob().key);
+    assertNull(jobStore.lockNextJob());
+  }
+
+  @Test
+  public void testOrganizationJobs() {
+    LocalDateTime now = Time.now();
+    jobStore.saveJob(new Job().key("a1").organizationId("a").dueDate(now.minusMinutes(2)));
+    jobStore.saveJob(new Job().key("a2").organizationId("a").priority(5).dueDate(now));
+    jobStore.saveJob(new Job().key("b1").organizationId("b").dueDate(now.minusMinutes(3)));
+    jobStore.saveJob(new Job().key("none").dueDate(now.minusMinutes(4)));
+
+    List<JobQueueDepth> queueDepths = jobStore.countDueJobs();
+    assertEquals(4, queueDepths.size());
+    assertEquals(1, find(queueDepths, "a", 5).getCount());
+    assertEquals(1, find(queueDepths, "a", Job.DEFAULT_PRIORITY).getCount());
+    assertEquals(1, find(queueDepths, "b", Job.DEFAULT_PRIORITY).getCount());
+    assertEquals(1, find(queueDepths, null, Job.DEFAULT_PRIORITY).getCount());
+
+    assertEquals("a2", jobStore.lockNextOrganizationJob("a").key);
+    assertEquals("a1", jobStore.lockNextOrganizationJob("a").key);
+    assertNull(jobStore.lockNextOrganizationJob("a"));
+    assertEquals("none", jobStore.lockNextOrganizationJob(null).key);
+    assertEquals("b1", jobStore.lockNextJob().key);
+  }
+
+  JobQueueDepth find(List<JobQueueDepth> queueDepths, String organizationId, int priority) {
+    for (JobQueueDepth queueDepth: queueDepths) {
+      if (priority==queueDepth.getPriority()
+          && (organizationId!=null ? organizationId.equals(queueDepth.getOrganizationId()) : queueDepth.getOrganizationId()==null)) {
+        return queueDepth;
+      }
+    }
+    fail("no queue depth for "+organizationId+" with priority "+priority);
+    return null;
+  }
+}
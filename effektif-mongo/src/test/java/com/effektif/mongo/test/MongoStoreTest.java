@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.mongo.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.effektif.mongo.MongoConfiguration;
+import com.effektif.mongo.MongoWorkflowInstanceStore;
+import com.effektif.mongo.WorkflowInstanceFields;
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.BatchItemResult;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.util.Time;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+
+
+/** Checks the mongo specific storage of workflow instances 
+ * against a running mongo database: values that are stored 
+ * separately or in GridFS files, also when they are archived, and 
+ * batch flushes that partially fail.
+ */
+public class MongoStoreTest {
+
+  static final String MEDIUM = repeat('m', 500);
+  static final String OTHER_MEDIUM = repeat('n', 500);
+  static final String LARGE = repeat('x', 2000);
+  static final String OTHER_LARGE = repeat('y', 2000);
+
+  static MongoConfiguration configuration;
+  static WorkflowEngine workflowEngine;
+  static TestWorkflowInstanceStore workflowInstanceStore;
+
+  @BeforeClass
+  public static void startConfiguration() {
+    workflowInstanceStore = new TestWorkflowInstanceStore();
+    configuration = new MongoConfiguration()
+      .databaseName("effektif-store-test")
+      .workflowInstanceCacheSize(0)
+      .lazyVariableValueThreshold(100)
+      .fileVariableValueThreshold(1000)
+      .ingredient(workflowInstanceStore)
+      .synchronous();
+    configuration.start();
+    workflowEngine = configuration.getWorkflowEngine();
+  }
+
+  @AfterClass
+  public static void stopConfiguration() {
+    if (configuration!=null) {
+      configuration.stop();
+    }
+  }
+
+  @Before
+  public void dropDatabase() {
+    configuration.get(DB.class).dropDatabase();
+    configuration.get(GridFS.class).remove(new BasicDBObject());
+    workflowInstanceStore.failingWorkflowInstanceIds.clear();
+    workflowInstanceStore.compressArchive(false);
+    workflowInstanceStore.changeBeforeArchive = false;
+  }
+
+  @Test
+  public void testLazyValues() {
+    WorkflowInstance workflowInstance = start(MEDIUM);
+    assertEquals(0, getFileIds(workflowInstance.getId()).size());
+    // the value is stored next to the variable instances
+    BasicDBObject dbVariableValues = (BasicDBObject) findDbWorkflowInstance(workflowInstance.getId())
+      .get(WorkflowInstanceFields.VARIABLE_VALUES);
+    assertEquals(1, dbVariableValues.size());
+    assertEquals(MEDIUM, dbVariableValues.values().iterator().next());
+    assertEquals(MEDIUM, findWorkflowInstance(workflowInstance.getId()).getVariableValue("v"));
+
+    // a flush without the value loaded keeps the value
+    workflowInstance = workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId()));
+    assertEquals(MEDIUM, findWorkflowInstance(workflowInstance.getId()).getVariableValue("v"));
+
+    // a replaced value reuses the value ref
+    send(workflowInstance, "two", OTHER_MEDIUM);
+    dbVariableValues = (BasicDBObject) findDbWorkflowInstance(workflowInstance.getId())
+      .get(WorkflowInstanceFields.VARIABLE_VALUES);
+    assertEquals(1, dbVariableValues.size());
+    assertEquals(OTHER_MEDIUM, findWorkflowInstance(workflowInstance.getId()).getVariableValue("v"));
+  }
+
+  @Test
+  public void testArchivedValues() {
+    checkArchivedValues();
+  }
+
+  @Test
+  public void testCompressedArchivedValues() {
+    workflowInstanceStore.compressArchive(true);
+    checkArchivedValues();
+  }
+
+  void checkArchivedValues() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("lazy", TextType.INSTANCE)
+      .variable("file", TextType.INSTANCE)
+      .activity("one", new ReceiveTask());
+    workflowEngine.deployWorkflow(workflow).checkNoErrors();
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("lazy", MEDIUM)
+      .data("file", LARGE));
+    WorkflowInstanceId workflowInstanceId = workflowInstance.getId();
+    workflowInstance = workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstanceId)
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId()));
+    assertTrue(workflowInstance.isEnded());
+
+    assertEquals(1, workflowInstanceStore.archiveWorkflowInstances(Time.now().plusMinutes(1), 10));
+    assertNull(findDbWorkflowInstance(workflowInstanceId));
+    DBObject dbArchivedWorkflowInstance = getArchivedWorkflowInstancesCollection()
+      .findOne(new BasicDBObject("_id", new ObjectId(workflowInstanceId.getInternal())));
+    assertEquals(workflowInstanceStore.isCompressArchive(), dbArchivedWorkflowInstance.containsField(WorkflowInstanceFields.COMPRESSED));
+
+    WorkflowInstanceQuery archiveQuery = new WorkflowInstanceQuery()
+      .workflowInstanceId(workflowInstanceId)
+      .includeArchived();
+    List<WorkflowInstance> archivedWorkflowInstances = workflowEngine.findWorkflowInstances(archiveQuery);
+    assertEquals(1, archivedWorkflowInstances.size());
+    assertEquals(MEDIUM, archivedWorkflowInstances.get(0).getVariableValue("lazy"));
+    assertEquals(LARGE, archivedWorkflowInstances.get(0).getVariableValue("file"));
+
+    // values that are loaded lazily are found in the archive 
+    VariableInstanceImpl archivedVariableInstance = workflowInstanceStore.findWorkflowInstances(archiveQuery).get(0)
+      .findVariableInstance("lazy");
+    VariableInstanceImpl variableInstance = new VariableInstanceImpl();
+    variableInstance.workflowInstance = archivedVariableInstance.workflowInstance;
+    variableInstance.valueRef = archivedVariableInstance.valueRef;
+    assertNotNull(variableInstance.valueRef);
+    workflowInstanceStore.loadValues(Collections.singletonList(variableInstance));
+    assertEquals(MEDIUM, variableInstance.value);
+
+    // the files stay with the archive till it's deleted
+    assertEquals(1, getFileIds(workflowInstanceId).size());
+    workflowEngine.deleteWorkflowInstances(archiveQuery);
+    assertEquals(0, getFileIds(workflowInstanceId).size());
+    assertEquals(0, getArchivedWorkflowInstancesCollection().count());
+  }
+
+  @Test
+  public void testArchiveKeepsChangedWorkflowInstance() {
+    WorkflowInstanceId workflowInstanceId = startEndedWorkflowInstance();
+    // another node changes the workflow instance after it's read for archiving
+    workflowInstanceStore.changeBeforeArchive = true;
+
+    assertEquals(0, workflowInstanceStore.archiveWorkflowInstances(Time.now().plusMinutes(1), 10));
+    assertNotNull(findDbWorkflowInstance(workflowInstanceId));
+    assertEquals(0, getArchivedWorkflowInstancesCollection().count());
+  }
+
+  @Test
+  public void testArchiveReplacesOlderArchivedCopy() {
+    WorkflowInstanceId workflowInstanceId = startEndedWorkflowInstance();
+    // an interrupted run archived an older version
+    BasicDBObject dbOlderWorkflowInstance = (BasicDBObject) findDbWorkflowInstance(workflowInstanceId);
+    dbOlderWorkflowInstance.put(WorkflowInstanceFields.VERSION, -1l);
+    getArchivedWorkflowInstancesCollection().insert(dbOlderWorkflowInstance);
+    Object version = findDbWorkflowInstance(workflowInstanceId).get(WorkflowInstanceFields.VERSION);
+
+    assertEquals(1, workflowInstanceStore.archiveWorkflowInstances(Time.now().plusMinutes(1), 10));
+    assertNull(findDbWorkflowInstance(workflowInstanceId));
+    DBObject dbArchivedWorkflowInstance = getArchivedWorkflowInstancesCollection()
+      .findOne(new BasicDBObject("_id", new ObjectId(workflowInstanceId.getInternal())));
+    assertEquals(version, dbArchivedWorkflowInstance.get(WorkflowInstanceFields.VERSION));
+  }
+
+  WorkflowInstanceId startEndedWorkflowInstance() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("one", new ReceiveTask());
+    workflowEngine.deployWorkflow(workflow).checkNoErrors();
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId()));
+    workflowInstance = workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId()));
+    assertTrue(workflowInstance.isEnded());
+    return workflowInstance.getId();
+  }
+
+  @Test
+  public void testFileValues() {
+    WorkflowInstance workflowInstance = start(LARGE);
+    List<ObjectId> fileIds = getFileIds(workflowInstance.getId());
+    assertEquals(1, fileIds.size());
+    assertEquals(LARGE, findWorkflowInstance(workflowInstance.getId()).getVariableValue("v"));
+
+    // a replaced value gets a new file and the old one is removed
+    workflowInstance = send(workflowInstance, "one", OTHER_LARGE);
+    List<ObjectId> newFileIds = getFileIds(workflowInstance.getId());
+    assertEquals(1, newFileIds.size());
+    assertNotEquals(fileIds, newFileIds);
+    assertEquals(OTHER_LARGE, findWorkflowInstance(workflowInstance.getId()).getVariableValue("v"));
+
+    // a small value is stored inline
+    send(workflowInstance, "two", "small");
+    assertEquals(0, getFileIds(workflowInstance.getId()).size());
+  }
+
+  @Test
+  public void testFailedFlushRemovesNewFile() {
+    WorkflowInstance workflowInstance = start(LARGE);
+    List<ObjectId> fileIds = getFileIds(workflowInstance.getId());
+
+    workflowInstanceStore.failingWorkflowInstanceIds.add(workflowInstance.getId());
+    try {
+      send(workflowInstance, "one", OTHER_LARGE);
+      fail("expected the flush to fail");
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    // the document still refers to the old file
+    assertEquals(fileIds, getFileIds(workflowInstance.getId()));
+  }
+
+  @Test
+  public void testPartialBatchFlushFailure() {
+    WorkflowInstance first = start(LARGE);
+    WorkflowInstance second = start(LARGE);
+    List<ObjectId> secondFileIds = getFileIds(second.getId());
+    workflowInstanceStore.failingWorkflowInstanceIds.add(second.getId());
+
+    List<Message> messages = new ArrayList<>();
+    messages.add(createMessage(first, "one", OTHER_LARGE));
+    messages.add(createMessage(second, "one", OTHER_LARGE));
+    List<BatchItemResult> results = workflowEngine.sendBatch(messages);
+
+    assertTrue(results.get(0).isSuccess());
+    assertFalse(results.get(1).isSuccess());
+    assertNotNull(results.get(1).getError());
+
+    // the first workflow instance is flushed
+    first = findWorkflowInstance(first.getId());
+    assertNotNull(first.findOpenActivityInstance("two"));
+    assertEquals(OTHER_LARGE, first.getVariableValue("v"));
+    assertEquals(1, getFileIds(first.getId()).size());
+
+    // the second is unlocked without its changes and keeps its file
+    assertNull(findDbWorkflowInstance(second.getId()).get(WorkflowInstanceFields.LOCK));
+    second = findWorkflowInstance(second.getId());
+    assertNotNull(second.findOpenActivityInstance("one"));
+    assertEquals(LARGE, second.getVariableValue("v"));
+    assertEquals(secondFileIds, getFileIds(second.getId()));
+  }
+
+  WorkflowInstance start(String value) {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("v", TextType.INSTANCE)
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask()
+        .transitionTo("three"))
+      .activity("three", new ReceiveTask());
+    workflowEngine.deployWorkflow(workflow).checkNoErrors();
+    return workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("v", value));
+  }
+
+  WorkflowInstance send(WorkflowInstance workflowInstance, String activityId, String value) {
+    return workflowEngine.send(createMessage(workflowInstance, activityId, value));
+  }
+
+  Message createMessage(WorkflowInstance workflowInstance, String activityId, String value) {
+    return new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance(activityId).getId())
+      .data("v", value);
+  }
+
+  DBObject findDbWorkflowInstance(WorkflowInstanceId workflowInstanceId) {
+    return configuration.get(DB.class)
+      .getCollection(configuration.getWorkflowInstancesCollectionName())
+      .findOne(new BasicDBObject("_id", new ObjectId(workflowInstanceId.getInternal())));
+  }
+
+  DBCollection getArchivedWorkflowInstancesCollection() {
+    return configuration.get(DB.class).getCollection(configuration.getArchivedWorkflowInstancesCollectionName());
+  }
+
+  WorkflowInstance findWorkflowInstance(WorkflowInstanceId workflowInstanceId) {
+    List<WorkflowInstance> workflowInstances = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(workflowInstanceId));
+    assertEquals(1, workflowInstances.size());
+    return workflowInstances.get(0);
+  }
+
+  List<ObjectId> getFileIds(WorkflowInstanceId workflowInstanceId) {
+    List<ObjectId> fileIds = new ArrayList<>();
+    for (GridFSDBFile file: configuration.get(GridFS.class).find(new BasicDBObject("metadata.workflowInstanceId", new ObjectId(workflowInstanceId.getInternal())))) {
+      fileIds.add((ObjectId) file.getId());
+    }
+    return fileIds;
+  }
+
+  static String repeat(char c, int length) {
+    StringBuilder text = new StringBuilder(length);
+    for (int i=0; i<length; i++) {
+      text.append(c);
+    }
+    return text.toString();
+  }
+
+  /** makes the flushes of the failing workflow instances fail in mongo, 
+   * switches the archive compression and simulates concurrent changes 
+   * of workflow instances that are being archived */
+  static class TestWorkflowInstanceStore extends MongoWorkflowInstanceStore {
+    Set<WorkflowInstanceId> failingWorkflowInstanceIds = new HashSet<>();
+    boolean changeBeforeArchive;
+    void compressArchive(boolean compressArchive) {
+      this.compressArchive = compressArchive;
+    }
+    boolean isCompressArchive() {
+      return compressArchive;
+    }
+    @Override
+    protected BasicDBObject writeArchivedWorkflowInstance(BasicDBObject dbWorkflowInstance) {
+      BasicDBObject dbArchivedWorkflowInstance = super.writeArchivedWorkflowInstance(dbWorkflowInstance);
+      if (changeBeforeArchive) {
+        workflowInstancesCollection.update("change-workflow-instance", 
+          new BasicDBObject("_id", dbWorkflowInstance.get("_id")), 
+          new BasicDBObject("$inc", new BasicDBObject(WorkflowInstanceFields.VERSION, 1)));
+      }
+      return dbArchivedWorkflowInstance;
+    }
+    @Override
+    protected DBObject createFlushUpdate(WorkflowInstanceImpl workflowInstance, List<String> removedValueRefs, List<String> addedFileRefs) {
+      DBObject update = super.createFlushUpdate(workflowInstance, removedValueRefs, addedFileRefs);
+      if (update!=null && failingWorkflowInstanceIds.contains(workflowInstance.id)) {
+        // conflicts with the $inc of the version
+        update.put("$rename", new BasicDBObject(WorkflowInstanceFields.VERSION, "renamedVersion"));
+      }
+      return update;
+    }
+  }
+}
@@ -30,9 +30,6 @@ import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.effektif.workflow.impl.json.JsonStreamMapper;
 
 
@@ -43,8 +40,6 @@ import com.effektif.workflow.impl.json.JsonStreamMapper;
 @Consumes(MediaType.WILDCARD)
 @Produces(MediaType.WILDCARD)
 public class EffektifJsonProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
-  
-  private static final Logger log = LoggerFactory.getLogger(EffektifJsonProvider.class);
 
   JsonStreamMapper jsonMapper;
   
@@ -54,20 +49,18 @@ public class EffektifJsonProvider implements MessageBodyReader<Object>, MessageB
 
   @Override
   public boolean isReadable(Class< ? > type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-    log.info("isReadable("+type.getName()+", "+genericType.toString()+", "+mediaType);
     return true;
   }
 
   @Override
   public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders,
           InputStream entityStream) throws IOException, WebApplicationException {
-    log.info("readFrom("+type.getName()+", "+genericType.toString()+", "+mediaType);
-    return jsonMapper.read(new InputStreamReader(entityStream), type);
+    // the generic type is used so that lists are read with their element type
+    return jsonMapper.read(new InputStreamReader(entityStream), genericType);
   }
 
   @Override
   public boolean isWriteable(Class< ? > type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-    log.info("isWriteable("+type.getName()+", "+genericType.toString()+", "+mediaType);
     return true;
   }
 
@@ -79,7 +72,6 @@ public class EffektifJsonProvider implements MessageBodyReader<Object>, MessageB
   @Override
   public void writeTo(Object t, Class< ? > type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
           OutputStream entityStream) throws IOException, WebApplicationException {
-    log.info("writeTo("+t+", "+genericType.toString()+", "+mediaType);
     jsonMapper.write(t, new OutputStreamWriter(entityStream));
   }
 }
@@ -15,14 +15,20 @@
  */
 package com.effektif.server;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.effektif.workflow.api.model.BatchItemResult;
 import com.effektif.workflow.api.model.Message;
 import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
@@ -37,15 +43,35 @@ public class MessageResource {
   public static final Logger log = LoggerFactory.getLogger(MessageResource.class);
   
   WorkflowEngineImpl workflowEngine;
+  RequestDispatcher requestDispatcher;
   
-  public MessageResource(WorkflowEngineImpl workflowEngine) {
+  public MessageResource(WorkflowEngineImpl workflowEngine, RequestDispatcher requestDispatcher) {
     this.workflowEngine = workflowEngine;
+    this.requestDispatcher = requestDispatcher;
+  }
+
+  @POST
+  @Produces(MediaType.APPLICATION_JSON)
+  public void send(final Message message, @Suspended AsyncResponse asyncResponse) {
+    if (log.isDebugEnabled()) log.debug("Message "+message.getWorkflowInstanceId()+" / "+message.getActivityInstanceId());
+    requestDispatcher.dispatch(asyncResponse, new Callable<WorkflowInstance>() {
+      @Override
+      public WorkflowInstance call() {
+        return workflowEngine.send(message);
+      }
+    });
   }
 
   @POST
+  @Path("/batch")
   @Produces(MediaType.APPLICATION_JSON)
-  public WorkflowInstance send(Message message) {
-    log.info("Message "+message.getWorkflowInstanceId()+" / "+message.getActivityInstanceId());
-    return workflowEngine.send(message);
+  public void sendBatch(final List<Message> messages, @Suspended AsyncResponse asyncResponse) {
+    if (log.isDebugEnabled()) log.debug("Message batch of "+messages.size());
+    requestDispatcher.dispatch(asyncResponse, new Callable<List<BatchItemResult>>() {
+      @Override
+      public List<BatchItemResult> call() {
+        return workflowEngine.sendBatch(messages);
+      }
+    });
   }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Stoppable;
+
+
+/**
+ * Executes the work of suspended requests on a pool of its own 
+ * so that the HTTP threads only handle connections and requests 
+ * don't compete with the asynchronous work of the workflow engine.
+ * 
+ * The number of requests in flight is bounded.  When it is reached, 
+ * requests are rejected right away with 503 Service Unavailable and 
+ * a Retry-After header instead of queueing up.
+ * 
+ * @author Tom Baeyens
+ */
+public class RequestDispatcher implements Stoppable {
+  
+  public static final Logger log = LoggerFactory.getLogger(RequestDispatcher.class);
+  
+  public static final int DEFAULT_THREADS = 8;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+  public static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+  protected ThreadPoolExecutor executor;
+  protected Semaphore inFlight;
+  protected int maxInFlight;
+  protected int retryAfterSeconds;
+
+  public RequestDispatcher() {
+    this(DEFAULT_THREADS, DEFAULT_MAX_IN_FLIGHT, DEFAULT_RETRY_AFTER_SECONDS);
+  }
+
+  public RequestDispatcher(int threads, int maxInFlight, int retryAfterSeconds) {
+    this.maxInFlight = maxInFlight;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.inFlight = new Semaphore(maxInFlight);
+    // the requests in flight that don't have a thread wait in the queue 
+    // so it never fills up before the semaphore runs out of permits 
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+      new ArrayBlockingQueue<Runnable>(maxInFlight), new RequestThreadFactory());
+  }
+
+  /** resumes the async response with the result of the work or 
+   * with the exception it throws.  Exceptions are mapped by the 
+   * registered exception mappers. */
+  public void dispatch(final AsyncResponse asyncResponse, final Callable<?> work) {
+    if (!inFlight.tryAcquire()) {
+      if (log.isDebugEnabled()) log.debug("Rejecting request: "+maxInFlight+" requests in flight");
+      reject(asyncResponse);
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            asyncResponse.resume(work.call());
+          } catch (Throwable e) {
+            asyncResponse.resume(e);
+          } finally {
+            inFlight.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the dispatcher is shut down
+      inFlight.release();
+      reject(asyncResponse);
+    }
+  }
+
+  protected void reject(AsyncResponse asyncResponse) {
+    asyncResponse.resume(Response
+      .status(Response.Status.SERVICE_UNAVAILABLE)
+      .header("Retry-After", retryAfterSeconds)
+      .build());
+  }
+
+  @Override
+  public void stop(Brewery brewery) {
+    shutdown();
+  }
+
+  /** requests dispatched after the shutdown are rejected */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public int getInFlight() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  static class RequestThreadFactory implements ThreadFactory {
+    AtomicInteger nextThreadNumber = new AtomicInteger(1);
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "effektif-request-"+nextThreadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -15,14 +15,20 @@
  */
 package com.effektif.server;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.effektif.workflow.api.model.BatchItemResult;
 import com.effektif.workflow.api.model.TriggerInstance;
 import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
@@ -37,16 +43,37 @@ public class StartResource {
   public static final Logger log = LoggerFactory.getLogger(StartResource.class);
   
   WorkflowEngineImpl workflowEngine;
+  RequestDispatcher requestDispatcher;
   
-  public StartResource(WorkflowEngineImpl workflowEngine) {
+  public StartResource(WorkflowEngineImpl workflowEngine, RequestDispatcher requestDispatcher) {
     this.workflowEngine = workflowEngine;
+    this.requestDispatcher = requestDispatcher;
+  }
+
+  @POST
+  @Produces(MediaType.APPLICATION_JSON)
+  public void startProcessInstance(final TriggerInstance triggerInstance, @Suspended AsyncResponse asyncResponse) {
+    requestDispatcher.dispatch(asyncResponse, new Callable<WorkflowInstance>() {
+      @Override
+      public WorkflowInstance call() {
+        WorkflowInstance workflowInstance = workflowEngine.start(triggerInstance);
+        if (log.isDebugEnabled()) log.debug("Started "+workflowInstance.getId());
+        return workflowInstance;
+      }
+    });
   }
 
   @POST
+  @Path("/batch")
   @Produces(MediaType.APPLICATION_JSON)
-  public WorkflowInstance startProcessInstance(TriggerInstance triggerInstance) {
-    WorkflowInstance workflowInstance = workflowEngine.start(triggerInstance);
-    log.info("Started "+workflowInstance.getId());
-    return workflowInstance;
+  public void startProcessInstances(final List<TriggerInstance> triggerInstances, @Suspended AsyncResponse asyncResponse) {
+    requestDispatcher.dispatch(asyncResponse, new Callable<List<BatchItemResult>>() {
+      @Override
+      public List<BatchItemResult> call() {
+        List<BatchItemResult> results = workflowEngine.startBatch(triggerInstances);
+        if (log.isDebugEnabled()) log.debug("Started batch of "+results.size());
+        return results;
+      }
+    });
   }
 }
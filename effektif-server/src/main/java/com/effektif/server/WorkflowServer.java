@@ -40,7 +40,10 @@ public class WorkflowServer {
   public static final Logger log = LoggerFactory.getLogger(WorkflowServer.class+".HTTP");
   
   String baseUrl = "http://localhost:9999/";
+  int requestThreads = RequestDispatcher.DEFAULT_THREADS;
+  int maxRequestsInFlight = RequestDispatcher.DEFAULT_MAX_IN_FLIGHT;
   Configuration configuration;
+  Server server;
   
   public WorkflowServer(Configuration configuration) {
     this.configuration = configuration;
@@ -51,6 +54,19 @@ public class WorkflowServer {
     return this;
   }
 
+  /** number of threads that execute start and message requests. */
+  public WorkflowServer requestThreads(int requestThreads) {
+    this.requestThreads = requestThreads;
+    return this;
+  }
+
+  /** max number of start and message requests that are in flight.
+   * When reached, further requests get a 503 response with a Retry-After header. */
+  public WorkflowServer maxRequestsInFlight(int maxRequestsInFlight) {
+    this.maxRequestsInFlight = maxRequestsInFlight;
+    return this;
+  }
+
   public static void main(String[] args) {
     MongoConfiguration configuration = new MongoConfiguration()
       .server("localhost", 27017);
@@ -62,8 +78,8 @@ public class WorkflowServer {
     try {
       configuration.start();
       URI baseUri = new URI(baseUrl);
-      ResourceConfig config = buildRestApplication(configuration);
-      Server server = JettyHttpContainerFactory.createServer(baseUri, config);
+      ResourceConfig config = buildRestApplication(configuration, requestThreads, maxRequestsInFlight);
+      server = JettyHttpContainerFactory.createServer(baseUri, config);
       server.start();
       log.info("Workflow server started on "+baseUrl);
     } catch (Exception e) {
@@ -72,15 +88,39 @@ public class WorkflowServer {
     }
   }
 
+  /** stops accepting requests and then stops the configuration, 
+   * which also shuts down the request threads. */
+  public void stop() {
+    try {
+      if (server!=null) {
+        server.stop();
+        server = null;
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      configuration.stop();
+    }
+    log.info("Workflow server stopped on "+baseUrl);
+  }
+
   public static ResourceConfig buildRestApplication(Configuration configuration) {
+    return buildRestApplication(configuration, RequestDispatcher.DEFAULT_THREADS, RequestDispatcher.DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  public static ResourceConfig buildRestApplication(Configuration configuration, int requestThreads, int maxRequestsInFlight) {
     ResourceConfig config = new ResourceConfig();
 
     WorkflowEngineImpl workflowEngine = configuration.get(WorkflowEngineImpl.class);
+    RequestDispatcher requestDispatcher = new RequestDispatcher(requestThreads, 
+            maxRequestsInFlight, RequestDispatcher.DEFAULT_RETRY_AFTER_SECONDS);
+    // the request threads are shut down when the configuration is stopped
+    configuration.set(requestDispatcher);
     
     config.registerInstances(
             new DeployResource(workflowEngine),
-            new StartResource(workflowEngine),
-            new MessageResource(workflowEngine),
+            new StartResource(workflowEngine, requestDispatcher),
+            new MessageResource(workflowEngine, requestDispatcher),
             new PingResource() );
 
     JsonStreamMapper jsonMapper = configuration.get(JsonStreamMapper.class);
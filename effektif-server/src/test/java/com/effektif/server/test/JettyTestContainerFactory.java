@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.server.test;
+
+import java.net.URI;
+
+import org.eclipse.jetty.server.Server;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.jetty.JettyHttpContainerFactory;
+import org.glassfish.jersey.test.DeploymentContext;
+import org.glassfish.jersey.test.spi.TestContainer;
+import org.glassfish.jersey.test.spi.TestContainerException;
+import org.glassfish.jersey.test.spi.TestContainerFactory;
+
+
+/**
+ * Runs the application in a Jetty server because the in memory 
+ * test container doesn't support suspended async responses.
+ * 
+ * @author Tom Baeyens
+ */
+public class JettyTestContainerFactory implements TestContainerFactory {
+
+  @Override
+  public TestContainer create(final URI baseUri, final DeploymentContext deploymentContext) {
+    return new TestContainer() {
+      Server server;
+      @Override
+      public ClientConfig getClientConfig() {
+        return null;
+      }
+      @Override
+      public URI getBaseUri() {
+        return baseUri;
+      }
+      @Override
+      public void start() {
+        server = JettyHttpContainerFactory.createServer(baseUri, deploymentContext.getResourceConfig());
+      }
+      @Override
+      public void stop() {
+        try {
+          server.stop();
+        } catch (Exception e) {
+          throw new TestContainerException(e);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.server.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.effektif.server.RequestDispatcher;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class RequestDispatcherTest {
+
+  RequestDispatcher requestDispatcher;
+
+  @Before
+  public void createDispatcher() {
+    requestDispatcher = new RequestDispatcher(1, 2, 5);
+  }
+
+  @After
+  public void shutdownDispatcher() {
+    requestDispatcher.shutdown();
+  }
+
+  @Test
+  public void testSaturationIsRejected() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    Callable<String> blockingWork = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        release.await();
+        return Thread.currentThread().getName();
+      }
+    };
+
+    // one request runs and one waits for the thread
+    TestAsyncResponse first = new TestAsyncResponse();
+    TestAsyncResponse second = new TestAsyncResponse();
+    requestDispatcher.dispatch(first, blockingWork);
+    requestDispatcher.dispatch(second, blockingWork);
+    assertEquals(2, requestDispatcher.getInFlight());
+
+    TestAsyncResponse rejected = new TestAsyncResponse();
+    requestDispatcher.dispatch(rejected, blockingWork);
+    Response response = (Response) rejected.await();
+    assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+    assertEquals("5", response.getHeaderString("Retry-After"));
+
+    release.countDown();
+    // the work runs on the threads of the dispatcher
+    assertTrue(((String)first.await()).startsWith("effektif-request-"));
+    assertTrue(((String)second.await()).startsWith("effektif-request-"));
+
+    TestAsyncResponse accepted = new TestAsyncResponse();
+    requestDispatcher.dispatch(accepted, blockingWork);
+    assertTrue(((String)accepted.await()).startsWith("effektif-request-"));
+  }
+
+  @Test
+  public void testShutdownIsRejected() throws Exception {
+    requestDispatcher.shutdown();
+    TestAsyncResponse rejected = new TestAsyncResponse();
+    requestDispatcher.dispatch(rejected, new Callable<String>() {
+      @Override
+      public String call() {
+        return "executed";
+      }
+    });
+    Response response = (Response) rejected.await();
+    assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+    assertEquals(0, requestDispatcher.getInFlight());
+  }
+
+  static class TestAsyncResponse implements AsyncResponse {
+    CountDownLatch resumed = new CountDownLatch(1);
+    Object response;
+    public Object await() throws InterruptedException {
+      assertTrue("no response", resumed.await(10, TimeUnit.SECONDS));
+      return response;
+    }
+    @Override
+    public boolean resume(Object response) {
+      this.response = response;
+      resumed.countDown();
+      return true;
+    }
+    @Override
+    public boolean resume(Throwable response) {
+      return resume((Object)response);
+    }
+    @Override
+    public boolean cancel() {
+      return false;
+    }
+    @Override
+    public boolean cancel(int retryAfter) {
+      return false;
+    }
+    @Override
+    public boolean cancel(Date retryAfter) {
+      return false;
+    }
+    @Override
+    public boolean isSuspended() {
+      return resumed.getCount()>0;
+    }
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+    @Override
+    public boolean isDone() {
+      return resumed.getCount()==0;
+    }
+    @Override
+    public boolean setTimeout(long time, TimeUnit unit) {
+      return false;
+    }
+    @Override
+    public void setTimeoutHandler(TimeoutHandler handler) {
+    }
+    @Override
+    public Collection<Class<?>> register(Class<?> callback) {
+      return null;
+    }
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+      return null;
+    }
+    @Override
+    public Collection<Class<?>> register(Object callback) {
+      return null;
+    }
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+      return null;
+    }
+  }
+}
@@ -24,6 +24,7 @@ import javax.ws.rs.core.MediaType;
 
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.test.JerseyTest;
+import org.glassfish.jersey.test.spi.TestContainerFactory;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,6 +78,11 @@ public class ServerTest extends JerseyTest {
     return configuration;
   }
   
+  @Override
+  protected TestContainerFactory getTestContainerFactory() {
+    return new JettyTestContainerFactory();
+  }
+
   @Override
   protected void configureClient(ClientConfig clientConfig) {
     JsonStreamMapper jsonMapper = getConfiguration().get(JsonStreamMapper.class);
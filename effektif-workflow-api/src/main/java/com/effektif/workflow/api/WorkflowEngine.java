@@ -44,10 +44,22 @@ public interface WorkflowEngine {
   /** starts a new workflow instance with the data specified in the trigger instance. */
   WorkflowInstance start(TriggerInstance triggerInstance);
 
+  /** starts a new workflow instance for each of the trigger instances and 
+   * persists them in bulk.  A failing trigger instance doesn't affect 
+   * the others.
+   * @return a result for each trigger instance in the same order. */
+  List<BatchItemResult> startBatch(List<TriggerInstance> triggerInstances);
+
   /** Sends a {@link Message message} to an activity instance, most likely this is invoked 
    * to end the specified activity instance and move workflow execution forward from there. */
   WorkflowInstance send(Message message);
 
+  /** Sends the messages in one batch.  Messages for the same workflow instance 
+   * are applied in the given order while that workflow instance is locked once.
+   * The results are in the same order as the messages. A failed message 
+   * is reported in its result. */
+  List<BatchItemResult> sendBatch(List<Message> messages);
+
   WorkflowInstance move(WorkflowInstanceId workflowInstanceId, String activityInstanceId, String newActivityId);
   WorkflowInstance move(WorkflowInstanceId workflowInstanceId, String newActivityId);
 
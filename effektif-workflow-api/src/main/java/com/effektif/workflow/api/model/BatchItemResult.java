@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.api.model;
+
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+
+
+/**
+ * The result of a single item in a batch operation like 
+ * {@link com.effektif.workflow.api.WorkflowEngine#startBatch(java.util.List)}.
+ * Either the workflow instance or the error is set.
+ *
+ * @author Tom Baeyens
+ */
+public class BatchItemResult {
+
+  protected WorkflowInstance workflowInstance;
+  protected String error;
+
+  public BatchItemResult() {
+  }
+
+  public BatchItemResult(WorkflowInstance workflowInstance) {
+    this.workflowInstance = workflowInstance;
+  }
+
+  public static BatchItemResult error(String error) {
+    BatchItemResult batchItemResult = new BatchItemResult();
+    batchItemResult.error = error;
+    return batchItemResult;
+  }
+
+  public WorkflowInstance getWorkflowInstance() {
+    return this.workflowInstance;
+  }
+  public void setWorkflowInstance(WorkflowInstance workflowInstance) {
+    this.workflowInstance = workflowInstance;
+  }
+
+  /** the message of the exception that made this item fail or null if it succeeded */
+  public String getError() {
+    return this.error;
+  }
+  public void setError(String error) {
+    this.error = error;
+  }
+
+  public boolean isSuccess() {
+    return error==null;
+  }
+}
@@ -28,6 +28,7 @@ public class Message extends DataContainer {
   protected String sourceWorkflowId;
   protected String businessKey;
   protected String activityInstanceId;
+  protected SnapshotDetail snapshotDetail;
 
   public WorkflowInstanceId getWorkflowInstanceId() {
     return this.workflowInstanceId;
@@ -79,6 +80,19 @@ public class Message extends DataContainer {
     return this;
   }
   
+  public SnapshotDetail getSnapshotDetail() {
+    return this.snapshotDetail;
+  }
+  public void setSnapshotDetail(SnapshotDetail snapshotDetail) {
+    this.snapshotDetail = snapshotDetail;
+  }
+  /** limits the workflow instance that is returned to what the caller needs.
+   * By default the {@link SnapshotDetail#full full} workflow instance is returned. */
+  public Message snapshotDetail(SnapshotDetail snapshotDetail) {
+    this.snapshotDetail = snapshotDetail;
+    return this;
+  }
+
   @Override
   public Message data(String key, Object value) {
     super.data(key, value);
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.api.model;
+
+
+/**
+ * How much of the workflow instance is returned after 
+ * a {@link TriggerInstance start} or a {@link Message message}.
+ * 
+ * @author Tom Baeyens
+ */
+public enum SnapshotDetail {
+
+  /** no workflow instance is returned */
+  none,
+  /** only the ids, start and end of the workflow instance */
+  ids,
+  /** the workflow instance and its activity instances without the variables */
+  state,
+  /** the complete workflow instance.  This is the default. */
+  full
+}
@@ -38,6 +38,7 @@ public class TriggerInstance extends DataContainer {
   protected String businessKey;
   protected WorkflowInstanceId callingWorkflowInstanceId;
   protected String callingActivityInstanceId;
+  protected SnapshotDetail snapshotDetail;
 
   public WorkflowId getWorkflowId() {
     return this.workflowId;
@@ -144,6 +145,19 @@ public class TriggerInstance extends DataContainer {
     this.callingActivityInstanceId = callingActivityInstanceId;
   }
   
+  public SnapshotDetail getSnapshotDetail() {
+    return this.snapshotDetail;
+  }
+  public void setSnapshotDetail(SnapshotDetail snapshotDetail) {
+    this.snapshotDetail = snapshotDetail;
+  }
+  /** limits the workflow instance that is returned to what the caller needs.
+   * By default the {@link SnapshotDetail#full full} workflow instance is returned. */
+  public TriggerInstance snapshotDetail(SnapshotDetail snapshotDetail) {
+    this.snapshotDetail = snapshotDetail;
+    return this;
+  }
+
   @Override
   public TriggerInstance data(String key, Object value) {
     super.data(key, value);
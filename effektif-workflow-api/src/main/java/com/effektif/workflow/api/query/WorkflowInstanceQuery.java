@@ -35,6 +35,7 @@ public class WorkflowInstanceQuery {
   protected Integer limit;
   protected List<OrderBy> orderBy;
   protected LocalDateTime lockedBefore;
+  protected boolean includeArchived;
   
   public WorkflowInstanceQuery workflowInstanceId(WorkflowInstanceId workflowInstanceId) {
     setWorkflowInstanceId(workflowInstanceId);
@@ -118,4 +119,17 @@ public class WorkflowInstanceQuery {
     this.lockedBefore = dateTime;
     return this;
   }
+
+  public boolean isIncludeArchived() {
+    return includeArchived;
+  }
+  public void setIncludeArchived(boolean includeArchived) {
+    this.includeArchived = includeArchived;
+  }
+  /** also searches the ended workflow instances that are moved to the archive.
+   * Archived workflow instances can be found, but not executed. */
+  public WorkflowInstanceQuery includeArchived() {
+    this.includeArchived = true;
+    return this;
+  }
 }
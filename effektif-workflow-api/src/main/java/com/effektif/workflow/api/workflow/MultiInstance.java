@@ -40,12 +40,14 @@ public class MultiInstance implements BpmnReadable, BpmnWritable {
 
   protected Variable variable;
   protected List<Binding<Object>> values;
+  protected Boolean parallel;
 
   /**
    * Reads the multi-instance model from extension elements, ignoring the BPMN multiInstanceLoopCharacteristics element.
    */
   @Override
   public void readBpmn(BpmnReader r) {
+    parallel = r.readBooleanAttributeEffektif("parallel");
     for (XmlElement element : r.readElementsEffektif("variable")) {
       r.startElement(element);
       variable = new Variable();
@@ -59,6 +61,7 @@ public class MultiInstance implements BpmnReadable, BpmnWritable {
   @Override
   public void writeBpmn(BpmnWriter w) {
     w.startElementEffektif("multiInstance");
+    w.writeBooleanAttributeEffektif("parallel", parallel);
     w.startElementEffektif("variable");
     w.writeStringAttributeEffektif("id", variable.getId());
     w.writeTypeAttribute(variable.getType());
@@ -113,4 +116,18 @@ public class MultiInstance implements BpmnReadable, BpmnWritable {
     return this;
   }
 
+  public boolean isParallel() {
+    return Boolean.TRUE.equals(this.parallel);
+  }
+  public void setParallel(Boolean parallel) {
+    this.parallel = parallel;
+  }
+  /** executes the elements concurrently on a pool of worker threads 
+   * if the activity type supports that.  Otherwise, the elements are 
+   * executed one after the other like without this flag. */
+  public MultiInstance parallel() {
+    this.parallel = true;
+    return this;
+  }
+
 }
@@ -29,6 +29,7 @@ public class Timer {
   protected String id;
   protected String dueDateExpression;
   protected String repeatExpression;
+  protected Integer priority;
 
   public void readBpmn(BpmnReader r) {
     //            <bpmn:timerEventDefinition>
@@ -77,4 +78,17 @@ public class Timer {
     this.repeatExpression = repeatExpression;
     return this;
   }
+
+  public Integer getPriority() {
+    return this.priority;
+  }
+  public void setPriority(Integer priority) {
+    this.priority = priority;
+  }
+  /** overrides the priority of the timer's job type.  
+   * Timer jobs with a higher priority are executed first. */
+  public Timer priority(Integer priority) {
+    this.priority = priority;
+    return this;
+  }
 }
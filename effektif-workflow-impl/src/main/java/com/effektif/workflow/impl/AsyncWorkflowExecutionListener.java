@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl;
+
+import java.util.List;
+
+
+/**
+ * Receives the workflow execution events in batches on the dispatcher 
+ * thread of the {@link WorkflowExecutionEventBuffer} so that audit or 
+ * analytics processing doesn't slow down the workflow execution.
+ * 
+ * Async listeners can't veto activity instances.  Use a
+ * {@link WorkflowExecutionListener} for that.
+ * 
+ * It can be registered with 
+ * {@link WorkflowEngineImpl#addAsyncWorkflowExecutionListener(AsyncWorkflowExecutionListener)}.
+ *
+ * @author Tom Baeyens
+ */
+public interface AsyncWorkflowExecutionListener {
+
+  /** the events are in the order in which they were published.
+   * The events are reused after this method returns so they must 
+   * not be referenced afterwards. */
+  void events(List<WorkflowExecutionEvent> events);
+}
@@ -15,12 +15,12 @@ package com.effektif.workflow.impl;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.ServiceLoader;
 
 import com.effektif.workflow.api.condition.Condition;
 import com.effektif.workflow.impl.conditions.ConditionImpl;
 import com.effektif.workflow.impl.conditions.ConditionService;
 import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.PluginIndex;
 import com.effektif.workflow.impl.configuration.Startable;
 
 
@@ -33,8 +33,7 @@ public class ConditionServiceImpl implements ConditionService, Startable {
 
   @Override
   public void start(Brewery brewery) {
-    ServiceLoader<ConditionImpl> activityTypeLoader = ServiceLoader.load(ConditionImpl.class);
-    for (ConditionImpl condition: activityTypeLoader) {
+    for (ConditionImpl condition: PluginIndex.load(ConditionImpl.class)) {
       Class apiType = condition.getApiType();
       impls.put(apiType, condition.getClass());
     }
@@ -18,10 +18,14 @@ package com.effektif.workflow.impl;
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.WorkflowEngine;
 import com.effektif.workflow.impl.activity.ActivityTypeService;
+import com.effektif.workflow.impl.archive.ArchiveService;
 import com.effektif.workflow.impl.bpmn.BpmnMapper;
 import com.effektif.workflow.impl.bpmn.BpmnMapperSupplier;
 import com.effektif.workflow.impl.configuration.Brewery;
 import com.effektif.workflow.impl.data.DataTypeService;
+import com.effektif.workflow.impl.history.HistoryLevel;
+import com.effektif.workflow.impl.history.HistoryService;
+import com.effektif.workflow.impl.history.HistoryStore;
 import com.effektif.workflow.impl.job.JobServiceImpl;
 import com.effektif.workflow.impl.job.TimerTypeService;
 import com.effektif.workflow.impl.json.JavaBeanValueMapper;
@@ -36,11 +40,14 @@ import com.effektif.workflow.impl.json.configuration.JsonStreamMappingsBuilder;
 public abstract class DefaultConfiguration implements Configuration {
 
   protected Brewery brewery;
+  /** kept so that it can be configured before the brewery is started */
+  protected WorkflowEngineConfiguration workflowEngineConfiguration;
   
   public DefaultConfiguration() {
     brewery = new Brewery();
     brewery.ingredient(this);
-    brewery.ingredient(new WorkflowEngineConfiguration());
+    workflowEngineConfiguration = new WorkflowEngineConfiguration();
+    brewery.ingredient(workflowEngineConfiguration);
     brewery.ingredient(new WorkflowEngineImpl());
     brewery.ingredient(new SimpleWorkflowCache());
     brewery.ingredient(new AsynchronousExecutorService());
@@ -72,6 +79,27 @@ public abstract class DefaultConfiguration implements Configuration {
     return this;
   }
 
+  /** records the workflow execution events of the given level 
+   * in the {@link HistoryStore} of this configuration. */
+  public DefaultConfiguration history(HistoryLevel historyLevel) {
+    brewery.ingredient(new HistoryService(historyLevel));
+    return this;
+  }
+
+  /** moves workflow instances to the archive when they ended 
+   * longer than the given number of milliseconds ago. */
+  public DefaultConfiguration archive(long age) {
+    brewery.ingredient(new ArchiveService(age));
+    return this;
+  }
+
+  /** sets the number of threads that execute the elements of 
+   * parallel multi instance activities. */
+  public DefaultConfiguration multiInstanceParallelism(int multiInstanceParallelism) {
+    workflowEngineConfiguration.setMultiInstanceParallelism(multiInstanceParallelism);
+    return this;
+  }
+
   public Brewery getBrewery() {
     return brewery;
   }
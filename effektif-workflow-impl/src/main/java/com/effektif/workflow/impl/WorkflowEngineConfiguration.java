@@ -27,6 +27,16 @@ import java.util.UUID;
 public class WorkflowEngineConfiguration {
 
   protected String workflowEngineId;
+  /** max number of workflow instances that a batch start inserts at once */
+  protected int batchSize = 500;
+  /** number of events that the ring buffer for async listeners can hold */
+  protected int listenerBufferSize = 1024;
+  /** max number of events that are passed at once to async listeners */
+  protected int listenerBatchSize = 128;
+  /** number of threads that execute the elements of parallel multi instance 
+   * activities.  The element executions are mostly blocking calls to adapters 
+   * and services, so this is not related to the number of processors. */
+  protected int multiInstanceParallelism = 8;
 
   public void setWorkflowEngineId(String id) {
     this.workflowEngineId = id;
@@ -39,6 +49,38 @@ public class WorkflowEngineConfiguration {
     return workflowEngineId;
   }
   
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public int getListenerBufferSize() {
+    return listenerBufferSize;
+  }
+
+  public void setListenerBufferSize(int listenerBufferSize) {
+    this.listenerBufferSize = listenerBufferSize;
+  }
+
+  public int getListenerBatchSize() {
+    return listenerBatchSize;
+  }
+
+  public void setListenerBatchSize(int listenerBatchSize) {
+    this.listenerBatchSize = listenerBatchSize;
+  }
+
+  public int getMultiInstanceParallelism() {
+    return multiInstanceParallelism;
+  }
+
+  public void setMultiInstanceParallelism(int multiInstanceParallelism) {
+    this.multiInstanceParallelism = multiInstanceParallelism;
+  }
+
   public static String createDefaultWorkflowEngineId() {
     String id = null;
     try {
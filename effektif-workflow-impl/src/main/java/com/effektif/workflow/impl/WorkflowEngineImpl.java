@@ -24,8 +24,11 @@ import com.effektif.workflow.api.workflow.ExecutableWorkflow;
 import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
 import com.effektif.workflow.impl.configuration.Brewable;
 import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Stoppable;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
 import com.effektif.workflow.impl.data.DataTypeService;
 import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.json.JavaBeanValueMapper;
 import com.effektif.workflow.impl.util.Exceptions;
 import com.effektif.workflow.impl.util.Time;
 import com.effektif.workflow.impl.workflow.ActivityImpl;
@@ -34,48 +37,93 @@ import com.effektif.workflow.impl.workflow.WorkflowImpl;
 import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
 import com.effektif.workflow.impl.workflowinstance.LockImpl;
 import com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
 import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Tom Baeyens
  */
-public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
+public class WorkflowEngineImpl implements WorkflowEngine, Brewable, Stoppable {
 
   public static final Logger log = LoggerFactory.getLogger(WorkflowEngine.class);
 
   public String id;
+  public int batchSize;
   public ExecutorService executorService;
+  /** executes the elements of parallel multi instance activities.  
+   * If no fork join pool is configured, the engine creates its own with 
+   * {@link WorkflowEngineConfiguration#getMultiInstanceParallelism()} threads 
+   * rather than blocking the threads of the JVM wide common pool. */
+  public ForkJoinPool forkJoinPool;
+  /** true if the {@link #forkJoinPool} was created by this engine and 
+   * has to be shut down with it */
+  protected boolean isForkJoinPoolOwned;
   public WorkflowCache workflowCache;
   public WorkflowStore workflowStore;
   public WorkflowInstanceStore workflowInstanceStore;
   public Configuration configuration;
-  public List<WorkflowExecutionListener> workflowExecutionListeners;
+  /** copy on write so that the notifications can iterate without locking */
+  public volatile List<WorkflowExecutionListener> workflowExecutionListeners;
+  /** null as long as no {@link AsyncWorkflowExecutionListener} is added */
+  public volatile WorkflowExecutionEventBuffer workflowExecutionEventBuffer;
+  public int listenerBufferSize;
+  public int listenerBatchSize;
   public DataTypeService dataTypeService;
+  /** copies the values of variable update events */
+  public JavaBeanValueMapper valueMapper;
 
 
   @Override
   public void brew(Brewery brewery) {
-    this.id = brewery.get(WorkflowEngineConfiguration.class).getWorkflowEngineId();
+    WorkflowEngineConfiguration workflowEngineConfiguration = brewery.get(WorkflowEngineConfiguration.class);
+    this.id = workflowEngineConfiguration.getWorkflowEngineId();
+    this.batchSize = workflowEngineConfiguration.getBatchSize();
+    this.listenerBufferSize = workflowEngineConfiguration.getListenerBufferSize();
+    this.listenerBatchSize = workflowEngineConfiguration.getListenerBatchSize();
     this.configuration = brewery.get(Configuration.class);
     this.executorService = brewery.get(ExecutorService.class);
+    this.forkJoinPool = brewery.getOpt(ForkJoinPool.class);
+    if (forkJoinPool==null) {
+      forkJoinPool = new ForkJoinPool(workflowEngineConfiguration.getMultiInstanceParallelism());
+      isForkJoinPoolOwned = true;
+    }
     this.workflowCache = brewery.get(WorkflowCache.class);
     this.workflowStore = brewery.get(WorkflowStore.class);
     this.workflowInstanceStore = brewery.get(WorkflowInstanceStore.class);
     this.dataTypeService = brewery.get(DataTypeService.class);
+    this.valueMapper = brewery.get(JavaBeanValueMapper.class);
   }
 
   public void startup() {
   }
 
+  @Override
+  public void stop(Brewery brewery) {
+    shutdown();
+  }
+
+  /** releases the threads of the executor, the owned fork join pool and 
+   * the listener dispatcher.  The pending listener events are still 
+   * delivered. */
   public void shutdown() {
     executorService.shutdown();
+    if (isForkJoinPoolOwned) {
+      forkJoinPool.shutdown();
+    }
+    if (workflowExecutionEventBuffer!=null) {
+      workflowExecutionEventBuffer.stop();
+    }
   }
 
   /// Workflow methods ////////////////////////////////////////////////////////////
@@ -120,12 +168,15 @@ public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
 
   public WorkflowInstance start(TriggerInstance triggerInstance) {
     WorkflowInstanceImpl workflowInstance = startInitialize(triggerInstance);
-    return startExecute(workflowInstance);
+    return startExecute(workflowInstance, triggerInstance.getSnapshotDetail());
   }
 
   /** first part of starting a new workflow instance: creating the workflow instance and applying the trigger data */
   public WorkflowInstanceImpl startInitialize(TriggerInstance triggerInstance) {
-    WorkflowId workflowId = getLatestWorkflowId(triggerInstance);
+    return startInitialize(triggerInstance, getLatestWorkflowId(triggerInstance));
+  }
+
+  public WorkflowInstanceImpl startInitialize(TriggerInstance triggerInstance, WorkflowId workflowId) {
     WorkflowImpl workflow = getWorkflowImpl(workflowId);
 
     LockImpl lock = new LockImpl();
@@ -160,6 +211,18 @@ public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
 
   /** Second part of starting a new workflow instance: executing the start activities. */
   public WorkflowInstance startExecute(WorkflowInstanceImpl workflowInstance) {
+    return startExecute(workflowInstance, SnapshotDetail.full);
+  }
+
+  public WorkflowInstance startExecute(WorkflowInstanceImpl workflowInstance, SnapshotDetail snapshotDetail) {
+    startActivities(workflowInstance);
+    notifyInsert(workflowInstance);
+    workflowInstanceStore.insertWorkflowInstance(workflowInstance);
+    return workflowInstance.executeWork(snapshotDetail);
+  }
+
+  /** creates the activity instances for the start activities as work */
+  protected void startActivities(WorkflowInstanceImpl workflowInstance) {
     WorkflowImpl workflow = workflowInstance.workflow;
     if (log.isDebugEnabled()) log.debug("Starting "+workflowInstance);
 
@@ -173,10 +236,80 @@ public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
     } else {
       workflowInstance.endAndPropagateToParent();
     }
+  }
 
-    notifyInsert(workflowInstance);
-    workflowInstanceStore.insertWorkflowInstance(workflowInstance);
-    return workflowInstance.executeWork();
+  /** Starts the workflow instances in chunks of {@link WorkflowEngineConfiguration#getBatchSize()}.
+   * Each workflow instance is executed till it's waiting before it is inserted.  
+   * So one bulk insert per chunk replaces the insert and flushes per workflow instance.
+   * A trigger instance that fails is reported in its result and its workflow instance 
+   * is not inserted. */
+  @Override
+  public List<BatchItemResult> startBatch(List<TriggerInstance> triggerInstances) {
+    List<BatchItemResult> results = new ArrayList<>(triggerInstances.size());
+    Map<String,WorkflowId> latestWorkflowIds = new HashMap<>();
+    List<WorkflowInstanceImpl> workflowInstances = new ArrayList<>();
+    List<Integer> resultIndexes = new ArrayList<>();
+    for (TriggerInstance triggerInstance: triggerInstances) {
+      try {
+        WorkflowId workflowId = triggerInstance.getWorkflowId();
+        if (workflowId==null && triggerInstance.getSourceWorkflowId()!=null) {
+          workflowId = latestWorkflowIds.get(triggerInstance.getSourceWorkflowId());
+          if (workflowId==null) {
+            workflowId = getLatestWorkflowId(triggerInstance);
+            latestWorkflowIds.put(triggerInstance.getSourceWorkflowId(), workflowId);
+          }
+        } else {
+          workflowId = getLatestWorkflowId(triggerInstance);
+        }
+        WorkflowInstanceImpl workflowInstance = startInitialize(triggerInstance, workflowId);
+        workflowInstance.isBatch = true;
+        startActivities(workflowInstance);
+        WorkflowInstance workflowInstanceSnapshot = workflowInstance.executeWork(triggerInstance.getSnapshotDetail());
+        results.add(new BatchItemResult(workflowInstanceSnapshot));
+        workflowInstances.add(workflowInstance);
+        resultIndexes.add(results.size()-1);
+      } catch (Exception e) {
+        log.error("Couldn't start workflow instance in batch: "+e.getMessage(), e);
+        results.add(BatchItemResult.error(String.valueOf(e.getMessage())));
+      }
+      if (workflowInstances.size()>=batchSize) {
+        startBatchInsert(workflowInstances, resultIndexes, results);
+      }
+    }
+    startBatchInsert(workflowInstances, resultIndexes, results);
+    return results;
+  }
+
+  /** inserts the executed workflow instances of a batch start, 
+   * unlocks them or continues their async work and clears the given lists. */
+  protected void startBatchInsert(List<WorkflowInstanceImpl> workflowInstances, List<Integer> resultIndexes, List<BatchItemResult> results) {
+    if (workflowInstances.isEmpty()) {
+      return;
+    }
+    for (WorkflowInstanceImpl workflowInstance: workflowInstances) {
+      workflowInstance.isBatch = false;
+      // workflow instances with async work stay locked till the async work is done
+      if (!workflowInstance.hasAsyncWork()) {
+        workflowInstance.removeLock();
+      }
+      notifyInsert(workflowInstance);
+    }
+    List<String> errors = workflowInstanceStore.insertWorkflowInstances(workflowInstances);
+    for (int i=0; i<workflowInstances.size(); i++) {
+      WorkflowInstanceImpl workflowInstance = workflowInstances.get(i);
+      String error = errors.get(i);
+      if (error!=null) {
+        log.error("Couldn't insert workflow instance "+workflowInstance.id+" in batch: "+error);
+        results.set(resultIndexes.get(i), BatchItemResult.error(error));
+      } else if (workflowInstance.hasAsyncWork()) {
+        workflowInstance.executeAsyncWork();
+      } else {
+        workflowInstance.notifyUnlockListeners();
+        notifyUnlocked(workflowInstance);
+      }
+    }
+    workflowInstances.clear();
+    resultIndexes.clear();
   }
 
   public WorkflowId getLatestWorkflowId(TriggerInstance triggerInstance) {
@@ -276,23 +409,122 @@ public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
   }
 
   public WorkflowInstance send(Message message, WorkflowInstanceImpl workflowInstance) {
-    Map<String, Object> transientData = message.getTransientData();
-    if (transientData !=null) {
-      for (String key: transientData.keySet()) {
-        workflowInstance.setTransientProperty(key, transientData.get(key));
-      }
-    }
     String activityInstanceId = message.getActivityInstanceId();
     ActivityInstanceImpl activityInstance = workflowInstance.findActivityInstance(activityInstanceId);
     if (activityInstance==null) {
       workflowInstanceStore.unlockWorkflowInstance(workflowInstance);
       throw new RuntimeException("Activity instance "+activityInstanceId+" not in workflow instance");
     }
+    deliver(message, activityInstance);
+    return workflowInstance.executeWork(message.getSnapshotDetail());
+  }
+
+  /** passes the message to the activity instance without executing the resulting work */
+  protected void deliver(Message message, ActivityInstanceImpl activityInstance) {
+    Map<String, Object> transientData = message.getTransientData();
+    if (transientData !=null) {
+      for (String key: transientData.keySet()) {
+        activityInstance.workflowInstance.setTransientProperty(key, transientData.get(key));
+      }
+    }
     if (log.isDebugEnabled())
       log.debug("Signalling "+activityInstance);
     ActivityImpl activity = activityInstance.getActivity();
     activity.activityType.message(activityInstance, message);
-    return workflowInstance.executeWork();
+  }
+
+  /** Groups the messages by workflow instance.  Each workflow instance is locked 
+   * once and its messages are applied in the given order.  The locks are 
+   * acquired in one batch and the workflow instances without async work 
+   * are flushed and unlocked in one batch.  A message for an activity instance 
+   * that doesn't exist only fails itself.  When the execution of a message 
+   * or the flush fails, the workflow instance is unlocked without flushing 
+   * and all its messages are reported as failed.  A message without a valid 
+   * workflow instance id fails without reaching the store. */
+  @Override
+  public List<BatchItemResult> sendBatch(List<Message> messages) {
+    BatchItemResult[] results = new BatchItemResult[messages.size()];
+    Map<WorkflowInstanceId,List<Integer>> messageIndexes = new LinkedHashMap<>();
+    for (int i=0; i<messages.size(); i++) {
+      WorkflowInstanceId workflowInstanceId = messages.get(i).getWorkflowInstanceId();
+      if (!workflowInstanceStore.isValidWorkflowInstanceId(workflowInstanceId)) {
+        results[i] = BatchItemResult.error("Invalid workflow instance id "+workflowInstanceId);
+        continue;
+      }
+      List<Integer> workflowInstanceMessageIndexes = messageIndexes.get(workflowInstanceId);
+      if (workflowInstanceMessageIndexes==null) {
+        workflowInstanceMessageIndexes = new ArrayList<>();
+        messageIndexes.put(workflowInstanceId, workflowInstanceMessageIndexes);
+      }
+      workflowInstanceMessageIndexes.add(i);
+    }
+    
+    List<WorkflowInstanceId> workflowInstanceIds = new ArrayList<>(messageIndexes.keySet());
+    for (int from=0; from<workflowInstanceIds.size(); from+=batchSize) {
+      List<WorkflowInstanceId> chunk = workflowInstanceIds.subList(from, Math.min(from+batchSize, workflowInstanceIds.size()));
+      Map<WorkflowInstanceId,WorkflowInstanceImpl> lockedWorkflowInstances = new HashMap<>();
+      for (WorkflowInstanceImpl workflowInstance: workflowInstanceStore.lockWorkflowInstances(chunk)) {
+        lockedWorkflowInstances.put(workflowInstance.id, workflowInstance);
+      }
+      List<WorkflowInstanceImpl> unlocks = new ArrayList<>();
+      for (WorkflowInstanceId workflowInstanceId: chunk) {
+        List<Integer> workflowInstanceMessageIndexes = messageIndexes.get(workflowInstanceId);
+        WorkflowInstanceImpl workflowInstance = lockedWorkflowInstances.get(workflowInstanceId);
+        try {
+          if (workflowInstance==null) {
+            // the batch lock skips workflow instances that are locked by someone else 
+            workflowInstance = lockWorkflowInstanceWithRetry(workflowInstanceId);
+          }
+          sendBatch(messages, workflowInstanceMessageIndexes, workflowInstance, results);
+          if (workflowInstance.hasAsyncWork()) {
+            workflowInstanceStore.flush(workflowInstance);
+            workflowInstance.executeAsyncWork();
+          } else {
+            unlocks.add(workflowInstance);
+          }
+        } catch (Exception e) {
+          log.error("Couldn't send messages to workflow instance "+workflowInstanceId+" in batch: "+e.getMessage(), e);
+          if (workflowInstance!=null) {
+            workflowInstance.isBatch = false;
+            workflowInstanceStore.unlockWorkflowInstance(workflowInstance);
+          }
+          for (Integer messageIndex: workflowInstanceMessageIndexes) {
+            results[messageIndex] = BatchItemResult.error(String.valueOf(e.getMessage()));
+          }
+        }
+      }
+      List<String> flushErrors = workflowInstanceStore.flushAndUnlock(unlocks);
+      for (int i=0; i<unlocks.size(); i++) {
+        WorkflowInstanceImpl workflowInstance = unlocks.get(i);
+        String flushError = flushErrors.get(i);
+        // the store notified the unlock of the flushed workflow instances
+        if (flushError!=null) {
+          for (Integer messageIndex: messageIndexes.get(workflowInstance.id)) {
+            results[messageIndex] = BatchItemResult.error(flushError);
+          }
+        }
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  /** applies the given messages in order to the locked workflow instance 
+   * and leaves flushing and unlocking to the caller */
+  protected void sendBatch(List<Message> messages, List<Integer> messageIndexes, WorkflowInstanceImpl workflowInstance, BatchItemResult[] results) {
+    workflowInstance.isBatch = true;
+    for (Integer messageIndex: messageIndexes) {
+      Message message = messages.get(messageIndex);
+      String activityInstanceId = message.getActivityInstanceId();
+      ActivityInstanceImpl activityInstance = workflowInstance.findActivityInstance(activityInstanceId);
+      if (activityInstance==null) {
+        results[messageIndex] = BatchItemResult.error("Activity instance "+activityInstanceId+" not in workflow instance");
+        continue;
+      }
+      deliver(message, activityInstance);
+      workflowInstance.executeSyncWork();
+      results[messageIndex] = new BatchItemResult(workflowInstance.toWorkflowInstance(message.getSnapshotDetail(), false));
+    }
+    workflowInstance.isBatch = false;
   }
 
   @Override
@@ -375,19 +607,20 @@ public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
     return workflowInstanceStore;
   }
 
-  public void addWorkflowExecutionListener(WorkflowExecutionListener workflowExecutionListener) {
-    if (workflowExecutionListeners==null) {
-      workflowExecutionListeners = new ArrayList<>();
+  public synchronized void addWorkflowExecutionListener(WorkflowExecutionListener workflowExecutionListener) {
+    List<WorkflowExecutionListener> listeners = new ArrayList<>();
+    if (workflowExecutionListeners!=null) {
+      listeners.addAll(workflowExecutionListeners);
     }
-    workflowExecutionListeners.add(workflowExecutionListener);
+    listeners.add(workflowExecutionListener);
+    workflowExecutionListeners = listeners;
   }
 
-  public void removeWorkflowExecutionListener(WorkflowExecutionListener workflowExecutionListener) {
+  public synchronized void removeWorkflowExecutionListener(WorkflowExecutionListener workflowExecutionListener) {
     if (workflowExecutionListeners!=null) {
-      workflowExecutionListeners.remove(workflowExecutionListener);
-      if (workflowExecutionListeners.isEmpty()) {
-        workflowExecutionListeners = null;
-      }
+      List<WorkflowExecutionListener> listeners = new ArrayList<>(workflowExecutionListeners);
+      listeners.remove(workflowExecutionListener);
+      workflowExecutionListeners = !listeners.isEmpty() ? listeners : null;
     }
   }
 
@@ -395,78 +628,156 @@ public class WorkflowEngineImpl implements WorkflowEngine, Brewable {
     return workflowExecutionListeners;
   }
 
+  /** the given list should not be modified afterwards */
   public void setWorkflowExecutionListeners(List<WorkflowExecutionListener> workflowExecutionListeners) {
     this.workflowExecutionListeners = workflowExecutionListeners;
   }
 
+  /** the first async listener starts the dispatcher thread of the 
+   * {@link WorkflowExecutionEventBuffer}. */
+  public synchronized void addAsyncWorkflowExecutionListener(AsyncWorkflowExecutionListener asyncWorkflowExecutionListener) {
+    WorkflowExecutionEventBuffer eventBuffer = workflowExecutionEventBuffer;
+    if (eventBuffer==null) {
+      eventBuffer = new WorkflowExecutionEventBuffer(listenerBufferSize, listenerBatchSize);
+      eventBuffer.start();
+    }
+    eventBuffer.addListener(asyncWorkflowExecutionListener);
+    workflowExecutionEventBuffer = eventBuffer;
+  }
+
+  /** removing the last async listener stops the dispatcher thread 
+   * after it has dispatched the events that are already published. */
+  public synchronized void removeAsyncWorkflowExecutionListener(AsyncWorkflowExecutionListener asyncWorkflowExecutionListener) {
+    WorkflowExecutionEventBuffer eventBuffer = workflowExecutionEventBuffer;
+    if (eventBuffer!=null) {
+      List<AsyncWorkflowExecutionListener> listeners = eventBuffer.getListeners();
+      if (listeners.size()==1 && listeners.contains(asyncWorkflowExecutionListener)) {
+        // stopped before the listener is removed so that it still gets the remaining events
+        workflowExecutionEventBuffer = null;
+        eventBuffer.stop();
+      }
+      eventBuffer.removeListener(asyncWorkflowExecutionListener);
+    }
+  }
+
   public void notifyWorkflowInstanceStarted(WorkflowInstanceImpl workflowInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.starting(workflowInstance);
       }
     }
+    publish(Type.WORKFLOW_INSTANCE_STARTING, workflowInstance, null);
   }
 
   public void notifyWorkflowInstanceEnded(WorkflowInstanceImpl workflowInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.ended(workflowInstance);
       }
     }
+    publish(Type.WORKFLOW_INSTANCE_ENDED, workflowInstance, null);
   }
 
+  /** only the synchronous listeners can veto the start of the activity instance.
+   * Async listeners only get the event if the activity instance is started. */
   public boolean notifyActivityInstanceStarted(ActivityInstanceImpl activityInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         if (!workflowExecutionListener.starting(activityInstance)) {
           return false;
         }
       }
     }
+    publish(Type.ACTIVITY_INSTANCE_STARTING, activityInstance.workflowInstance, activityInstance);
     return true;
   }
 
   public void notifyUnlocked(WorkflowInstanceImpl workflowInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.unlocked(workflowInstance);
       }
     }
+    publish(Type.UNLOCKED, workflowInstance, null);
   }
 
   public void notifyFlush(WorkflowInstanceImpl workflowInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.flush(workflowInstance);
       }
     }
+    publish(Type.FLUSH, workflowInstance, null);
   }
 
   public void notifyActivityInstanceEnded(ActivityInstanceImpl activityInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.ended(activityInstance);
       }
     }
+    publish(Type.ACTIVITY_INSTANCE_ENDED, activityInstance.workflowInstance, activityInstance);
   }
 
   public void notifyTransitionTaken(ActivityInstanceImpl activityInstanceFrom, TransitionImpl transition, ActivityInstanceImpl activityInstanceTo) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.transitioning(activityInstanceFrom, transition, activityInstanceTo);
       }
     }
+    WorkflowExecutionEventBuffer eventBuffer = workflowExecutionEventBuffer;
+    if (eventBuffer!=null) {
+      eventBuffer.publish(Type.TRANSITIONING, activityInstanceFrom.workflowInstance, activityInstanceFrom, transition, activityInstanceTo);
+    }
   }
   
   public void notifyInsert(WorkflowInstanceImpl workflowInstance) {
-    if (workflowExecutionListeners!=null) {
-      for (WorkflowExecutionListener workflowExecutionListener: workflowExecutionListeners) {
+    List<WorkflowExecutionListener> listeners = workflowExecutionListeners;
+    if (listeners!=null) {
+      for (WorkflowExecutionListener workflowExecutionListener: listeners) {
         workflowExecutionListener.insert(workflowInstance);
       }
     }
+    publish(Type.INSERT, workflowInstance, null);
   }
 
+  /** variable updates are only passed to the {@link AsyncWorkflowExecutionListener}s */
+  public void notifyVariableUpdated(VariableInstanceImpl variableInstance) {
+    WorkflowExecutionEventBuffer eventBuffer = workflowExecutionEventBuffer;
+    if (eventBuffer!=null) {
+      // the listeners run after the execution that might change the value further
+      eventBuffer.publishVariableUpdated(variableInstance, copyValue(variableInstance));
+    }
+  }
 
+  /** immutable values are returned as is.  Collections and beans are 
+   * copied in their JSON object form. */
+  protected Object copyValue(VariableInstanceImpl variableInstance) {
+    Object value = variableInstance.value;
+    if (value==null || valueMapper==null) {
+      return value;
+    }
+    try {
+      return valueMapper.write(value);
+    } catch (RuntimeException e) {
+      log.warn("Couldn't copy value of variable "+variableInstance.variable.id+" for the listeners: "+e.getMessage());
+      return String.valueOf(value);
+    }
+  }
+
+  protected void publish(Type type, WorkflowInstanceImpl workflowInstance, ActivityInstanceImpl activityInstance) {
+    WorkflowExecutionEventBuffer eventBuffer = workflowExecutionEventBuffer;
+    if (eventBuffer!=null) {
+      eventBuffer.publish(type, workflowInstance, activityInstance);
+    }
+  }
 
   public VariableValues getVariableValues(WorkflowInstanceId workflowInstanceId) {
     return getVariableValues(workflowInstanceId, null);
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl;
+
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.impl.workflow.TransitionImpl;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/**
+ * A {@link WorkflowExecutionListener} notification as it is passed to 
+ * {@link AsyncWorkflowExecutionListener}s.  Unlike the synchronous 
+ * notifications, it only contains ids because the workflow instance 
+ * will have moved on by the time the event is consumed.
+ * 
+ * Events are slots of the {@link WorkflowExecutionEventBuffer} that are 
+ * reused, so listeners must copy what they need instead of keeping 
+ * references to events.
+ *
+ * @author Tom Baeyens
+ */
+public class WorkflowExecutionEvent {
+
+  public enum Type {
+    WORKFLOW_INSTANCE_STARTING,
+    WORKFLOW_INSTANCE_ENDED,
+    ACTIVITY_INSTANCE_STARTING,
+    ACTIVITY_INSTANCE_ENDED,
+    TRANSITIONING,
+    INSERT,
+    FLUSH,
+    UNLOCKED,
+    VARIABLE_UPDATED
+  }
+
+  protected Type type;
+  /** System.currentTimeMillis() when the event was published */
+  protected long time;
+  protected WorkflowInstanceId workflowInstanceId;
+  protected WorkflowId workflowId;
+  protected String activityInstanceId;
+  protected String activityId;
+  protected String transitionId;
+  /** the activity instance that is started by a {@link Type#TRANSITIONING transition} */
+  protected String toActivityInstanceId;
+  /** the variable of a {@link Type#VARIABLE_UPDATED} event */
+  protected String variableId;
+  /** a copy of the new value of a {@link Type#VARIABLE_UPDATED} event 
+   * that is taken when the event is published */
+  protected Object value;
+
+  void set(Type type, WorkflowInstanceImpl workflowInstance, ActivityInstanceImpl activityInstance, TransitionImpl transition, ActivityInstanceImpl toActivityInstance) {
+    this.type = type;
+    this.time = System.currentTimeMillis();
+    this.workflowInstanceId = workflowInstance.id;
+    this.workflowId = workflowInstance.workflow!=null ? workflowInstance.workflow.id : null;
+    this.activityInstanceId = activityInstance!=null ? activityInstance.id : null;
+    this.activityId = activityInstance!=null && activityInstance.activity!=null ? activityInstance.activity.id : null;
+    this.transitionId = transition!=null ? transition.id : null;
+    this.toActivityInstanceId = toActivityInstance!=null ? toActivityInstance.id : null;
+    this.variableId = null;
+    this.value = null;
+  }
+
+  void setVariableUpdated(VariableInstanceImpl variableInstance, Object value) {
+    ScopeInstanceImpl parent = variableInstance.parent;
+    ActivityInstanceImpl activityInstance = parent instanceof ActivityInstanceImpl ? (ActivityInstanceImpl) parent : null;
+    set(Type.VARIABLE_UPDATED, variableInstance.workflowInstance, activityInstance, null, null);
+    this.variableId = variableInstance.variable!=null ? variableInstance.variable.id : null;
+    this.value = value;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  public WorkflowInstanceId getWorkflowInstanceId() {
+    return workflowInstanceId;
+  }
+
+  public WorkflowId getWorkflowId() {
+    return workflowId;
+  }
+
+  public String getActivityInstanceId() {
+    return activityInstanceId;
+  }
+
+  public String getActivityId() {
+    return activityId;
+  }
+
+  public String getTransitionId() {
+    return transitionId;
+  }
+
+  public String getToActivityInstanceId() {
+    return toActivityInstanceId;
+  }
+
+  public String getVariableId() {
+    return variableId;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return type+"("+workflowInstanceId+(activityId!=null ? "|"+activityId : "")+")";
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+import com.effektif.workflow.impl.workflow.TransitionImpl;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/**
+ * Ring buffer of pre-allocated {@link WorkflowExecutionEvent}s between the 
+ * threads executing workflow instances and one dispatcher thread that 
+ * passes the events in batches to the {@link AsyncWorkflowExecutionListener}s.
+ * 
+ * Publishing claims a sequence number and fills the slot for that sequence, 
+ * so publishing doesn't take locks or allocate.  When the dispatcher 
+ * falls a full buffer behind, publishers wait till slots are consumed 
+ * so that no events are lost.
+ *
+ * @author Tom Baeyens
+ */
+public class WorkflowExecutionEventBuffer implements Runnable {
+  
+  private static final Logger log = LoggerFactory.getLogger(WorkflowExecutionEventBuffer.class);
+
+  protected static final long IDLE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  protected static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  protected WorkflowExecutionEvent[] events;
+  /** the sequence that is published in each slot or -1 */
+  protected AtomicLongArray publishedSequences;
+  protected int mask;
+  protected int maxBatchSize;
+  protected AtomicLong nextSequence = new AtomicLong();
+  /** the last sequence that the listeners have processed. 
+   * Slots up to this sequence can be reused. */
+  protected volatile long consumedSequence = -1;
+  protected volatile List<AsyncWorkflowExecutionListener> listeners = new ArrayList<>();
+  protected volatile boolean running;
+  protected Thread dispatcher;
+
+  /** @param capacity is rounded up to a power of two */
+  public WorkflowExecutionEventBuffer(int capacity, int maxBatchSize) {
+    int size = Integer.highestOneBit(Math.max(capacity, 2)-1)<<1;
+    this.events = new WorkflowExecutionEvent[size];
+    this.publishedSequences = new AtomicLongArray(size);
+    for (int i=0; i<size; i++) {
+      events[i] = new WorkflowExecutionEvent();
+      publishedSequences.set(i, -1);
+    }
+    this.mask = size-1;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public synchronized void start() {
+    if (!running) {
+      running = true;
+      dispatcher = new Thread(this, "effektif-listener-dispatcher");
+      dispatcher.setDaemon(true);
+      dispatcher.start();
+    }
+  }
+
+  /** dispatches the events that are already published and stops the dispatcher thread */
+  public synchronized void stop() {
+    if (running) {
+      running = false;
+      LockSupport.unpark(dispatcher);
+      // an interrupt of the calling thread doesn't cut the dispatching short
+      boolean interrupted = false;
+      long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+      long wait;
+      while (dispatcher.isAlive() && (wait = deadline-System.currentTimeMillis())>0) {
+        try {
+          dispatcher.join(wait);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      dispatcher = null;
+    }
+  }
+
+  public synchronized void addListener(AsyncWorkflowExecutionListener listener) {
+    List<AsyncWorkflowExecutionListener> newListeners = new ArrayList<>(listeners);
+    newListeners.add(listener);
+    listeners = newListeners;
+  }
+
+  public synchronized void removeListener(AsyncWorkflowExecutionListener listener) {
+    List<AsyncWorkflowExecutionListener> newListeners = new ArrayList<>(listeners);
+    newListeners.remove(listener);
+    listeners = newListeners;
+  }
+
+  public List<AsyncWorkflowExecutionListener> getListeners() {
+    return listeners;
+  }
+
+  public void publish(Type type, WorkflowInstanceImpl workflowInstance, ActivityInstanceImpl activityInstance) {
+    publish(type, workflowInstance, activityInstance, null, null);
+  }
+
+  public void publish(Type type, WorkflowInstanceImpl workflowInstance, ActivityInstanceImpl activityInstance, TransitionImpl transition, ActivityInstanceImpl toActivityInstance) {
+    long sequence = claim(type);
+    if (sequence!=-1) {
+      int index = (int) (sequence & mask);
+      events[index].set(type, workflowInstance, activityInstance, transition, toActivityInstance);
+      publishedSequences.lazySet(index, sequence);
+    }
+  }
+
+  /** @param value a copy of the variable value that the execution doesn't change anymore */
+  public void publishVariableUpdated(VariableInstanceImpl variableInstance, Object value) {
+    long sequence = claim(Type.VARIABLE_UPDATED);
+    if (sequence!=-1) {
+      int index = (int) (sequence & mask);
+      events[index].setVariableUpdated(variableInstance, value);
+      publishedSequences.lazySet(index, sequence);
+    }
+  }
+
+  /** returns the sequence of a free slot or -1 if the dispatcher is stopped */
+  protected long claim(Type type) {
+    long sequence = nextSequence.getAndIncrement();
+    // wait till the dispatcher has consumed the previous event in this slot
+    while (sequence - consumedSequence > events.length) {
+      if (!running) {
+        if (log.isDebugEnabled()) log.debug("Dropping "+type+" event: listener dispatcher is stopped");
+        return -1;
+      }
+      LockSupport.parkNanos(IDLE_WAIT_NANOS);
+    }
+    return sequence;
+  }
+
+  @Override
+  public void run() {
+    List<WorkflowExecutionEvent> batch = new ArrayList<>(maxBatchSize);
+    long next = consumedSequence + 1;
+    while (true) {
+      // read before scanning so that a stop can't hide events 
+      // published before it
+      boolean stopping = !running;
+      int index = (int) (next & mask);
+      while (batch.size()<maxBatchSize && publishedSequences.get(index)==next) {
+        batch.add(events[index]);
+        next++;
+        index = (int) (next & mask);
+      }
+      if (batch.isEmpty()) {
+        if (stopping) {
+          return;
+        }
+        LockSupport.parkNanos(IDLE_WAIT_NANOS);
+      } else {
+        dispatch(batch);
+        batch.clear();
+        consumedSequence = next - 1;
+      }
+    }
+  }
+
+  protected void dispatch(List<WorkflowExecutionEvent> batch) {
+    for (AsyncWorkflowExecutionListener listener: listeners) {
+      try {
+        listener.events(batch);
+      } catch (Throwable e) {
+        log.error("Async workflow execution listener "+listener+" failed: "+e.getMessage(), e);
+      }
+    }
+  }
+
+  public int getCapacity() {
+    return events.length;
+  }
+
+  /** number of published events that are not yet dispatched */
+  public long getBacklog() {
+    return nextSequence.get() - 1 - consumedSequence;
+  }
+}
@@ -17,6 +17,8 @@ package com.effektif.workflow.impl;
 
 import java.util.List;
 
+import org.joda.time.LocalDateTime;
+
 import com.effektif.workflow.api.model.WorkflowInstanceId;
 import com.effektif.workflow.api.query.WorkflowInstanceQuery;
 import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
@@ -26,25 +28,59 @@ public interface WorkflowInstanceStore {
   
   WorkflowInstanceId generateWorkflowInstanceId();
 
+  /** false if the id can't refer to a workflow instance in this store, 
+   * like null or an id in a format that this store doesn't generate */
+  boolean isValidWorkflowInstanceId(WorkflowInstanceId workflowInstanceId);
+
   void insertWorkflowInstance(WorkflowInstanceImpl worklflowInstance);
 
+  /** inserts the given workflow instances in bulk.  A workflow instance 
+   * that can't be inserted doesn't prevent the others from being inserted.
+   * @return for each given workflow instance in the same order, null if 
+   * it was inserted or the error message if it wasn't. */
+  List<String> insertWorkflowInstances(List<WorkflowInstanceImpl> workflowInstances);
+
   /** used when rendering a form */
   WorkflowInstanceImpl getWorkflowInstanceImplById(WorkflowInstanceId workflowInstanceId);
 
   WorkflowInstanceImpl lockWorkflowInstance(WorkflowInstanceId workflowInstanceId);
 
+  /** locks the given workflow instances in one batch.
+   * @return the workflow instances that could be locked.  Workflow instances 
+   * that don't exist or that are locked by someone else are skipped. */
+  List<WorkflowInstanceImpl> lockWorkflowInstances(List<WorkflowInstanceId> workflowInstanceIds);
+
   WorkflowInstanceImpl lockWorkflowInstanceWithJobsDue();
 
   void flush(WorkflowInstanceImpl workflowInstance);
 
+  /** flushes the changes, removes the lock and {@link WorkflowInstanceImpl#notifyUnlocked() notifies} 
+   * that the workflow instance is unlocked.  Afterwards, the store might hand the same 
+   * workflow instance object to the next lock, so the caller can't use it any more. */
   void flushAndUnlock(WorkflowInstanceImpl workflowInstance);
 
+  /** flushes and unlocks the given workflow instances in one batch.  A workflow 
+   * instance that can't be flushed doesn't prevent the others from being flushed
+   * and is unlocked as well.
+   * @return for each given workflow instance in the same order, null if 
+   * it was flushed or the error message if it wasn't. */
+  List<String> flushAndUnlock(List<WorkflowInstanceImpl> workflowInstances);
+
   void unlockWorkflowInstance(WorkflowInstanceImpl workflowInstance);
 
   List<WorkflowInstanceImpl> findWorkflowInstances(WorkflowInstanceQuery workflowInstanceQuery);
 
   void deleteWorkflowInstances(WorkflowInstanceQuery workflowInstanceQuery);
 
+  /** moves ended workflow instances that are not locked from the active 
+   * workflow instances to the archive.  Archived workflow instances are only 
+   * found by queries that {@link WorkflowInstanceQuery#includeArchived() include archived}.
+   * @param endedBefore only workflow instances that ended before this time are archived
+   * @param limit max number of workflow instances to archive
+   * @return the number of archived workflow instances */
+  int archiveWorkflowInstances(LocalDateTime endedBefore, int limit);
+
+  /** also deletes the archived workflow instances */
   void deleteAllWorkflowInstances();
 
 }
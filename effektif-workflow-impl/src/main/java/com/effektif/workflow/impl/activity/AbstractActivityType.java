@@ -62,6 +62,10 @@ public abstract class AbstractActivityType<T extends Activity> implements Activi
   public void parse(ActivityImpl activityImpl, T activity, WorkflowParser parser) {
     this.activity = activity;
     this.multiInstance = parser.parseMultiInstance(activity.getMultiInstance());
+    if (multiInstance!=null && multiInstance.parallel && !(this instanceof ParallelizableActivityType)) {
+      parser.addWarning("Activity '%s' can't execute multi instance elements in parallel.  Elements will be executed sequentially.", activityImpl.id);
+      multiInstance.parallel = false;
+    }
     
     Map<String, InputParameter> inputs = activity.getInputs();
     if (inputs!=null) {
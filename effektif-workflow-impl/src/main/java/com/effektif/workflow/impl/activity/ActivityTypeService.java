@@ -19,13 +19,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.ServiceLoader;
 
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.json.TypeName;
 import com.effektif.workflow.api.workflow.Activity;
 import com.effektif.workflow.api.workflow.Trigger;
 import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.PluginIndex;
 import com.effektif.workflow.impl.configuration.Startable;
 import com.effektif.workflow.impl.data.types.ObjectTypeImpl;
 import com.effektif.workflow.impl.util.Exceptions;
@@ -60,15 +60,13 @@ public class ActivityTypeService implements Startable {
   }
 
   protected void initializeActivityTypes() {
-    ServiceLoader<ActivityType> loader = ServiceLoader.load(ActivityType.class);
-    for (ActivityType type: loader) {
+    for (ActivityType type: PluginIndex.load(ActivityType.class)) {
       registerActivityType(type);
     }
   }
 
   protected void initializeTriggerTypes() {
-    ServiceLoader<AbstractTriggerImpl> loader = ServiceLoader.load(AbstractTriggerImpl.class);
-    for (AbstractTriggerImpl type: loader) {
+    for (AbstractTriggerImpl type: PluginIndex.load(AbstractTriggerImpl.class)) {
       registerTriggerType(type);
     }
   }
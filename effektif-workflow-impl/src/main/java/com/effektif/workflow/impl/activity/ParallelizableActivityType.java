@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.activity;
+
+import java.util.concurrent.Callable;
+
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+
+
+/**
+ * An activity type that can execute the elements of a 
+ * {@link com.effektif.workflow.api.workflow.MultiInstance#parallel() parallel} 
+ * multi instance activity concurrently.
+ * 
+ * The workflow instance is not thread safe.  So the execution of an element 
+ * is split in a part that reads from the element activity instance, 
+ * a part that is isolated from the workflow instance and that can run on 
+ * a worker thread and a part that applies the result to the element activity 
+ * instance.
+ *
+ * @author Tom Baeyens
+ */
+public interface ParallelizableActivityType {
+
+  /** called on the workflow instance thread for each element activity instance 
+   * in element order.  Reads everything the element execution needs from the 
+   * element activity instance and returns the isolated part of the execution.
+   * The returned callable is invoked on a worker thread and must not access 
+   * the workflow instance. */
+  Callable<Object> prepareElement(ActivityInstanceImpl elementActivityInstance);
+
+  /** called on the workflow instance thread in element order with the 
+   * result of the callable returned by {@link #prepareElement(ActivityInstanceImpl)}. */
+  void completeElement(ActivityInstanceImpl elementActivityInstance, Object result);
+}
@@ -26,6 +26,7 @@ import com.effektif.workflow.api.activities.ExclusiveGateway;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
 import com.effektif.workflow.impl.WorkflowParser;
 import com.effektif.workflow.impl.activity.AbstractActivityType;
+import com.effektif.workflow.impl.conditions.ConditionEvaluation;
 import com.effektif.workflow.impl.conditions.ConditionService;
 import com.effektif.workflow.impl.workflow.ActivityImpl;
 import com.effektif.workflow.impl.workflow.TransitionImpl;
@@ -102,6 +103,8 @@ public class ExclusiveGatewayImpl extends AbstractActivityType<ExclusiveGateway>
 
   protected TransitionImpl findFirstTransitionThatMeetsCondition(ActivityInstanceImpl activityInstance, List<TransitionImpl> outgoingTransitions) {
     if (outgoingTransitions != null) {
+      // shares the resolved expressions over the conditions of all transitions
+      ConditionEvaluation evaluation = new ConditionEvaluation(activityInstance, activityInstance.activity);
       for (TransitionImpl outgoingTransition: outgoingTransitions) {
         // Skip the default transition, which is only used if no others match.
         boolean defaultTransition = outgoingTransition.equals(activityInstance.activity.defaultTransition);
@@ -110,7 +113,7 @@ public class ExclusiveGatewayImpl extends AbstractActivityType<ExclusiveGateway>
         }
 
         // condition must be true and the transition must have a target
-        if (meetsCondition(outgoingTransition, activityInstance)) {
+        if (meetsCondition(outgoingTransition, evaluation)) {
           log.debug("Excl gw takes transition "+outgoingTransition);
           return outgoingTransition;
         } else {
@@ -121,14 +124,18 @@ public class ExclusiveGatewayImpl extends AbstractActivityType<ExclusiveGateway>
     return null;
   }
 
-  protected boolean meetsCondition(TransitionImpl outgoingTransition, ActivityInstanceImpl activityInstance) {
+  protected boolean meetsCondition(TransitionImpl outgoingTransition, ConditionEvaluation evaluation) {
     boolean meetsCondition = false;
     if (outgoingTransition.condition!=null) {
-      meetsCondition = outgoingTransition.condition.eval(activityInstance);
+      meetsCondition = evaluation.meetsCondition(outgoingTransition);
     }
     return meetsCondition;
   }
 
+  protected boolean meetsCondition(TransitionImpl outgoingTransition, ActivityInstanceImpl activityInstance) {
+    return meetsCondition(outgoingTransition, new ConditionEvaluation(activityInstance, activityInstance.activity));
+  }
+
   @Override
   public boolean isFlushSkippable() {
     return true;
@@ -18,10 +18,12 @@ package com.effektif.workflow.impl.activity.types;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.effektif.workflow.api.activities.JavaServiceTask;
 import com.effektif.workflow.impl.WorkflowParser;
 import com.effektif.workflow.impl.activity.AbstractActivityType;
+import com.effektif.workflow.impl.activity.ParallelizableActivityType;
 import com.effektif.workflow.impl.util.Reflection;
 import com.effektif.workflow.impl.workflow.ActivityImpl;
 import com.effektif.workflow.impl.workflow.BindingImpl;
@@ -35,7 +37,7 @@ import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
  *
  * @author Tom Baeyens
  */
-public class JavaServiceTaskImpl extends AbstractActivityType<JavaServiceTask> {
+public class JavaServiceTaskImpl extends AbstractActivityType<JavaServiceTask> implements ParallelizableActivityType {
   
   Method staticMethod;
   BindingImpl[] argBindings;
@@ -69,33 +71,51 @@ public class JavaServiceTaskImpl extends AbstractActivityType<JavaServiceTask> {
   @Override
   public void execute(ActivityInstanceImpl activityInstance) {
     try {
-      Object[] args = null;
-      Object bean = null;
-      Method method = null;
-      
-      if (argBindings!=null) {
-        args = new Object[argBindings.length];
-        for (int i=0; i<argBindings.length; i++) {
-          args[i] = activityInstance.getValue(argBindings[i]);
-        }
-      }
-      
-      if (staticMethod!=null) {
-        method = staticMethod;
-      } else {
-        String beanName = activity.getBeanName();
-        if (beanName!=null) {
-          bean = activityInstance.getConfiguration().get(beanName);
-          method = Reflection.findMethod(bean.getClass(), activity.getMethodName(), args);
-        }
-        method.setAccessible(true);
-      }
-      
-      Object result = method.invoke(bean, args);
-      
-      activityInstance.onwards();
+      Object result = prepareElement(activityInstance).call();
+      completeElement(activityInstance, result);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
+
+  /** resolves the arguments and the method so that only the 
+   * invocation is left for the worker thread */
+  @Override
+  public Callable<Object> prepareElement(ActivityInstanceImpl activityInstance) {
+    Object[] args = null;
+    Object bean = null;
+    Method method = null;
+    
+    if (argBindings!=null) {
+      args = new Object[argBindings.length];
+      for (int i=0; i<argBindings.length; i++) {
+        args[i] = activityInstance.getValue(argBindings[i]);
+      }
+    }
+    
+    if (staticMethod!=null) {
+      method = staticMethod;
+    } else {
+      String beanName = activity.getBeanName();
+      if (beanName!=null) {
+        bean = activityInstance.getConfiguration().get(beanName);
+        method = Reflection.findMethod(bean.getClass(), activity.getMethodName(), args);
+      }
+      method.setAccessible(true);
+    }
+    
+    final Object invocationBean = bean;
+    final Method invocationMethod = method;
+    final Object[] invocationArgs = args;
+    return new Callable<Object>() {
+      public Object call() throws Exception {
+        return invocationMethod.invoke(invocationBean, invocationArgs);
+      }
+    };
+  }
+
+  @Override
+  public void completeElement(ActivityInstanceImpl activityInstance, Object result) {
+    activityInstance.onwards();
+  }
 }
@@ -17,6 +17,7 @@ package com.effektif.workflow.impl.activity.types;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import com.effektif.workflow.api.activities.ParallelGateway;
 import com.effektif.workflow.impl.WorkflowParser;
@@ -65,20 +66,10 @@ public class ParallelGatewayImpl extends AbstractActivityType<ParallelGateway> {
   @Override
   public void execute(ActivityInstanceImpl activityInstance) {
     activityInstance.end();
-    boolean hasOtherUnfinishedActivities = false;
-
-    List<ActivityInstanceImpl> otherJoiningActivityInstances = new ArrayList<>();
-    for (ActivityInstanceImpl siblingActivityInstance: activityInstance.parent.activityInstances) {
-      if (!siblingActivityInstance.isEnded()) {
-        hasOtherUnfinishedActivities = true;
-      }
-      
-      if ( siblingActivityInstance!=activityInstance
-           && siblingActivityInstance.getActivity()==activityInstance.getActivity()
-           && siblingActivityInstance.isJoining() ) {
-        otherJoiningActivityInstances.add(siblingActivityInstance);
-      }
-    }
+    // the parent keeps count of its open and joining activity instances 
+    // so that a join doesn't have to scan all its siblings
+    boolean hasOtherUnfinishedActivities = activityInstance.parent.hasOpenActivityInstances();
+    Set<ActivityInstanceImpl> otherJoiningActivityInstances = activityInstance.parent.getJoiningActivityInstances(activityInstance.getActivity());
     
     if ( !hasOutgoingTransitions ) {
       activityInstance.propagateToParent();
@@ -87,7 +78,7 @@ public class ParallelGatewayImpl extends AbstractActivityType<ParallelGateway> {
                 || !hasOtherUnfinishedActivities
               ) {
       if (log.isDebugEnabled()) log.debug("Firing parallel gateway");
-      for (ActivityInstanceImpl otherJoiningActivityInstance: otherJoiningActivityInstances) {
+      for (ActivityInstanceImpl otherJoiningActivityInstance: new ArrayList<>(otherJoiningActivityInstances)) {
         activityInstance.removeJoining(otherJoiningActivityInstance);
       }
       activityInstance.onwards();
@@ -19,6 +19,7 @@ import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.WorkflowEngine;
 import com.effektif.workflow.api.activities.SubProcess;
 import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.SnapshotDetail;
 import com.effektif.workflow.api.model.TriggerInstance;
 import com.effektif.workflow.api.model.WorkflowId;
 import com.effektif.workflow.api.query.OrderDirection;
@@ -154,7 +155,7 @@ public class SubProcessImpl extends AbstractBindableActivityImpl<SubProcess> {
     WorkflowInstanceImpl calledWorkflowInstance = workflowEngine.startInitialize(triggerInstance);
     calledWorkflowInstance.addLockedWorkflowInstance(activityInstance.workflowInstance);
     activityInstance.setCalledWorkflowInstanceId(calledWorkflowInstance.getId());
-    workflowEngine.startExecute(calledWorkflowInstance);
+    workflowEngine.startExecute(calledWorkflowInstance, SnapshotDetail.none);
   }
 
   public void calledWorkflowInstanceEnded(final ActivityInstanceImpl callingActivityInstance, WorkflowInstanceImpl calledWorkflowInstance) {
@@ -163,7 +164,8 @@ public class SubProcessImpl extends AbstractBindableActivityImpl<SubProcess> {
     calledWorkflowInstance.workflow.getWorkflowEngine()
             .send(new Message()
                     .workflowInstanceId(callingActivityInstance.workflowInstance.getId())
-                    .activityInstanceId(callingActivityInstance.getId()),
+                    .activityInstanceId(callingActivityInstance.getId())
+                    .snapshotDetail(SnapshotDetail.none),
                 callingActivityInstance.workflowInstance);
   }
 
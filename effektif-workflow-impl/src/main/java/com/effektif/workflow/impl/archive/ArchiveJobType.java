@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.archive;
+
+import org.joda.time.Duration;
+import org.joda.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.effektif.workflow.api.json.TypeName;
+import com.effektif.workflow.impl.WorkflowInstanceStore;
+import com.effektif.workflow.impl.job.AbstractJobType;
+import com.effektif.workflow.impl.job.JobController;
+import com.effektif.workflow.impl.util.Time;
+
+
+/**
+ * Recurring job that moves the workflow instances that ended longer 
+ * than {@link #age} ago to the archive in batches.  After each run, 
+ * the job reschedules itself after the {@link #interval}.
+ *
+ * @author Tom Baeyens
+ */
+@TypeName("archive")
+public class ArchiveJobType extends AbstractJobType {
+
+  private static final Logger log = LoggerFactory.getLogger(ArchiveJobType.class);
+
+  /** milliseconds that workflow instances stay active after they ended */
+  public long age;
+  /** milliseconds between archive runs */
+  public long interval;
+  /** max number of workflow instances that are archived at once */
+  public int batchSize;
+
+  public ArchiveJobType() {
+  }
+
+  public ArchiveJobType(long age, long interval, int batchSize) {
+    this.age = age;
+    this.interval = interval;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public void execute(JobController jobController) {
+    WorkflowInstanceStore workflowInstanceStore = jobController.getConfiguration().get(WorkflowInstanceStore.class);
+    LocalDateTime endedBefore = Time.now().minus(new Duration(age));
+    int total = 0;
+    int archived;
+    do {
+      archived = workflowInstanceStore.archiveWorkflowInstances(endedBefore, batchSize);
+      total += archived;
+    } while (archived==batchSize);
+    if (total>0) {
+      jobController.log("Archived "+total+" workflow instances");
+    }
+    if (log.isDebugEnabled()) log.debug("Archived "+total+" workflow instances that ended before "+endedBefore);
+    jobController.rescheduleFor(Time.now().plus(new Duration(interval)));
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.archive;
+
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.util.Time;
+
+
+/**
+ * Schedules the {@link ArchiveJobType} when the configuration is started.
+ * The job has a fixed key so that engines sharing a job store 
+ * don't schedule more than one archive job.
+ * 
+ * Added to a configuration with {@link com.effektif.workflow.impl.DefaultConfiguration#archive(long)}.
+ *
+ * @author Tom Baeyens
+ */
+public class ArchiveService implements Brewable, Startable {
+
+  public static final String ARCHIVE_JOB_KEY = "archive";
+
+  /** milliseconds that workflow instances stay active after they ended */
+  protected long age;
+  /** milliseconds between archive runs */
+  protected long interval = 60*60*1000; // 1 hour
+  protected int batchSize = 500;
+  protected JobService jobService;
+
+  public ArchiveService(long age) {
+    this.age = age;
+  }
+
+  public ArchiveService interval(long interval) {
+    this.interval = interval;
+    return this;
+  }
+
+  public ArchiveService batchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  @Override
+  public void brew(Brewery brewery) {
+    this.jobService = brewery.get(JobService.class);
+  }
+
+  @Override
+  public void start(Brewery brewery) {
+    jobService.saveJob(new Job()
+      .key(ARCHIVE_JOB_KEY)
+      .jobType(new ArchiveJobType(age, interval, batchSize))
+      .dueDate(Time.now()));
+  }
+
+  public long getAge() {
+    return age;
+  }
+
+  public long getInterval() {
+    return interval;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+}
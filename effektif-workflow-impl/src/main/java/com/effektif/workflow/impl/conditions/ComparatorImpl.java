@@ -71,7 +71,15 @@ public abstract class ComparatorImpl implements ConditionImpl<Comparator> {
   }
 
   public abstract boolean compare(TypedValueImpl leftTypedValue, TypedValueImpl rightTypedValue, ScopeInstanceImpl scopeInstance);
-  
+
+  /** true if a comparison of two constants can be evaluated once by the
+   * {@link ConditionCompiler}, in which case {@link #compare(TypedValueImpl, TypedValueImpl, ScopeInstanceImpl)}
+   * is invoked with a null scope instance.  Overwrite and return false
+   * if the comparison depends on the scope instance. */
+  public boolean isFoldable() {
+    return true;
+  }
+
   @Override
   public void parse(Comparator comparator, ConditionService conditionService, WorkflowParser parser) {
     this.left = parser.parseBinding(comparator.getLeft(), "left");
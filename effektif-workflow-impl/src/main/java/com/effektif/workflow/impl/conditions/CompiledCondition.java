@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.conditions;
+
+import com.effektif.workflow.impl.data.TypedValueImpl;
+import com.effektif.workflow.impl.workflow.ExpressionImpl;
+
+
+/** a {@link ConditionImpl} as compiled by the {@link ConditionCompiler}.
+ * 
+ * Compiled conditions don't resolve bindings themselves, they 
+ * get the resolved values from the {@link ConditionEvaluation} 
+ * so that expressions shared by multiple conditions are only 
+ * resolved once.
+ * 
+ * @author Tom Baeyens
+ */
+public abstract class CompiledCondition {
+  
+  public static final CompiledCondition TRUE = new Constant(true);
+  public static final CompiledCondition FALSE = new Constant(false);
+
+  public abstract boolean eval(ConditionEvaluation evaluation);
+
+  public static CompiledCondition constant(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  /** a condition that always has the same outcome */
+  public static class Constant extends CompiledCondition {
+    protected boolean value;
+    public Constant(boolean value) {
+      this.value = value;
+    }
+    public boolean isTrue() {
+      return value;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      return value;
+    }
+  }
+
+  public static class And extends CompiledCondition {
+    protected CompiledCondition[] conditions;
+    public And(CompiledCondition[] conditions) {
+      this.conditions = conditions;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      for (CompiledCondition condition: conditions) {
+        if (!condition.eval(evaluation)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  public static class Or extends CompiledCondition {
+    protected CompiledCondition[] conditions;
+    public Or(CompiledCondition[] conditions) {
+      this.conditions = conditions;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      for (CompiledCondition condition: conditions) {
+        if (condition.eval(evaluation)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  public static class Not extends CompiledCondition {
+    protected CompiledCondition condition;
+    public Not(CompiledCondition condition) {
+      this.condition = condition;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      return !condition.eval(evaluation);
+    }
+  }
+
+  /** delegates to {@link ComparatorImpl#compare(TypedValueImpl, TypedValueImpl, com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl)} */
+  public static class Comparison extends CompiledCondition {
+    protected ComparatorImpl comparator;
+    protected Operand left;
+    protected Operand right;
+    public Comparison(ComparatorImpl comparator, Operand left, Operand right) {
+      this.comparator = comparator;
+      this.left = left;
+      this.right = right;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      return comparator.compare(left.getTypedValue(evaluation), right.getTypedValue(evaluation), evaluation.scopeInstance);
+    }
+  }
+
+  /** a {@link NumberComparatorImpl} with a constant number on the right */
+  public static class NumberComparison extends CompiledCondition {
+    protected NumberComparatorImpl comparator;
+    protected Operand left;
+    protected double right;
+    public NumberComparison(NumberComparatorImpl comparator, Operand left, double right) {
+      this.comparator = comparator;
+      this.left = left;
+      this.right = right;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      TypedValueImpl leftTypedValue = left.getTypedValue(evaluation);
+      Object leftValue = leftTypedValue!=null ? leftTypedValue.value : null;
+      if (!(leftValue instanceof Number)) {
+        return false;
+      }
+      return comparator.compareNumbers(((Number)leftValue).doubleValue(), right);
+    }
+  }
+
+  /** delegates to {@link SingleBindingConditionImpl#eval(Object)} */
+  public static class SingleBinding extends CompiledCondition {
+    protected SingleBindingConditionImpl<?> condition;
+    protected Operand left;
+    public SingleBinding(SingleBindingConditionImpl<?> condition, Operand left) {
+      this.condition = condition;
+      this.left = left;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      TypedValueImpl typedValue = left.getTypedValue(evaluation);
+      return condition.eval(typedValue!=null ? typedValue.value : null);
+    }
+  }
+
+  /** conditions that the compiler doesn't know are evaluated as they are */
+  public static class Interpreted extends CompiledCondition {
+    protected ConditionImpl<?> condition;
+    public Interpreted(ConditionImpl<?> condition) {
+      this.condition = condition;
+    }
+    @Override
+    public boolean eval(ConditionEvaluation evaluation) {
+      return condition.eval(evaluation.scopeInstance);
+    }
+  }
+
+  /** one side of a comparison */
+  public abstract static class Operand {
+    public abstract TypedValueImpl getTypedValue(ConditionEvaluation evaluation);
+  }
+
+  public static class ConstantOperand extends Operand {
+    protected TypedValueImpl typedValue;
+    public ConstantOperand(TypedValueImpl typedValue) {
+      this.typedValue = typedValue;
+    }
+    @Override
+    public TypedValueImpl getTypedValue(ConditionEvaluation evaluation) {
+      return typedValue;
+    }
+  }
+
+  /** an expression that is resolved at most once per {@link ConditionEvaluation} */
+  public static class ExpressionOperand extends Operand {
+    protected int index;
+    protected ExpressionImpl expression;
+    public ExpressionOperand(int index, ExpressionImpl expression) {
+      this.index = index;
+      this.expression = expression;
+    }
+    @Override
+    public TypedValueImpl getTypedValue(ConditionEvaluation evaluation) {
+      return evaluation.getTypedValue(index, expression);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.conditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.effektif.workflow.impl.data.TypedValueImpl;
+import com.effektif.workflow.impl.workflow.ActivityImpl;
+import com.effektif.workflow.impl.workflow.BindingImpl;
+import com.effektif.workflow.impl.workflow.TransitionImpl;
+
+
+/** compiles the conditions of the outgoing transitions of an activity
+ * into {@link CompiledCondition}s.
+ * 
+ * Comparisons of constants are evaluated at parse time,
+ * and/or/not are simplified accordingly and number comparisons 
+ * against a constant number skip the generic null and type checks.
+ * Expressions with the same text get the same index, so 
+ * a {@link ConditionEvaluation} resolves each of them at most once.
+ * 
+ * Conditions other than the built in ones are evaluated with 
+ * {@link ConditionImpl#eval(com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl)}.
+ * 
+ * @author Tom Baeyens
+ */
+public class ConditionCompiler {
+
+  /** maps expression texts to their index in the {@link ConditionEvaluation} */
+  protected Map<String,Integer> expressionIndexes = new HashMap<>();
+
+  public static void compileConditions(ActivityImpl activity) {
+    if (activity.outgoingTransitions!=null) {
+      ConditionCompiler compiler = new ConditionCompiler();
+      for (TransitionImpl transition: activity.outgoingTransitions) {
+        if (transition.condition!=null) {
+          transition.compiledCondition = compiler.compile(transition.condition);
+        }
+      }
+      activity.conditionExpressionCount = compiler.getExpressionCount();
+    }
+  }
+
+  public int getExpressionCount() {
+    return expressionIndexes.size();
+  }
+
+  public CompiledCondition compile(ConditionImpl<?> condition) {
+    if (condition instanceof ComparatorImpl) {
+      return compileComparator((ComparatorImpl) condition);
+    }
+    if (condition instanceof SingleBindingConditionImpl) {
+      return compileSingleBinding((SingleBindingConditionImpl<?>) condition);
+    }
+    if (condition instanceof AndImpl) {
+      return compileAnd(((AndImpl) condition).getConditions());
+    }
+    if (condition instanceof OrImpl) {
+      return compileOr(((OrImpl) condition).getConditions());
+    }
+    if (condition instanceof NotImpl) {
+      CompiledCondition compiled = compile(((NotImpl) condition).getCondition());
+      if (compiled instanceof CompiledCondition.Constant) {
+        return CompiledCondition.constant(!((CompiledCondition.Constant) compiled).isTrue());
+      }
+      return new CompiledCondition.Not(compiled);
+    }
+    return new CompiledCondition.Interpreted(condition);
+  }
+
+  protected CompiledCondition compileComparator(ComparatorImpl comparator) {
+    CompiledCondition.Operand left = compileOperand(comparator.getLeft());
+    CompiledCondition.Operand right = compileOperand(comparator.getRight());
+    if (right instanceof CompiledCondition.ConstantOperand) {
+      TypedValueImpl rightTypedValue = right.getTypedValue(null);
+      if (left instanceof CompiledCondition.ConstantOperand && comparator.isFoldable()) {
+        try {
+          return CompiledCondition.constant(comparator.compare(left.getTypedValue(null), rightTypedValue, null));
+        } catch (RuntimeException e) {
+          // constants that the comparator can't handle keep failing at runtime
+        }
+      }
+      if ( comparator instanceof NumberComparatorImpl
+           && rightTypedValue!=null
+           && rightTypedValue.value instanceof Number ) {
+        double rightNumber = ((Number)rightTypedValue.value).doubleValue();
+        return new CompiledCondition.NumberComparison((NumberComparatorImpl) comparator, left, rightNumber);
+      }
+    }
+    return new CompiledCondition.Comparison(comparator, left, right);
+  }
+
+  /** same resolution as {@link com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl#getTypedValue(BindingImpl)} */
+  protected CompiledCondition.Operand compileOperand(BindingImpl<?> binding) {
+    if (binding!=null && binding.value!=null) {
+      return new CompiledCondition.ConstantOperand(new TypedValueImpl(binding.type, binding.value));
+    }
+    if (binding!=null && binding.expression!=null) {
+      String expressionText = binding.expression.toString();
+      Integer index = expressionIndexes.get(expressionText);
+      if (index==null) {
+        index = expressionIndexes.size();
+        expressionIndexes.put(expressionText, index);
+      }
+      return new CompiledCondition.ExpressionOperand(index, binding.expression);
+    }
+    return new CompiledCondition.ConstantOperand(null);
+  }
+
+  protected CompiledCondition compileSingleBinding(SingleBindingConditionImpl<?> condition) {
+    BindingImpl<?> left = condition.getLeft();
+    if (left!=null && left.value==null && left.expression==null && left.template!=null) {
+      // templates are resolved to text, which is not a typed value 
+      return new CompiledCondition.Interpreted(condition);
+    }
+    CompiledCondition.Operand operand = compileOperand(left);
+    if (operand instanceof CompiledCondition.ConstantOperand) {
+      TypedValueImpl typedValue = operand.getTypedValue(null);
+      return CompiledCondition.constant(condition.eval(typedValue!=null ? typedValue.value : null));
+    }
+    return new CompiledCondition.SingleBinding(condition, operand);
+  }
+
+  protected CompiledCondition compileAnd(List<ConditionImpl> conditions) {
+    List<CompiledCondition> compiledConditions = new ArrayList<>();
+    if (conditions!=null) {
+      for (ConditionImpl<?> condition: conditions) {
+        CompiledCondition compiled = compile(condition);
+        if (compiled instanceof CompiledCondition.Constant) {
+          if (!((CompiledCondition.Constant) compiled).isTrue()) {
+            return CompiledCondition.FALSE;
+          }
+        } else {
+          compiledConditions.add(compiled);
+        }
+      }
+    }
+    if (compiledConditions.isEmpty()) {
+      return CompiledCondition.TRUE;
+    }
+    if (compiledConditions.size()==1) {
+      return compiledConditions.get(0);
+    }
+    return new CompiledCondition.And(compiledConditions.toArray(new CompiledCondition[compiledConditions.size()]));
+  }
+
+  protected CompiledCondition compileOr(List<ConditionImpl> conditions) {
+    if (conditions==null || conditions.isEmpty()) {
+      return CompiledCondition.TRUE;
+    }
+    List<CompiledCondition> compiledConditions = new ArrayList<>();
+    for (ConditionImpl<?> condition: conditions) {
+      CompiledCondition compiled = compile(condition);
+      if (compiled instanceof CompiledCondition.Constant) {
+        if (((CompiledCondition.Constant) compiled).isTrue()) {
+          return CompiledCondition.TRUE;
+        }
+      } else {
+        compiledConditions.add(compiled);
+      }
+    }
+    if (compiledConditions.isEmpty()) {
+      return CompiledCondition.FALSE;
+    }
+    if (compiledConditions.size()==1) {
+      return compiledConditions.get(0);
+    }
+    return new CompiledCondition.Or(compiledConditions.toArray(new CompiledCondition[compiledConditions.size()]));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.conditions;
+
+import com.effektif.workflow.impl.data.TypedValueImpl;
+import com.effektif.workflow.impl.workflow.ActivityImpl;
+import com.effektif.workflow.impl.workflow.ExpressionImpl;
+import com.effektif.workflow.impl.workflow.TransitionImpl;
+import com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl;
+
+
+/** evaluates the conditions of the outgoing transitions of an activity 
+ * instance and remembers the resolved expressions, so that conditions 
+ * on the same variables don't resolve them over and over again.
+ * 
+ * An evaluation is meant to be used for one pass over the outgoing 
+ * transitions.  Variable updates after an expression was resolved 
+ * are not seen by the evaluation.
+ * 
+ * @author Tom Baeyens
+ */
+public class ConditionEvaluation {
+
+  public ScopeInstanceImpl scopeInstance;
+  /** resolved expressions indexed by {@link CompiledCondition.ExpressionOperand#index} */
+  protected TypedValueImpl[] typedValues;
+  protected boolean[] isResolved;
+
+  public ConditionEvaluation(ScopeInstanceImpl scopeInstance, ActivityImpl activity) {
+    this(scopeInstance, activity.conditionExpressionCount);
+  }
+
+  public ConditionEvaluation(ScopeInstanceImpl scopeInstance, int expressionCount) {
+    this.scopeInstance = scopeInstance;
+    if (expressionCount>0) {
+      this.typedValues = new TypedValueImpl[expressionCount];
+      this.isResolved = new boolean[expressionCount];
+    }
+  }
+
+  /** evaluates the condition of the transition, which must not be null. */
+  public boolean meetsCondition(TransitionImpl transition) {
+    if (transition.compiledCondition!=null) {
+      return transition.compiledCondition.eval(this);
+    }
+    // transitions that were not parsed
+    return transition.condition.eval(scopeInstance);
+  }
+
+  public TypedValueImpl getTypedValue(int index, ExpressionImpl expression) {
+    if (!isResolved[index]) {
+      typedValues[index] = scopeInstance.getTypedValue(expression);
+      isResolved[index] = true;
+    }
+    return typedValues[index];
+  }
+}
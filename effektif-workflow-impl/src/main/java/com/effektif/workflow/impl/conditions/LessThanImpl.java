@@ -17,14 +17,12 @@ package com.effektif.workflow.impl.conditions;
 
 import com.effektif.workflow.api.condition.Condition;
 import com.effektif.workflow.api.condition.LessThan;
-import com.effektif.workflow.impl.data.TypedValueImpl;
-import com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl;
 
 
 /**
  * @author Tom Baeyens
  */
-public class LessThanImpl extends ComparatorImpl {
+public class LessThanImpl extends NumberComparatorImpl {
 
   @Override
   public Class< ? extends Condition> getApiType() {
@@ -32,20 +30,8 @@ public class LessThanImpl extends ComparatorImpl {
   }
 
   @Override
-  public boolean compare(TypedValueImpl leftValue, TypedValueImpl rightValue, ScopeInstanceImpl scopeInstance) {
-    if (isNull(leftValue) && isNull(rightValue)) return true;
-    if (isNotNull(leftValue) && isNull(rightValue)) return false;
-    if (isNull(leftValue) && isNotNull(rightValue)) return false;
-
-    if (!(leftValue.value instanceof Number)
-        || !(rightValue.value instanceof Number) ) {
-      return false;
-    }
-    
-    Number leftNumber = (Number) leftValue.value; 
-    Number rightNumber = (Number) rightValue.value; 
-
-    return leftNumber.doubleValue() < rightNumber.doubleValue();
+  public boolean compareNumbers(double left, double right) {
+    return left < right;
   }
   
   public String getComparatorSymbol() {
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.configuration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Finds the plugins (activity types, conditions, data types, timer types, 
+ * triggers and job types) in the <code>META-INF/services</code> files on 
+ * the classpath, like the {@link ServiceLoader}.
+ *
+ * <p>The services files are scanned once per class loader and plugin type 
+ * instead of a {@link ServiceLoader} scan per plugin type and per service 
+ * that needs them.</p>
+ *
+ * @author Tom Baeyens
+ */
+public class PluginIndex {
+  
+  public static final String SERVICES_DIRECTORY = "META-INF/services/";
+  
+  static final Map<ClassLoader,PluginIndex> pluginIndexes = Collections.synchronizedMap(new WeakHashMap<ClassLoader,PluginIndex>());
+
+  /** weak and only class names in {@link #pluginClassNames} because a value 
+   * in {@link #pluginIndexes} that refers to its key keeps the class loader 
+   * of a redeployed application from being collected. */
+  protected WeakReference<ClassLoader> classLoader;
+  /** plugin class names by plugin type name, in classpath order */
+  protected Map<String,List<String>> pluginClassNames = new ConcurrentHashMap<>();
+
+  protected PluginIndex(ClassLoader classLoader) {
+    this.classLoader = new WeakReference<>(classLoader);
+  }
+  
+  /** instantiates the plugins of the given type that are visible 
+   * to the context class loader, like {@link ServiceLoader#load(Class)} */
+  public static <T> List<T> load(Class<T> pluginType) {
+    return get(getContextClassLoader()).instantiate(pluginType);
+  }
+
+  /** the plugin classes of the given type that are visible to the context class loader */
+  public static List<Class<?>> loadClasses(Class<?> pluginType) {
+    return get(getContextClassLoader()).getPluginClasses(pluginType);
+  }
+
+  public static PluginIndex get(ClassLoader classLoader) {
+    synchronized (pluginIndexes) {
+      PluginIndex pluginIndex = pluginIndexes.get(classLoader);
+      if (pluginIndex==null) {
+        pluginIndex = new PluginIndex(classLoader);
+        pluginIndexes.put(classLoader, pluginIndex);
+      }
+      return pluginIndex;
+    }
+  }
+  
+  /** forgets the found plugins so that they are looked up again on the next {@link #load(Class)} */
+  public static void clear() {
+    pluginIndexes.clear();
+  }
+
+  public <T> List<T> instantiate(Class<T> pluginType) {
+    List<T> plugins = new ArrayList<>();
+    for (Class<?> pluginClass: getPluginClasses(pluginType)) {
+      try {
+        plugins.add(pluginType.cast(pluginClass.newInstance()));
+      } catch (InstantiationException | IllegalAccessException e) {
+        throw new RuntimeException("Couldn't instantiate plugin "+pluginClass.getName()+": "+e.getMessage(), e);
+      }
+    }
+    return plugins;
+  }
+
+  public List<Class<?>> getPluginClasses(Class<?> pluginType) {
+    List<String> classNames = pluginClassNames.get(pluginType.getName());
+    if (classNames==null) {
+      classNames = findPluginClassNames(pluginType);
+      pluginClassNames.put(pluginType.getName(), classNames);
+    }
+    ClassLoader classLoader = this.classLoader.get();
+    List<Class<?>> classes = new ArrayList<>(classNames.size());
+    for (String className: classNames) {
+      try {
+        // the class loader keeps track of the classes it loaded, so this is a lookup
+        classes.add(Class.forName(className, false, classLoader));
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException("Plugin "+className+" of "+pluginType.getName()+" not found", e);
+      }
+    }
+    return classes;
+  }
+
+  protected List<String> findPluginClassNames(Class<?> pluginType) {
+    Set<String> classNames = new LinkedHashSet<>();
+    String servicesResource = SERVICES_DIRECTORY+pluginType.getName();
+    for (URL url: getResources(servicesResource)) {
+      classNames.addAll(readLines(url));
+    }
+    return Collections.unmodifiableList(new ArrayList<>(classNames));
+  }
+
+  protected List<URL> getResources(String resource) {
+    ClassLoader classLoader = this.classLoader.get();
+    try {
+      Enumeration<URL> resources = classLoader!=null 
+              ? classLoader.getResources(resource) 
+              : ClassLoader.getSystemResources(resource);
+      return Collections.list(resources);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't scan the classpath for "+resource+": "+e.getMessage(), e);
+    }
+  }
+
+  /** the class names in a services file without comments and blank lines */
+  protected static List<String> readLines(URL url) {
+    List<String> lines = new ArrayList<>();
+    try (InputStream inputStream = url.openStream()) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+      String line = reader.readLine();
+      while (line!=null) {
+        int comment = line.indexOf('#');
+        line = (comment!=-1 ? line.substring(0, comment) : line).trim();
+        if (!line.isEmpty()) {
+          lines.add(line);
+        }
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't read "+url+": "+e.getMessage(), e);
+    }
+    return lines;
+  }
+
+  static ClassLoader getContextClassLoader() {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    return classLoader!=null ? classLoader : PluginIndex.class.getClassLoader();
+  }
+}
@@ -18,6 +18,7 @@ package com.effektif.workflow.impl.data;
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.types.*;
 import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.PluginIndex;
 import com.effektif.workflow.impl.configuration.Startable;
 import com.effektif.workflow.impl.data.types.*;
 import com.effektif.workflow.impl.util.Reflection;
@@ -46,8 +47,7 @@ public class DataTypeService implements Startable {
   protected Map<Type, DataTypeImpl> dataTypesByValueClass = new HashMap<>();
   
   public DataTypeService() {
-    ServiceLoader<DataTypeImpl> dataTypeLoader = ServiceLoader.load(DataTypeImpl.class);
-    for (DataTypeImpl dataType: dataTypeLoader) {
+    for (DataTypeImpl dataType: PluginIndex.load(DataTypeImpl.class)) {
       // log.debug("Registering dynamically loaded data type "+dataType.getClass().getSimpleName());
       registerDataType(dataType);
     }
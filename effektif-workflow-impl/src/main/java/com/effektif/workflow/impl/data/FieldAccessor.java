@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.effektif.workflow.impl.data.types.InlineObjectTypeImpl;
+import com.effektif.workflow.impl.data.types.ListTypeImpl;
+import com.effektif.workflow.impl.data.types.MapTypeImpl;
+import com.effektif.workflow.impl.data.types.ObjectFieldImpl;
+import com.effektif.workflow.impl.data.types.ObjectTypeImpl;
+
+
+/** dereferences one field of a value the same way as
+ * {@link DataTypeImpl#dereference(Object, String)} does, but 
+ * without wrapping the field value in a {@link TypedValueImpl}.
+ * 
+ * Accessors are created at parse time for the fields of 
+ * which the type is known upfront.  The type of the field value
+ * is the {@link #type} of the accessor.
+ * 
+ * @author Tom Baeyens
+ */
+public abstract class FieldAccessor {
+
+  /** returned by accessors when the value can't be dereferenced, 
+   * where {@link DataTypeImpl#dereference(Object, String)} returns null. */
+  public static final Object UNRESOLVED = new Object();
+
+  /** type of the dereferenced field values */
+  public DataTypeImpl type;
+
+  /** returns the field value or {@link #UNRESOLVED} */
+  public abstract Object getFieldValue(Object value);
+
+  /** dereferences all fields or returns {@link #UNRESOLVED} */
+  public static Object getFieldValue(FieldAccessor[] accessors, Object value) {
+    for (int i=0; i<accessors.length && value!=UNRESOLVED; i++) {
+      value = accessors[i].getFieldValue(value);
+    }
+    return value;
+  }
+
+  /** returns null if the type of one of the dereferenced fields 
+   * depends on the value at runtime. */
+  public static FieldAccessor[] createAccessors(DataTypeImpl type, List<String> fields) {
+    FieldAccessor[] accessors = new FieldAccessor[fields.size()];
+    for (int i=0; i<accessors.length; i++) {
+      accessors[i] = createAccessor(type, fields.get(i));
+      if (accessors[i]==null) {
+        return null;
+      }
+      type = accessors[i].type;
+    }
+    return accessors;
+  }
+
+  /** returns null if the type of the field depends on the value at runtime. */
+  public static FieldAccessor createAccessor(DataTypeImpl type, String field) {
+    if (type instanceof ObjectTypeImpl && isDereferencedBy(type, ObjectTypeImpl.class)) {
+      Map<String,ObjectFieldImpl> fields = ((ObjectTypeImpl<?>)type).fields;
+      ObjectFieldImpl objectField = fields!=null ? fields.get(field) : null;
+      return objectField!=null ? new ObjectFieldAccessor(objectField) : null;
+    }
+    if (type instanceof InlineObjectTypeImpl && isDereferencedBy(type, InlineObjectTypeImpl.class)) {
+      Map<String,ObjectFieldImpl> fields = ((InlineObjectTypeImpl)type).fields;
+      ObjectFieldImpl objectField = fields!=null ? fields.get(field) : null;
+      return objectField!=null ? new ObjectFieldAccessor(objectField) : null;
+    }
+    if (type instanceof MapTypeImpl && isDereferencedBy(type, MapTypeImpl.class)) {
+      return new MapEntryAccessor(field, ((MapTypeImpl)type).getElementType());
+    }
+    if (type instanceof ListTypeImpl && isDereferencedBy(type, ListTypeImpl.class)) {
+      ListTypeImpl listType = (ListTypeImpl) type;
+      FieldAccessor elementAccessor = createAccessor(listType.elementType, field);
+      return elementAccessor!=null ? new ListAccessor(listType, elementAccessor) : null;
+    }
+    return null;
+  }
+
+  /** true if the type doesn't overwrite the dereferencing of the given data type class */
+  protected static boolean isDereferencedBy(DataTypeImpl type, Class<?> dataTypeClass) {
+    try {
+      return type.getClass().getMethod("dereference", Object.class, String.class).getDeclaringClass()==dataTypeClass;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  public static class ObjectFieldAccessor extends FieldAccessor {
+    protected ObjectFieldImpl field;
+    public ObjectFieldAccessor(ObjectFieldImpl field) {
+      this.field = field;
+      this.type = field.getDataType();
+    }
+    @Override
+    public Object getFieldValue(Object value) {
+      return field.getFieldValue(value);
+    }
+  }
+
+  public static class MapEntryAccessor extends FieldAccessor {
+    protected String key;
+    public MapEntryAccessor(String key, DataTypeImpl elementType) {
+      this.key = key;
+      this.type = elementType;
+    }
+    @Override
+    public Object getFieldValue(Object value) {
+      return value instanceof Map ? ((Map<?,?>)value).get(key) : UNRESOLVED;
+    }
+  }
+
+  /** collects the field of all elements.  Like {@link ListTypeImpl#dereference(Object, String)}, 
+   * the type of the collected values is the list type itself. */
+  public static class ListAccessor extends FieldAccessor {
+    protected FieldAccessor elementAccessor;
+    public ListAccessor(ListTypeImpl listType, FieldAccessor elementAccessor) {
+      this.type = listType;
+      this.elementAccessor = elementAccessor;
+    }
+    @Override
+    public Object getFieldValue(Object value) {
+      if (!(value instanceof List)) {
+        return null;
+      }
+      List<?> values = (List<?>) value;
+      List<Object> fieldValues = new ArrayList<>(values.size());
+      for (Object elementValue: values) {
+        Object elementFieldValue = elementAccessor.getFieldValue(elementValue);
+        if (elementFieldValue!=UNRESOLVED) {
+          fieldValues.add(elementFieldValue);
+        }
+      }
+      return fieldValues;
+    }
+  }
+}
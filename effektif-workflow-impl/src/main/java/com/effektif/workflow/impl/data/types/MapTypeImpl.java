@@ -66,6 +66,10 @@ public class MapTypeImpl extends AbstractDataType<MapType> {
     return null;
   }
 
+  public DataTypeImpl<?> getElementType() {
+    return elementTypeImpl;
+  }
+
   @Override
   public boolean isStatic() {
     return false;
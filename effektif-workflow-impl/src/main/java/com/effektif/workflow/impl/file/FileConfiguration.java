@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.file;
+
+import java.io.File;
+
+import com.effektif.workflow.impl.DefaultConfiguration;
+
+
+/**
+ * Configuration for a single workflow engine that keeps its workflows,
+ * workflow instances and jobs in memory and persists them in a local
+ * append-only {@link FileLog} so that they survive a restart.
+ *
+ * <p>Writes go through memory mapped files, which means they survive a crash
+ * of the JVM.  Use {@link #forceWrites()} to survive a crash of the operating
+ * system as well, at the cost of write throughput.</p>
+ *
+ * <p>The directory can only be used by one engine at a time.</p>
+ *
+ * @author Tom Baeyens
+ */
+public class FileConfiguration extends DefaultConfiguration {
+
+  protected File directory;
+  protected long compactionThreshold = 64*1024*1024;
+  protected int mappedRegionSize = 4*1024*1024;
+  protected boolean forceWrites;
+
+  public FileConfiguration(String directory) {
+    this(new File(directory));
+  }
+
+  public FileConfiguration(File directory) {
+    this.directory = directory;
+    brewery.ingredient(new FileLog());
+    brewery.ingredient(new FileWorkflowStore());
+    brewery.ingredient(new FileWorkflowInstanceStore());
+    brewery.ingredient(new FileJobStore());
+    brewery.ingredient(new FileHistoryStore());
+  }
+
+  /** size in bytes after which the log is compacted into a new snapshot */
+  public FileConfiguration compactionThreshold(long compactionThreshold) {
+    this.compactionThreshold = compactionThreshold;
+    return this;
+  }
+
+  /** size in bytes by which the log file is mapped into memory */
+  public FileConfiguration mappedRegionSize(int mappedRegionSize) {
+    this.mappedRegionSize = mappedRegionSize;
+    return this;
+  }
+
+  /** forces every write to the storage device before continuing */
+  public FileConfiguration forceWrites() {
+    this.forceWrites = true;
+    return this;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public void setDirectory(File directory) {
+    this.directory = directory;
+  }
+
+  public long getCompactionThreshold() {
+    return compactionThreshold;
+  }
+
+  public void setCompactionThreshold(long compactionThreshold) {
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  public int getMappedRegionSize() {
+    return mappedRegionSize;
+  }
+
+  public void setMappedRegionSize(int mappedRegionSize) {
+    this.mappedRegionSize = mappedRegionSize;
+  }
+
+  public boolean isForceWrites() {
+    return forceWrites;
+  }
+
+  public void setForceWrites(boolean forceWrites) {
+    this.forceWrites = forceWrites;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.history.HistoryEvent;
+import com.effektif.workflow.impl.history.HistoryQuery;
+import com.effektif.workflow.impl.history.HistoryStore;
+import com.effektif.workflow.impl.json.JsonStreamMapper;
+
+
+/**
+ * Appends each batch of history events with a single write to 
+ * a separate file in the {@link FileConfiguration#getDirectory() directory}, 
+ * one json object per line.  History is not kept in the {@link FileLog} 
+ * because it only grows and would be copied on every compaction.
+ * 
+ * Queries read the whole file, so this store is meant for 
+ * development and small installations.
+ *
+ * @author Tom Baeyens
+ */
+public class FileHistoryStore implements HistoryStore, Brewable {
+
+  public static final String HISTORY_FILE_NAME = "history";
+
+  protected File file;
+  protected JsonStreamMapper jsonStreamMapper;
+  protected boolean forceWrites;
+
+  @Override
+  public void brew(Brewery brewery) {
+    FileConfiguration configuration = brewery.get(FileConfiguration.class);
+    this.file = new File(configuration.getDirectory(), HISTORY_FILE_NAME);
+    this.forceWrites = configuration.isForceWrites();
+    this.jsonStreamMapper = brewery.get(JsonStreamMapper.class);
+  }
+
+  @Override
+  public synchronized void saveHistoryEvents(List<HistoryEvent> historyEvents) {
+    StringBuilder lines = new StringBuilder();
+    for (HistoryEvent historyEvent: historyEvents) {
+      lines.append(jsonStreamMapper.write(historyEvent));
+      lines.append('\n');
+    }
+    file.getParentFile().mkdirs();
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      Writer writer = new OutputStreamWriter(out, FileLog.UTF8);
+      writer.write(lines.toString());
+      writer.flush();
+      if (forceWrites) {
+        out.getChannel().force(false);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't write history to "+file+": "+e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public synchronized List<HistoryEvent> findHistoryEvents(HistoryQuery historyQuery) {
+    List<HistoryEvent> result = new ArrayList<>();
+    if (!file.exists()) {
+      return result;
+    }
+    Integer limit = historyQuery.getLimit();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), FileLog.UTF8))) {
+      String line;
+      while ( (limit==null || result.size()<limit)
+              && (line = reader.readLine())!=null ) {
+        if (!line.isEmpty()) {
+          HistoryEvent historyEvent = jsonStreamMapper.readString(line, HistoryEvent.class);
+          if (historyQuery.meetsCriteria(historyEvent)) {
+            result.add(historyEvent);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't read history from "+file+": "+e.getMessage(), e);
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized void deleteAllHistoryEvents() {
+    file.delete();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.file;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.json.JsonStreamMapper;
+import com.effektif.workflow.impl.memory.MemoryJobStore;
+
+
+/**
+ * A locked job stays in the log till it is deleted or saved again
+ * after its execution, so jobs that were executing during a crash
+ * are executed again after the restart.
+ *
+ * @author Tom Baeyens
+ */
+public class FileJobStore extends MemoryJobStore implements Brewable, Startable {
+
+  public static final String JOB_PREFIX = "job/";
+  public static final String ARCHIVED_JOB_PREFIX = "archivedJob/";
+
+  protected FileLog fileLog;
+  protected JsonStreamMapper jsonStreamMapper;
+  /** log keys of the archived jobs as archived jobs don't necessarily have an id */
+  protected Map<Job,String> archivedJobKeys = Collections.synchronizedMap(new IdentityHashMap<Job,String>());
+
+  @Override
+  public void brew(Brewery brewery) {
+    this.fileLog = brewery.get(FileLog.class);
+    this.jsonStreamMapper = brewery.get(JsonStreamMapper.class);
+  }
+
+  @Override
+  public void start(Brewery brewery) {
+    for (String jsonJob: fileLog.recover(JOB_PREFIX).values()) {
+      super.saveJob(jsonStreamMapper.readString(jsonJob, Job.class));
+    }
+    for (Map.Entry<String,String> entry: fileLog.recover(ARCHIVED_JOB_PREFIX).entrySet()) {
+      Job job = jsonStreamMapper.readString(entry.getValue(), Job.class);
+      super.saveArchivedJob(job);
+      archivedJobKeys.put(job, entry.getKey());
+    }
+  }
+
+  @Override
+  public void saveJob(Job job) {
+    super.saveJob(job);
+    fileLog.put(JOB_PREFIX+job.id, jsonStreamMapper.write(job));
+  }
+
+  @Override
+  public void deleteJobById(String jobId) {
+    super.deleteJobById(jobId);
+    fileLog.delete(JOB_PREFIX+jobId);
+  }
+
+  @Override
+  public void deleteAllJobs() {
+    super.deleteAllJobs();
+    fileLog.deleteAll(JOB_PREFIX);
+  }
+
+  @Override
+  public void saveArchivedJob(Job job) {
+    super.saveArchivedJob(job);
+    String key = ARCHIVED_JOB_PREFIX+UUID.randomUUID().toString();
+    archivedJobKeys.put(job, key);
+    fileLog.put(key, jsonStreamMapper.write(job));
+  }
+
+  @Override
+  public void deleteAllArchivedJobs() {
+    super.deleteAllArchivedJobs();
+    archivedJobKeys.clear();
+    fileLog.deleteAll(ARCHIVED_JOB_PREFIX);
+  }
+
+  @Override
+  public void deleteJobByScope(WorkflowInstanceId workflowInstanceId, String activityInstanceId) {
+    super.deleteJobByScope(workflowInstanceId, activityInstanceId);
+    Map<Job,Boolean> remainingJobs = new IdentityHashMap<>();
+    for (Job job: archivedJobs) {
+      remainingJobs.put(job, Boolean.TRUE);
+    }
+    synchronized (archivedJobKeys) {
+      for (Job job: archivedJobKeys.keySet().toArray(new Job[0])) {
+        if (!remainingJobs.containsKey(job)) {
+          fileLog.delete(archivedJobKeys.remove(job));
+        }
+      }
+    }
+  }
+}
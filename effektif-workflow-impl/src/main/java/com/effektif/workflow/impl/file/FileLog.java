@@ -0,0 +1,364 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Stoppable;
+
+
+/**
+ * Append-only key/value log that backs the file stores.
+ *
+ * <p>Each put or delete is appended as a record to the current log file
+ * through a memory mapped region.  A key's latest record wins.
+ * When the log grows beyond the compaction threshold, the live records
+ * are written to a new snapshot and a new, empty log is started.
+ * Files are named <code>snapshot.N</code> and <code>log.N</code> where N is
+ * the generation.  At startup, the snapshot and log of the
+ * highest generation are read and the older files are removed.</p>
+ *
+ * <p>Record layout: length (int), operation (byte), key length (int), key,
+ * value length (int), value, crc32 (int).  A zero length or a crc mismatch
+ * marks the end of the log, which is what a crash in the middle of a
+ * write leaves behind.</p>
+ *
+ * @author Tom Baeyens
+ */
+public class FileLog implements Brewable, Stoppable {
+
+  private static final Logger log = WorkflowEngineImpl.log;
+
+  public static final Charset UTF8 = Charset.forName("UTF-8");
+
+  protected static final byte PUT = 1;
+  protected static final byte DELETE = 2;
+  protected static final String SNAPSHOT = "snapshot.";
+  protected static final String LOG = "log.";
+
+  protected File directory;
+  protected long compactionThreshold;
+  protected int mappedRegionSize;
+  protected boolean forceWrites;
+
+  protected long generation;
+  protected RandomAccessFile logFile;
+  protected FileChannel logChannel;
+  protected MappedByteBuffer logRegion;
+  /** the position in the log file where the next record will be written */
+  protected long logSize;
+  /** the keys that currently have a value */
+  protected Set<String> keys;
+  /** live values read at startup, ordered by the position of their latest record.
+   * The stores take their values out with {@link #recover(String)}. */
+  protected Map<String,String> recoveredValues;
+  protected CRC32 crc = new CRC32();
+
+  @Override
+  public void brew(Brewery brewery) {
+    FileConfiguration configuration = brewery.get(FileConfiguration.class);
+    this.directory = configuration.getDirectory();
+    this.compactionThreshold = configuration.getCompactionThreshold();
+    this.mappedRegionSize = configuration.getMappedRegionSize();
+    this.forceWrites = configuration.isForceWrites();
+    open();
+  }
+
+  protected synchronized void open() {
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new RuntimeException("Couldn't create directory "+directory);
+    }
+    generation = findLatestGeneration();
+    deleteFilesBefore(generation);
+    recoveredValues = new LinkedHashMap<>();
+    readRecords(getSnapshotFile(generation), recoveredValues);
+    logSize = readRecords(getLogFile(generation), recoveredValues);
+    keys = new HashSet<>(recoveredValues.keySet());
+    openLog();
+    log.debug("Recovered "+keys.size()+" records from "+directory);
+  }
+
+  /** removes and returns the values recovered at startup for keys that start
+   * with the given prefix, mapped by key in the order they were last written. */
+  public synchronized Map<String,String> recover(String prefix) {
+    Map<String,String> values = new LinkedHashMap<>();
+    Iterator<Map.Entry<String,String>> iterator = recoveredValues.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String,String> entry = iterator.next();
+      if (entry.getKey().startsWith(prefix)) {
+        values.put(entry.getKey(), entry.getValue());
+        iterator.remove();
+      }
+    }
+    return values;
+  }
+
+  public synchronized void put(String key, String value) {
+    append(PUT, key, value);
+    keys.add(key);
+  }
+
+  public synchronized void delete(String key) {
+    if (keys.remove(key)) {
+      append(DELETE, key, null);
+    }
+  }
+
+  /** deletes all keys that start with the given prefix */
+  public synchronized void deleteAll(String prefix) {
+    for (String key: new ArrayList<>(keys)) {
+      if (key.startsWith(prefix)) {
+        delete(key);
+      }
+    }
+  }
+
+  protected void append(byte operation, String key, String value) {
+    byte[] record = createRecord(operation, key, value);
+    if (logRegion==null || logRegion.remaining()<record.length+4) {
+      mapLogRegion(record.length+4);
+    }
+    logRegion.put(record);
+    // marks the end of the log in case the file contains older bytes after this record
+    logRegion.putInt(logRegion.position(), 0);
+    logSize += record.length;
+    if (forceWrites) {
+      logRegion.force();
+    }
+    if (logSize>compactionThreshold) {
+      compact();
+    }
+  }
+
+  protected byte[] createRecord(byte operation, String key, String value) {
+    byte[] keyBytes = key.getBytes(UTF8);
+    byte[] valueBytes = value!=null ? value.getBytes(UTF8) : new byte[0];
+    int length = 1 + 4 + keyBytes.length + 4 + valueBytes.length;
+    ByteBuffer buffer = ByteBuffer.allocate(4 + length + 4);
+    buffer.putInt(length);
+    buffer.put(operation);
+    buffer.putInt(keyBytes.length);
+    buffer.put(keyBytes);
+    buffer.putInt(valueBytes.length);
+    buffer.put(valueBytes);
+    crc.reset();
+    crc.update(buffer.array(), 4, length);
+    buffer.putInt((int) crc.getValue());
+    return buffer.array();
+  }
+
+  /** maps the next region of the log file starting at the current end of the log.
+   * The region is at least minimumSize bytes so that the next record fits. */
+  protected void mapLogRegion(int minimumSize) {
+    try {
+      if (logRegion!=null && forceWrites) {
+        logRegion.force();
+      }
+      long size = Math.max(mappedRegionSize, minimumSize);
+      logRegion = logChannel.map(FileChannel.MapMode.READ_WRITE, logSize, size);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't map log file "+getLogFile(generation)+": "+e.getMessage(), e);
+    }
+  }
+
+  /** writes the live records to the snapshot of the next generation
+   * and continues with an empty log for that generation. */
+  protected void compact() {
+    closeLog();
+    Map<String,String> values = new LinkedHashMap<>();
+    readRecords(getSnapshotFile(generation), values);
+    readRecords(getLogFile(generation), values);
+
+    long nextGeneration = generation+1;
+    File snapshotTmpFile = new File(directory, SNAPSHOT+nextGeneration+".tmp");
+    try (RandomAccessFile snapshotFile = new RandomAccessFile(snapshotTmpFile, "rw")) {
+      FileChannel snapshotChannel = snapshotFile.getChannel();
+      snapshotChannel.truncate(0);
+      for (Map.Entry<String,String> entry: values.entrySet()) {
+        byte[] record = createRecord(PUT, entry.getKey(), entry.getValue());
+        snapshotChannel.write(ByteBuffer.wrap(record));
+      }
+      snapshotChannel.force(true);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't write snapshot "+snapshotTmpFile+": "+e.getMessage(), e);
+    }
+    if (!snapshotTmpFile.renameTo(getSnapshotFile(nextGeneration))) {
+      throw new RuntimeException("Couldn't rename snapshot "+snapshotTmpFile);
+    }
+
+    generation = nextGeneration;
+    logSize = 0;
+    deleteFilesBefore(generation);
+    openLog();
+    log.debug("Compacted log into "+getSnapshotFile(generation)+" with "+values.size()+" records");
+  }
+
+  /** reads the records of the given file into values and returns the position after the last valid record. */
+  protected long readRecords(File file, Map<String,String> values) {
+    if (!file.exists()) {
+      return 0;
+    }
+    long position = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      long fileLength = file.length();
+      while (position+4<=fileLength) {
+        int length = in.readInt();
+        if (length<=0 || position+4+length+4>fileLength) {
+          break;
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        int checksum = in.readInt();
+        crc.reset();
+        crc.update(body, 0, length);
+        if (checksum!=(int)crc.getValue()) {
+          log.warn("Ignoring corrupt record at "+position+" in "+file+" and everything after it");
+          break;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte operation = buffer.get();
+        String key = readString(buffer);
+        String value = readString(buffer);
+        // removing first moves the key to the end, keeping values ordered by their latest record
+        values.remove(key);
+        if (operation==PUT) {
+          values.put(key, value);
+        }
+        position += 4+length+4;
+      }
+    } catch (EOFException e) {
+      // a truncated record at the end of the file
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't read "+file+": "+e.getMessage(), e);
+    }
+    return position;
+  }
+
+  protected String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    String value = new String(buffer.array(), buffer.position(), length, UTF8);
+    buffer.position(buffer.position()+length);
+    return value;
+  }
+
+  protected void openLog() {
+    File file = getLogFile(generation);
+    try {
+      logFile = new RandomAccessFile(file, "rw");
+      logChannel = logFile.getChannel();
+      logRegion = null;
+      mapLogRegion(4);
+      // clears whatever a crashed write left after the last valid record
+      logRegion.putInt(0, 0);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't open log file "+file+": "+e.getMessage(), e);
+    }
+  }
+
+  protected void closeLog() {
+    if (logChannel!=null) {
+      try {
+        if (logRegion!=null) {
+          logRegion.force();
+          logRegion = null;
+        }
+        logChannel.force(true);
+        logFile.close();
+      } catch (IOException e) {
+        log.error("Couldn't close log file "+getLogFile(generation)+": "+e.getMessage(), e);
+      }
+      logChannel = null;
+      logFile = null;
+    }
+  }
+
+  @Override
+  public synchronized void stop(Brewery brewery) {
+    closeLog();
+  }
+
+  protected long findLatestGeneration() {
+    long latestGeneration = 0;
+    String[] fileNames = directory.list();
+    if (fileNames!=null) {
+      for (String fileName: fileNames) {
+        Long fileGeneration = parseGeneration(fileName);
+        if (fileGeneration!=null && fileGeneration>latestGeneration) {
+          latestGeneration = fileGeneration;
+        }
+      }
+    }
+    return latestGeneration;
+  }
+
+  protected void deleteFilesBefore(long generation) {
+    File[] files = directory.listFiles();
+    if (files!=null) {
+      for (File file: files) {
+        Long fileGeneration = parseGeneration(file.getName());
+        if ( (fileGeneration!=null && fileGeneration<generation)
+             || file.getName().endsWith(".tmp") ) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  /** the generation of a snapshot or log file or null if the file name has another format */
+  protected Long parseGeneration(String fileName) {
+    String generationText = null;
+    if (fileName.startsWith(SNAPSHOT)) {
+      generationText = fileName.substring(SNAPSHOT.length());
+    } else if (fileName.startsWith(LOG)) {
+      generationText = fileName.substring(LOG.length());
+    }
+    try {
+      return generationText!=null ? Long.parseLong(generationText) : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  protected File getSnapshotFile(long generation) {
+    return new File(directory, SNAPSHOT+generation);
+  }
+
+  protected File getLogFile(long generation) {
+    return new File(directory, LOG+generation);
+  }
+}
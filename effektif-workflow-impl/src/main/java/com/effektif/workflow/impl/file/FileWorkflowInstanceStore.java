@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.file;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.types.DataType;
+import com.effektif.workflow.api.workflowinstance.ActivityInstance;
+import com.effektif.workflow.api.workflowinstance.ScopeInstance;
+import com.effektif.workflow.api.workflowinstance.VariableInstance;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.data.DataTypeService;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.json.JsonStreamMapper;
+import com.effektif.workflow.impl.memory.MemoryWorkflowInstanceStore;
+import com.effektif.workflow.impl.workflow.ActivityImpl;
+import com.effektif.workflow.impl.workflow.ScopeImpl;
+import com.effektif.workflow.impl.workflow.VariableImpl;
+import com.effektif.workflow.impl.workflow.WorkflowImpl;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/**
+ * Writes a workflow instance to the log when it is unlocked.
+ * Intermediate flushes are not written because the live workflow
+ * instance is kept in memory and, like in the other stores, changes
+ * only become visible to other threads after the unlock.
+ *
+ * @author Tom Baeyens
+ */
+public class FileWorkflowInstanceStore extends MemoryWorkflowInstanceStore implements Startable {
+
+  public static final String WORKFLOW_INSTANCE_PREFIX = "workflowInstance/";
+  public static final String ARCHIVED_WORKFLOW_INSTANCE_PREFIX = "archivedWorkflowInstance/";
+  protected static final String WORK_STATE = "workState";
+
+  protected FileLog fileLog;
+  protected JsonStreamMapper jsonStreamMapper;
+  protected WorkflowEngineImpl workflowEngine;
+  protected DataTypeService dataTypeService;
+  protected FileConfiguration configuration;
+
+  @Override
+  public void brew(Brewery brewery) {
+    super.brew(brewery);
+    this.fileLog = brewery.get(FileLog.class);
+    this.jsonStreamMapper = brewery.get(JsonStreamMapper.class);
+    this.workflowEngine = brewery.get(WorkflowEngineImpl.class);
+    this.dataTypeService = brewery.get(DataTypeService.class);
+    this.configuration = brewery.get(FileConfiguration.class);
+  }
+
+  @Override
+  public void start(Brewery brewery) {
+    for (String jsonWorkflowInstance: fileLog.recover(WORKFLOW_INSTANCE_PREFIX).values()) {
+      WorkflowInstanceImpl workflowInstance = readWorkflowInstanceImpl(jsonWorkflowInstance);
+      workflowInstances.put(workflowInstance.id, workflowInstance);
+      index(workflowInstance);
+    }
+    for (String jsonWorkflowInstance: fileLog.recover(ARCHIVED_WORKFLOW_INSTANCE_PREFIX).values()) {
+      WorkflowInstanceImpl workflowInstance = readWorkflowInstanceImpl(jsonWorkflowInstance);
+      archivedWorkflowInstances.put(workflowInstance.id, workflowInstance);
+    }
+  }
+
+  @Override
+  public void insertWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+    super.insertWorkflowInstance(workflowInstance);
+    // locked workflow instances are written when they are unlocked
+    if (workflowInstance.lock==null) {
+      writeWorkflowInstance(workflowInstance);
+    }
+  }
+
+  @Override
+  public void flushAndUnlock(WorkflowInstanceImpl workflowInstance) {
+    // written before the unlock so that the log order matches the lock order
+    writeWorkflowInstance(workflowInstance);
+    super.flushAndUnlock(workflowInstance);
+  }
+
+  @Override
+  public void unlockWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+    if (workflowInstance!=null) {
+      writeWorkflowInstance(workflowInstance);
+    }
+    super.unlockWorkflowInstance(workflowInstance);
+  }
+
+  @Override
+  public void deleteWorkflowInstances(WorkflowInstanceQuery workflowInstanceQuery) {
+    for (WorkflowInstanceImpl workflowInstance: findWorkflowInstances(workflowInstanceQuery)) {
+      workflowInstances.remove(workflowInstance.id);
+      unindex(workflowInstance.id);
+      fileLog.delete(getKey(workflowInstance.id));
+      if (archivedWorkflowInstances.remove(workflowInstance.id)!=null) {
+        fileLog.delete(getArchivedKey(workflowInstance.id));
+      }
+    }
+  }
+
+  @Override
+  public void deleteAllWorkflowInstances() {
+    fileLog.deleteAll(WORKFLOW_INSTANCE_PREFIX);
+    fileLog.deleteAll(ARCHIVED_WORKFLOW_INSTANCE_PREFIX);
+    super.deleteAllWorkflowInstances();
+  }
+
+  @Override
+  protected void archived(WorkflowInstanceImpl workflowInstance) {
+    fileLog.put(getArchivedKey(workflowInstance.id), jsonStreamMapper.write(createRecord(workflowInstance)));
+    fileLog.delete(getKey(workflowInstance.id));
+  }
+
+  protected String getKey(WorkflowInstanceId workflowInstanceId) {
+    return WORKFLOW_INSTANCE_PREFIX+workflowInstanceId.getInternal();
+  }
+
+  protected String getArchivedKey(WorkflowInstanceId workflowInstanceId) {
+    return ARCHIVED_WORKFLOW_INSTANCE_PREFIX+workflowInstanceId.getInternal();
+  }
+
+  protected void writeWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+    fileLog.put(getKey(workflowInstance.id), jsonStreamMapper.write(createRecord(workflowInstance)));
+  }
+
+  protected WorkflowInstanceRecord createRecord(WorkflowInstanceImpl workflowInstance) {
+    WorkflowInstanceRecord record = new WorkflowInstanceRecord();
+    record.workflowInstance = workflowInstance.toWorkflowInstance(true);
+    record.nextActivityInstanceId = workflowInstance.nextActivityInstanceId;
+    record.nextVariableInstanceId = workflowInstance.nextVariableInstanceId;
+    record.work = writeWork(workflowInstance.work);
+    record.workAsync = writeWork(workflowInstance.workAsync);
+    record.jobs = workflowInstance.jobs;
+    return record;
+  }
+
+  protected List<String> writeWork(Queue<ActivityInstanceImpl> workQueue) {
+    List<String> workActivityInstanceIds = null;
+    if (workQueue!=null && !workQueue.isEmpty()) {
+      workActivityInstanceIds = new ArrayList<>();
+      for (ActivityInstanceImpl workActivityInstance: workQueue) {
+        workActivityInstanceIds.add(workActivityInstance.id);
+      }
+    }
+    return workActivityInstanceIds;
+  }
+
+  protected WorkflowInstanceImpl readWorkflowInstanceImpl(String jsonWorkflowInstance) {
+    WorkflowInstanceRecord record = jsonStreamMapper.readString(jsonWorkflowInstance, WorkflowInstanceRecord.class);
+    WorkflowInstance workflowInstanceApi = record.workflowInstance;
+
+    WorkflowInstanceImpl workflowInstance = new WorkflowInstanceImpl();
+    workflowInstance.id = workflowInstanceApi.getId();
+    workflowInstance.businessKey = workflowInstanceApi.getBusinessKey();
+    WorkflowImpl workflow = workflowEngine.getWorkflowImpl(workflowInstanceApi.getWorkflowId());
+    if (workflow==null) {
+      throw new RuntimeException("No workflow for instance "+workflowInstance.id);
+    }
+    workflowInstance.workflow = workflow;
+    workflowInstance.workflowInstance = workflowInstance;
+    workflowInstance.scope = workflow;
+    workflowInstance.configuration = configuration;
+    workflowInstance.callingWorkflowInstanceId = workflowInstanceApi.getCallingWorkflowInstanceId();
+    workflowInstance.callingActivityInstanceId = workflowInstanceApi.getCallingActivityInstanceId();
+    workflowInstance.nextActivityInstanceId = record.nextActivityInstanceId;
+    workflowInstance.nextVariableInstanceId = record.nextVariableInstanceId;
+    workflowInstance.jobs = record.jobs;
+
+    readScopeImpl(workflowInstance, workflowInstanceApi, workflow);
+
+    workflowInstance.work = readWork(record.work, workflowInstance);
+    workflowInstance.workAsync = readWork(record.workAsync, workflowInstance);
+    return workflowInstance;
+  }
+
+  protected void readScopeImpl(ScopeInstanceImpl scopeInstance, ScopeInstance scopeInstanceApi, ScopeImpl scope) {
+    scopeInstance.start = scopeInstanceApi.getStart();
+    scopeInstance.end = scopeInstanceApi.getEnd();
+    scopeInstance.endState = scopeInstanceApi.getEndState();
+    scopeInstance.duration = scopeInstanceApi.getDuration();
+    scopeInstance.properties = scopeInstanceApi.getProperties();
+    if (scopeInstanceApi.getActivityInstances()!=null) {
+      for (ActivityInstance activityInstanceApi: scopeInstanceApi.getActivityInstances()) {
+        scopeInstance.addActivityInstance(readActivityInstance(scopeInstance, activityInstanceApi, scope));
+      }
+    }
+    if (scopeInstanceApi.getVariableInstances()!=null) {
+      for (VariableInstance variableInstanceApi: scopeInstanceApi.getVariableInstances()) {
+        scopeInstance.addVariableInstance(readVariableInstance(scopeInstance, variableInstanceApi));
+      }
+    }
+  }
+
+  protected ActivityInstanceImpl readActivityInstance(ScopeInstanceImpl parent, ActivityInstance activityInstanceApi, ScopeImpl scope) {
+    ActivityInstanceImpl activityInstance = new ActivityInstanceImpl();
+    activityInstance.id = activityInstanceApi.getId();
+    activityInstance.calledWorkflowInstanceId = activityInstanceApi.getCalledWorkflowInstanceId();
+    activityInstance.workState = (String) activityInstanceApi.removeProperty(WORK_STATE);
+    activityInstance.configuration = configuration;
+    activityInstance.parent = parent;
+    activityInstance.workflow = parent.workflow;
+    activityInstance.workflowInstance = parent.workflowInstance;
+    ActivityImpl activity = scope.findActivityByIdLocal(activityInstanceApi.getActivityId());
+    activityInstance.activity = activity;
+    activityInstance.scope = activity;
+    ScopeImpl nestedScope = activity.isMultiInstance() ? activity.parent : activity;
+    readScopeImpl(activityInstance, activityInstanceApi, nestedScope);
+    return activityInstance;
+  }
+
+  protected VariableInstanceImpl readVariableInstance(ScopeInstanceImpl parent, VariableInstance variableInstanceApi) {
+    VariableInstanceImpl variableInstance = new VariableInstanceImpl();
+    variableInstance.id = variableInstanceApi.getId();
+    variableInstance.variable = findVariableByIdRecurseParents(parent.scope, variableInstanceApi.getVariableId());
+    if (variableInstance.variable!=null) {
+      variableInstance.type = variableInstance.variable.type;
+    } else {
+      variableInstance.variable = new VariableImpl();
+      DataType type = variableInstanceApi.getType();
+      if (type!=null) {
+        variableInstance.type = dataTypeService.createDataType(type);
+      }
+    }
+    variableInstance.value = variableInstanceApi.getValue();
+    variableInstance.configuration = configuration;
+    variableInstance.workflowInstance = parent.workflowInstance;
+    variableInstance.parent = parent;
+    variableInstance.workflow = parent.workflow;
+    return variableInstance;
+  }
+
+  protected VariableImpl findVariableByIdRecurseParents(ScopeImpl scope, String variableId) {
+    if (scope==null) {
+      return null;
+    }
+    VariableImpl variable = scope.findVariableByIdLocal(variableId);
+    if (variable!=null) {
+      return variable;
+    }
+    return findVariableByIdRecurseParents(scope.parent, variableId);
+  }
+
+  protected Queue<ActivityInstanceImpl> readWork(List<String> workActivityInstanceIds, WorkflowInstanceImpl workflowInstance) {
+    Queue<ActivityInstanceImpl> workQueue = null;
+    if (workActivityInstanceIds!=null) {
+      workQueue = new LinkedList<>();
+      for (String workActivityInstanceId: workActivityInstanceIds) {
+        workQueue.add(workflowInstance.findActivityInstance(workActivityInstanceId));
+      }
+    }
+    return workQueue;
+  }
+
+  /** the state of a workflow instance as it is written to the log */
+  public static class WorkflowInstanceRecord {
+    public WorkflowInstance workflowInstance;
+    public Long nextActivityInstanceId;
+    public Long nextVariableInstanceId;
+    public List<String> work;
+    public List<String> workAsync;
+    public List<Job> jobs;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.file;
+
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.query.WorkflowQuery;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.json.JsonStreamMapper;
+import com.effektif.workflow.impl.memory.MemoryWorkflowStore;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class FileWorkflowStore extends MemoryWorkflowStore implements Startable {
+
+  public static final String WORKFLOW_PREFIX = "workflow/";
+
+  protected FileLog fileLog;
+  protected JsonStreamMapper jsonStreamMapper;
+
+  @Override
+  public void brew(Brewery brewery) {
+    super.brew(brewery);
+    this.fileLog = brewery.get(FileLog.class);
+    this.jsonStreamMapper = brewery.get(JsonStreamMapper.class);
+  }
+
+  @Override
+  public void start(Brewery brewery) {
+    for (String jsonWorkflow: fileLog.recover(WORKFLOW_PREFIX).values()) {
+      ExecutableWorkflow workflow = jsonStreamMapper.readString(jsonWorkflow, ExecutableWorkflow.class);
+      workflows.put(workflow.getId(), workflow);
+    }
+  }
+
+  @Override
+  public void insertWorkflow(ExecutableWorkflow workflow) {
+    super.insertWorkflow(workflow);
+    fileLog.put(getKey(workflow.getId()), jsonStreamMapper.write(workflow));
+  }
+
+  @Override
+  public void deleteWorkflows(WorkflowQuery query) {
+    for (ExecutableWorkflow workflow: findWorkflows(query)) {
+      workflows.remove(workflow.getId());
+      fileLog.delete(getKey(workflow.getId()));
+    }
+  }
+
+  @Override
+  public void deleteAllWorkflows() {
+    fileLog.deleteAll(WORKFLOW_PREFIX);
+    super.deleteAllWorkflows();
+  }
+
+  protected String getKey(WorkflowId workflowId) {
+    return WORKFLOW_PREFIX+workflowId.getInternal();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.history;
+
+import org.joda.time.LocalDateTime;
+
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.impl.WorkflowExecutionEvent;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+
+
+/**
+ * A recorded {@link WorkflowExecutionEvent}.  Unlike the execution 
+ * events, history events are not reused so they can be kept.
+ *
+ * @author Tom Baeyens
+ */
+public class HistoryEvent {
+
+  public Type type;
+  public LocalDateTime time;
+  public WorkflowInstanceId workflowInstanceId;
+  public WorkflowId workflowId;
+  public String activityInstanceId;
+  public String activityId;
+  public String transitionId;
+  public String toActivityInstanceId;
+  public String variableId;
+  public Object value;
+
+  public HistoryEvent() {
+  }
+
+  public HistoryEvent(WorkflowExecutionEvent event) {
+    this.type = event.getType();
+    this.time = new LocalDateTime(event.getTime());
+    this.workflowInstanceId = event.getWorkflowInstanceId();
+    this.workflowId = event.getWorkflowId();
+    this.activityInstanceId = event.getActivityInstanceId();
+    this.activityId = event.getActivityId();
+    this.transitionId = event.getTransitionId();
+    this.toActivityInstanceId = event.getToActivityInstanceId();
+    this.variableId = event.getVariableId();
+    this.value = event.getValue();
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public LocalDateTime getTime() {
+    return time;
+  }
+
+  public WorkflowInstanceId getWorkflowInstanceId() {
+    return workflowInstanceId;
+  }
+
+  public WorkflowId getWorkflowId() {
+    return workflowId;
+  }
+
+  public String getActivityInstanceId() {
+    return activityInstanceId;
+  }
+
+  public String getActivityId() {
+    return activityId;
+  }
+
+  public String getTransitionId() {
+    return transitionId;
+  }
+
+  public String getToActivityInstanceId() {
+    return toActivityInstanceId;
+  }
+
+  public String getVariableId() {
+    return variableId;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return type+"("+workflowInstanceId+(activityId!=null ? "|"+activityId : "")+(variableId!=null ? "|"+variableId : "")+")";
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.history;
+
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+
+
+/**
+ * Determines which workflow execution events the {@link HistoryService} records.
+ * Each level includes the events of the previous levels.
+ *
+ * @author Tom Baeyens
+ */
+public enum HistoryLevel {
+
+  /** no history is recorded */
+  NONE,
+  /** start and end of workflow instances */
+  WORKFLOW_INSTANCE,
+  /** start and end of activity instances and the transitions taken */
+  ACTIVITY,
+  /** also the variable updates */
+  FULL;
+
+  public boolean isRecorded(Type type) {
+    switch (type) {
+    case WORKFLOW_INSTANCE_STARTING:
+    case WORKFLOW_INSTANCE_ENDED:
+      return this.compareTo(WORKFLOW_INSTANCE)>=0;
+    case ACTIVITY_INSTANCE_STARTING:
+    case ACTIVITY_INSTANCE_ENDED:
+    case TRANSITIONING:
+      return this.compareTo(ACTIVITY)>=0;
+    case VARIABLE_UPDATED:
+      return this==FULL;
+    default:
+      // insert, flush and unlock are persistence details, not history
+      return false;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.history;
+
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+
+
+/**
+ * Criteria for {@link HistoryStore#findHistoryEvents(HistoryQuery)}.
+ * Matching events are returned in the order in which they happened.
+ *
+ * @author Tom Baeyens
+ */
+public class HistoryQuery {
+
+  protected WorkflowInstanceId workflowInstanceId;
+  protected WorkflowId workflowId;
+  protected String activityId;
+  protected Type type;
+  protected Integer limit;
+
+  public WorkflowInstanceId getWorkflowInstanceId() {
+    return this.workflowInstanceId;
+  }
+  public void setWorkflowInstanceId(WorkflowInstanceId workflowInstanceId) {
+    this.workflowInstanceId = workflowInstanceId;
+  }
+  public HistoryQuery workflowInstanceId(WorkflowInstanceId workflowInstanceId) {
+    this.workflowInstanceId = workflowInstanceId;
+    return this;
+  }
+
+  public WorkflowId getWorkflowId() {
+    return this.workflowId;
+  }
+  public void setWorkflowId(WorkflowId workflowId) {
+    this.workflowId = workflowId;
+  }
+  public HistoryQuery workflowId(WorkflowId workflowId) {
+    this.workflowId = workflowId;
+    return this;
+  }
+
+  public String getActivityId() {
+    return this.activityId;
+  }
+  public void setActivityId(String activityId) {
+    this.activityId = activityId;
+  }
+  public HistoryQuery activityId(String activityId) {
+    this.activityId = activityId;
+    return this;
+  }
+
+  public Type getType() {
+    return this.type;
+  }
+  public void setType(Type type) {
+    this.type = type;
+  }
+  public HistoryQuery type(Type type) {
+    this.type = type;
+    return this;
+  }
+
+  public Integer getLimit() {
+    return this.limit;
+  }
+  public void setLimit(Integer limit) {
+    this.limit = limit;
+  }
+  public HistoryQuery limit(Integer limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  public boolean meetsCriteria(HistoryEvent historyEvent) {
+    if (workflowInstanceId!=null && !workflowInstanceId.equals(historyEvent.workflowInstanceId)) {
+      return false;
+    }
+    if (workflowId!=null && !workflowId.equals(historyEvent.workflowId)) {
+      return false;
+    }
+    if (activityId!=null && !activityId.equals(historyEvent.activityId)) {
+      return false;
+    }
+    if (type!=null && type!=historyEvent.type) {
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.effektif.workflow.impl.AsyncWorkflowExecutionListener;
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.WorkflowExecutionEvent;
+import com.effektif.workflow.impl.configuration.Brewable;
+import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.configuration.Stoppable;
+
+
+/**
+ * Records the workflow execution events of the configured {@link HistoryLevel}
+ * in the {@link HistoryStore}.
+ * 
+ * As an {@link AsyncWorkflowExecutionListener}, it gets the events in batches 
+ * on the dispatcher thread, so each batch is written to the store at once 
+ * and the threads executing the workflow instances don't wait for the history.
+ * 
+ * Added to a configuration with {@link com.effektif.workflow.impl.DefaultConfiguration#history(HistoryLevel)}.
+ *
+ * @author Tom Baeyens
+ */
+public class HistoryService implements AsyncWorkflowExecutionListener, Brewable, Startable, Stoppable {
+
+  protected HistoryLevel historyLevel;
+  protected WorkflowEngineImpl workflowEngine;
+  protected HistoryStore historyStore;
+
+  public HistoryService() {
+    this(HistoryLevel.ACTIVITY);
+  }
+
+  public HistoryService(HistoryLevel historyLevel) {
+    this.historyLevel = historyLevel;
+  }
+
+  @Override
+  public void brew(Brewery brewery) {
+    this.workflowEngine = brewery.get(WorkflowEngineImpl.class);
+    this.historyStore = brewery.get(HistoryStore.class);
+  }
+
+  @Override
+  public void start(Brewery brewery) {
+    if (historyLevel!=HistoryLevel.NONE) {
+      workflowEngine.addAsyncWorkflowExecutionListener(this);
+    }
+  }
+
+  /** the events that are already published are still recorded */
+  @Override
+  public void stop(Brewery brewery) {
+    if (historyLevel!=HistoryLevel.NONE) {
+      workflowEngine.removeAsyncWorkflowExecutionListener(this);
+    }
+  }
+
+  @Override
+  public void events(List<WorkflowExecutionEvent> events) {
+    List<HistoryEvent> historyEvents = null;
+    for (WorkflowExecutionEvent event: events) {
+      if (historyLevel.isRecorded(event.getType())) {
+        if (historyEvents==null) {
+          historyEvents = new ArrayList<>(events.size());
+        }
+        historyEvents.add(new HistoryEvent(event));
+      }
+    }
+    if (historyEvents!=null) {
+      historyStore.saveHistoryEvents(historyEvents);
+    }
+  }
+
+  public List<HistoryEvent> findHistoryEvents(HistoryQuery historyQuery) {
+    return historyStore.findHistoryEvents(historyQuery);
+  }
+
+  public HistoryLevel getHistoryLevel() {
+    return historyLevel;
+  }
+}
@@ -32,6 +32,8 @@ import com.effektif.workflow.impl.workflowinstance.LockImpl;
  */
 public class Job {
   
+  public static final int DEFAULT_PRIORITY = 0;
+
   // private static final Logger log = LoggerFactory.getLogger(Job.class);
 
   public JobService jobService;
@@ -48,6 +50,9 @@ public class Job {
   public Long retryDelay;
   public LocalDateTime done;
   public Boolean dead;
+  /** jobs with a higher priority are locked first.  
+   * null means the priority of the {@link #jobType}. */
+  public Integer priority;
 
   public String organizationId;
   public String sourceWorkflowId;
@@ -128,6 +133,20 @@ public class Job {
     return this;
   }
   
+  public Job priority(Integer priority) {
+    this.priority = priority;
+    return this;
+  }
+  
+  /** the {@link #priority} or the priority of the job type if 
+   * this job doesn't specify one. */
+  public int getEffectivePriority() {
+    if (priority!=null) {
+      return priority;
+    }
+    return jobType!=null ? jobType.getPriority() : DEFAULT_PRIORITY;
+  }
+  
   public Boolean getDead() {
     return dead;
   }
@@ -180,6 +199,11 @@ public class Job {
   }
 
   
+  public Integer getPriority() {
+    return priority;
+  }
+
+  
   public Long getRetries() {
     return retries;
   }
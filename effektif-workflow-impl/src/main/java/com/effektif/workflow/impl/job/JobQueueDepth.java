@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.job;
+
+
+/**
+ * The number of due jobs of one organization with the same priority.
+ * 
+ * @see JobStore#countDueJobs()
+ * @author Tom Baeyens
+ */
+public class JobQueueDepth {
+
+  /** null for the jobs without organization */
+  public String organizationId;
+  public int priority;
+  public long count;
+
+  public JobQueueDepth() {
+  }
+
+  public JobQueueDepth(String organizationId, int priority, long count) {
+    this.organizationId = organizationId;
+    this.priority = priority;
+    this.count = count;
+  }
+
+  public String getOrganizationId() {
+    return organizationId;
+  }
+
+  public int getPriority() {
+    return priority;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return "JobQueueDepth[organization="+organizationId+",priority="+priority+",count="+count+"]";
+  }
+}
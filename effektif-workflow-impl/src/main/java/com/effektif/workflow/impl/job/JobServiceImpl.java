@@ -18,12 +18,20 @@ package com.effektif.workflow.impl.job;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.effektif.workflow.impl.configuration.Startable;
+import com.effektif.workflow.impl.configuration.Stoppable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +48,7 @@ import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
 /**
  * @author Tom Baeyens
  */
-public class JobServiceImpl implements JobService, Brewable, Startable {
+public class JobServiceImpl implements JobService, Brewable, Startable, Stoppable {
   
   private static final Logger log = LoggerFactory.getLogger(JobServiceImpl.class);
   
@@ -52,15 +60,27 @@ public class JobServiceImpl implements JobService, Brewable, Startable {
   // configuration 
   public long checkInterval = 30 * 1000; // 30 seconds
   public int maxJobExecutions = 5;
+  /** number of jobs each organization can lock in a round of {@link #checkJobs()} */
+  public int defaultOrganizationWeight = 1;
+  public Map<String,Integer> organizationWeights = new ConcurrentHashMap<>();
 
   // runtime state
   public boolean isRunning = false;
   public Timer timer = null;
   public Timer checkOtherJobsTimer = null;
   public JobServiceListener listener = null;
+  public volatile List<JobQueueDepth> queueDepths = Collections.emptyList();
 
   private static JobServiceImpl jobServiceImpl = null;
 
+  /** highest priority first, stable for jobs with the same priority */
+  protected static final Comparator<Job> PRIORITY_ORDER = new Comparator<Job>() {
+    @Override
+    public int compare(Job job1, Job job2) {
+      return Integer.compare(job2.getEffectivePriority(), job1.getEffectivePriority());
+    }
+  };
+
   @Override
   public void brew(Brewery brewery) {
     this.configuration = brewery.get(Configuration.class);
@@ -118,8 +138,15 @@ public class JobServiceImpl implements JobService, Brewable, Startable {
     }, delay, period);
   }
 
+  @Override
+  public void stop(Brewery brewery) {
+    shutdown();
+  }
+
   public void shutdown() {
-    timer.cancel();
+    if (timer!=null) {
+      timer.cancel();
+    }
     isRunning = false;
   }
 
@@ -166,6 +193,7 @@ public class JobServiceImpl implements JobService, Brewable, Startable {
       for (int i = 0; i < workflowInstance.jobs.size(); i++) {
         jobsArray[i] = workflowInstance.jobs.get(i);
       }
+      Arrays.sort(jobsArray, PRIORITY_ORDER);
 
       for (int i = 0; i < jobsArray.length; i++) {
         Job job = jobsArray[i];
@@ -187,22 +215,75 @@ public class JobServiceImpl implements JobService, Brewable, Startable {
     }
   }
 
+  /** locks and dispatches the due jobs without workflow instance.  
+   * The organizations take turns in weighted round robin so that 
+   * the jobs of one organization can't starve the other organizations.  
+   * Organizations with higher priority jobs due get their turn first 
+   * and within an organization the higher priority jobs go first. */
   public void checkJobs() {
-    boolean keepGoing = true;
-    while (isRunning && keepGoing) {
-      Job job = jobStore.lockNextJob();
-      if (job != null) {
-        if (job.jobType!=null) {
+    if (!isRunning) {
+      return;
+    }
+    List<JobQueueDepth> queueDepths = jobStore.countDueJobs();
+    this.queueDepths = queueDepths;
+    List<String> organizationIds = getOrganizationIdsByPriority(queueDepths);
+    while (isRunning && !organizationIds.isEmpty()) {
+      Iterator<String> iterator = organizationIds.iterator();
+      while (isRunning && iterator.hasNext()) {
+        String organizationId = iterator.next();
+        int weight = getOrganizationWeight(organizationId);
+        for (int i=0; i<weight; i++) {
+          Job job = jobStore.lockNextOrganizationJob(organizationId);
+          if (job==null) {
+            iterator.remove();
+            break;
+          } 
+          if (job.jobType==null) {
+            shutdown();
+            return;
+          }
           executor.execute(new ExecuteJob(job));
-        } else {
-          shutdown();
-          keepGoing = false;
         }
-      } else {
-        keepGoing = false;
       }
     }
   }
+
+  /** the organizations with due jobs, the ones with 
+   * the highest priority jobs first */
+  protected List<String> getOrganizationIdsByPriority(List<JobQueueDepth> queueDepths) {
+    final Map<String,Integer> maxPriorities = new LinkedHashMap<>();
+    for (JobQueueDepth queueDepth: queueDepths) {
+      Integer maxPriority = maxPriorities.get(queueDepth.organizationId);
+      if (maxPriority==null || queueDepth.priority>maxPriority) {
+        maxPriorities.put(queueDepth.organizationId, queueDepth.priority);
+      }
+    }
+    List<String> organizationIds = new ArrayList<>(maxPriorities.keySet());
+    Collections.sort(organizationIds, new Comparator<String>() {
+      @Override
+      public int compare(String organizationId1, String organizationId2) {
+        return maxPriorities.get(organizationId2).compareTo(maxPriorities.get(organizationId1));
+      }
+    });
+    return organizationIds;
+  }
+
+  /** the number of jobs the given organization can lock in each round */
+  public int getOrganizationWeight(String organizationId) {
+    Integer weight = organizationId!=null ? organizationWeights.get(organizationId) : null;
+    return weight!=null ? Math.max(weight, 1) : defaultOrganizationWeight;
+  }
+
+  public JobServiceImpl organizationWeight(String organizationId, int weight) {
+    organizationWeights.put(organizationId, weight);
+    return this;
+  }
+
+  /** the due jobs per organization and priority as counted 
+   * at the start of the last {@link #checkJobs()}. */
+  public List<JobQueueDepth> getQueueDepths() {
+    return queueDepths;
+  }
   
   class ExecuteJob implements Runnable {
     Job job;
@@ -35,7 +35,17 @@ public interface JobStore {
   void deleteAllArchivedJobs();
 
   /** locks a job not having a {@link Job#lock} specified
-   * and retrieves it from the store */
+   * and retrieves it from the store.  Due jobs with a higher 
+   * {@link Job#getEffectivePriority() priority} are locked first. */
   Job lockNextJob();
 
+  /** like {@link #lockNextJob()} but only considers the jobs of the 
+   * given organization.  A null organizationId only matches the 
+   * jobs without organization. */
+  Job lockNextOrganizationJob(String organizationId);
+
+  /** the number of due jobs without workflow instance 
+   * per organization and priority. */
+  List<JobQueueDepth> countDueJobs();
+
 }
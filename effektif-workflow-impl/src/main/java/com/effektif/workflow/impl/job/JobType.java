@@ -33,6 +33,13 @@ public interface JobType {
    * will be 1 the first time. */
   int getRetryDelayInSeconds(long retry);
 
+  /** the priority of the jobs of this type that don't 
+   * specify a {@link Job#priority} themselves. Higher 
+   * priorities are executed first. */
+  default int getPriority() {
+    return Job.DEFAULT_PRIORITY;
+  }
+
   /** invoked when a job is due.
    * RuntimeException's will cause the JobService to retry as 
    * configured with {@link #getMaxRetries()} and {@link #getRetryDelayInSeconds(long)}.
@@ -19,12 +19,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.ServiceLoader;
 
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.json.TypeName;
 import com.effektif.workflow.api.workflow.Timer;
 import com.effektif.workflow.impl.configuration.Brewery;
+import com.effektif.workflow.impl.configuration.PluginIndex;
 import com.effektif.workflow.impl.configuration.Startable;
 import com.effektif.workflow.impl.util.Exceptions;
 
@@ -50,8 +50,7 @@ public class TimerTypeService implements Startable {
   }
 
   protected void initializeTimerTypes() {
-    ServiceLoader<TimerType> loader = ServiceLoader.load(TimerType.class);
-    for (TimerType type: loader) {
+    for (TimerType type: PluginIndex.load(TimerType.class)) {
       registerTimerType(type);
     }
   }
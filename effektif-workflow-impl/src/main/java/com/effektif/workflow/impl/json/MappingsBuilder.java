@@ -26,7 +26,9 @@ import com.effektif.workflow.api.workflow.Timer;
 import com.effektif.workflow.api.workflow.Trigger;
 import com.effektif.workflow.impl.activity.AbstractTriggerImpl;
 import com.effektif.workflow.impl.activity.ActivityType;
+import com.effektif.workflow.impl.archive.ArchiveJobType;
 import com.effektif.workflow.impl.conditions.ConditionImpl;
+import com.effektif.workflow.impl.configuration.PluginIndex;
 import com.effektif.workflow.impl.data.DataTypeImpl;
 import com.effektif.workflow.impl.job.JobType;
 import com.effektif.workflow.impl.job.TimerType;
@@ -57,7 +59,8 @@ public class MappingsBuilder {
     inline(Extensible.class, "properties");
     baseClass(Trigger.class);
     baseClass(JobType.class);
-    subClasses(BoundaryEventTimerImpl.class); //todo: make this dynamic
+    // job types of plugins are added in loadPlugins
+    subClasses(BoundaryEventTimerImpl.class, ArchiveJobType.class);
     baseClass(Activity.class);
     baseClass(Condition.class);
     // needs to be added explicitly as it has no impl:
@@ -145,20 +148,16 @@ public class MappingsBuilder {
   }
   
   public MappingsBuilder loadPlugins() {
-    ServiceLoader<ActivityType> activityTypeLoader = ServiceLoader.load(ActivityType.class);
-    for (ActivityType activityType: activityTypeLoader) {
+    for (ActivityType activityType: PluginIndex.load(ActivityType.class)) {
       subClass(activityType.getActivityApiClass());
     }
-    ServiceLoader<ConditionImpl> conditionLoader = ServiceLoader.load(ConditionImpl.class);
-    for (ConditionImpl condition: conditionLoader) {
+    for (ConditionImpl condition: PluginIndex.load(ConditionImpl.class)) {
       subClass(condition.getApiType());
     }
-    ServiceLoader<AbstractTriggerImpl> triggerLoader = ServiceLoader.load(AbstractTriggerImpl.class);
-    for (AbstractTriggerImpl trigger: triggerLoader) {
+    for (AbstractTriggerImpl trigger: PluginIndex.load(AbstractTriggerImpl.class)) {
         subClass(trigger.getTriggerApiClass());
     }
-    ServiceLoader<DataTypeImpl> dataTypeLoader = ServiceLoader.load(DataTypeImpl.class);
-    for (DataTypeImpl dataTypeImpl: dataTypeLoader) {
+    for (DataTypeImpl dataTypeImpl: PluginIndex.load(DataTypeImpl.class)) {
       try {
         Class<? extends DataType> apiClass = dataTypeImpl.getApiClass();
         if (apiClass!=null) {
@@ -170,10 +169,12 @@ public class MappingsBuilder {
         throw new RuntimeException(e);
       }
     }
-    ServiceLoader<TimerType> timerTypeLoader = ServiceLoader.load(TimerType.class);
-    for (TimerType timerType: timerTypeLoader) {
+    for (TimerType timerType: PluginIndex.load(TimerType.class)) {
         subClass(timerType.getTimerApiClass());
     }
+    for (Class<?> jobTypeClass: PluginIndex.loadClasses(JobType.class)) {
+      subClass(jobTypeClass);
+    }
     // potentially multiple datatypes may map to eg String. 
     // by re-putting these datatypes, we ensure that these basic
     // data types are used when looking up a datatype by value
@@ -13,6 +13,7 @@
  * limitations under the License. */
 package com.effektif.workflow.impl.json.types;
 
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -36,7 +37,9 @@ public class CollectionMapperFactory implements JsonTypeMapperFactory {
     if (clazz!=null && Collection.class.isAssignableFrom(clazz)) {
       Type elementType = Reflection.getTypeArg(type, 0);
       JsonTypeMapper elementMapper = mappings.getTypeMapper(elementType);
-      if (List.class.isAssignableFrom(clazz)) {
+      if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())) {
+        return new CollectionMapper(elementMapper, (Class<? extends Collection>) clazz);
+      } else if (List.class.isAssignableFrom(clazz)) {
         return new CollectionMapper(elementMapper, ArrayList.class); 
       } else if (Set.class.isAssignableFrom(clazz)) {
         return new CollectionMapper(elementMapper, LinkedHashSet.class); 
@@ -31,5 +31,6 @@ public class MemoryConfiguration extends DefaultConfiguration {
     brewery.ingredient(new MemoryWorkflowStore());
     brewery.ingredient(new MemoryWorkflowInstanceStore());
     brewery.ingredient(new MemoryJobStore());
+    brewery.ingredient(new MemoryHistoryStore());
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.effektif.workflow.impl.history.HistoryEvent;
+import com.effektif.workflow.impl.history.HistoryQuery;
+import com.effektif.workflow.impl.history.HistoryStore;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class MemoryHistoryStore implements HistoryStore {
+
+  protected List<HistoryEvent> historyEvents = new CopyOnWriteArrayList<>();
+
+  @Override
+  public void saveHistoryEvents(List<HistoryEvent> historyEvents) {
+    this.historyEvents.addAll(historyEvents);
+  }
+
+  @Override
+  public List<HistoryEvent> findHistoryEvents(HistoryQuery historyQuery) {
+    List<HistoryEvent> result = new ArrayList<>();
+    Integer limit = historyQuery.getLimit();
+    for (HistoryEvent historyEvent: historyEvents) {
+      if (limit!=null && result.size()>=limit) {
+        break;
+      }
+      if (historyQuery.meetsCriteria(historyEvent)) {
+        result.add(historyEvent);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void deleteAllHistoryEvents() {
+    historyEvents.clear();
+  }
+}
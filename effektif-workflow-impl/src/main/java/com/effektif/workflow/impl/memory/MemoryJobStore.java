@@ -17,49 +17,226 @@ package com.effektif.workflow.impl.memory;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.LocalDateTime;
 
 import com.effektif.workflow.api.model.WorkflowInstanceId;
 import com.effektif.workflow.impl.job.Job;
 import com.effektif.workflow.impl.job.JobQuery;
+import com.effektif.workflow.impl.job.JobQueueDepth;
 import com.effektif.workflow.impl.job.JobStore;
+import com.effektif.workflow.impl.util.Time;
 
 
 /**
+ * Keeps jobs in concurrent structures so that engine threads 
+ * don't need a store-wide monitor to claim or save jobs.
+ * 
  * @author Tom Baeyens
  */
 public class MemoryJobStore implements JobStore {
   
-  protected Map<String,Job> jobs = new LinkedHashMap<>();
-  protected List<Job> archivedJobs = new ArrayList<>();
+  protected Map<String,Job> jobs = new ConcurrentHashMap<>();
+  /** maps job keys to job ids.  Jobs with a key are put in {@link #jobs} 
+   * while holding the key's entry so that concurrent saves of the same 
+   * key end up as one job. */
+  protected Map<String,String> jobIdsByKey = new ConcurrentHashMap<>();
+  /** the key in {@link #jobDueDates} of the jobs without organization */
+  protected static final String NO_ORGANIZATION = "";
+
+  /** the due dates of the jobs in {@link #jobs} that are not bound to a 
+   * workflow instance, per organization and per priority with the highest 
+   * priority first.  Each set is ordered by due date and then by insertion order.
+   * So locking only looks at the first due dates of each priority instead of 
+   * scanning all jobs.  Can contain stale entries of jobs that were removed 
+   * while they were indexed, see {@link #isIndexed(JobDueDate)}. */
+  protected Map<String,NavigableMap<Integer,NavigableSet<JobDueDate>>> jobDueDates = new ConcurrentHashMap<>();
+  protected Map<String,JobDueDate> jobDueDatesByJobId = new ConcurrentHashMap<>();
+  protected AtomicLong jobSequence = new AtomicLong();
+  protected List<Job> archivedJobs = new CopyOnWriteArrayList<>();
 
   @Override
-  public synchronized Job lockNextJob() {
-    for (Job job: jobs.values()) {
-      if (job.isDue() && !job.isDone() && job.getWorkflowInstanceId()==null) {
-        jobs.remove(job.id);
-        return job;
+  public Job lockNextJob() {
+    return lockNextJob(null, true);
+  }
+
+  @Override
+  public Job lockNextOrganizationJob(String organizationId) {
+    return lockNextJob(organizationId, false);
+  }
+
+  /** locks the due job with the highest priority and the 
+   * earliest due date of the given organization or of all 
+   * organizations if anyOrganization is true. */
+  protected Job lockNextJob(String organizationId, boolean anyOrganization) {
+    LocalDateTime now = Time.now();
+    while (true) {
+      JobDueDate nextJobDueDate = null;
+      if (anyOrganization) {
+        for (NavigableMap<Integer,NavigableSet<JobDueDate>> organizationJobDueDates: jobDueDates.values()) {
+          JobDueDate organizationNextJobDueDate = findNextJobDueDate(organizationJobDueDates, now);
+          if (organizationNextJobDueDate!=null
+              && (nextJobDueDate==null || organizationNextJobDueDate.isBefore(nextJobDueDate))) {
+            nextJobDueDate = organizationNextJobDueDate;
+          }
+        }
+      } else {
+        nextJobDueDate = findNextJobDueDate(jobDueDates.get(getOrganizationKey(organizationId)), now);
+      }
+      if (nextJobDueDate==null) {
+        return null;
+      }
+      // only one thread can remove the job from the map 
+      Job nextJob = nextJobDueDate.job;
+      if (jobs.remove(nextJob.id, nextJob)) {
+        unindex(nextJob);
+        return nextJob;
+      }
+    }
+  }
+
+  /** the first due job of the highest priority that has one */
+  protected JobDueDate findNextJobDueDate(NavigableMap<Integer,NavigableSet<JobDueDate>> organizationJobDueDates, LocalDateTime now) {
+    if (organizationJobDueDates!=null) {
+      for (NavigableSet<JobDueDate> priorityJobDueDates: organizationJobDueDates.values()) {
+        for (JobDueDate jobDueDate: priorityJobDueDates) {
+          if (!jobDueDate.isDue(now)) {
+            // the due dates are ordered so none of the remaining jobs of this priority is due
+            break;
+          }
+          if (isIndexed(jobDueDate) && !jobDueDate.job.isDone()) {
+            return jobDueDate;
+          }
+        }
       }
     }
     return null;
   }
 
+  /** the queue depths of each organization in the order of their 
+   * earliest due job, like the jobs were counted in due date order. */
   @Override
-  public synchronized void saveJob(Job job) {
-    if (job.key!=null) {
-      for (Job existingJob: jobs.values()) {
-        if (job.key.equals(existingJob.key)) {
-          job.id = existingJob.id;
+  public List<JobQueueDepth> countDueJobs() {
+    final Map<JobQueueDepth,JobDueDate> firstJobDueDates = new HashMap<>();
+    List<List<JobQueueDepth>> organizationsQueueDepths = new ArrayList<>();
+    LocalDateTime now = Time.now();
+    for (NavigableMap<Integer,NavigableSet<JobDueDate>> organizationJobDueDates: jobDueDates.values()) {
+      List<JobQueueDepth> organizationQueueDepths = new ArrayList<>();
+      for (Map.Entry<Integer,NavigableSet<JobDueDate>> entry: organizationJobDueDates.entrySet()) {
+        JobQueueDepth queueDepth = null;
+        for (JobDueDate jobDueDate: entry.getValue()) {
+          if (!jobDueDate.isDue(now)) {
+            break;
+          }
+          if (isIndexed(jobDueDate) && !jobDueDate.job.isDone()) {
+            if (queueDepth==null) {
+              queueDepth = new JobQueueDepth(jobDueDate.job.organizationId, entry.getKey(), 0);
+              firstJobDueDates.put(queueDepth, jobDueDate);
+              organizationQueueDepths.add(queueDepth);
+            }
+            queueDepth.count++;
+          }
         }
       }
+      if (!organizationQueueDepths.isEmpty()) {
+        Collections.sort(organizationQueueDepths, (queueDepth1, queueDepth2) -> 
+          firstJobDueDates.get(queueDepth1).compareTo(firstJobDueDates.get(queueDepth2)));
+        organizationsQueueDepths.add(organizationQueueDepths);
+      }
+    }
+    Collections.sort(organizationsQueueDepths, (queueDepths1, queueDepths2) -> 
+      firstJobDueDates.get(queueDepths1.get(0)).compareTo(firstJobDueDates.get(queueDepths2.get(0))));
+    List<JobQueueDepth> queueDepths = new ArrayList<>();
+    for (List<JobQueueDepth> organizationQueueDepths: organizationsQueueDepths) {
+      queueDepths.addAll(organizationQueueDepths);
     }
+    return queueDepths;
+  }
+
+  @Override
+  public void saveJob(final Job job) {
     if (job.id==null) {
       job.id = UUID.randomUUID().toString();
     }
-    jobs.put(job.id, job);
+    if (job.key!=null) {
+      jobIdsByKey.compute(job.key, (key, existingJobId) -> {
+        if (existingJobId!=null) {
+          job.id = existingJobId;
+        }
+        jobs.put(job.id, job);
+        return job.id;
+      });
+    } else {
+      jobs.put(job.id, job);
+    }
+    index(job);
+  }
+
+  protected void index(Job job) {
+    // jobs of a workflow instance are locked with their workflow instance
+    final JobDueDate jobDueDate = job.getWorkflowInstanceId()==null 
+            ? new JobDueDate(job.dueDate, jobSequence.incrementAndGet(), job) 
+            : null;
+    jobDueDatesByJobId.compute(job.id, (jobId, oldJobDueDate) -> {
+      if (oldJobDueDate!=null) {
+        oldJobDueDate.priorityJobDueDates.remove(oldJobDueDate);
+      }
+      if (jobDueDate!=null) {
+        jobDueDate.priorityJobDueDates = getPriorityJobDueDates(job.organizationId, jobDueDate.priority);
+        jobDueDate.priorityJobDueDates.add(jobDueDate);
+      }
+      return jobDueDate;
+    });
+  }
+
+  protected NavigableSet<JobDueDate> getPriorityJobDueDates(String organizationId, int priority) {
+    return jobDueDates
+      .computeIfAbsent(getOrganizationKey(organizationId), key -> new ConcurrentSkipListMap<>(Comparator.reverseOrder()))
+      .computeIfAbsent(priority, key -> new ConcurrentSkipListSet<>());
+  }
+
+  protected static String getOrganizationKey(String organizationId) {
+    return organizationId!=null ? organizationId : NO_ORGANIZATION;
+  }
+
+  protected void unindex(final Job job) {
+    jobDueDatesByJobId.computeIfPresent(job.id, (jobId, jobDueDate) -> {
+      if (jobDueDate.job!=job) {
+        // the job id was reused by a save with the same key
+        return jobDueDate;
+      }
+      jobDueDate.priorityJobDueDates.remove(jobDueDate);
+      return null;
+    });
+    if (job.key!=null) {
+      jobIdsByKey.computeIfPresent(job.key, (key, jobId) -> 
+        jobId.equals(job.id) && !jobs.containsKey(jobId) ? null : jobId);
+    }
+  }
+
+  /** false if the job of the due date was removed or replaced while 
+   * it was indexed, in which case the stale due date is removed. */
+  protected boolean isIndexed(JobDueDate jobDueDate) {
+    Job job = jobDueDate.job;
+    if (jobs.get(job.id)==job) {
+      return true;
+    }
+    jobDueDatesByJobId.remove(job.id, jobDueDate);
+    jobDueDate.priorityJobDueDates.remove(jobDueDate);
+    return false;
   }
 
   protected List<Job> findJobs(Collection<Job> jobs, JobQuery query) {
@@ -74,12 +251,18 @@ public class MemoryJobStore implements JobStore {
 
   @Override
   public void deleteAllJobs() {
-    jobs = new LinkedHashMap<>();
+    jobs.clear();
+    jobIdsByKey.clear();
+    jobDueDates.clear();
+    jobDueDatesByJobId.clear();
   }
 
   @Override
   public void deleteJobById(String jobId) {
-    jobs.remove(jobId);
+    Job job = jobs.remove(jobId);
+    if (job!=null) {
+      unindex(job);
+    }
   }
 
   @Override
@@ -89,7 +272,7 @@ public class MemoryJobStore implements JobStore {
 
   @Override
   public void deleteAllArchivedJobs() {
-    archivedJobs = new ArrayList<>();
+    archivedJobs = new CopyOnWriteArrayList<>();
   }
 
   @Override
@@ -99,11 +282,58 @@ public class MemoryJobStore implements JobStore {
 
   @Override
   public void deleteJobByScope(WorkflowInstanceId workflowInstanceId, String activityInstanceId) {
-    for (Job job: new ArrayList<>(archivedJobs)) {
+    for (Job job: archivedJobs) {
       if (workflowInstanceId.equals(job.getWorkflowInstanceId())
           && (activityInstanceId==null || activityInstanceId.equals(activityInstanceId))) {
         archivedJobs.remove(job);
       }
     }
   }
+
+  /** entry in the job due date index.  a null due date means the job is due immediately. */
+  protected static class JobDueDate implements Comparable<JobDueDate> {
+    
+    protected LocalDateTime dueDate;
+    protected long sequence;
+    protected Job job;
+    protected int priority;
+    /** the set in {@link MemoryJobStore#jobDueDates} that contains this entry */
+    protected NavigableSet<JobDueDate> priorityJobDueDates;
+    
+    public JobDueDate(LocalDateTime dueDate, long sequence, Job job) {
+      this.dueDate = dueDate;
+      this.sequence = sequence;
+      this.job = job;
+      this.priority = job.getEffectivePriority();
+    }
+
+    /** true if this job is locked before the other job of another set */
+    public boolean isBefore(JobDueDate other) {
+      if (priority!=other.priority) {
+        return priority>other.priority;
+      }
+      return compareTo(other)<0;
+    }
+
+    public boolean isDue(LocalDateTime now) {
+      return dueDate==null || dueDate.compareTo(now)<=0;
+    }
+
+    @Override
+    public int compareTo(JobDueDate other) {
+      if (dueDate!=other.dueDate) {
+        if (dueDate==null) {
+          return -1;
+        }
+        if (other.dueDate==null) {
+          return 1;
+        }
+        int comparison = dueDate.compareTo(other.dueDate);
+        if (comparison!=0) {
+          return comparison;
+        }
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
 }
@@ -17,13 +17,18 @@ package com.effektif.workflow.impl.memory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
 
 import com.effektif.workflow.api.model.WorkflowInstanceId;
@@ -35,6 +40,7 @@ import com.effektif.workflow.impl.configuration.Brewery;
 import com.effektif.workflow.impl.job.Job;
 import com.effektif.workflow.impl.util.Lists;
 import com.effektif.workflow.impl.util.Time;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
 import com.effektif.workflow.impl.workflowinstance.LockImpl;
 import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
 
@@ -49,6 +55,20 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
   protected String workflowEngineId;
   protected Map<WorkflowInstanceId, WorkflowInstanceImpl> workflowInstances;
   protected Set<WorkflowInstanceId> lockedWorkflowInstanceIds;
+  /** ended workflow instances that are moved out of {@link #workflowInstances} */
+  protected Map<WorkflowInstanceId, WorkflowInstanceImpl> archivedWorkflowInstances;
+
+  // The indexes below are updated when a workflow instance is inserted, flushed or unlocked.
+  // As workflow instances are kept as live objects, the indexes can be behind while  
+  // a workflow instance is executing.  That's why matches are always verified against 
+  // the workflow instance itself. 
+
+  /** the earliest job due date of each workflow instance that has jobs, ordered by due date */
+  protected NavigableSet<JobDueDate> jobDueDates;
+  protected ConcurrentMap<WorkflowInstanceId, JobDueDate> jobDueDatesByWorkflowInstanceId;
+  /** maps activity ids to the workflow instances that have an open activity instance for it */
+  protected ConcurrentMap<String, Set<WorkflowInstanceId>> workflowInstanceIdsByActivityId;
+  protected ConcurrentMap<WorkflowInstanceId, Set<String>> activityIdsByWorkflowInstanceId;
   
   public MemoryWorkflowInstanceStore() {
   }
@@ -62,6 +82,11 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
   protected void initializeWorkflowInstances() {
     this.workflowInstances = new ConcurrentHashMap<>();
     this.lockedWorkflowInstanceIds = Collections.newSetFromMap(new ConcurrentHashMap<WorkflowInstanceId, Boolean>());
+    this.archivedWorkflowInstances = new ConcurrentHashMap<>();
+    this.jobDueDates = new ConcurrentSkipListSet<>();
+    this.jobDueDatesByWorkflowInstanceId = new ConcurrentHashMap<>();
+    this.workflowInstanceIdsByActivityId = new ConcurrentHashMap<>();
+    this.activityIdsByWorkflowInstanceId = new ConcurrentHashMap<>();
   }
   
   @Override
@@ -69,25 +94,72 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
     return new WorkflowInstanceId(UUID.randomUUID().toString());
   }
 
+  @Override
+  public boolean isValidWorkflowInstanceId(WorkflowInstanceId workflowInstanceId) {
+    return workflowInstanceId!=null && workflowInstanceId.getInternal()!=null;
+  }
+
   @Override
   public void insertWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+    // like the lock in an inserted document, so that nobody else 
+    // can lock the workflow instance while it's being started
+    if (workflowInstance.lock!=null) {
+      lockedWorkflowInstanceIds.add(workflowInstance.id);
+    }
     workflowInstances.put(workflowInstance.id, workflowInstance);
+    index(workflowInstance);
+  }
+
+  @Override
+  public List<String> insertWorkflowInstances(List<WorkflowInstanceImpl> workflowInstances) {
+    List<String> errors = new ArrayList<>(workflowInstances.size());
+    for (WorkflowInstanceImpl workflowInstance: workflowInstances) {
+      try {
+        insertWorkflowInstance(workflowInstance);
+        errors.add(null);
+      } catch (RuntimeException e) {
+        errors.add(String.valueOf(e.getMessage()));
+      }
+    }
+    return errors;
   }
 
   @Override
   public void flush(WorkflowInstanceImpl workflowInstance) {
+    index(workflowInstance);
   }
 
   @Override
   public void flushAndUnlock(WorkflowInstanceImpl workflowInstance) {
-    lockedWorkflowInstanceIds.remove(workflowInstance.id);
+    index(workflowInstance);
     workflowInstance.removeLock();
-    workflowInstance.notifyUnlockListeners();
+    // the workflow instance object is shared, so it can only 
+    // be locked again after the listeners are notified
+    workflowInstance.notifyUnlocked();
+    lockedWorkflowInstanceIds.remove(workflowInstance.id);
   }
   
+  @Override
+  public List<String> flushAndUnlock(List<WorkflowInstanceImpl> workflowInstances) {
+    List<String> errors = new ArrayList<>(workflowInstances.size());
+    for (WorkflowInstanceImpl workflowInstance: workflowInstances) {
+      try {
+        flushAndUnlock(workflowInstance);
+        errors.add(null);
+      } catch (RuntimeException e) {
+        lockedWorkflowInstanceIds.remove(workflowInstance.id);
+        workflowInstance.removeLock();
+        workflowInstance.notifyUnlockListeners();
+        errors.add(String.valueOf(e.getMessage()));
+      }
+    }
+    return errors;
+  }
+
   @Override
   public void unlockWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
     if (workflowInstance!=null) {
+      index(workflowInstance);
       workflowInstance.removeLock();
       lockedWorkflowInstanceIds.remove(workflowInstance.id);
       workflowInstance.notifyUnlockListeners();
@@ -98,6 +170,9 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
   public List<WorkflowInstanceImpl> findWorkflowInstances(WorkflowInstanceQuery query) {
     if (query.getWorkflowInstanceId()!=null) {
       WorkflowInstanceImpl workflowInstance = workflowInstances.get(query.getWorkflowInstanceId());
+      if (workflowInstance==null && query.isIncludeArchived()) {
+        workflowInstance = archivedWorkflowInstances.get(query.getWorkflowInstanceId());
+      }
       if (workflowInstance!=null && workflowInstance.isIncluded(query)) {
         return Lists.of(workflowInstance);
       } else {
@@ -105,22 +180,88 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
       }
     }
     List<WorkflowInstanceImpl> workflowInstances = new ArrayList<>();
-    Iterator<WorkflowInstanceImpl> iterator = this.workflowInstances.values().iterator();
+    Iterator<WorkflowInstanceImpl> iterator = null;
+    if (query.getActivityId()!=null) {
+      iterator = findWorkflowInstancesByActivityId(query.getActivityId()).iterator();
+    } else {
+      iterator = this.workflowInstances.values().iterator();
+    }
     int limit = query.getLimit()!=null ? query.getLimit() : Integer.MAX_VALUE;
+    collectIncluded(iterator, query, limit, workflowInstances);
+    // archived workflow instances are ended so they don't have open activity instances
+    if (query.isIncludeArchived() && query.getActivityId()==null) {
+      collectIncluded(archivedWorkflowInstances.values().iterator(), query, limit, workflowInstances);
+    }
+    return workflowInstances;
+  }
+
+  protected void collectIncluded(Iterator<WorkflowInstanceImpl> iterator, WorkflowInstanceQuery query, int limit, List<WorkflowInstanceImpl> workflowInstances) {
     while (iterator.hasNext() && workflowInstances.size()<limit) {
       WorkflowInstanceImpl workflowInstance = iterator.next();
       if (workflowInstance.isIncluded(query)) {
         workflowInstances.add(workflowInstance);
       }
     }
-    return workflowInstances;
+  }
+
+  protected List<WorkflowInstanceImpl> findWorkflowInstancesByActivityId(String activityId) {
+    List<WorkflowInstanceImpl> candidates = new ArrayList<>();
+    Set<WorkflowInstanceId> workflowInstanceIds = workflowInstanceIdsByActivityId.get(activityId);
+    if (workflowInstanceIds!=null) {
+      for (WorkflowInstanceId workflowInstanceId: workflowInstanceIds) {
+        WorkflowInstanceImpl workflowInstance = workflowInstances.get(workflowInstanceId);
+        if (workflowInstance!=null) {
+          candidates.add(workflowInstance);
+        }
+      }
+    }
+    return candidates;
   }
 
   @Override
   public void deleteWorkflowInstances(WorkflowInstanceQuery workflowInstanceQuery) {
     for (WorkflowInstanceImpl workflowInstance: findWorkflowInstances(workflowInstanceQuery)) {
       workflowInstances.remove(workflowInstance.id);
+      archivedWorkflowInstances.remove(workflowInstance.id);
+      unindex(workflowInstance.id);
+    }
+  }
+
+  @Override
+  public int archiveWorkflowInstances(LocalDateTime endedBefore, int limit) {
+    int archived = 0;
+    Iterator<WorkflowInstanceImpl> iterator = workflowInstances.values().iterator();
+    while (iterator.hasNext() && archived<limit) {
+      WorkflowInstanceImpl workflowInstance = iterator.next();
+      if (isEndedBefore(workflowInstance, endedBefore)
+          && !lockedWorkflowInstanceIds.contains(workflowInstance.id)
+          // the lock keeps other threads away while the workflow instance is moved
+          && tryLockWorkflowInstance(workflowInstance)) {
+        // the workflow instance could have been changed before it was locked
+        if (workflowInstances.containsKey(workflowInstance.id) 
+            && isEndedBefore(workflowInstance, endedBefore)) {
+          workflowInstance.removeLock();
+          archivedWorkflowInstances.put(workflowInstance.id, workflowInstance);
+          workflowInstances.remove(workflowInstance.id);
+          unindex(workflowInstance.id);
+          archived(workflowInstance);
+          archived++;
+        } else {
+          workflowInstance.removeLock();
+        }
+        lockedWorkflowInstanceIds.remove(workflowInstance.id);
+      }
     }
+    return archived;
+  }
+
+  protected boolean isEndedBefore(WorkflowInstanceImpl workflowInstance, LocalDateTime endedBefore) {
+    return workflowInstance.end!=null
+           && workflowInstance.end.isBefore(endedBefore);
+  }
+
+  /** invoked after the given workflow instance is moved to the archive */
+  protected void archived(WorkflowInstanceImpl workflowInstance) {
   }
 
   @Override
@@ -146,29 +287,148 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
     return workflowInstance;
   }
 
+  @Override
+  public List<WorkflowInstanceImpl> lockWorkflowInstances(List<WorkflowInstanceId> workflowInstanceIds) {
+    List<WorkflowInstanceImpl> lockedWorkflowInstances = new ArrayList<>(workflowInstanceIds.size());
+    for (WorkflowInstanceId workflowInstanceId: workflowInstanceIds) {
+      WorkflowInstanceImpl workflowInstance = workflowInstances.get(workflowInstanceId);
+      if (workflowInstance!=null && tryLockWorkflowInstance(workflowInstance)) {
+        lockedWorkflowInstances.add(workflowInstance);
+      }
+    }
+    return lockedWorkflowInstances;
+  }
+
   @Override
   public WorkflowInstanceImpl lockWorkflowInstanceWithJobsDue() {
-    Iterator<WorkflowInstanceImpl> iterator = this.workflowInstances.values().iterator();
+    LocalDateTime now = Time.now();
+    Iterator<JobDueDate> iterator = jobDueDates.iterator();
     while (iterator.hasNext()) {
-      WorkflowInstanceImpl workflowInstance = iterator.next();
-      if (workflowInstance.jobs!=null) {
-        for (Job job: workflowInstance.jobs) {
-          if (job.isDue()) {
-            lockWorkflowInstance(workflowInstance);
-            return workflowInstance;
-          }
+      JobDueDate jobDueDate = iterator.next();
+      if (!jobDueDate.isDue(now)) {
+        // the due dates are ordered so none of the remaining ones is due
+        return null;
+      }
+      WorkflowInstanceImpl workflowInstance = workflowInstances.get(jobDueDate.workflowInstanceId);
+      if (workflowInstance==null) {
+        unindex(jobDueDate.workflowInstanceId);
+      } else if (!lockedWorkflowInstanceIds.contains(workflowInstance.id)
+                 && tryLockWorkflowInstance(workflowInstance)) {
+        if (hasJobsDue(workflowInstance)) {
+          return workflowInstance;
         }
+        // the index was stale.  it's only updated while the 
+        // lock excludes the flushes of other threads.
+        index(workflowInstance);
+        workflowInstance.removeLock();
+        lockedWorkflowInstanceIds.remove(workflowInstance.id);
       }
+      // else another thread locked it in the meantime
     }
     return null;
   }
 
-  public synchronized void lockWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+  protected boolean hasJobsDue(WorkflowInstanceImpl workflowInstance) {
+    if (workflowInstance.jobs!=null) {
+      for (Job job: new ArrayList<>(workflowInstance.jobs)) {
+        if (job.isDue()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** updates the job due date and activity indexes for the given workflow instance.
+   * Only the thread that holds the lock of the workflow instance can call this. 
+   * The entries of one workflow instance are replaced with an atomic compute 
+   * so that concurrent unindexing can't leave orphan entries behind. */
+  protected void index(WorkflowInstanceImpl workflowInstance) {
+    WorkflowInstanceId workflowInstanceId = workflowInstance.id;
+    if (workflowInstanceId==null) {
+      return;
+    }
+    
+    JobDueDate earliestJobDueDate = null;
+    if (workflowInstance.jobs!=null) {
+      for (Job job: workflowInstance.jobs) {
+        if (earliestJobDueDate==null || earliestJobDueDate.isAfter(job.dueDate)) {
+          earliestJobDueDate = new JobDueDate(job.dueDate, workflowInstanceId);
+        }
+      }
+    }
+    final JobDueDate jobDueDate = earliestJobDueDate;
+    jobDueDatesByWorkflowInstanceId.compute(workflowInstanceId, (id, oldJobDueDate) -> {
+      if (oldJobDueDate!=null) {
+        jobDueDates.remove(oldJobDueDate);
+      }
+      if (jobDueDate!=null) {
+        jobDueDates.add(jobDueDate);
+      }
+      return jobDueDate;
+    });
+    
+    final Set<String> activityIds = new HashSet<>();
+    if (workflowInstance.activityInstances!=null) {
+      for (ActivityInstanceImpl activityInstance: workflowInstance.activityInstances) {
+        if (!activityInstance.isEnded() && activityInstance.activity!=null) {
+          activityIds.add(activityInstance.activity.getId());
+        }
+      }
+    }
+    activityIdsByWorkflowInstanceId.compute(workflowInstanceId, (id, oldActivityIds) -> {
+      if (oldActivityIds!=null) {
+        for (String oldActivityId: oldActivityIds) {
+          if (!activityIds.contains(oldActivityId)) {
+            removeActivityIndex(oldActivityId, workflowInstanceId);
+          }
+        }
+      }
+      for (String activityId: activityIds) {
+        if (oldActivityIds==null || !oldActivityIds.contains(activityId)) {
+          workflowInstanceIdsByActivityId
+            .computeIfAbsent(activityId, key -> Collections.newSetFromMap(new ConcurrentHashMap<WorkflowInstanceId, Boolean>()))
+            .add(workflowInstanceId);
+        }
+      }
+      return activityIds.isEmpty() ? null : activityIds;
+    });
+  }
+
+  protected void unindex(WorkflowInstanceId workflowInstanceId) {
+    jobDueDatesByWorkflowInstanceId.computeIfPresent(workflowInstanceId, (id, jobDueDate) -> {
+      jobDueDates.remove(jobDueDate);
+      return null;
+    });
+    activityIdsByWorkflowInstanceId.computeIfPresent(workflowInstanceId, (id, activityIds) -> {
+      for (String activityId: activityIds) {
+        removeActivityIndex(activityId, workflowInstanceId);
+      }
+      return null;
+    });
+  }
+
+  protected void removeActivityIndex(String activityId, WorkflowInstanceId workflowInstanceId) {
+    Set<WorkflowInstanceId> workflowInstanceIds = workflowInstanceIdsByActivityId.get(activityId);
+    if (workflowInstanceIds!=null) {
+      workflowInstanceIds.remove(workflowInstanceId);
+    }
+  }
+
+  public void lockWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
+    if (!tryLockWorkflowInstance(workflowInstance)) {
+      throw new RuntimeException("Process instance "+workflowInstance.getId()+" is already locked");
+    }
+  }
+
+  /** atomically acquires the lock on the given workflow instance without blocking 
+   * threads that are locking other workflow instances. 
+   * @return false if the workflow instance was already locked. */
+  public boolean tryLockWorkflowInstance(WorkflowInstanceImpl workflowInstance) {
     WorkflowInstanceId workflowInstanceId = workflowInstance.getId();
-    if (lockedWorkflowInstanceIds.contains(workflowInstanceId)) {
-      throw new RuntimeException("Process instance "+workflowInstanceId+" is already locked");
+    if (!lockedWorkflowInstanceIds.add(workflowInstanceId)) {
+      return false;
     }
-    lockedWorkflowInstanceIds.add(workflowInstanceId);
     LockImpl lock = new LockImpl();
     lock.setTime(Time.now());
     lock.setOwner(workflowEngineId);
@@ -176,6 +436,7 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
     if (log.isDebugEnabled()) { 
       log.debug("Locked process instance "+workflowInstanceId);
     }
+    return true;
   }
 
 
@@ -183,4 +444,44 @@ public class MemoryWorkflowInstanceStore implements WorkflowInstanceStore, Brewa
   public void deleteAllWorkflowInstances() {
     initializeWorkflowInstances();
   }
+
+  /** entry in the job due date index.  a null due date means the job is due immediately. */
+  protected static class JobDueDate implements Comparable<JobDueDate> {
+    
+    protected LocalDateTime dueDate;
+    protected WorkflowInstanceId workflowInstanceId;
+    
+    public JobDueDate(LocalDateTime dueDate, WorkflowInstanceId workflowInstanceId) {
+      this.dueDate = dueDate;
+      this.workflowInstanceId = workflowInstanceId;
+    }
+
+    public boolean isDue(LocalDateTime now) {
+      return dueDate==null || dueDate.compareTo(now)<=0;
+    }
+
+    public boolean isAfter(LocalDateTime otherDueDate) {
+      if (dueDate==null) {
+        return false;
+      }
+      return otherDueDate==null || dueDate.compareTo(otherDueDate)>0;
+    }
+
+    @Override
+    public int compareTo(JobDueDate other) {
+      if (dueDate!=other.dueDate) {
+        if (dueDate==null) {
+          return -1;
+        }
+        if (other.dueDate==null) {
+          return 1;
+        }
+        int comparison = dueDate.compareTo(other.dueDate);
+        if (comparison!=0) {
+          return comparison;
+        }
+      }
+      return workflowInstanceId.getInternal().compareTo(other.workflowInstanceId.getInternal());
+    }
+  }
 }
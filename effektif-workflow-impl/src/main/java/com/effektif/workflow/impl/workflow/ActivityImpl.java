@@ -40,6 +40,10 @@ public class ActivityImpl extends ScopeImpl {
    * This field is not persisted nor jsonned. It is derived from the parent's {@link ScopeImpl#transitions} */
   public List<TransitionImpl> outgoingTransitions;
   public TransitionImpl defaultTransition;
+  /** number of distinct expressions in the conditions of the {@link #outgoingTransitions}.
+   * Set by the {@link com.effektif.workflow.impl.conditions.ConditionCompiler} and used 
+   * to size {@link com.effektif.workflow.impl.conditions.ConditionEvaluation}s. */
+  public int conditionExpressionCount;
   
   /// Activity Definition Builder methods ////////////////////////////////////////////////
 
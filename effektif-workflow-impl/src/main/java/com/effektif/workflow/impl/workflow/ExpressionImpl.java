@@ -21,7 +21,9 @@ import java.util.StringTokenizer;
 
 import com.effektif.workflow.impl.WorkflowParser;
 import com.effektif.workflow.impl.data.DataTypeImpl;
+import com.effektif.workflow.impl.data.FieldAccessor;
 import com.effektif.workflow.impl.util.StringUtil;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
 
 
 /**
@@ -31,8 +33,15 @@ public class ExpressionImpl {
 
   public DataTypeImpl type;
   public String variableId;
+  /** the declared variable or null if the variable is only known at runtime */
+  public VariableImpl variable;
   public List<String> fieldKeys;
   public List<ExpressionField> fields;
+  /** type of the variable for which the {@link #fieldAccessors} were created */
+  public DataTypeImpl variableType;
+  /** dereferences the {@link #fieldKeys} in values of the {@link #variableType}.
+   * null if the types of the fields are only known at runtime. */
+  public FieldAccessor[] fieldAccessors;
   
   public static class ExpressionField {
     public String fieldKey;
@@ -62,7 +71,9 @@ public class ExpressionImpl {
             parser.addWarning("Variable %s does not exist", variableId);
             isError = true;
           } else {
+            variable = variableImpl;
             type = variableImpl.type;
+            variableType = variableImpl.type;
           }
         }
       } else {
@@ -86,6 +97,16 @@ public class ExpressionImpl {
         fields.add(new ExpressionField(field, fieldName, type));
       }
     }
+    if (!isError && variableType!=null && fieldKeys!=null) {
+      fieldAccessors = FieldAccessor.createAccessors(variableType, fieldKeys);
+    }
+  }
+
+  /** true if the {@link #fieldAccessors} can dereference the 
+   * {@link #fieldKeys} in the value of the given variable instance. */
+  public boolean hasFieldAccessors(VariableInstanceImpl variableInstance) {
+    return fieldAccessors!=null 
+           && variableInstance.type==variableType;
   }
 
   public String toString() {
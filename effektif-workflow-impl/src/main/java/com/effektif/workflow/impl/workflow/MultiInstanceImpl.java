@@ -29,6 +29,9 @@ public class MultiInstanceImpl {
   
   public VariableImpl elementVariable;
   public List<BindingImpl<Object>> valuesBindings;
+  /** true if the activity type is a {@link com.effektif.workflow.impl.activity.ParallelizableActivityType}
+   * and the elements have to be executed concurrently */
+  public boolean parallel;
 
   public void parse(MultiInstance multiInstance, WorkflowParser parser) {
     parse(multiInstance, parser, null);
@@ -36,6 +39,7 @@ public class MultiInstanceImpl {
   
   public void parse(MultiInstance multiInstance, WorkflowParser parser, ScopeImpl parentImpl) {
     this.valuesBindings = parser.parseBindings(multiInstance.getValues(), "multiInstance.values");
+    this.parallel = multiInstance.isParallel();
     Variable elementVariable = multiInstance.getVariable();
     if (elementVariable!=null) {
       this.elementVariable = new VariableImpl();
@@ -30,6 +30,7 @@ import com.effektif.workflow.api.workflow.Timer;
 import com.effektif.workflow.api.workflow.Transition;
 import com.effektif.workflow.api.workflow.Variable;
 import com.effektif.workflow.impl.WorkflowParser;
+import com.effektif.workflow.impl.conditions.ConditionCompiler;
 
 
 public abstract class ScopeImpl extends Extensible {
@@ -39,6 +40,8 @@ public abstract class ScopeImpl extends Extensible {
   public WorkflowImpl workflow;
   public Map<String, ActivityImpl> activities;
   public Map<String, VariableImpl> variables;
+  /** number of {@link VariableImpl#slot}s assigned to the {@link #variables} */
+  public int variableSlotCount;
   public List<TimerImpl> timers;
   public List<TransitionImpl> transitions;
 
@@ -124,6 +127,7 @@ public abstract class ScopeImpl extends Extensible {
       int i = 0;
       for (ActivityImpl activityImpl : this.activities.values()) {
         Activity activity = activities.get(i);
+        ConditionCompiler.compileConditions(activityImpl);
         if (activityImpl.activityType != null) {
           parser.pushContext("activities", activity, activityImpl, i);
           activityImpl.activityType.parse(activityImpl, activity, parser);
@@ -155,6 +159,7 @@ public abstract class ScopeImpl extends Extensible {
     }
     variables.put(variable.id, variable);
     variable.parent = this;
+    variable.slot = variableSlotCount++;
   }
 
   public void addTransition(TransitionImpl transition) {
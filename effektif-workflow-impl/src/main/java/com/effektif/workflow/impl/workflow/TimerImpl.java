@@ -78,6 +78,7 @@ public class TimerImpl {
     job.workflowInstanceId = scopeInstance.workflowInstance.id;
     job.dueDate = calculateDueDate();
     job.jobType = timerType.getJobType(scopeInstance, this);
+    job.priority = timer.getPriority();
     return job;
   }
 
@@ -20,6 +20,7 @@ import java.util.Map;
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.workflow.Transition;
 import com.effektif.workflow.impl.WorkflowParser;
+import com.effektif.workflow.impl.conditions.CompiledCondition;
 import com.effektif.workflow.impl.conditions.ConditionImpl;
 
 
@@ -36,6 +37,9 @@ public class TransitionImpl {
   public ActivityImpl from;
   public ActivityImpl to;
   public ConditionImpl condition;
+  /** the {@link #condition} as compiled by the {@link com.effektif.workflow.impl.conditions.ConditionCompiler}
+   * when the from activity was parsed. */
+  public CompiledCondition compiledCondition;
 
   public void parse(Transition transition, ScopeImpl parentImpl, Map<String, ActivityImpl> activitiesByDefaultTransitionId, WorkflowParser parser) {
     this.id = transition.getId();
@@ -35,6 +35,10 @@ public class VariableImpl {
   public String id;
   public DataTypeImpl type;
   public Object defaultValue;
+  /** index of the variable instance in {@link com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl#variableSlots}
+   * of instances of the {@link #parent} scope.  -1 for variables that are 
+   * not declared in a scope, like dynamically created variables. */
+  public int slot = -1;
 
   public void parse(Variable variable, ScopeImpl parentImpl, WorkflowParser parser) {
     this.id = variable.getId();
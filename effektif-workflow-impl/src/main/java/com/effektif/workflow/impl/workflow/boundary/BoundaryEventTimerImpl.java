@@ -14,6 +14,7 @@
 package com.effektif.workflow.impl.workflow.boundary;
 
 import com.effektif.workflow.api.json.TypeName;
+import com.effektif.workflow.api.model.SnapshotDetail;
 import com.effektif.workflow.api.workflow.Timer;
 import com.effektif.workflow.impl.job.JobController;
 import com.effektif.workflow.impl.job.JobType;
@@ -69,7 +70,7 @@ public class BoundaryEventTimerImpl implements TimerType, JobType {
           }
         }
       }
-      jobController.getWorkflowInstance().executeWork();
+      jobController.getWorkflowInstance().executeWork(SnapshotDetail.none);
     } else {
       if (log.isDebugEnabled()) log.debug("activityInstance is null, job is not executed. Looked for activityInstance: " + jobController.getJob().getActivityInstanceId());
     }
@@ -35,7 +35,7 @@ import com.effektif.workflow.api.model.RelativeTime;
 import com.effektif.workflow.api.model.TypedValue;
 import com.effektif.workflow.api.model.WorkflowInstanceId;
 import com.effektif.workflow.api.workflowinstance.ActivityInstance;
-import com.effektif.workflow.impl.conditions.ConditionImpl;
+import com.effektif.workflow.impl.conditions.ConditionEvaluation;
 import com.effektif.workflow.impl.data.DataTypeImpl;
 import com.effektif.workflow.impl.data.TypedValueImpl;
 import com.effektif.workflow.impl.data.types.ListTypeImpl;
@@ -86,11 +86,15 @@ public class ActivityInstanceImpl extends ScopeInstanceImpl {
   }
   
   public ActivityInstance toActivityInstance(boolean includeWorkState) {
+    return toActivityInstance(includeWorkState, true);
+  }
+
+  public ActivityInstance toActivityInstance(boolean includeWorkState, boolean includeVariables) {
     ActivityInstance activityInstance = new ActivityInstance();
     activityInstance.setId(id);
     activityInstance.setActivityId(activity.id);
     activityInstance.setCalledWorkflowInstanceId(calledWorkflowInstanceId);
-    toScopeInstance(activityInstance, includeWorkState);
+    toScopeInstance(activityInstance, includeWorkState, includeVariables);
     if (includeWorkState) {
       activityInstance.setPropertyOpt("workState", workState);
     }
@@ -124,10 +128,13 @@ public class ActivityInstanceImpl extends ScopeInstanceImpl {
     // Take each outgoing transition 'in parallel'
     // Note that process concurrency is not the same as java multithreaded computation
     if (activity.hasOutgoingTransitions()) {
+      ConditionEvaluation evaluation = null;
       for (TransitionImpl transition: activity.outgoingTransitions) {
         // Only take a transition if there is no condition or if the condition resolves to true.
-        ConditionImpl condition = transition.condition;
-        if (condition!=null ? condition.eval(this) : true) {
+        if (transition.condition!=null && evaluation==null) {
+          evaluation = new ConditionEvaluation(this, activity);
+        }
+        if (transition.condition!=null ? evaluation.meetsCondition(transition) : true) {
           isTransitionTaken = true;
           takeTransition(transition);
         }
@@ -165,7 +172,11 @@ public class ActivityInstanceImpl extends ScopeInstanceImpl {
 
   public void setWorkState(String workState) {
     // log.debug("Setting workstate of "+this+" from "+this.workState+" to "+workState);
+    boolean wasJoining = isJoining();
     this.workState = workState;
+    if (wasJoining!=isJoining() && parent!=null) {
+      parent.joiningChanged(this);
+    }
     if (updates!=null) {
       getUpdates().isWorkStateChanged = true;
       if (parent!=null) {
@@ -249,7 +260,11 @@ public class ActivityInstanceImpl extends ScopeInstanceImpl {
   }
   
   public void setEnd(LocalDateTime end) {
+    boolean wasEnded = isEnded();
     this.end = end;
+    if (wasEnded!=isEnded() && parent!=null) {
+      parent.activityInstanceEndChanged(isEnded());
+    }
     if (start!=null && end!=null) {
       this.duration = end.toDate().getTime()-start.toDate().getTime();
     }
@@ -20,12 +20,12 @@ import com.effektif.workflow.api.WorkflowEngine;
 import com.effektif.workflow.api.model.DataContainer;
 import com.effektif.workflow.api.model.TypedValue;
 import com.effektif.workflow.api.model.VariableValues;
-import com.effektif.workflow.api.types.ListType;
 import com.effektif.workflow.api.workflowinstance.ActivityInstance;
 import com.effektif.workflow.api.workflowinstance.ScopeInstance;
 import com.effektif.workflow.api.workflowinstance.VariableInstance;
 import com.effektif.workflow.impl.data.DataTypeImpl;
 import com.effektif.workflow.impl.data.DataTypeService;
+import com.effektif.workflow.impl.data.FieldAccessor;
 import com.effektif.workflow.impl.data.TypedValueImpl;
 import com.effektif.workflow.impl.data.types.ListTypeImpl;
 import com.effektif.workflow.impl.job.Job;
@@ -50,9 +50,22 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   public LocalDateTime end;
   public Long duration;
   public List<ActivityInstanceImpl> activityInstances;
+  /** number of {@link #activityInstances} that are not ended.
+   * Maintained by {@link #addActivityInstance(ActivityInstanceImpl)} 
+   * and {@link ActivityInstanceImpl#setEnd(LocalDateTime)} */
+  public int openActivityInstanceCount;
+  /** joining {@link #activityInstances} per activity.  Indexed on first use 
+   * because stores resolve the activities after adding the activity instances.
+   * null as long as it's not indexed. */
+  protected Map<ActivityImpl,Set<ActivityInstanceImpl>> joiningActivityInstances;
   public List<VariableInstanceImpl> variableInstances;
-  /** maps variable.id's to variable instances */
-  public Map<String, VariableInstanceImpl> variableInstancesMap;
+  /** instances of the variables declared in the {@link #scope}, indexed 
+   * by {@link VariableImpl#slot}.  null as long as there are none. */
+  public VariableInstanceImpl[] variableSlots;
+  /** maps variable.id's to the instances of variables that are not 
+   * declared in the {@link #scope}, like dynamically created variables. 
+   * null as long as there are none. */
+  public Map<String, VariableInstanceImpl> undeclaredVariableInstances;
   public String endState;
 
   // As long as the workflow instance is not saved, the updates collection is null.
@@ -73,6 +86,10 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   public abstract boolean isWorkflowInstance();
   
   protected void toScopeInstance(ScopeInstance scopeInstance, boolean includeWorkState) {
+    toScopeInstance(scopeInstance, includeWorkState, true);
+  }
+
+  protected void toScopeInstance(ScopeInstance scopeInstance, boolean includeWorkState, boolean includeVariables) {
     scopeInstance.setStart(start);
     scopeInstance.setEnd(end);
     scopeInstance.setEndState(endState);
@@ -80,11 +97,11 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     if (activityInstances!=null && !activityInstances.isEmpty()) {
       List<ActivityInstance> activityInstanceApis = new ArrayList<>();
       for (ActivityInstanceImpl activityInstanceImpl: this.activityInstances) {
-        activityInstanceApis.add(activityInstanceImpl.toActivityInstance(includeWorkState));
+        activityInstanceApis.add(activityInstanceImpl.toActivityInstance(includeWorkState, includeVariables));
       }
       scopeInstance.setActivityInstances(activityInstanceApis);
     }
-    if (variableInstances!=null && !variableInstances.isEmpty()) {
+    if (includeVariables && variableInstances!=null && !variableInstances.isEmpty()) {
       List<VariableInstance> variableInstanceApis = new ArrayList<>();
       for (VariableInstanceImpl variableInstanceImpl: this.variableInstances) {
         variableInstanceApis.add(variableInstanceImpl.toVariableInstance());
@@ -99,6 +116,12 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   }
 
   public ActivityInstanceImpl createActivityInstance(ActivityImpl activity) {
+    return createActivityInstance(activity, true);
+  }
+
+  /** @param addWork false if the caller executes the activity instance itself 
+   * instead of the work loop of the workflow instance */
+  public ActivityInstanceImpl createActivityInstance(ActivityImpl activity, boolean addWork) {
     String activityInstanceId = workflowInstance.generateNextActivityInstanceId();
     ActivityInstanceImpl activityInstance = new ActivityInstanceImpl(this, activity, activityInstanceId);
     if (activity.isMultiInstance()) {
@@ -106,7 +129,9 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     } else {
       activityInstance.setWorkState(STATE_STARTING);
     }
-    workflowInstance.addWork(activityInstance);
+    if (addWork) {
+      workflowInstance.addWork(activityInstance);
+    }
     activityInstance.start = Time.now();
     if (updates!=null) {
       activityInstance.updates = new ActivityInstanceUpdates(true);
@@ -141,6 +166,15 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     }
     activityInstance.parent = this;
     activityInstances.add(activityInstance);
+    if (!activityInstance.isEnded()) {
+      openActivityInstanceCount++;
+    }
+    if (joiningActivityInstances!=null && activityInstance.isJoining()) {
+      indexJoiningActivityInstance(activityInstance);
+    }
+    if (workflowInstance!=null) {
+      workflowInstance.activityInstanceAdded(activityInstance);
+    }
   }
   
   public void initializeVariableInstances() {
@@ -181,10 +215,32 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     variableInstance.parent = this;
     if (variableInstances==null) {
       variableInstances = new ArrayList<>();
-      variableInstancesMap = new HashMap<>();
     }
     variableInstances.add(variableInstance);
-    variableInstancesMap.put(variableInstance.variable.id, variableInstance);
+    indexVariableInstance(variableInstance);
+  }
+
+  protected void indexVariableInstance(VariableInstanceImpl variableInstance) {
+    VariableImpl variable = variableInstance.variable;
+    if (isSlotted(variable)) {
+      if (variableSlots==null) {
+        variableSlots = new VariableInstanceImpl[scope.variableSlotCount];
+      }
+      variableSlots[variable.slot] = variableInstance;
+    } else {
+      if (undeclaredVariableInstances==null) {
+        undeclaredVariableInstances = new HashMap<>();
+      }
+      undeclaredVariableInstances.put(variable.id, variableInstance);
+    }
+  }
+
+  /** true if instances of the variable are kept in the {@link #variableSlots} */
+  protected boolean isSlotted(VariableImpl variable) {
+    return scope!=null
+           && variable.parent==scope
+           && variable.slot>=0
+           && variable.slot<scope.variableSlotCount;
   }
 
   /** to be used by activity implementations */
@@ -212,14 +268,29 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     if (expression.fieldKeys==null) {
       return variableInstance.getValue();
     }
-    TypedValueImpl typedValue = getTypedValueField(variableInstance, expression.fieldKeys);
+    Object value = variableInstance.getValue();
+    if (isAccessible(expression, variableInstance, value)) {
+      Object fieldValue = FieldAccessor.getFieldValue(expression.fieldAccessors, value);
+      return fieldValue!=FieldAccessor.UNRESOLVED ? fieldValue : null;
+    }
+    TypedValueImpl typedValue = resolveFields(variableInstance.type, value, expression.fieldKeys, configuration);
     return typedValue!=null ? typedValue.value : null;
   }
 
+  /** true if the precomputed {@link ExpressionImpl#fieldAccessors} 
+   * can resolve the expression in the value of the variable instance */
+  protected static boolean isAccessible(ExpressionImpl expression, VariableInstanceImpl variableInstance, Object value) {
+    return expression.hasFieldAccessors(variableInstance)
+           && !isCollectionOfElements(variableInstance.type, value);
+  }
+
   protected VariableInstanceImpl getVariableInstance(ExpressionImpl expression) {
     if (expression==null || expression.variableId==null) {
       return null;
     }
+    if (expression.variable!=null && expression.variable.slot>=0) {
+      return findVariableInstance(expression.variable);
+    }
     return findVariableInstance(expression.variableId);
   }
 
@@ -263,7 +334,16 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     if (expression.fieldKeys==null) {
       return variableInstance.getTypedValue();
     }
-    return getTypedValueField(variableInstance, expression.fieldKeys);
+    Object value = variableInstance.getValue();
+    if (isAccessible(expression, variableInstance, value)) {
+      Object fieldValue = FieldAccessor.getFieldValue(expression.fieldAccessors, value);
+      if (fieldValue==FieldAccessor.UNRESOLVED) {
+        return null;
+      }
+      FieldAccessor[] fieldAccessors = expression.fieldAccessors;
+      return new TypedValueImpl(fieldAccessors[fieldAccessors.length-1].type, fieldValue);
+    }
+    return resolveFields(variableInstance.type, value, expression.fieldKeys, configuration);
   }
 
   protected TypedValueImpl getTypedValueField(VariableInstanceImpl variableInstance, List<String> fields) {
@@ -272,19 +352,24 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
 
   public static TypedValueImpl resolveFields(DataTypeImpl<?> type, Object value, List<String> fields, Configuration configuration) {
     TypedValueImpl typedValue = new TypedValueImpl(type, value);
-    if (fields!=null) {
+    if (fields!=null && !fields.isEmpty()) {
+      if (isCollectionOfElements(type, value)) {
+        // dereferences the fields in each of the elements 
+        typedValue.type = new ListTypeImpl(type);
+      }
       for (int i=0; i<fields.size() && typedValue!=null; i++) {
-        String field = fields.get(i);
-        if ( (value instanceof Collection)
-             && ! (type instanceof ListTypeImpl) ){
-          typedValue.type = new ListTypeImpl((ListType)type);
-          typedValue.type.setConfiguration(configuration);
-        }
-        typedValue = typedValue.type.dereference(typedValue.value, field);
+        typedValue = typedValue.type.dereference(typedValue.value, fields.get(i));
       }
     }
     return typedValue;
   }
+
+  /** true for a collection value of which the type describes the elements */
+  protected static boolean isCollectionOfElements(DataTypeImpl<?> type, Object value) {
+    return (value instanceof Collection)
+           && type!=null
+           && !(type instanceof ListTypeImpl);
+  }
   
   public Object getValue(String variableId) {
     VariableInstanceImpl variableInstance = findVariableInstance(variableId);
@@ -299,10 +384,10 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     if (parent!=null) {
       parent.collectVariableValues(variableValues);
     }
-    if (variableInstancesMap!=null) {
-      for (String variableId: variableInstancesMap.keySet()) {
-        VariableInstanceImpl variableInstance = variableInstancesMap.get(variableId);
-        variableValues.value(variableId, variableInstance.value, variableInstance.type.getDataType());
+    if (variableInstances!=null) {
+      VariableInstanceImpl.loadValues(variableInstances);
+      for (VariableInstanceImpl variableInstance: variableInstances) {
+        variableValues.value(variableInstance.variable.id, variableInstance.getValue(), variableInstance.type.getDataType());
       }
     }
   }
@@ -351,6 +436,9 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   public void setVariableValue(VariableInstanceImpl variableInstance, Object value) {
     log.debug("Updating variable '"+variableInstance.variable.id+"' to '"+value+"'");
     variableInstance.setValue(value);
+    if (workflow!=null && workflow.workflowEngine!=null) {
+      workflow.workflowEngine.notifyVariableUpdated(variableInstance);
+    }
     if (updates!=null) {
       updates.isVariableInstancesChanged = true;
       if (parent!=null) { 
@@ -372,6 +460,25 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     return null;
   }
 
+  /** finds the instance of a declared variable like {@link #findVariableInstance(String)}, 
+   * but reads it from the {@link #variableSlots} in instances of the 
+   * scope that declares the variable. */
+  public VariableInstanceImpl findVariableInstance(VariableImpl variable) {
+    ScopeInstanceImpl scopeInstance = this;
+    while (scopeInstance!=null) {
+      if (scopeInstance.variableInstances!=null) {
+        VariableInstanceImpl variableInstance = scopeInstance.scope==variable.parent
+                ? scopeInstance.getVariableInstanceLocal(variable)
+                : scopeInstance.getVariableInstanceLocal(variable.id);
+        if (variableInstance!=null) {
+          return variableInstance;
+        }
+      }
+      scopeInstance = scopeInstance.parent;
+    }
+    return null;
+  }
+
   /**
    * Returns the description of the variable specified by the given binding expression.
    */
@@ -387,62 +494,128 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   }
   
   protected VariableInstanceImpl getVariableInstanceLocal(String variableId) {
-    return variableInstancesMap.get(variableId);
+    if (variableSlots!=null && scope.variables!=null) {
+      VariableImpl variable = scope.variables.get(variableId);
+      if (variable!=null && isSlotted(variable)) {
+        VariableInstanceImpl variableInstance = variableSlots[variable.slot];
+        if (variableInstance!=null) {
+          return variableInstance;
+        }
+      }
+    }
+    return undeclaredVariableInstances!=null ? undeclaredVariableInstances.get(variableId) : null;
   }
 
+  protected VariableInstanceImpl getVariableInstanceLocal(VariableImpl variable) {
+    if (variableSlots!=null && isSlotted(variable)) {
+      VariableInstanceImpl variableInstance = variableSlots[variable.slot];
+      if (variableInstance!=null) {
+        return variableInstance;
+      }
+    }
+    return undeclaredVariableInstances!=null ? undeclaredVariableInstances.get(variable.id) : null;
+  }
+
+  /** rebuilds the {@link #variableSlots} and {@link #undeclaredVariableInstances} 
+   * from the {@link #variableInstances} */
   public void updateVariableInstancesMap() {
+    variableSlots = null;
+    undeclaredVariableInstances = null;
     if (variableInstances!=null) {
-      variableInstancesMap = new HashMap<>();
       for (VariableInstanceImpl variableInstance: variableInstances) {
-        variableInstancesMap.put(variableInstance.variable.id, variableInstance);
+        indexVariableInstance(variableInstance);
       }
-    } else {
-      variableInstancesMap = null;
     }
   }
   
   public abstract void endAndPropagateToParent();
 
   public boolean hasOpenActivityInstances() {
-    if (activityInstances==null) {
-      return false;
+    return openActivityInstanceCount>0;
+  }
+
+  /** the joining child activity instances of the given activity.
+   * The returned set must not be modified. */
+  public Set<ActivityInstanceImpl> getJoiningActivityInstances(ActivityImpl activity) {
+    if (joiningActivityInstances==null) {
+      joiningActivityInstances = new HashMap<>();
+      if (activityInstances!=null) {
+        for (ActivityInstanceImpl activityInstance: activityInstances) {
+          if (activityInstance.isJoining()) {
+            indexJoiningActivityInstance(activityInstance);
+          }
+        }
+      }
     }
-    for (ActivityInstanceImpl activityInstance: activityInstances) {
-      if (!activityInstance.isEnded()) {
-        return true;
+    Set<ActivityInstanceImpl> activityJoiningActivityInstances = joiningActivityInstances.get(activity);
+    return activityJoiningActivityInstances!=null ? activityJoiningActivityInstances : Collections.<ActivityInstanceImpl>emptySet();
+  }
+
+  protected void indexJoiningActivityInstance(ActivityInstanceImpl activityInstance) {
+    Set<ActivityInstanceImpl> activityJoiningActivityInstances = joiningActivityInstances.get(activityInstance.activity);
+    if (activityJoiningActivityInstances==null) {
+      activityJoiningActivityInstances = new LinkedHashSet<>();
+      joiningActivityInstances.put(activityInstance.activity, activityJoiningActivityInstances);
+    }
+    activityJoiningActivityInstances.add(activityInstance);
+  }
+
+  /** called by a child activity instance when it starts or stops joining */
+  void joiningChanged(ActivityInstanceImpl activityInstance) {
+    if (joiningActivityInstances!=null) {
+      if (activityInstance.isJoining()) {
+        indexJoiningActivityInstance(activityInstance);
+      } else {
+        Set<ActivityInstanceImpl> activityJoiningActivityInstances = joiningActivityInstances.get(activityInstance.activity);
+        if (activityJoiningActivityInstances!=null) {
+          activityJoiningActivityInstances.remove(activityInstance);
+        }
       }
     }
-    return false;
+  }
+
+  /** called by a child activity instance when its end changes */
+  void activityInstanceEndChanged(boolean isEnded) {
+    if (isEnded) {
+      openActivityInstanceCount--;
+    } else {
+      openActivityInstanceCount++;
+    }
   }
 
   
-  /** scans this activity and the nested activities */
+  /** looks up the activity instance in the index of the workflow instance 
+   * and returns it if it's this activity instance or one of its nested ones */
   public ActivityInstanceImpl findActivityInstance(String activityInstanceId) {
-    if (activityInstances!=null) {
-      for (ActivityInstanceImpl activityInstance: activityInstances) {
-        ActivityInstanceImpl theOne = activityInstance.findActivityInstance(activityInstanceId);
-        if (theOne!=null) {
-          return theOne;
-        }
-      }
+    if (activityInstanceId==null || workflowInstance==null) {
+      return null;
     }
-    return null;
+    ActivityInstanceImpl activityInstance = workflowInstance.getIndexedActivityInstance(activityInstanceId);
+    return activityInstance!=null && isSelfOrAncestorOf(activityInstance) ? activityInstance : null;
   }
   
   public ActivityInstanceImpl findActivityInstanceByActivityId(String activityDefinitionId) {
-    if (activityDefinitionId==null) {
+    if (activityDefinitionId==null || workflowInstance==null) {
       return null;
     }
-    if (activityInstances!=null) {
-      for (ActivityInstanceImpl activityInstance: activityInstances) {
-        ActivityInstanceImpl theOne = activityInstance.findActivityInstanceByActivityId(activityDefinitionId);
-        if (theOne!=null) {
-          return theOne;
-        }
+    for (ActivityInstanceImpl activityInstance: workflowInstance.getIndexedActivityInstances(activityDefinitionId)) {
+      if (isSelfOrAncestorOf(activityInstance)) {
+        return activityInstance;
       }
     }
     return null;
   }
+
+  protected boolean isSelfOrAncestorOf(ActivityInstanceImpl activityInstance) {
+    ScopeInstanceImpl scopeInstance = activityInstance;
+    while (scopeInstance!=null) {
+      if (scopeInstance==this) {
+        return true;
+      }
+      scopeInstance = scopeInstance.parent;
+    }
+    return false;
+  }
   
   // timer instances ///
   
@@ -473,7 +646,8 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   public void removeTimerInstanceJobs() {
     if (workflowInstance != null 
         && workflowInstance.jobs != null) {
-      for (Job job: workflowInstance.jobs) {
+      // iterate over a copy as the jobs are removed from the list
+      for (Job job: new ArrayList<>(workflowInstance.jobs)) {
         boolean isActivityInstanceJob = getActivityInstanceId()==null && job.getActivityInstanceId()==null;
         boolean isWorkflowInstanceJob = getActivityInstanceId()!=null && getActivityInstanceId().equals(job.getActivityInstanceId());
         if (isActivityInstanceJob || isWorkflowInstanceJob) {
@@ -510,6 +684,29 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
     }
   }
   
+  /** loads the variable values of this scope instance and all its nested 
+   * activity instances that are not yet loaded in one batch. */
+  public void loadVariableValues() {
+    List<VariableInstanceImpl> unloadedVariableInstances = new ArrayList<>();
+    collectUnloadedVariableInstances(unloadedVariableInstances);
+    VariableInstanceImpl.loadValues(unloadedVariableInstances);
+  }
+
+  public void collectUnloadedVariableInstances(List<VariableInstanceImpl> unloadedVariableInstances) {
+    if (variableInstances!=null) {
+      for (VariableInstanceImpl variableInstance: variableInstances) {
+        if (!variableInstance.isValueLoaded()) {
+          unloadedVariableInstances.add(variableInstance);
+        }
+      }
+    }
+    if (activityInstances!=null) {
+      for (ActivityInstanceImpl activityInstance: activityInstances) {
+        activityInstance.collectUnloadedVariableInstances(unloadedVariableInstances);
+      }
+    }
+  }
+
   public void propagateActivityInstanceChange() {
     if (updates!=null) {
       updates.isActivityInstancesChanged = true;
@@ -528,14 +725,7 @@ public abstract class ScopeInstanceImpl extends BaseInstanceImpl {
   }
   
   public boolean hasActivityInstance(String activityInstanceId) {
-    if (hasActivityInstances()) {
-      for (ActivityInstanceImpl activityInstance : activityInstances) {
-        if (activityInstance.hasActivityInstance(activityInstanceId)) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return findActivityInstance(activityInstanceId)!=null;
   }
 
   public void activityInstanceEnded(ActivityInstanceImpl endedActivityInstance) {
@@ -15,6 +15,14 @@
  */
 package com.effektif.workflow.impl.workflowinstance;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import com.effektif.workflow.api.workflowinstance.VariableInstance;
 import com.effektif.workflow.impl.data.DataTypeImpl;
 import com.effektif.workflow.impl.data.TypedValueImpl;
@@ -31,6 +39,12 @@ public class VariableInstanceImpl extends BaseInstanceImpl {
   public VariableImpl variable;
   public DataTypeImpl type;         // never null (initialized with the variable.type)
   public VariableInstanceUpdates updates;
+  /** not null as long as the value is not yet loaded by the store. 
+   * Stores can use this to read large values only when they are used. */
+  public VariableValueLoader valueLoader;
+  /** store specific reference to a value that is stored 
+   * separately from the workflow instance. */
+  public String valueRef;
 
   public VariableInstanceImpl() {
   }
@@ -51,17 +65,34 @@ public class VariableInstanceImpl extends BaseInstanceImpl {
     // TODO Decide whether variable instance IDs are needed, and copy the id if so.
     // variableInstance.setId(id);
     variableInstance.setVariableId(variable.id);
-    variableInstance.setValue(value);
+    variableInstance.setValue(getValue());
     variableInstance.setType(type.serialize());
     return variableInstance;
   }
 
   public Object getValue() {
+    if (valueLoader!=null) {
+      loadValue();
+    }
     return value;
   }
 
+  /** loads the values of all the variable instances in the workflow 
+   * instance that are not yet loaded in one batch, as the execution that 
+   * needs this value is likely to need the others too. */
+  protected void loadValue() {
+    if (workflowInstance!=null) {
+      workflowInstance.loadVariableValues();
+    }
+    // in case this variable instance is not yet added to the workflow instance
+    if (valueLoader!=null) {
+      valueLoader.loadValues(Collections.singletonList(this));
+    }
+  }
+
   public void setValue(Object value) {
     this.value = value;
+    this.valueLoader = null;
     if (updates!=null) {
       updates.isValueChanged = true;
       if (parent instanceof ActivityInstanceImpl) {
@@ -75,7 +106,46 @@ public class VariableInstanceImpl extends BaseInstanceImpl {
   }
 
   public TypedValueImpl getTypedValue() {
-    return new TypedValueImpl(type, value);
+    return new TypedValueImpl(type, getValue());
+  }
+
+  /** streams the UTF-8 text of a large value that is not yet loaded, 
+   * for consumers like attachments that don't need the whole value in memory.
+   * Returns null if the store can't stream it, in which case 
+   * {@link #getValue()} has to be used. The caller has to close the stream. */
+  public InputStream openValueStream() {
+    return valueLoader!=null ? valueLoader.openValueStream(this) : null;
+  }
+
+  public boolean isValueLoaded() {
+    return valueLoader==null;
+  }
+
+  /** loads the values that are not yet loaded with one 
+   * {@link VariableValueLoader#loadValues(List)} per loader. */
+  public static void loadValues(Collection<VariableInstanceImpl> variableInstances) {
+    if (variableInstances==null || variableInstances.isEmpty()) {
+      return;
+    }
+    Map<VariableValueLoader,List<VariableInstanceImpl>> unloaded = null;
+    for (VariableInstanceImpl variableInstance: variableInstances) {
+      if (variableInstance.valueLoader!=null) {
+        if (unloaded==null) {
+          unloaded = new LinkedHashMap<>();
+        }
+        List<VariableInstanceImpl> loaderVariableInstances = unloaded.get(variableInstance.valueLoader);
+        if (loaderVariableInstances==null) {
+          loaderVariableInstances = new ArrayList<>();
+          unloaded.put(variableInstance.valueLoader, loaderVariableInstances);
+        }
+        loaderVariableInstances.add(variableInstance);
+      }
+    }
+    if (unloaded!=null) {
+      for (Map.Entry<VariableValueLoader,List<VariableInstanceImpl>> entry: unloaded.entrySet()) {
+        entry.getKey().loadValues(entry.getValue());
+      }
+    }
   }
 
   public String getId() {
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.impl.workflowinstance;
+
+import java.io.InputStream;
+import java.util.List;
+
+
+/**
+ * Loads variable values that a workflow instance store didn't read
+ * together with the rest of the workflow instance.
+ *
+ * @see VariableInstanceImpl#valueLoader
+ * @author Tom Baeyens
+ */
+public interface VariableValueLoader {
+
+  /** sets the {@link VariableInstanceImpl#value} and clears the
+   * {@link VariableInstanceImpl#valueLoader} of all the given
+   * variable instances, preferably in a single round trip. */
+  void loadValues(List<VariableInstanceImpl> variableInstances);
+
+  /** opens the stored text of a value that is not yet loaded without 
+   * materializing it or returns null if the store can't stream this value.
+   * The caller has to close the stream. */
+  InputStream openValueStream(VariableInstanceImpl variableInstance);
+}
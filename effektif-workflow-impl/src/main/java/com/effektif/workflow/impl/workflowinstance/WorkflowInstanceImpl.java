@@ -17,6 +17,7 @@ package com.effektif.workflow.impl.workflowinstance;
 
 import com.effektif.workflow.api.Configuration;
 import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.model.SnapshotDetail;
 import com.effektif.workflow.api.model.TriggerInstance;
 import com.effektif.workflow.api.model.WorkflowInstanceId;
 import com.effektif.workflow.api.query.WorkflowInstanceQuery;
@@ -25,6 +26,7 @@ import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
 import com.effektif.workflow.impl.WorkflowInstanceStore;
 import com.effektif.workflow.impl.activity.ActivityType;
+import com.effektif.workflow.impl.activity.ParallelizableActivityType;
 import com.effektif.workflow.impl.activity.types.SubProcessImpl;
 import com.effektif.workflow.impl.job.Job;
 import com.effektif.workflow.impl.util.Lists;
@@ -37,6 +39,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl.*;
 
@@ -61,6 +66,21 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
   public Long nextTimerInstanceId;
   public List<Job> jobs;
   public List<UnlockListener> unlockListeners;
+  /** number of flushes persisted for this workflow instance, maintained by 
+   * stores that can reuse a previously loaded instance if nobody else updated it. */
+  public Long version;
+  /** true while this workflow instance is executed by a batch operation 
+   * like a batch start or a batch send.  Then flushes are skipped and 
+   * the batch operation takes care of persisting and unlocking. */
+  public boolean isBatch;
+  /** all nested activity instances by id.  Indexed on first lookup 
+   * so that stores don't have to maintain it while reading.
+   * null as long as it's not indexed. */
+  protected Map<String,ActivityInstanceImpl> activityInstancesById;
+  /** all nested activity instances by activity id in the order they were added.
+   * Indexed on first lookup because stores resolve the activities after 
+   * adding the activity instances.  null as long as it's not indexed. */
+  protected Map<String,List<ActivityInstanceImpl>> activityInstancesByActivityId;
 
   /**
    * local cache of the locked workflow instance for the purpose of the call
@@ -99,13 +119,32 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
   }
 
   public WorkflowInstance toWorkflowInstance(boolean includeWorkState) {
+    return toWorkflowInstance(SnapshotDetail.full, includeWorkState);
+  }
+
+  /** @param snapshotDetail null means {@link SnapshotDetail#full}.
+   * @return null for {@link SnapshotDetail#none}.  Only the full snapshot 
+   * loads the variable values that were not yet loaded by the store. */
+  public WorkflowInstance toWorkflowInstance(SnapshotDetail snapshotDetail, boolean includeWorkState) {
+    if (snapshotDetail==SnapshotDetail.none) {
+      return null;
+    }
     WorkflowInstance workflowInstance = new WorkflowInstance();
     workflowInstance.setId(id);
     workflowInstance.setBusinessKey(businessKey);
     workflowInstance.setWorkflowId(workflow.id);
     workflowInstance.setCallingWorkflowInstanceId(callingWorkflowInstanceId);
     workflowInstance.setCallingActivityInstanceId(callingActivityInstanceId);
+    if (snapshotDetail==SnapshotDetail.ids) {
+      workflowInstance.setStart(start);
+      workflowInstance.setEnd(end);
+      return workflowInstance;
+    }
 
+    boolean includeVariables = snapshotDetail==null || snapshotDetail==SnapshotDetail.full;
+    if (includeVariables) {
+      loadVariableValues();
+    }
     if (jobs != null) {
       List<TimerInstance> timerInstances = new ArrayList<>();
       for (Job job : jobs) {
@@ -116,7 +155,7 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
       workflowInstance.setJobs(timerInstances);
     }
 
-    toScopeInstance(workflowInstance, includeWorkState);
+    toScopeInstance(workflowInstance, includeWorkState, includeVariables);
     return workflowInstance;
   }
 
@@ -132,6 +171,33 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
   }
 
   public WorkflowInstance executeWork() {
+    return executeWork(SnapshotDetail.full);
+  }
+
+  /** executes the work and persists the workflow instance.
+   * @return the snapshot of the workflow instance before it is unlocked, 
+   * limited to the given detail.  Callers that don't use the result pass 
+   * {@link SnapshotDetail#none} so that no snapshot is built. */
+  public WorkflowInstance executeWork(SnapshotDetail snapshotDetail) {
+    executeSyncWork();
+    WorkflowInstance workflowInstanceSnapshot = toWorkflowInstance(snapshotDetail, false);
+    if (isBatch) {
+      return workflowInstanceSnapshot;
+    }
+    if (hasAsyncWork()) {
+      if (log.isDebugEnabled())
+        log.debug("Going asynchronous " + this);
+      flushDbUpdates();
+      executeAsyncWork();
+    } else {
+      WorkflowInstanceStore workflowInstanceStore = configuration.get(WorkflowInstanceStore.class);
+      workflowInstanceStore.flushAndUnlock(this);
+    }
+    return workflowInstanceSnapshot;
+  }
+
+  /** executes the work till there is only async work left or none at all */
+  public void executeSyncWork() {
     boolean isFirst = true;
     while (hasWork()) {
       ActivityInstanceImpl activityInstance = getNextWork();
@@ -140,7 +206,7 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
 
       // in the first iteration, the updates will be empty and hence no updates
       // will be flushed
-      if (isFirst || activityType.isFlushSkippable()) {
+      if (isFirst || activityType.isFlushSkippable() || isBatch) {
         isFirst = false;
       } else {
         flushDbUpdates();
@@ -173,11 +239,15 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
           if (log.isDebugEnabled()) {
             log.debug("Starting multi instance container " + activityInstance);
           }
-          for (Object element : values) {
-            if (element!=null) {
-              ActivityInstanceImpl elementActivityInstance = activityInstance.createActivityInstance(activity);
-              elementActivityInstance.setWorkState(STATE_STARTING_MULTI_INSTANCE);
-              elementActivityInstance.initializeForEachElement(multiInstance.elementVariable, element);
+          if (multiInstance.parallel) {
+            executeElementsInParallel(activityInstance, multiInstance, values);
+          } else {
+            for (Object element : values) {
+              if (element!=null) {
+                ActivityInstanceImpl elementActivityInstance = activityInstance.createActivityInstance(activity);
+                elementActivityInstance.setWorkState(STATE_STARTING_MULTI_INSTANCE);
+                elementActivityInstance.initializeForEachElement(multiInstance.elementVariable, element);
+              }
             }
           }
         } else {
@@ -199,35 +269,83 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
         }
       }
     }
-    WorkflowInstance workflowInstanceSnapshot = workflowInstance.toWorkflowInstance();
-    if (hasAsyncWork()) {
-      if (log.isDebugEnabled())
-        log.debug("Going asynchronous " + this);
-      flushDbUpdates();
-      Runnable asyncContinuation = new Runnable() {
-        public void run() {
-          try {
-            work = workAsync;
-            workAsync = null;
-            isAsync = true;
-            if (updates != null) {
-              getUpdates().isWorkChanged = true;
-              getUpdates().isAsyncWorkChanged = true;
-            }
-            executeWork();
-          } catch (Throwable e) {
-            log.error("in workflow execution", e);
-          }
+  }
+
+  /** executes the elements of a parallel multi instance activity.
+   * The element activity instances are created and prepared in element order on this thread.
+   * The isolated parts of the element executions run concurrently on the fork join pool.
+   * Then the results are applied in element order again so that the resulting workflow 
+   * instance doesn't depend on the thread scheduling.  The element activity instances 
+   * are not added as work.  Everything is merged into this workflow instance before 
+   * the next flush. */
+  protected void executeElementsInParallel(ActivityInstanceImpl containerActivityInstance, MultiInstanceImpl multiInstance, Collection<Object> values) {
+    ActivityImpl activity = containerActivityInstance.getActivity();
+    ParallelizableActivityType activityType = (ParallelizableActivityType) activity.activityType;
+    ForkJoinPool forkJoinPool = workflow.workflowEngine.forkJoinPool;
+    List<ActivityInstanceImpl> elementActivityInstances = new ArrayList<>();
+    List<ForkJoinTask<Object>> elementTasks = new ArrayList<>();
+    for (Object element : values) {
+      if (element!=null) {
+        ActivityInstanceImpl elementActivityInstance = containerActivityInstance.createActivityInstance(activity, false);
+        elementActivityInstance.setWorkState(STATE_STARTING_MULTI_INSTANCE);
+        elementActivityInstance.initializeForEachElement(multiInstance.elementVariable, element);
+        if (workflow.workflowEngine.notifyActivityInstanceStarted(elementActivityInstance)) {
+          elementActivityInstances.add(elementActivityInstance);
+          elementTasks.add(forkJoinPool.submit(activityType.prepareElement(elementActivityInstance)));
         }
-      };
-      WorkflowEngineImpl workflowEngine = configuration.get(WorkflowEngineImpl.class);
-      workflowEngine.executeAsync(asyncContinuation);
-    } else {
-      WorkflowInstanceStore workflowInstanceStore = configuration.get(WorkflowInstanceStore.class);
-      workflowInstanceStore.flushAndUnlock(this);
-      workflow.workflowEngine.notifyUnlocked(this);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Executing " + elementTasks.size() + " elements of " + containerActivityInstance + " in parallel");
+    }
+    for (int i=0; i<elementTasks.size(); i++) {
+      Object result;
+      try {
+        result = elementTasks.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancelElementTasks(elementTasks, i+1);
+        throw new RuntimeException("Interrupted while executing the elements of " + containerActivityInstance, e);
+      } catch (ExecutionException e) {
+        // like in the sequential execution, the elements after the failing one are not completed
+        cancelElementTasks(elementTasks, i+1);
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new RuntimeException(cause);
+      }
+      activityType.completeElement(elementActivityInstances.get(i), result);
     }
-    return workflowInstanceSnapshot;
+  }
+
+  protected void cancelElementTasks(List<ForkJoinTask<Object>> elementTasks, int fromIndex) {
+    for (int i=fromIndex; i<elementTasks.size(); i++) {
+      elementTasks.get(i).cancel(false);
+    }
+  }
+
+  /** continues with the async work in another thread.  
+   * The async work has to be flushed before. */
+  public void executeAsyncWork() {
+    Runnable asyncContinuation = new Runnable() {
+      public void run() {
+        try {
+          work = workAsync;
+          workAsync = null;
+          isAsync = true;
+          if (updates != null) {
+            getUpdates().isWorkChanged = true;
+            getUpdates().isAsyncWorkChanged = true;
+          }
+          executeWork(SnapshotDetail.none);
+        } catch (Throwable e) {
+          log.error("in workflow execution", e);
+        }
+      }
+    };
+    WorkflowEngineImpl workflowEngine = configuration.get(WorkflowEngineImpl.class);
+    workflowEngine.executeAsync(asyncContinuation);
   }
 
   public void cancel() {
@@ -472,6 +590,87 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
     return false;
   }
 
+  /** the nested activity instance with the given id or null. */
+  public ActivityInstanceImpl getIndexedActivityInstance(String activityInstanceId) {
+    if (activityInstancesById==null) {
+      activityInstancesById = new HashMap<>();
+      indexActivityInstancesById(this);
+    }
+    return activityInstancesById.get(activityInstanceId);
+  }
+
+  /** all nested activity instances of the given activity in the order they were added.
+   * The returned list must not be modified. */
+  public List<ActivityInstanceImpl> getIndexedActivityInstances(String activityId) {
+    if (activityInstancesByActivityId==null) {
+      activityInstancesByActivityId = new HashMap<>();
+      indexActivityInstancesByActivityId(this);
+    }
+    List<ActivityInstanceImpl> activityActivityInstances = activityInstancesByActivityId.get(activityId);
+    return activityActivityInstances!=null ? activityActivityInstances : Collections.<ActivityInstanceImpl>emptyList();
+  }
+
+  protected void indexActivityInstancesById(ScopeInstanceImpl scopeInstance) {
+    if (scopeInstance.activityInstances!=null) {
+      for (ActivityInstanceImpl activityInstance: scopeInstance.activityInstances) {
+        activityInstancesById.put(activityInstance.id, activityInstance);
+        indexActivityInstancesById(activityInstance);
+      }
+    }
+  }
+
+  protected void indexActivityInstancesByActivityId(ScopeInstanceImpl scopeInstance) {
+    if (scopeInstance.activityInstances!=null) {
+      for (ActivityInstanceImpl activityInstance: scopeInstance.activityInstances) {
+        indexActivityInstanceByActivityId(activityInstance);
+        indexActivityInstancesByActivityId(activityInstance);
+      }
+    }
+  }
+
+  protected void indexActivityInstanceByActivityId(ActivityInstanceImpl activityInstance) {
+    String activityId = activityInstance.activity.id;
+    List<ActivityInstanceImpl> activityActivityInstances = activityInstancesByActivityId.get(activityId);
+    if (activityActivityInstances==null) {
+      activityActivityInstances = new ArrayList<>(1);
+      activityInstancesByActivityId.put(activityId, activityActivityInstances);
+    }
+    activityActivityInstances.add(activityInstance);
+  }
+
+  /** called by {@link ScopeInstanceImpl#addActivityInstance(ActivityInstanceImpl)} 
+   * to keep the indexes up to date once they are built */
+  void activityInstanceAdded(ActivityInstanceImpl activityInstance) {
+    if (activityInstancesById!=null) {
+      activityInstancesById.put(activityInstance.id, activityInstance);
+      indexActivityInstancesById(activityInstance);
+    }
+    if (activityInstancesByActivityId!=null) {
+      indexActivityInstanceByActivityId(activityInstance);
+      indexActivityInstancesByActivityId(activityInstance);
+    }
+  }
+
+  /** removes the given activity instance and its nested activity instances 
+   * from the indexes.  To be called by stores when they archive activity instances 
+   * and remove them from the live workflow instance. */
+  public void unindexActivityInstance(ActivityInstanceImpl activityInstance) {
+    if (activityInstancesById!=null) {
+      activityInstancesById.remove(activityInstance.id);
+    }
+    if (activityInstancesByActivityId!=null) {
+      List<ActivityInstanceImpl> activityActivityInstances = activityInstancesByActivityId.get(activityInstance.activity.id);
+      if (activityActivityInstances!=null) {
+        activityActivityInstances.remove(activityInstance);
+      }
+    }
+    if (activityInstance.activityInstances!=null) {
+      for (ActivityInstanceImpl nestedActivityInstance: activityInstance.activityInstances) {
+        unindexActivityInstance(nestedActivityInstance);
+      }
+    }
+  }
+
   public String generateNextActivityInstanceId() {
     if (updates != null) {
       getUpdates().isNextActivityInstanceIdChanged = true;
@@ -519,6 +718,15 @@ public class WorkflowInstanceImpl extends ScopeInstanceImpl {
     unlockListeners.add(unlockListener);
   }
 
+  /** notifies the unlock listeners and the workflow execution listeners 
+   * after a flush and unlock.  Stores call this before another thread can 
+   * lock the same workflow instance object, so that the listeners don't 
+   * read it while it's executed again. */
+  public void notifyUnlocked() {
+    notifyUnlockListeners();
+    configuration.get(WorkflowEngineImpl.class).notifyUnlocked(this);
+  }
+
   public void notifyUnlockListeners() {
     if (unlockListeners!=null) {
       WorkflowEngineImpl workflowEngine = configuration.get(WorkflowEngineImpl.class);
@@ -52,6 +52,8 @@ public class TestSuiteHelper {
       Request request = null;
       if (clazz!=null && methodName!=null) {
         request = Request.method(clazz, methodName);
+      } else if (clazz!=null) {
+        request = Request.aClass(clazz);
       } else {
         Suite suite = new Suite(new JUnit4Builder(), API_TEST_CLASSES);
         request = Request.runner(suite);
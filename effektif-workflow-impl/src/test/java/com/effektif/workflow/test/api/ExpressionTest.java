@@ -19,13 +19,19 @@ import com.effektif.workflow.api.activities.JavaServiceTask;
 import com.effektif.workflow.api.model.TriggerInstance;
 import com.effektif.workflow.api.types.DataType;
 import com.effektif.workflow.api.types.JavaBeanType;
+import com.effektif.workflow.api.types.ListType;
 import com.effektif.workflow.api.types.TextType;
 import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.impl.data.types.InlineObjectType;
+import com.effektif.workflow.impl.data.types.ObjectField;
 import com.effektif.workflow.impl.data.types.ObjectType;
 import com.effektif.workflow.test.WorkflowTest;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -75,6 +81,49 @@ public class ExpressionTest extends WorkflowTest {
     assertExpression("n", javaBeanType, numberBean, "n.number", 3);
   }
 
+  @Test
+  public void testDeepInlineObjectExpression() {
+    InlineObjectType orderType = createOrderType();
+    Map<String,Object> order = createOrder();
+    assertExpression("order", orderType, order, "order.customer.address.city", "New York");
+    assertExpression("order", orderType, order, "order.customer.name", null);
+    assertExpression("order", orderType, order, "order.lines.product", Arrays.asList("pen", "ink"));
+  }
+
+  public static InlineObjectType createOrderType() {
+    return new InlineObjectType()
+      .field(field("customer", new InlineObjectType()
+        .field(field("name", TextType.INSTANCE))
+        .field(field("address", new InlineObjectType()
+          .field(field("city", TextType.INSTANCE))))))
+      .field(field("lines", new ListType(new InlineObjectType()
+        .field(field("product", TextType.INSTANCE)))));
+  }
+
+  public static Map<String,Object> createOrder() {
+    Map<String,Object> address = new HashMap<>();
+    address.put("city", "New York");
+    Map<String,Object> customer = new HashMap<>();
+    customer.put("address", address);
+    List<Object> lines = new ArrayList<>();
+    for (String product: new String[]{"pen", "ink"}) {
+      Map<String,Object> line = new HashMap<>();
+      line.put("product", product);
+      lines.add(line);
+    }
+    Map<String,Object> order = new HashMap<>();
+    order.put("customer", customer);
+    order.put("lines", lines);
+    return order;
+  }
+
+  static ObjectField field(String name, DataType type) {
+    return new ObjectField()
+      .key(name)
+      .name(name)
+      .type(type);
+  }
+
   protected void assertExpression(String variableId, DataType variableType, Object variableValue, String expression, Object expectedExpressionValue) {
     ExecutableWorkflow workflow = new ExecutableWorkflow()
       .variable(variableId, variableType)
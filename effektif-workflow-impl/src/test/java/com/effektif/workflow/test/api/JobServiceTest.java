@@ -31,6 +31,9 @@ import com.effektif.workflow.impl.job.AbstractJobType;
 import com.effektif.workflow.impl.job.Job;
 import com.effektif.workflow.impl.job.JobController;
 import com.effektif.workflow.impl.job.JobExecution;
+import com.effektif.workflow.impl.job.JobQueueDepth;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.util.Lists;
 import com.effektif.workflow.impl.util.Time;
 import com.effektif.workflow.test.JobWorkflowTest;
 
@@ -217,6 +220,55 @@ public class JobServiceTest extends JobWorkflowTest {
     assertTrue(jobExecution.job.dead);
   }
 
+  @Test
+  public void testJobPriority() throws Exception {
+    LocalDateTime now = Time.now();
+    jobService.saveJob(new Job()
+      .key("normal")
+      .jobType(new TestJob())
+      .dueDate(now.minusMinutes(1)));
+    jobService.saveJob(new Job()
+      .key("urgent")
+      .priority(5)
+      .jobType(new TestJob())
+      .dueDate(now));
+
+    checkJobs();
+    assertEquals(2, TestJob.jobExecutions.size());
+    assertEquals("urgent", TestJob.jobExecutions.get(0).job.key);
+    assertEquals("normal", TestJob.jobExecutions.get(1).job.key);
+  }
+
+  @Test
+  public void testOrganizationFairness() throws Exception {
+    LocalDateTime now = Time.now();
+    for (int i=0; i<3; i++) {
+      jobService.saveJob(new Job()
+        .organizationId("big")
+        .jobType(new TestJob())
+        .dueDate(now.minusMinutes(10-i)));
+    }
+    jobService.saveJob(new Job()
+      .organizationId("small")
+      .jobType(new TestJob())
+      .dueDate(now));
+
+    checkJobs();
+    List<String> organizationIds = new ArrayList<>();
+    for (JobExecution jobExecution: TestJob.jobExecutions) {
+      organizationIds.add(jobExecution.job.organizationId);
+    }
+    // the small organization doesn't have to wait till all jobs of the big one are done
+    assertEquals(Lists.of("big", "small", "big", "big"), organizationIds);
+
+    List<JobQueueDepth> queueDepths = ((JobServiceImpl)jobService).getQueueDepths();
+    assertEquals(2, queueDepths.size());
+    assertEquals("big", queueDepths.get(0).organizationId);
+    assertEquals(3, queueDepths.get(0).count);
+    assertEquals("small", queueDepths.get(1).organizationId);
+    assertEquals(1, queueDepths.get(1).count);
+  }
+
   @Test
   public void testUniqueJob() throws Exception {
     jobService.saveJob(new Job()
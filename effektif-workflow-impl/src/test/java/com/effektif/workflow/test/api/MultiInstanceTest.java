@@ -17,8 +17,15 @@ package com.effektif.workflow.test.api;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.junit.Test;
 
+import com.effektif.workflow.api.activities.JavaServiceTask;
 import com.effektif.workflow.api.model.TriggerInstance;
 import com.effektif.workflow.api.types.ListType;
 import com.effektif.workflow.api.types.TextType;
@@ -58,4 +65,40 @@ public class MultiInstanceTest extends WorkflowTest {
     assertEquals("john", getMessage(1));
     assertEquals("mary", getMessage(2));
   }
+
+  static Queue<String> parallelMessages = new ConcurrentLinkedQueue<>();
+
+  @SuppressWarnings("unused") // invoked dynamically with reflection
+  private static void recordParallelMessage(String message) {
+    parallelMessages.add(message);
+  }
+
+  @Test
+  public void testParallelMultiInstance() throws Exception {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("reviewers", new ListType(TextType.INSTANCE))
+      .activity("Review", new JavaServiceTask()
+        .javaClass(MultiInstanceTest.class)
+        .methodName("recordParallelMessage")
+        .argExpression("reviewer")
+        .multiInstance(new MultiInstance()
+          .valuesExpression("reviewers")
+          .variable("reviewer", TextType.INSTANCE)
+          .parallel()));
+    
+    deploy(workflow);
+    
+    List<String> reviewers = new ArrayList<>();
+    for (int i=0; i<100; i++) {
+      reviewers.add("reviewer"+i);
+    }
+    parallelMessages.clear();
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("reviewers", reviewers));
+
+    assertTrue(workflowInstance.isEnded());
+    assertEquals(new HashSet<>(reviewers), new HashSet<>(parallelMessages));
+    assertEquals(100, parallelMessages.size());
+  }
 }
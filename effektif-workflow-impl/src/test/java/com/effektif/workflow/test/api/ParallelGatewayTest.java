@@ -199,6 +199,45 @@ public class ParallelGatewayTest extends WorkflowTest {
     assertTrue(workflowInstance.isEnded());
   }
 
+  /**
+   * Tests that a join of many parallel paths only fires after the last one arrives.
+   * <pre>
+   *
+   *      ┌──→[t0]───┐
+   *  ◯─→<+>─→...──→<+>─→[after]
+   *      └──→[t99]──┘
+   *
+   * </pre>
+   */
+  @Test
+  public void testWideJoin() {
+    int branches = 100;
+    ParallelGateway fork = new ParallelGateway();
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("start", new StartEvent()
+        .transitionTo("fork"))
+      .activity("fork", fork)
+      .activity("join", new ParallelGateway()
+        .transitionTo("afterJoinTask"))
+      .activity("afterJoinTask", new ReceiveTask());
+    for (int i=0; i<branches; i++) {
+      fork.transitionTo("t"+i);
+      workflow.activity("t"+i, new ReceiveTask()
+        .transitionTo("join"));
+    }
+
+    deploy(workflow);
+    WorkflowInstance workflowInstance = start(workflow);
+
+    for (int i=0; i<branches-1; i++) {
+      workflowInstance = endTask(workflowInstance, "t"+i);
+    }
+    assertOpen(workflowInstance, "t"+(branches-1));
+
+    workflowInstance = endTask(workflowInstance, "t"+(branches-1));
+    assertOpen(workflowInstance, "afterJoinTask");
+  }
+
   /*
                     +-->[t1]------+
                     |             |
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.test.api;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.BatchItemResult;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.test.WorkflowTest;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class SendBatchTest extends WorkflowTest {
+
+  @Test
+  public void testSendBatch() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("one", new ReceiveTask())
+      .activity("two", new ReceiveTask());
+    deploy(workflow);
+
+    WorkflowInstance first = start(workflow);
+    WorkflowInstance second = start(workflow);
+
+    List<Message> messages = new ArrayList<>();
+    messages.add(createMessage(first, "one"));
+    messages.add(createMessage(second, "one"));
+    messages.add(createMessage(first, "two"));
+    messages.add(new Message()
+      .workflowInstanceId(second.getId())
+      .activityInstanceId("unexisting"));
+
+    List<BatchItemResult> results = workflowEngine.sendBatch(messages);
+
+    assertEquals(4, results.size());
+    // the results reflect the workflow instance right after each message
+    assertOpen(results.get(0).getWorkflowInstance(), "two");
+    assertTrue(results.get(2).getWorkflowInstance().isEnded());
+    assertOpen(results.get(1).getWorkflowInstance(), "two");
+    assertFalse(results.get(3).isSuccess());
+    assertNotNull(results.get(3).getError());
+
+    // the workflow instances are flushed and unlocked
+    WorkflowInstance workflowInstance = endTask(second, "two");
+    assertTrue(workflowInstance.isEnded());
+  }
+
+  @Test
+  public void testSendBatchWithInvalidWorkflowInstanceIds() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("one", new ReceiveTask());
+    deploy(workflow);
+
+    WorkflowInstance workflowInstance = start(workflow);
+
+    List<Message> messages = new ArrayList<>();
+    messages.add(new Message()
+      .activityInstanceId("unexisting"));
+    messages.add(new Message()
+      .workflowInstanceId(new WorkflowInstanceId("invalid"))
+      .activityInstanceId("unexisting"));
+    messages.add(createMessage(workflowInstance, "one"));
+
+    List<BatchItemResult> results = workflowEngine.sendBatch(messages);
+
+    assertEquals(3, results.size());
+    // only the messages with an invalid id fail
+    assertFalse(results.get(0).isSuccess());
+    assertFalse(results.get(1).isSuccess());
+    assertTrue(results.get(2).getWorkflowInstance().isEnded());
+  }
+
+  Message createMessage(WorkflowInstance workflowInstance, String activityId) {
+    return new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance(activityId).getId());
+  }
+}
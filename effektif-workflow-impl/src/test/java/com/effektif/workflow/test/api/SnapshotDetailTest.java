@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.test.api;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.SnapshotDetail;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.test.WorkflowTest;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class SnapshotDetailTest extends WorkflowTest {
+
+  @Test
+  public void testSnapshotDetail() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("v", TextType.INSTANCE)
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    deploy(workflow);
+
+    WorkflowInstance workflowInstance = workflowEngine.start(createTriggerInstance(workflow)
+      .data("v", "hello")
+      .snapshotDetail(SnapshotDetail.ids));
+    assertNotNull(workflowInstance.getId());
+    assertNull(workflowInstance.getActivityInstances());
+    assertNull(workflowInstance.getVariableInstances());
+
+    workflowInstance = workflowEngine.start(createTriggerInstance(workflow)
+      .data("v", "hello")
+      .snapshotDetail(SnapshotDetail.state));
+    assertOpen(workflowInstance, "one");
+    assertNull(workflowInstance.getVariableInstances());
+
+    assertNull(workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId())
+      .snapshotDetail(SnapshotDetail.none)));
+
+    workflowInstance = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(workflowInstance.getId())).get(0);
+    assertOpen(workflowInstance, "two");
+    assertEquals("hello", workflowInstance.getVariableValue("v"));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.test.api;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.BatchItemResult;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.test.WorkflowTest;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class StartBatchTest extends WorkflowTest {
+
+  @Test
+  public void testStartBatch() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("v", TextType.INSTANCE)
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    deploy(workflow);
+
+    List<TriggerInstance> triggerInstances = new ArrayList<>();
+    for (int i=0; i<10; i++) {
+      triggerInstances.add(createTriggerInstance(workflow)
+        .data("v", "value"+i));
+    }
+    triggerInstances.add(5, new TriggerInstance()
+      .sourceWorkflowId("unexisting"));
+
+    List<BatchItemResult> results = workflowEngine.startBatch(triggerInstances);
+
+    assertEquals(11, results.size());
+    assertFalse(results.get(5).isSuccess());
+    assertNotNull(results.get(5).getError());
+    assertNull(results.get(5).getWorkflowInstance());
+    assertEquals("value5", results.get(6).getWorkflowInstance().getVariableValue("v"));
+    assertOpen(results.get(0).getWorkflowInstance(), "one");
+
+    assertEquals(10, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()).size());
+
+    // the inserted workflow instances are unlocked
+    WorkflowInstance workflowInstance = endTask(results.get(0).getWorkflowInstance(), "one");
+    assertOpen(workflowInstance, "two");
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.test.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.test.WorkflowTest;
+
+
+public class WorkflowInstanceQueryTest extends WorkflowTest {
+  
+  @Test
+  public void testFindByActivityId() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    
+    deploy(workflow);
+    
+    WorkflowInstance workflowInstanceA = start(workflow);
+    WorkflowInstance workflowInstanceB = start(workflow);
+    
+    assertEquals(2, findWorkflowInstancesByActivityId("one").size());
+    assertEquals(0, findWorkflowInstancesByActivityId("two").size());
+    
+    endTask(workflowInstanceA, "one");
+
+    List<WorkflowInstance> inOne = findWorkflowInstancesByActivityId("one");
+    assertEquals(1, inOne.size());
+    assertEquals(workflowInstanceB.getId(), inOne.get(0).getId());
+    List<WorkflowInstance> inTwo = findWorkflowInstancesByActivityId("two");
+    assertEquals(1, inTwo.size());
+    assertEquals(workflowInstanceA.getId(), inTwo.get(0).getId());
+    
+    endTask(workflowInstanceB, "one");
+
+    assertEquals(0, findWorkflowInstancesByActivityId("one").size());
+    assertEquals(2, findWorkflowInstancesByActivityId("two").size());
+  }
+
+  protected List<WorkflowInstance> findWorkflowInstancesByActivityId(String activityId) {
+    return workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .activityId(activityId));
+  }
+}
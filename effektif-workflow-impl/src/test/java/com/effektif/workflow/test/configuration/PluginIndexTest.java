@@ -0,0 +1,87 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.configuration;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.effektif.workflow.impl.activity.ActivityType;
+import com.effektif.workflow.impl.activity.types.ExclusiveGatewayImpl;
+import com.effektif.workflow.impl.archive.ArchiveJobType;
+import com.effektif.workflow.impl.configuration.PluginIndex;
+import com.effektif.workflow.impl.job.JobType;
+import com.effektif.workflow.test.api.JobServiceTest.TestJob;
+import com.effektif.workflow.test.impl.UnlockListenerTest;
+
+
+public class PluginIndexTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testServicesPlugins() {
+    ClassLoader classLoader = getClass().getClassLoader();
+    List<Class<?>> activityTypes = PluginIndex.get(classLoader).getPluginClasses(ActivityType.class);
+    // main and test services files are both read
+    assertTrue(activityTypes.contains(ExclusiveGatewayImpl.class));
+    assertTrue(activityTypes.contains(UnlockListenerTest.ListeningActivityImpl.class));
+    assertEquals(new HashSet<>(activityTypes).size(), activityTypes.size());
+  }
+
+  @Test
+  public void testPluginServicesFile() throws Exception {
+    // a classpath root with only a services file, like a plugin jar
+    File root = temporaryFolder.newFolder();
+    File servicesFile = new File(root, PluginIndex.SERVICES_DIRECTORY+JobType.class.getName());
+    servicesFile.getParentFile().mkdirs();
+    Files.write(servicesFile.toPath(), ("# comment\n"+TestJob.class.getName()+"\n\n"+ArchiveJobType.class.getName()).getBytes(StandardCharsets.UTF_8));
+
+    try (URLClassLoader classLoader = new URLClassLoader(new URL[]{root.toURI().toURL()}, getClass().getClassLoader())) {
+      List<Class<?>> jobTypes = PluginIndex.get(classLoader).getPluginClasses(JobType.class);
+      assertTrue(jobTypes.contains(TestJob.class));
+      assertTrue(jobTypes.contains(ArchiveJobType.class));
+      assertEquals(new HashSet<>(jobTypes).size(), jobTypes.size());
+      List<Class<?>> activityTypes = PluginIndex.get(classLoader).getPluginClasses(ActivityType.class);
+      assertTrue(activityTypes.contains(ExclusiveGatewayImpl.class));
+    }
+  }
+
+  @Test
+  public void testClassLoaderIsNotRetained() throws Exception {
+    File root = temporaryFolder.newFolder();
+    URLClassLoader classLoader = new URLClassLoader(new URL[]{root.toURI().toURL()}, getClass().getClassLoader());
+    PluginIndex.get(classLoader).getPluginClasses(ActivityType.class);
+    WeakReference<ClassLoader> classLoaderReference = new WeakReference<ClassLoader>(classLoader);
+    classLoader.close();
+    classLoader = null;
+
+    for (int i=0; i<50 && classLoaderReference.get()!=null; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertNull("the plugin index should not keep the class loader alive", classLoaderReference.get());
+  }
+}
@@ -0,0 +1,69 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.configuration;
+
+import java.util.concurrent.TimeUnit;
+
+import com.effektif.workflow.api.activities.EndEvent;
+import com.effektif.workflow.api.activities.ExclusiveGateway;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.activities.StartEvent;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.memory.MemoryConfiguration;
+
+
+/** Measures the time from creating a configuration till the first deployed workflow.
+ *
+ * The first startup in a fresh JVM includes the class loading and the scan 
+ * of the services files and is the one that matters for scaling out. */
+public class StartupBenchmark {
+
+  public static void main(String[] args) {
+    int iterations = args.length>0 ? Integer.parseInt(args[0]) : 20;
+    System.out.println(String.format("First startup %.3f ms", millis(startup())));
+
+    long total = 0;
+    for (int i=0; i<iterations; i++) {
+      total += startup();
+    }
+    System.out.println(String.format("Next %d startups %.3f ms on average", iterations, millis(total)/iterations));
+  }
+
+  static long startup() {
+    long start = System.nanoTime();
+    MemoryConfiguration configuration = new MemoryConfiguration();
+    // no job timer threads
+    ((JobServiceImpl) configuration.get(JobService.class)).isRunning = true;
+    configuration.start();
+    configuration.getWorkflowEngine()
+      .deployWorkflow(new ExecutableWorkflow()
+        .activity("start", new StartEvent()
+          .transitionTo("gateway"))
+        .activity("gateway", new ExclusiveGateway()
+          .transitionTo("task"))
+        .activity("task", new ReceiveTask()
+          .transitionTo("end"))
+        .activity("end", new EndEvent()))
+      .checkNoErrors();
+    long nanos = System.nanoTime() - start;
+    configuration.stop();
+    return nanos;
+  }
+
+  static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,167 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.joda.time.LocalDateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.DefaultConfiguration;
+import com.effektif.workflow.impl.archive.ArchiveJobType;
+import com.effektif.workflow.impl.archive.ArchiveService;
+import com.effektif.workflow.impl.file.FileConfiguration;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.job.JobStore;
+import com.effektif.workflow.impl.memory.TestConfiguration;
+import com.effektif.workflow.impl.util.Time;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class ArchiveTest {
+
+  static final long AGE = 60*1000;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  DefaultConfiguration configuration;
+
+  @Before
+  public void before() {
+    Time.now = null;
+  }
+
+  @After
+  public void after() {
+    Time.now = null;
+    if (configuration!=null) {
+      configuration.stop();
+    }
+  }
+
+  @Test
+  public void testArchiveJob() {
+    WorkflowEngine workflowEngine = startEngine(new TestConfiguration());
+    WorkflowId workflowId = deployWorkflow(workflowEngine);
+    WorkflowInstance open = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflowId));
+    WorkflowInstance ended = startAndEnd(workflowEngine, workflowId);
+
+    // not yet old enough
+    checkJobs();
+    assertEquals(2, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()).size());
+
+    // after the rescheduling interval
+    Time.now = new LocalDateTime().plusHours(2);
+    checkJobs();
+
+    List<WorkflowInstance> active = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery());
+    assertEquals(1, active.size());
+    assertEquals(open.getId(), active.get(0).getId());
+    assertEquals(0, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(ended.getId())).size());
+
+    assertEquals(2, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .includeArchived()).size());
+    List<WorkflowInstance> archived = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(ended.getId())
+      .includeArchived());
+    assertEquals(1, archived.size());
+    assertTrue(archived.get(0).isEnded());
+
+    // the archive job keeps rescheduling itself
+    List<Job> jobs = configuration.get(JobStore.class).findAllJobs();
+    assertEquals(1, jobs.size());
+    assertEquals(ArchiveService.ARCHIVE_JOB_KEY, jobs.get(0).key);
+    assertTrue(jobs.get(0).jobType instanceof ArchiveJobType);
+    assertTrue(jobs.get(0).dueDate.isAfter(Time.now()));
+  }
+
+  @Test
+  public void testFileArchiveRecovery() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    WorkflowEngine workflowEngine = startEngine(new FileConfiguration(directory).synchronous());
+    WorkflowId workflowId = deployWorkflow(workflowEngine);
+    WorkflowInstance ended = startAndEnd(workflowEngine, workflowId);
+
+    Time.now = new LocalDateTime().plusMinutes(2);
+    checkJobs();
+    assertEquals(0, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()).size());
+
+    configuration.stop();
+    workflowEngine = startEngine(new FileConfiguration(directory).synchronous());
+
+    assertEquals(0, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()).size());
+    List<WorkflowInstance> archived = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .includeArchived());
+    assertEquals(1, archived.size());
+    assertEquals(ended.getId(), archived.get(0).getId());
+    assertEquals(1, configuration.get(JobStore.class).findAllJobs().size());
+
+    workflowEngine.deleteWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(ended.getId())
+      .includeArchived());
+    assertEquals(0, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .includeArchived()).size());
+  }
+
+  WorkflowEngine startEngine(DefaultConfiguration configuration) {
+    this.configuration = configuration;
+    configuration.archive(AGE);
+    // this prevents the job service from starting any threads
+    ((JobServiceImpl)configuration.get(JobService.class)).isRunning = true;
+    configuration.start();
+    return configuration.getWorkflowEngine();
+  }
+
+  WorkflowId deployWorkflow(WorkflowEngine workflowEngine) {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .sourceWorkflowId("archive")
+      .activity("one", new ReceiveTask());
+    return workflowEngine.deployWorkflow(workflow).checkNoErrors().getWorkflowId();
+  }
+
+  WorkflowInstance startAndEnd(WorkflowEngine workflowEngine, WorkflowId workflowId) {
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflowId));
+    workflowInstance = workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId()));
+    assertTrue(workflowInstance.isEnded());
+    return workflowInstance;
+  }
+
+  void checkJobs() {
+    ((JobServiceImpl)configuration.get(JobService.class)).checkJobs();
+  }
+}
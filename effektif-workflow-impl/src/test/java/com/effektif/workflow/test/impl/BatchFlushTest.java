@@ -0,0 +1,115 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.BatchItemResult;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.memory.MemoryConfiguration;
+import com.effektif.workflow.impl.memory.MemoryWorkflowInstanceStore;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/** Checks that a workflow instance that can't be flushed in a batch 
+ * only fails its own messages.
+ */
+public class BatchFlushTest {
+
+  MemoryConfiguration configuration;
+  WorkflowEngine workflowEngine;
+  FailingWorkflowInstanceStore workflowInstanceStore;
+
+  @Before
+  public void startConfiguration() {
+    workflowInstanceStore = new FailingWorkflowInstanceStore();
+    configuration = new MemoryConfiguration();
+    configuration.ingredient(workflowInstanceStore);
+    configuration.synchronous();
+    configuration.start();
+    workflowEngine = configuration.getWorkflowEngine();
+  }
+
+  @After
+  public void stopConfiguration() {
+    configuration.stop();
+  }
+
+  @Test
+  public void testPartialFlushFailure() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    workflowEngine.deployWorkflow(workflow).checkNoErrors();
+
+    WorkflowInstance first = start(workflow);
+    WorkflowInstance second = start(workflow);
+    workflowInstanceStore.failingWorkflowInstanceIds.add(second.getId());
+
+    List<Message> messages = new ArrayList<>();
+    messages.add(createMessage(first, "one"));
+    messages.add(createMessage(second, "one"));
+    List<BatchItemResult> results = workflowEngine.sendBatch(messages);
+
+    assertTrue(results.get(0).isSuccess());
+    assertFalse(results.get(1).isSuccess());
+    assertEquals("flush failed", results.get(1).getError());
+
+    // both workflow instances are unlocked 
+    assertNull(workflowInstanceStore.getWorkflowInstanceImplById(first.getId()).lock);
+    assertNull(workflowInstanceStore.getWorkflowInstanceImplById(second.getId()).lock);
+    // and the first one can continue
+    workflowInstanceStore.failingWorkflowInstanceIds.clear();
+    WorkflowInstance workflowInstance = workflowEngine.send(createMessage(results.get(0).getWorkflowInstance(), "two"));
+    assertTrue(workflowInstance.isEnded());
+  }
+
+  WorkflowInstance start(ExecutableWorkflow workflow) {
+    return workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId()));
+  }
+
+  Message createMessage(WorkflowInstance workflowInstance, String activityId) {
+    return new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance(activityId).getId());
+  }
+
+  static class FailingWorkflowInstanceStore extends MemoryWorkflowInstanceStore {
+    Set<WorkflowInstanceId> failingWorkflowInstanceIds = new HashSet<>();
+    @Override
+    public void flushAndUnlock(WorkflowInstanceImpl workflowInstance) {
+      if (failingWorkflowInstanceIds.contains(workflowInstance.id)) {
+        throw new RuntimeException("flush failed");
+      }
+      super.flushAndUnlock(workflowInstance);
+    }
+  }
+}
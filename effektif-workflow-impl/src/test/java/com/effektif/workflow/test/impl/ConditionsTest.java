@@ -19,6 +19,7 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import com.effektif.workflow.api.condition.And;
 import com.effektif.workflow.api.condition.Comparator;
 import com.effektif.workflow.api.condition.Condition;
 import com.effektif.workflow.api.condition.Contains;
@@ -33,19 +34,25 @@ import com.effektif.workflow.api.condition.IsFalse;
 import com.effektif.workflow.api.condition.IsTrue;
 import com.effektif.workflow.api.condition.LessThan;
 import com.effektif.workflow.api.condition.LessThanOrEqual;
+import com.effektif.workflow.api.condition.Not;
 import com.effektif.workflow.api.condition.NotContains;
 import com.effektif.workflow.api.condition.NotContainsIgnoreCase;
 import com.effektif.workflow.api.condition.NotEquals;
 import com.effektif.workflow.api.condition.NotEqualsIgnoreCase;
+import com.effektif.workflow.api.condition.Or;
 import com.effektif.workflow.api.model.TriggerInstance;
 import com.effektif.workflow.api.types.BooleanType;
 import com.effektif.workflow.api.types.ChoiceType;
 import com.effektif.workflow.api.types.DataType;
 import com.effektif.workflow.api.types.NumberType;
 import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.Binding;
 import com.effektif.workflow.api.workflow.ExecutableWorkflow;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
 import com.effektif.workflow.impl.WorkflowParser;
+import com.effektif.workflow.impl.conditions.CompiledCondition;
+import com.effektif.workflow.impl.conditions.ConditionCompiler;
+import com.effektif.workflow.impl.conditions.ConditionEvaluation;
 import com.effektif.workflow.impl.conditions.ConditionImpl;
 import com.effektif.workflow.impl.conditions.ConditionService;
 import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
@@ -315,6 +322,24 @@ public class ConditionsTest extends WorkflowTest {
     assertTrue(evaluateTextExpression(new NotEqualsIgnoreCase(), "hello\nworld", "helloworld"));
   }
 
+  @Test
+  public void testCompiledConstantsAreFolded() {
+    CompiledCondition compiled = new ConditionCompiler().compile(parse(new And()
+      .condition(new LessThan().left(new Binding().value(1)).rightValue(2))
+      .condition(new Not().condition(new IsTrue().left(new Binding().value(false))))));
+    assertSame(CompiledCondition.TRUE, compiled);
+  }
+
+  @Test
+  public void testCompiledExpressionsAreShared() {
+    ConditionCompiler compiler = new ConditionCompiler();
+    compiler.compile(parse(new LessThan().leftExpression("n").rightValue(10)));
+    compiler.compile(parse(new Or()
+      .condition(new GreaterThanOrEqual().leftExpression("n").rightValue(10))
+      .condition(new Equals().leftExpression("m").rightExpression("n"))));
+    assertEquals(2, compiler.getExpressionCount());
+  }
+
   private boolean evaluateNumberExpression(Comparator condition, Number leftValue, Number rightValue) {
     return evaluate(NumberType.INSTANCE, "n", leftValue, condition.leftExpression("n").rightValue(rightValue));
   }
@@ -336,10 +361,20 @@ public class ConditionsTest extends WorkflowTest {
     WorkflowEngineImpl workflowEngineImpl = (WorkflowEngineImpl) workflowEngine;
     WorkflowInstanceImpl workflowInstance = workflowEngineImpl.startInitialize(triggerInstance);
   
+    ConditionImpl conditionImpl = parse(condition);
+    boolean result = conditionImpl.eval(workflowInstance);
+    
+    ConditionCompiler compiler = new ConditionCompiler();
+    CompiledCondition compiledCondition = compiler.compile(conditionImpl);
+    ConditionEvaluation evaluation = new ConditionEvaluation(workflowInstance, compiler.getExpressionCount());
+    assertEquals("compiled "+conditionImpl, result, compiledCondition.eval(evaluation));
+    return result;
+  }
+
+  private ConditionImpl parse(Condition condition) {
     ConditionService conditionService = configuration.get(ConditionService.class);
     WorkflowParser workflowParser = new WorkflowParser(configuration);
     workflowParser.pushContext("condition", null, null, null);
-    ConditionImpl conditionImpl = conditionService.compile(condition, workflowParser);
-    return conditionImpl.eval(workflowInstance);
+    return conditionService.compile(condition, workflowParser);
   }
 }
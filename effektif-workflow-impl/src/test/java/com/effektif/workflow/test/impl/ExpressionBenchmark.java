@@ -0,0 +1,98 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.WorkflowParser;
+import com.effektif.workflow.impl.data.FieldAccessor;
+import com.effektif.workflow.impl.job.JobService;
+import com.effektif.workflow.impl.job.JobServiceImpl;
+import com.effektif.workflow.impl.memory.MemoryConfiguration;
+import com.effektif.workflow.impl.workflow.ExpressionImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+import com.effektif.workflow.test.api.ExpressionTest;
+
+
+/** Measures the evaluation of a deep dotted expression like 
+ * <code>order.customer.address.city</code> with and without the 
+ * precomputed {@link ExpressionImpl#fieldAccessors}.
+ * 
+ * Reports the time and the allocated bytes per evaluation.  Pass the 
+ * number of evaluations per round as the first argument. */
+public class ExpressionBenchmark {
+  
+  static volatile Object sink;
+
+  public static void main(String[] args) {
+    int evaluations = args.length>0 ? Integer.parseInt(args[0]) : 2000000;
+    MemoryConfiguration configuration = new MemoryConfiguration();
+    // no job timer threads
+    ((JobServiceImpl) configuration.get(JobService.class)).isRunning = true;
+    configuration.start();
+
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("order", ExpressionTest.createOrderType());
+    WorkflowEngineImpl workflowEngine = (WorkflowEngineImpl) configuration.getWorkflowEngine();
+    workflowEngine.deployWorkflow(workflow).checkNoErrors();
+    WorkflowInstanceImpl workflowInstance = workflowEngine.startInitialize(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("order", ExpressionTest.createOrder()));
+
+    WorkflowParser parser = new WorkflowParser(configuration);
+    parser.pushContext("workflow", null, workflowInstance.workflow, null);
+    ExpressionImpl expression = new ExpressionImpl();
+    expression.parse("order.customer.address.city", parser);
+    FieldAccessor[] fieldAccessors = expression.fieldAccessors;
+    if (fieldAccessors==null) {
+      throw new RuntimeException("no field accessors for "+expression);
+    }
+
+    for (int round=0; round<5; round++) {
+      expression.fieldAccessors = null;
+      report("dereference", workflowInstance, expression, evaluations);
+      expression.fieldAccessors = fieldAccessors;
+      report("accessors  ", workflowInstance, expression, evaluations);
+    }
+    
+    configuration.stop();
+    // the executor threads of the stopped configuration are not daemons
+    System.exit(0);
+  }
+
+  static void report(String name, WorkflowInstanceImpl workflowInstance, ExpressionImpl expression, int evaluations) {
+    long bytesBefore = getAllocatedBytes();
+    long start = System.nanoTime();
+    for (int i=0; i<evaluations; i++) {
+      sink = workflowInstance.getValue(expression);
+    }
+    long nanos = System.nanoTime() - start;
+    long bytes = getAllocatedBytes() - bytesBefore;
+    System.out.println(String.format("%s %7.1f ns/op %7.1f bytes/op", 
+      name, nanos / (double) evaluations, bytes / (double) evaluations));
+  }
+
+  /** -1 if the JVM can't measure the allocations of a thread */
+  static long getAllocatedBytes() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,72 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.impl.WorkflowParser;
+import com.effektif.workflow.impl.data.FieldAccessor;
+import com.effektif.workflow.impl.data.TypedValueImpl;
+import com.effektif.workflow.impl.workflow.ExpressionImpl;
+import com.effektif.workflow.impl.workflow.WorkflowImpl;
+import com.effektif.workflow.impl.workflowinstance.ScopeInstanceImpl;
+import com.effektif.workflow.test.WorkflowTest;
+import com.effektif.workflow.test.api.ExpressionTest;
+
+
+/** Checks that the precomputed field accessors of expressions 
+ * dereference the same values as the data types.
+ */
+public class FieldAccessorTest extends WorkflowTest {
+
+  @Test
+  public void testFieldAccessors() {
+    Map<String,Object> order = ExpressionTest.createOrder();
+    WorkflowParser parser = parseWorkflow();
+    for (String expressionText: new String[]{"order.customer.address.city", "order.customer.name", "order.lines.product"}) {
+      ExpressionImpl expression = parseExpression(parser, expressionText);
+      assertNotNull(expressionText, expression.fieldAccessors);
+      TypedValueImpl typedValue = ScopeInstanceImpl.resolveFields(expression.variableType, order, expression.fieldKeys, configuration);
+      assertEquals(expressionText, typedValue.value, FieldAccessor.getFieldValue(expression.fieldAccessors, order));
+    }
+  }
+
+  @Test
+  public void testNoFieldAccessorsForRuntimeTypes() {
+    WorkflowParser parser = parseWorkflow();
+    assertNull(parseExpression(parser, "order.customer.unknown").fieldAccessors);
+    assertNull(parseExpression(parser, "text.length").fieldAccessors);
+  }
+
+  WorkflowParser parseWorkflow() {
+    WorkflowParser parser = new WorkflowParser(configuration);
+    WorkflowImpl workflow = parser.parse(new ExecutableWorkflow()
+      .variable("order", ExpressionTest.createOrderType())
+      .variable("text", TextType.INSTANCE));
+    parser.pushContext("workflow", null, workflow, null);
+    return parser;
+  }
+
+  ExpressionImpl parseExpression(WorkflowParser parser, String expressionText) {
+    ExpressionImpl expression = new ExpressionImpl();
+    expression.parse(expressionText, parser);
+    return expression;
+  }
+}
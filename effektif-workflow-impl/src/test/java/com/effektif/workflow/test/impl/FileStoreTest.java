@@ -0,0 +1,160 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.query.WorkflowInstanceQuery;
+import com.effektif.workflow.api.query.WorkflowQuery;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.file.FileConfiguration;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.job.JobStore;
+
+
+/** Checks that the file stores recover workflows and
+ * workflow instances after the engine is restarted.
+ */
+public class FileStoreTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  FileConfiguration configuration;
+
+  @After
+  public void after() {
+    if (configuration!=null) {
+      configuration.stop();
+    }
+  }
+
+  @Test
+  public void testRecovery() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    WorkflowEngine workflowEngine = startEngine(directory, Long.MAX_VALUE);
+
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .sourceWorkflowId("recovery")
+      .variable("v", new TextType())
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    WorkflowId workflowId = workflowEngine.deployWorkflow(workflow).checkNoErrors().getWorkflowId();
+
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflowId)
+      .data("v", "hello"));
+    WorkflowInstance endedWorkflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflowId));
+    endedWorkflowInstance = endTask(workflowEngine, endedWorkflowInstance, "one");
+    endTask(workflowEngine, endedWorkflowInstance, "two");
+    configuration.get(JobStore.class).saveJob(new Job().key("recovered"));
+
+    workflowEngine = restartEngine(directory, Long.MAX_VALUE);
+
+    assertEquals(1, workflowEngine.findWorkflows(new WorkflowQuery()).size());
+    assertEquals(2, workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()).size());
+    WorkflowInstance recovered = findWorkflowInstance(workflowEngine, workflowInstance);
+    assertEquals("hello", recovered.getVariableValue("v"));
+    assertNotNull(recovered.findOpenActivityInstance("one"));
+    assertTrue(findWorkflowInstance(workflowEngine, endedWorkflowInstance).isEnded());
+    List<Job> jobs = configuration.get(JobStore.class).findAllJobs();
+    assertEquals(1, jobs.size());
+    assertEquals("recovered", jobs.get(0).key);
+
+    recovered = endTask(workflowEngine, recovered, "one");
+    assertNotNull(recovered.findOpenActivityInstance("two"));
+
+    workflowEngine = restartEngine(directory, Long.MAX_VALUE);
+
+    recovered = findWorkflowInstance(workflowEngine, workflowInstance);
+    assertNull(recovered.findOpenActivityInstance("one"));
+    recovered = endTask(workflowEngine, recovered, "two");
+    assertTrue(recovered.isEnded());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    WorkflowEngine workflowEngine = startEngine(directory, 4096);
+
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .sourceWorkflowId("compaction")
+      .activity("one", new ReceiveTask());
+    WorkflowId workflowId = workflowEngine.deployWorkflow(workflow).checkNoErrors().getWorkflowId();
+
+    for (int i=0; i<50; i++) {
+      WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+        .workflowId(workflowId));
+      if (i%2==0) {
+        endTask(workflowEngine, workflowInstance, "one");
+      }
+    }
+    workflowEngine.deleteWorkflowInstances(new WorkflowInstanceQuery()
+      .activityId("one"));
+
+    assertFalse("log should have been compacted", new File(directory, "log.0").exists());
+
+    workflowEngine = restartEngine(directory, 4096);
+
+    assertEquals(1, workflowEngine.findWorkflows(new WorkflowQuery()).size());
+    List<WorkflowInstance> workflowInstances = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery());
+    assertEquals(25, workflowInstances.size());
+    for (WorkflowInstance workflowInstance: workflowInstances) {
+      assertTrue(workflowInstance.isEnded());
+    }
+  }
+
+  WorkflowEngine startEngine(File directory, long compactionThreshold) {
+    configuration = new FileConfiguration(directory);
+    configuration.compactionThreshold(compactionThreshold);
+    configuration.mappedRegionSize(1024);
+    configuration.synchronous();
+    configuration.start();
+    return configuration.getWorkflowEngine();
+  }
+
+  WorkflowEngine restartEngine(File directory, long compactionThreshold) {
+    configuration.stop();
+    return startEngine(directory, compactionThreshold);
+  }
+
+  WorkflowInstance findWorkflowInstance(WorkflowEngine workflowEngine, WorkflowInstance workflowInstance) {
+    List<WorkflowInstance> workflowInstances = workflowEngine.findWorkflowInstances(new WorkflowInstanceQuery()
+      .workflowInstanceId(workflowInstance.getId()));
+    assertEquals(1, workflowInstances.size());
+    return workflowInstances.get(0);
+  }
+
+  WorkflowInstance endTask(WorkflowEngine workflowEngine, WorkflowInstance workflowInstance, String activityId) {
+    return workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance(activityId).getId()));
+  }
+}
@@ -0,0 +1,170 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.Message;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.WorkflowId;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.DefaultConfiguration;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+import com.effektif.workflow.impl.file.FileConfiguration;
+import com.effektif.workflow.impl.history.HistoryEvent;
+import com.effektif.workflow.impl.history.HistoryLevel;
+import com.effektif.workflow.impl.history.HistoryQuery;
+import com.effektif.workflow.impl.history.HistoryStore;
+import com.effektif.workflow.impl.memory.TestConfiguration;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class HistoryTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  DefaultConfiguration configuration;
+
+  @After
+  public void after() {
+    if (configuration!=null) {
+      configuration.stop();
+    }
+  }
+
+  @Test
+  public void testFullHistory() {
+    configuration = new TestConfiguration()
+      .history(HistoryLevel.FULL);
+    List<HistoryEvent> historyEvents = runWorkflow();
+
+    // the trigger data is set before the workflow instance starts
+    assertEquals(Type.VARIABLE_UPDATED, historyEvents.get(0).getType());
+    assertEquals("hello", historyEvents.get(0).getValue());
+    assertEquals(Type.WORKFLOW_INSTANCE_STARTING, historyEvents.get(1).getType());
+    assertEquals(Type.WORKFLOW_INSTANCE_ENDED, historyEvents.get(historyEvents.size()-1).getType());
+    assertEquals(2, count(historyEvents, Type.VARIABLE_UPDATED));
+    assertEquals(2, count(historyEvents, Type.ACTIVITY_INSTANCE_STARTING));
+    assertEquals(2, count(historyEvents, Type.ACTIVITY_INSTANCE_ENDED));
+    assertEquals(1, count(historyEvents, Type.TRANSITIONING));
+    assertEquals(0, count(historyEvents, Type.FLUSH));
+
+    HistoryEvent variableUpdate = find(historyEvents, Type.VARIABLE_UPDATED, 1);
+    assertEquals("v", variableUpdate.getVariableId());
+    assertEquals("world", variableUpdate.getValue());
+
+    HistoryStore historyStore = configuration.get(HistoryStore.class);
+    List<HistoryEvent> activityEvents = historyStore.findHistoryEvents(new HistoryQuery()
+      .workflowInstanceId(historyEvents.get(0).getWorkflowInstanceId())
+      .activityId("two"));
+    assertEquals(2, activityEvents.size());
+    assertEquals(Type.ACTIVITY_INSTANCE_STARTING, activityEvents.get(0).getType());
+  }
+
+  @Test
+  public void testWorkflowInstanceHistory() {
+    configuration = new TestConfiguration()
+      .history(HistoryLevel.WORKFLOW_INSTANCE);
+    List<HistoryEvent> historyEvents = runWorkflow();
+
+    assertEquals(2, historyEvents.size());
+    assertEquals(Type.WORKFLOW_INSTANCE_STARTING, historyEvents.get(0).getType());
+    assertEquals(Type.WORKFLOW_INSTANCE_ENDED, historyEvents.get(1).getType());
+  }
+
+  @Test
+  public void testFileHistory() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    configuration = new FileConfiguration(directory)
+      .synchronous()
+      .history(HistoryLevel.ACTIVITY);
+    List<HistoryEvent> historyEvents = runWorkflow();
+
+    assertEquals(7, historyEvents.size());
+    assertEquals(Type.WORKFLOW_INSTANCE_STARTING, historyEvents.get(0).getType());
+    assertEquals("one", historyEvents.get(1).getActivityId());
+    assertNotNull(historyEvents.get(1).getTime());
+
+    List<HistoryEvent> limited = configuration.get(HistoryStore.class).findHistoryEvents(new HistoryQuery()
+      .type(Type.ACTIVITY_INSTANCE_ENDED)
+      .limit(1));
+    assertEquals(1, limited.size());
+    assertEquals("one", limited.get(0).getActivityId());
+  }
+
+  /** runs a workflow instance through two receive tasks and 
+   * returns its history after the history service is stopped */
+  List<HistoryEvent> runWorkflow() {
+    configuration.start();
+    WorkflowEngine workflowEngine = configuration.getWorkflowEngine();
+
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .sourceWorkflowId("history")
+      .variable("v", new TextType())
+      .activity("one", new ReceiveTask()
+        .transitionTo("two"))
+      .activity("two", new ReceiveTask());
+    WorkflowId workflowId = workflowEngine.deployWorkflow(workflow).checkNoErrors().getWorkflowId();
+
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflowId)
+      .data("v", "hello"));
+    workflowInstance = workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("one").getId())
+      .data("v", "world"));
+    workflowEngine.send(new Message()
+      .workflowInstanceId(workflowInstance.getId())
+      .activityInstanceId(workflowInstance.findOpenActivityInstance("two").getId()));
+
+    HistoryStore historyStore = configuration.get(HistoryStore.class);
+    // stopping dispatches the history events that are not yet recorded
+    configuration.stop();
+    return historyStore.findHistoryEvents(new HistoryQuery()
+      .workflowInstanceId(workflowInstance.getId()));
+  }
+
+  int count(List<HistoryEvent> historyEvents, Type type) {
+    int count = 0;
+    for (HistoryEvent historyEvent: historyEvents) {
+      if (historyEvent.getType()==type) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  HistoryEvent find(List<HistoryEvent> historyEvents, Type type, int index) {
+    for (HistoryEvent historyEvent: historyEvents) {
+      if (historyEvent.getType()==type && index--==0) {
+        return historyEvent;
+      }
+    }
+    return null;
+  }
+}
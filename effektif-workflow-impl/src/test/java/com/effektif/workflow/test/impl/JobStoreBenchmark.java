@@ -0,0 +1,82 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.memory.MemoryJobStore;
+
+
+/** Measures how the throughput of the {@link MemoryJobStore} scales 
+ * with the number of threads that save and lock jobs concurrently.
+ * 
+ * Each thread saves a job and locks the next one in a loop, half of 
+ * the jobs have a key.  Pass the number of operations per thread as 
+ * the first argument. */
+public class JobStoreBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    final int operations = args.length>0 ? Integer.parseInt(args[0]) : 200000;
+    int processors = Runtime.getRuntime().availableProcessors();
+    System.out.println(processors+" processors");
+    for (int round=0; round<3; round++) {
+      for (int threads=1; threads<=Math.max(8, processors); threads*=2) {
+        report(threads, operations);
+      }
+    }
+    System.exit(0);
+  }
+
+  static void report(int threads, final int operations) throws Exception {
+    final MemoryJobStore jobStore = new MemoryJobStore();
+    // a backlog so that locking has to skip over jobs
+    for (int i=0; i<1000; i++) {
+      jobStore.saveJob(new Job());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t=0; t<threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit(new Runnable() {
+          public void run() {
+            for (int i=0; i<operations; i++) {
+              Job job = new Job();
+              if (i%2==0) {
+                job.key(thread+"-"+(i%100));
+              }
+              jobStore.saveJob(job);
+              jobStore.lockNextJob();
+            }
+          }
+        }));
+      }
+      for (Future<?> future: futures) {
+        future.get();
+      }
+      long nanos = System.nanoTime() - start;
+      double totalOperations = 2.0 * threads * operations;
+      System.out.println(String.format("%2d threads %10.0f ops/s %7.1f ns/op", 
+        threads, totalOperations * 1000000000d / nanos, nanos / totalOperations));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
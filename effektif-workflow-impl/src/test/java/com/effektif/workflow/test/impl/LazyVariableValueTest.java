@@ -0,0 +1,88 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflow.Variable;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.WorkflowInstanceStore;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.VariableInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.VariableValueLoader;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+import com.effektif.workflow.test.WorkflowTest;
+
+
+/** Checks that the first access to a value that is not yet loaded 
+ * loads all pending values of the workflow instance in one batch.
+ */
+public class LazyVariableValueTest extends WorkflowTest {
+
+  @Test
+  public void testPendingValuesAreLoadedInOneBatch() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("a", TextType.INSTANCE)
+      .variable("b", TextType.INSTANCE)
+      .activity("t", new ReceiveTask()
+        .variable(new Variable().id("c").type(TextType.INSTANCE)));
+    deploy(workflow);
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("b", "loaded"));
+    WorkflowInstanceImpl workflowInstanceImpl = configuration.get(WorkflowInstanceStore.class)
+      .getWorkflowInstanceImplById(workflowInstance.getId());
+    ActivityInstanceImpl activityInstance = workflowInstanceImpl.findActivityInstanceByActivityId("t");
+
+    CountingLoader loader = new CountingLoader();
+    VariableInstanceImpl a = workflowInstanceImpl.findVariableInstance("a");
+    VariableInstanceImpl c = activityInstance.findVariableInstance("c");
+    a.valueLoader = loader;
+    c.valueLoader = loader;
+
+    assertEquals("value of a", a.getValue());
+    assertEquals(1, loader.batches.size());
+    assertEquals(2, loader.batches.get(0).size());
+    assertTrue(c.isValueLoaded());
+    assertEquals("value of c", c.getValue());
+    assertEquals("loaded", workflowInstanceImpl.getValue("b"));
+    assertEquals(1, loader.batches.size());
+  }
+
+  static class CountingLoader implements VariableValueLoader {
+    List<List<VariableInstanceImpl>> batches = new ArrayList<>();
+    @Override
+    public void loadValues(List<VariableInstanceImpl> variableInstances) {
+      batches.add(new ArrayList<>(variableInstances));
+      for (VariableInstanceImpl variableInstance: variableInstances) {
+        variableInstance.value = "value of "+variableInstance.variable.id;
+        variableInstance.valueLoader = null;
+      }
+    }
+    @Override
+    public InputStream openValueStream(VariableInstanceImpl variableInstance) {
+      return null;
+    }
+  }
+}
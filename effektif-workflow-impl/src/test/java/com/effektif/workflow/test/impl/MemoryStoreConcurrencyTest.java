@@ -0,0 +1,256 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.impl.job.Job;
+import com.effektif.workflow.impl.memory.MemoryJobStore;
+import com.effektif.workflow.impl.memory.MemoryWorkflowInstanceStore;
+import com.effektif.workflow.impl.util.Time;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/** Checks that the memory stores hand out every job and
+ * workflow instance lock exactly once when many threads
+ * compete for them.
+ */
+public class MemoryStoreConcurrencyTest {
+
+  static final int THREADS = 8;
+  static final int ITEMS = 2000;
+
+  @Test
+  public void testConcurrentJobLocking() throws Exception {
+    final MemoryJobStore jobStore = new MemoryJobStore();
+    for (int i=0; i<ITEMS; i++) {
+      jobStore.saveJob(new Job());
+    }
+
+    final Set<String> lockedJobIds = newConcurrentSet();
+    final AtomicInteger duplicates = new AtomicInteger();
+    runConcurrently(new Runnable() {
+      public void run() {
+        Job job = jobStore.lockNextJob();
+        while (job!=null) {
+          if (!lockedJobIds.add(job.id)) {
+            duplicates.incrementAndGet();
+          }
+          job = jobStore.lockNextJob();
+        }
+      }
+    });
+
+    assertEquals(0, duplicates.get());
+    assertEquals(ITEMS, lockedJobIds.size());
+    assertNull(jobStore.lockNextJob());
+  }
+
+  @Test
+  public void testConcurrentPriorityLocking() throws Exception {
+    final MemoryJobStore jobStore = new MemoryJobStore();
+    for (int i=0; i<ITEMS; i++) {
+      jobStore.saveJob(new Job()
+        .organizationId("o"+(i%3))
+        .priority(i%5));
+    }
+
+    // each thread locks the jobs in decreasing priority
+    final AtomicInteger priorityInversions = new AtomicInteger();
+    final AtomicInteger locked = new AtomicInteger();
+    runConcurrently(new Runnable() {
+      public void run() {
+        int lastPriority = Integer.MAX_VALUE;
+        Job job = jobStore.lockNextJob();
+        while (job!=null) {
+          locked.incrementAndGet();
+          if (job.getEffectivePriority()>lastPriority) {
+            priorityInversions.incrementAndGet();
+          }
+          lastPriority = job.getEffectivePriority();
+          job = jobStore.lockNextJob();
+        }
+      }
+    });
+
+    assertEquals(0, priorityInversions.get());
+    assertEquals(ITEMS, locked.get());
+  }
+
+  @Test
+  public void testConcurrentSavesWithTheSameKey() throws Exception {
+    final TestJobStore jobStore = new TestJobStore();
+    runConcurrently(new Runnable() {
+      public void run() {
+        for (int i=0; i<ITEMS; i++) {
+          jobStore.saveJob(new Job().key("k"+(i%10)));
+        }
+      }
+    });
+
+    assertEquals(10, jobStore.findAllJobs().size());
+    assertEquals(10, jobStore.getIndexSize());
+  }
+
+  @Test
+  public void testConcurrentSavesAndLocks() throws Exception {
+    final TestJobStore jobStore = new TestJobStore();
+    final AtomicInteger locked = new AtomicInteger();
+    runConcurrently(new Runnable() {
+      public void run() {
+        for (int i=0; i<ITEMS; i++) {
+          jobStore.saveJob(new Job().key("k"+(i%10)));
+          if (jobStore.lockNextJob()!=null) {
+            locked.incrementAndGet();
+          }
+        }
+      }
+    });
+    while (jobStore.lockNextJob()!=null) {
+      locked.incrementAndGet();
+    }
+
+    assertTrue(locked.get()>=10);
+    assertEquals(0, jobStore.findAllJobs().size());
+    // stale index entries are removed when the locking comes across them
+    assertEquals(0, jobStore.getIndexSize());
+  }
+
+  @Test
+  public void testConcurrentWorkflowInstanceLocking() throws Exception {
+    final TestWorkflowInstanceStore workflowInstanceStore = new TestWorkflowInstanceStore();
+    final List<WorkflowInstanceImpl> workflowInstances = new ArrayList<>();
+    for (int i=0; i<ITEMS; i++) {
+      WorkflowInstanceImpl workflowInstance = new WorkflowInstanceImpl();
+      workflowInstance.id = workflowInstanceStore.generateWorkflowInstanceId();
+      workflowInstanceStore.insertWorkflowInstance(workflowInstance);
+      workflowInstances.add(workflowInstance);
+    }
+
+    final Set<WorkflowInstanceId> lockedWorkflowInstanceIds = newConcurrentSet();
+    final AtomicInteger duplicates = new AtomicInteger();
+    runConcurrently(new Runnable() {
+      public void run() {
+        for (WorkflowInstanceImpl workflowInstance: workflowInstances) {
+          if (workflowInstanceStore.tryLockWorkflowInstance(workflowInstance)
+              && !lockedWorkflowInstanceIds.add(workflowInstance.id)) {
+            duplicates.incrementAndGet();
+          }
+        }
+      }
+    });
+
+    assertEquals(0, duplicates.get());
+    assertEquals(ITEMS, lockedWorkflowInstanceIds.size());
+  }
+
+  @Test
+  public void testConcurrentWorkflowInstanceIndexing() throws Exception {
+    final TestWorkflowInstanceStore workflowInstanceStore = new TestWorkflowInstanceStore();
+    // two states of the same workflow instance with different job due dates, 
+    // like a flush and a reindex of an older state
+    final WorkflowInstanceId workflowInstanceId = workflowInstanceStore.generateWorkflowInstanceId();
+    final WorkflowInstanceImpl[] workflowInstanceStates = new WorkflowInstanceImpl[2];
+    for (int i=0; i<workflowInstanceStates.length; i++) {
+      workflowInstanceStates[i] = new WorkflowInstanceImpl();
+      workflowInstanceStates[i].id = workflowInstanceId;
+      workflowInstanceStates[i].jobs = new ArrayList<>();
+      workflowInstanceStates[i].jobs.add(new Job().dueDate(Time.now().plusHours(i+1)));
+    }
+
+    final AtomicInteger threadIndex = new AtomicInteger();
+    runConcurrently(new Runnable() {
+      public void run() {
+        int thread = threadIndex.getAndIncrement();
+        for (int i=0; i<ITEMS; i++) {
+          if (thread%3==2) {
+            workflowInstanceStore.unindex(workflowInstanceId);
+          } else {
+            workflowInstanceStore.index(workflowInstanceStates[thread%3]);
+          }
+        }
+      }
+    });
+
+    // no orphan due dates are left behind
+    assertTrue(workflowInstanceStore.getIndexSize()<=1);
+    workflowInstanceStore.unindex(workflowInstanceId);
+    assertEquals(0, workflowInstanceStore.getIndexSize());
+  }
+
+  static class TestJobStore extends MemoryJobStore {
+    public int getIndexSize() {
+      int size = 0;
+      for (NavigableMap<Integer,NavigableSet<JobDueDate>> organizationJobDueDates: jobDueDates.values()) {
+        for (NavigableSet<JobDueDate> priorityJobDueDates: organizationJobDueDates.values()) {
+          size += priorityJobDueDates.size();
+        }
+      }
+      assertEquals(jobDueDatesByJobId.size(), size);
+      return size;
+    }
+  }
+
+  static class TestWorkflowInstanceStore extends MemoryWorkflowInstanceStore {
+    public TestWorkflowInstanceStore() {
+      initializeWorkflowInstances();
+    }
+    @Override
+    public void index(WorkflowInstanceImpl workflowInstance) {
+      super.index(workflowInstance);
+    }
+    @Override
+    public void unindex(WorkflowInstanceId workflowInstanceId) {
+      super.unindex(workflowInstanceId);
+    }
+    public int getIndexSize() {
+      assertEquals(jobDueDatesByWorkflowInstanceId.size(), jobDueDates.size());
+      return jobDueDates.size();
+    }
+  }
+
+  static <T> Set<T> newConcurrentSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+  }
+
+  static void runConcurrently(final Runnable runnable) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Object>> futures = new ArrayList<>();
+      for (int i=0; i<THREADS; i++) {
+        futures.add(executor.submit(Executors.callable(runnable)));
+      }
+      for (Future<Object> future: futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
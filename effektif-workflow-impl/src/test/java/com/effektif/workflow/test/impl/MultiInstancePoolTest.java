@@ -0,0 +1,60 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.memory.MemoryConfiguration;
+
+
+/** Checks that the elements of parallel multi instance activities
+ * run on a pool of the engine and not on the JVM wide common pool.
+ */
+public class MultiInstancePoolTest {
+
+  @Test
+  public void testEngineOwnsTheMultiInstancePool() {
+    MemoryConfiguration configuration = new MemoryConfiguration();
+    configuration.multiInstanceParallelism(3);
+    configuration.start();
+    ForkJoinPool forkJoinPool = configuration.get(WorkflowEngineImpl.class).forkJoinPool;
+    assertNotSame(ForkJoinPool.commonPool(), forkJoinPool);
+    assertEquals(3, forkJoinPool.getParallelism());
+
+    configuration.stop();
+    assertTrue(forkJoinPool.isShutdown());
+  }
+
+  @Test
+  public void testConfiguredPoolIsNotShutDown() {
+    ForkJoinPool configuredPool = new ForkJoinPool(2);
+    try {
+      MemoryConfiguration configuration = new MemoryConfiguration();
+      // by name as the pool is also an ExecutorService
+      configuration.set(configuredPool, ForkJoinPool.class.getName());
+      configuration.start();
+      assertSame(configuredPool, configuration.get(WorkflowEngineImpl.class).forkJoinPool);
+
+      configuration.stop();
+      assertFalse(configuredPool.isShutdown());
+    } finally {
+      configuredPool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/* Copyright (c) 2014, Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.activities.ReceiveTask;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.model.VariableValues;
+import com.effektif.workflow.api.types.NumberType;
+import com.effektif.workflow.api.types.TextType;
+import com.effektif.workflow.api.workflow.ExecutableWorkflow;
+import com.effektif.workflow.api.workflow.Variable;
+import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.WorkflowInstanceStore;
+import com.effektif.workflow.impl.WorkflowParser;
+import com.effektif.workflow.impl.data.types.TextTypeImpl;
+import com.effektif.workflow.impl.workflow.ActivityImpl;
+import com.effektif.workflow.impl.workflow.ExpressionImpl;
+import com.effektif.workflow.impl.workflow.WorkflowImpl;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+import com.effektif.workflow.test.WorkflowTest;
+
+
+/** Checks that declared variables are stored in the slots
+ * assigned by the parser and that expressions resolve them
+ * with the same scoping rules as lookups by variable id.
+ */
+public class VariableSlotsTest extends WorkflowTest {
+
+  @Test
+  public void testDeclaredVariablesAreSlotted() {
+    WorkflowInstanceImpl workflowInstance = startWorkflowInstance();
+    WorkflowImpl workflow = workflowInstance.workflow;
+    assertEquals(0, workflow.variables.get("a").slot);
+    assertEquals(1, workflow.variables.get("b").slot);
+    assertEquals(0, workflow.activities.get("t").variables.get("c").slot);
+
+    assertEquals(2, workflowInstance.variableSlots.length);
+    assertEquals("x", workflowInstance.variableSlots[0].getValue());
+    assertNull(workflowInstance.undeclaredVariableInstances);
+
+    workflowInstance.setVariableValue("d", "dynamic");
+    assertEquals(2, workflowInstance.variableSlots.length);
+    assertEquals("dynamic", workflowInstance.undeclaredVariableInstances.get("d").getValue());
+    assertEquals("dynamic", workflowInstance.getValue("d"));
+
+    ActivityInstanceImpl activityInstance = workflowInstance.findActivityInstanceByActivityId("t");
+    assertEquals(1, activityInstance.variableSlots.length);
+    assertSame(activityInstance.variableSlots[0], activityInstance.findVariableInstance("c"));
+  }
+
+  /** with a persistent store, the read instance is rebuilt from the stored 
+   * document, which has no slots.  MongoApiTest runs this with mongo. */
+  @Test
+  public void testReadVariablesAreSlotted() {
+    WorkflowInstanceImpl workflowInstance = startWorkflowInstance();
+    String activityInstanceId = workflowInstance.findActivityInstanceByActivityId("t").id;
+    workflowEngine.setVariableValues(workflowInstance.getId(), new VariableValues()
+      .value("d", "dynamic"));
+    workflowEngine.setVariableValues(workflowInstance.getId(), activityInstanceId, new VariableValues()
+      .value("c", "y"));
+
+    workflowInstance = configuration.get(WorkflowInstanceStore.class)
+      .getWorkflowInstanceImplById(workflowInstance.getId());
+    assertEquals("x", workflowInstance.variableSlots[0].getValue());
+    assertSame(workflowInstance.workflow.variables.get("a"), workflowInstance.variableSlots[0].variable);
+    assertEquals("dynamic", workflowInstance.undeclaredVariableInstances.get("d").getValue());
+
+    ActivityInstanceImpl activityInstance = workflowInstance.findActivityInstanceByActivityId("t");
+    assertEquals(1, activityInstance.variableSlots.length);
+    assertSame(activityInstance.activity.variables.get("c"), activityInstance.variableSlots[0].variable);
+    assertEquals("y", activityInstance.getValue("c"));
+    assertNull(activityInstance.undeclaredVariableInstances);
+  }
+
+  @Test
+  public void testExpressionsResolveSlots() {
+    WorkflowInstanceImpl workflowInstance = startWorkflowInstance();
+    ActivityInstanceImpl activityInstance = workflowInstance.findActivityInstanceByActivityId("t");
+    ExpressionImpl expression = parseExpression(activityInstance.activity, "a");
+    assertSame(workflowInstance.workflow.variables.get("a"), expression.variable);
+    assertEquals("x", activityInstance.getValue(expression));
+
+    // a dynamic variable shadows the declared one, like in lookups by id
+    activityInstance.createVariableInstanceLocal("a", new TextTypeImpl()).setValue("shadow");
+    assertEquals("shadow", activityInstance.getValue(expression));
+    assertEquals("shadow", activityInstance.getValue("a"));
+    assertEquals("x", workflowInstance.getValue(expression));
+
+    workflowInstance.updateVariableInstancesMap();
+    activityInstance.updateVariableInstancesMap();
+    assertEquals("x", workflowInstance.variableSlots[0].getValue());
+    assertEquals("shadow", activityInstance.getValue(expression));
+  }
+
+  WorkflowInstanceImpl startWorkflowInstance() {
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("a", TextType.INSTANCE)
+      .variable("b", NumberType.INSTANCE)
+      .activity("t", new ReceiveTask()
+        .variable(new Variable().id("c").type(TextType.INSTANCE)));
+    deploy(workflow);
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("a", "x"));
+    return configuration.get(WorkflowInstanceStore.class)
+      .getWorkflowInstanceImplById(workflowInstance.getId());
+  }
+
+  ExpressionImpl parseExpression(ActivityImpl activity, String expressionText) {
+    WorkflowParser parser = new WorkflowParser(configuration);
+    parser.pushContext("activity", null, activity, null);
+    ExpressionImpl expression = new ExpressionImpl();
+    expression.parse(expressionText, parser);
+    return expression;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Effektif GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.effektif.workflow.test.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.effektif.workflow.api.model.WorkflowInstanceId;
+import com.effektif.workflow.impl.AsyncWorkflowExecutionListener;
+import com.effektif.workflow.impl.WorkflowExecutionEvent;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
+import com.effektif.workflow.impl.WorkflowExecutionEventBuffer;
+import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
+import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
+
+
+/**
+ * @author Tom Baeyens
+ */
+public class WorkflowExecutionEventBufferTest {
+
+  static final int PRODUCERS = 3;
+  static final int EVENTS_PER_PRODUCER = 2000;
+
+  @Test
+  public void testWrapAroundWithConcurrentPublishers() throws Exception {
+    final int[] maxBatchSize = new int[1];
+    final List<List<Integer>> sequencesPerProducer = new ArrayList<>();
+    for (int i=0; i<PRODUCERS; i++) {
+      sequencesPerProducer.add(new ArrayList<Integer>());
+    }
+    // a tiny buffer so that publishers have to wait for the dispatcher
+    final WorkflowExecutionEventBuffer eventBuffer = new WorkflowExecutionEventBuffer(4, 3);
+    eventBuffer.addListener(new AsyncWorkflowExecutionListener() {
+      @Override
+      public void events(List<WorkflowExecutionEvent> events) {
+        maxBatchSize[0] = Math.max(maxBatchSize[0], events.size());
+        for (WorkflowExecutionEvent event: events) {
+          int producer = Integer.parseInt(event.getWorkflowInstanceId().getInternal());
+          sequencesPerProducer.get(producer).add(Integer.parseInt(event.getActivityInstanceId()));
+        }
+      }
+    });
+    eventBuffer.start();
+
+    List<Thread> producers = new ArrayList<>();
+    for (int i=0; i<PRODUCERS; i++) {
+      final WorkflowInstanceImpl workflowInstance = new WorkflowInstanceImpl();
+      workflowInstance.id = new WorkflowInstanceId(Integer.toString(i));
+      Thread producer = new Thread() {
+        @Override
+        public void run() {
+          ActivityInstanceImpl activityInstance = new ActivityInstanceImpl();
+          for (int j=0; j<EVENTS_PER_PRODUCER; j++) {
+            activityInstance.id = Integer.toString(j);
+            eventBuffer.publish(Type.ACTIVITY_INSTANCE_STARTING, workflowInstance, activityInstance);
+          }
+        }
+      };
+      producers.add(producer);
+      producer.start();
+    }
+    for (Thread producer: producers) {
+      producer.join();
+    }
+    eventBuffer.stop();
+
+    assertEquals(0, eventBuffer.getBacklog());
+    assertTrue(maxBatchSize[0]<=3);
+    for (List<Integer> sequences: sequencesPerProducer) {
+      assertEquals(EVENTS_PER_PRODUCER, sequences.size());
+      for (int j=0; j<EVENTS_PER_PRODUCER; j++) {
+        assertEquals(j, (int) sequences.get(j));
+      }
+    }
+  }
+}
@@ -18,8 +18,10 @@ package com.effektif.workflow.test.impl;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
@@ -28,11 +30,20 @@ import org.junit.Test;
 import com.effektif.workflow.api.activities.EndEvent;
 import com.effektif.workflow.api.activities.NoneTask;
 import com.effektif.workflow.api.activities.ParallelGateway;
+import com.effektif.workflow.api.activities.ReceiveTask;
 import com.effektif.workflow.api.activities.StartEvent;
+import com.effektif.workflow.api.model.TriggerInstance;
+import com.effektif.workflow.api.types.ListType;
+import com.effektif.workflow.api.types.TextType;
 import com.effektif.workflow.api.workflow.ExecutableWorkflow;
 import com.effektif.workflow.api.workflowinstance.WorkflowInstance;
+import com.effektif.workflow.impl.AsyncWorkflowExecutionListener;
 import com.effektif.workflow.impl.WorkflowEngineImpl;
+import com.effektif.workflow.impl.WorkflowExecutionEvent;
+import com.effektif.workflow.impl.WorkflowExecutionEvent.Type;
 import com.effektif.workflow.impl.WorkflowExecutionListener;
+import com.effektif.workflow.impl.WorkflowInstanceStore;
+import com.effektif.workflow.impl.util.Lists;
 import com.effektif.workflow.impl.workflow.TransitionImpl;
 import com.effektif.workflow.impl.workflowinstance.ActivityInstanceImpl;
 import com.effektif.workflow.impl.workflowinstance.WorkflowInstanceImpl;
@@ -137,6 +148,117 @@ public class WorkflowExecutionListenerTest extends WorkflowTest {
     assertEquals("end workflow instance", listener.getEvents().get(i++));
   }
 
+  @Test
+  public void testAsyncEvents() {
+    final List<String> asyncEvents = Collections.synchronizedList(new ArrayList<String>());
+    AsyncWorkflowExecutionListener asyncListener = new AsyncWorkflowExecutionListener() {
+      @Override
+      public void events(List<WorkflowExecutionEvent> events) {
+        for (WorkflowExecutionEvent event: events) {
+          asyncEvents.add(event.getType()+(event.getActivityId()!=null ? " "+event.getActivityId() : ""));
+        }
+      }
+    };
+    WorkflowEngineImpl workflowEngineImpl = (WorkflowEngineImpl) workflowEngine;
+    workflowEngineImpl.addAsyncWorkflowExecutionListener(asyncListener);
+
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .activity("s", new StartEvent()
+        .transitionTo("e"))
+      .activity("e", new EndEvent());
+
+    deploy(workflow);
+
+    start(workflow);
+
+    // removing the last async listener dispatches the remaining events
+    workflowEngineImpl.removeAsyncWorkflowExecutionListener(asyncListener);
+
+    int i = 0;
+    assertEquals("WORKFLOW_INSTANCE_STARTING", asyncEvents.get(i++));
+    assertEquals("INSERT", asyncEvents.get(i++));
+    assertEquals("ACTIVITY_INSTANCE_STARTING s", asyncEvents.get(i++));
+    assertEquals("ACTIVITY_INSTANCE_ENDED s", asyncEvents.get(i++));
+    assertEquals("TRANSITIONING s", asyncEvents.get(i++));
+    assertEquals("ACTIVITY_INSTANCE_STARTING e", asyncEvents.get(i++));
+    assertEquals("ACTIVITY_INSTANCE_ENDED e", asyncEvents.get(i++));
+    assertEquals("WORKFLOW_INSTANCE_ENDED", asyncEvents.get(i++));
+    assertEquals("UNLOCKED", asyncEvents.get(i++));
+    assertEquals(i, asyncEvents.size());
+    // the synchronous listener is notified as well
+    assertEquals("start workflow instance", listener.getEvents().get(0));
+  }
+
+  @Test
+  public void testUnlockedIsNotifiedBeforeTheNextLock() {
+    final WorkflowInstanceStore workflowInstanceStore = configuration.get(WorkflowInstanceStore.class);
+    final List<Boolean> lockedByOthers = new ArrayList<>();
+    LoggingListener unlockListener = new LoggingListener() {
+      @Override
+      public void unlocked(WorkflowInstanceImpl workflowInstance) {
+        // the listener still has the workflow instance to itself
+        List<WorkflowInstanceImpl> locked = workflowInstanceStore.lockWorkflowInstances(Lists.of(workflowInstance.id));
+        lockedByOthers.add(!locked.isEmpty());
+      }
+    };
+    WorkflowEngineImpl workflowEngineImpl = (WorkflowEngineImpl) workflowEngine;
+    workflowEngineImpl.addWorkflowExecutionListener(unlockListener);
+    try {
+      ExecutableWorkflow workflow = new ExecutableWorkflow()
+        .activity("r", new ReceiveTask());
+      deploy(workflow);
+      WorkflowInstance workflowInstance = start(workflow);
+      endTask(workflowInstance, "r");
+    } finally {
+      workflowEngineImpl.removeWorkflowExecutionListener(unlockListener);
+    }
+
+    // once after the start and once after the message
+    assertEquals(Lists.of(false, false), lockedByOthers);
+  }
+
+  @Test
+  public void testAsyncVariableValueIsCopied() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Object> values = Collections.synchronizedList(new ArrayList<Object>());
+    AsyncWorkflowExecutionListener asyncListener = new AsyncWorkflowExecutionListener() {
+      @Override
+      public void events(List<WorkflowExecutionEvent> events) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        for (WorkflowExecutionEvent event: events) {
+          if (event.getType()==Type.VARIABLE_UPDATED) {
+            values.add(event.getValue());
+          }
+        }
+      }
+    };
+    WorkflowEngineImpl workflowEngineImpl = (WorkflowEngineImpl) workflowEngine;
+    workflowEngineImpl.addAsyncWorkflowExecutionListener(asyncListener);
+
+    ExecutableWorkflow workflow = new ExecutableWorkflow()
+      .variable("v", new ListType(TextType.INSTANCE))
+      .activity("r", new ReceiveTask());
+    deploy(workflow);
+
+    WorkflowInstance workflowInstance = workflowEngine.start(new TriggerInstance()
+      .workflowId(workflow.getId())
+      .data("v", new ArrayList<>(Arrays.asList("a"))));
+
+    // the value changes before the listener gets the event
+    WorkflowInstanceImpl workflowInstanceImpl = workflowEngineImpl.workflowInstanceStore
+      .getWorkflowInstanceImplById(workflowInstance.getId());
+    ((List<Object>) workflowInstanceImpl.findVariableInstance("v").getValue()).add("b");
+    release.countDown();
+    workflowEngineImpl.removeAsyncWorkflowExecutionListener(asyncListener);
+
+    assertEquals(1, values.size());
+    assertEquals(Arrays.asList("a"), values.get(0));
+  }
+
   @Test
   public void testParallelGatewayFullEvents() {
     //           /- a -\
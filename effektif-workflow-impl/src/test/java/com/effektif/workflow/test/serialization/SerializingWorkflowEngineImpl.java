@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.effektif.workflow.api.WorkflowEngine;
+import com.effektif.workflow.api.model.BatchItemResult;
 import com.effektif.workflow.api.model.Deployment;
 import com.effektif.workflow.api.model.Message;
 import com.effektif.workflow.api.model.TriggerInstance;
@@ -97,6 +98,21 @@ public class SerializingWorkflowEngineImpl implements WorkflowEngine {
     return workflowInstance;
   }
 
+  @Override
+  public List<BatchItemResult> startBatch(List<TriggerInstance> triggerInstances) {
+    log.debug("startBatch");
+    List<TriggerInstance> wirizedTriggerInstances = new ArrayList<>(triggerInstances.size());
+    for (TriggerInstance triggerInstance: triggerInstances) {
+      wirizedTriggerInstances.add(wireize(" >>start>> ", triggerInstance));
+    }
+    List<BatchItemResult> results = workflowEngine.startBatch(wirizedTriggerInstances);
+    List<BatchItemResult> wirizedResults = new ArrayList<>(results.size());
+    for (BatchItemResult result: results) {
+      wirizedResults.add(wireize("  <<result<< ", result));
+    }
+    return wirizedResults;
+  }
+
   @Override
   public WorkflowInstance send(Message message) {
     log.debug("sendMessage");
@@ -106,6 +122,21 @@ public class SerializingWorkflowEngineImpl implements WorkflowEngine {
     return workflowInstance;
   }
 
+  @Override
+  public List<BatchItemResult> sendBatch(List<Message> messages) {
+    log.debug("sendBatch");
+    List<Message> wirizedMessages = new ArrayList<>(messages.size());
+    for (Message message: messages) {
+      wirizedMessages.add(wireize(" >>message>> ", message));
+    }
+    List<BatchItemResult> results = workflowEngine.sendBatch(wirizedMessages);
+    List<BatchItemResult> wirizedResults = new ArrayList<>(results.size());
+    for (BatchItemResult result: results) {
+      wirizedResults.add(wireize("  <<result<< ", result));
+    }
+    return wirizedResults;
+  }
+
   @Override
   public WorkflowInstance move(WorkflowInstanceId workflowInstanceId, String activityInstanceId, String newActivityId) {
     log.debug("moveWorkflowInstance");